@@ -0,0 +1,65 @@
+package com.google.testing.pogen;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.firefox.FirefoxDriver;
+
+/**
+ * Compares the lookup time of the XPath attribute scans which older generators emitted with the
+ * id, name and CSS locators which the generator emits now.
+ */
+public class LocatorBenchmark {
+  private static final int ELEMENT_COUNT = 5000;
+  private static final int LOOKUP_COUNT = 200;
+
+  private FirefoxDriver driver;
+
+  @Before
+  public void before() {
+    driver = new FirefoxDriver();
+    File file = new File("src/main/resources/locator-benchmark.html");
+    driver.get("file:///" + file.getAbsolutePath().replace('\\', '/'));
+  }
+
+  @After
+  public void after() {
+    driver.close();
+  }
+
+  @Test
+  public void compareLocators() {
+    long xpath = measure("xpath");
+    long id = measure("id");
+    long name = measure("name");
+    long css = measure("css");
+    System.out.println(String.format("By.xpath: %d ms, By.id: %d ms, By.name: %d ms, "
+        + "By.cssSelector: %d ms (%d lookups in %d elements)", xpath, id, name, css,
+        LOOKUP_COUNT, ELEMENT_COUNT));
+  }
+
+  private long measure(String strategy) {
+    long start = System.nanoTime();
+    for (int i = 0; i < LOOKUP_COUNT; i++) {
+      String value = "__pogen_" + (ELEMENT_COUNT - 1 - i);
+      assertEquals(value, driver.findElement(locate(strategy, value)).getAttribute("id"));
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  private static By locate(String strategy, String value) {
+    if (strategy.equals("id")) {
+      return By.id(value);
+    } else if (strategy.equals("name")) {
+      return By.name(value);
+    } else if (strategy.equals("css")) {
+      return By.cssSelector("[lang='" + value + "']");
+    }
+    return By.xpath("//*[@lang='" + value + "']");
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * A class to run the benchmarks reporting both the throughput and the allocation per operation
+ * ("gc.alloc.rate.norm") into "benchmarks.json", so that releases can be gated on the results. The
+ * arguments are interpreted as the command-line options of JMH, e.g. "ParserBenchmark -p
+ * engine=SOY".
+ *
+ * @author Kazunori Sakamoto
+ */
+public class BenchmarkRunner {
+  /**
+   * A file name of the benchmark results.
+   */
+  private static final String RESULT_FILE_NAME = "benchmarks.json";
+
+  private BenchmarkRunner() {}
+
+  /**
+   * Runs the benchmarks with the specified command-line options of JMH.
+   *
+   * @param args the command-line options of JMH
+   * @throws CommandLineOptionException if the options are invalid
+   * @throws RunnerException if errors occur in running the benchmarks
+   */
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    ChainedOptionsBuilder builder =
+        new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON).result(RESULT_FILE_NAME);
+    new Runner(builder.build()).run();
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.testing.pogen.generator.test.PageObjectUpdateException;
+import com.google.testing.pogen.generator.test.java.TestCodeGenerators;
+
+/**
+ * Benchmarks of {@link com.google.testing.pogen.generator.test.java.TestCodeGenerator}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGeneratorBenchmark {
+  /**
+   * Generates new test code from the parsed template.
+   *
+   * @param state the state which holds the parsed template
+   * @return the generated test code
+   */
+  @Benchmark
+  public String generate(TemplateState state) {
+    return TestCodeGenerators.getPreferredGenerator(TemplateState.ATTRIBUTE_NAME).generate(
+        state.templateInfo, TemplateState.PACKAGE_NAME, TemplateState.CLASS_NAME);
+  }
+
+  /**
+   * Updates the existing test code generated from the same template.
+   *
+   * @param state the state which holds the parsed template and the generated test code
+   * @return the updated test code
+   * @throws PageObjectUpdateException if the existing test code doesn't have generated code
+   */
+  @Benchmark
+  public String update(TemplateState state) throws PageObjectUpdateException {
+    return TestCodeGenerators.getPreferredGenerator(TemplateState.ATTRIBUTE_NAME).update(
+        state.templateInfo, state.code);
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.testing.pogen.benchmark.TemplateSynthesizer.Engine;
+import com.google.testing.pogen.benchmark.TemplateSynthesizer.Shape;
+import com.google.testing.pogen.benchmark.TemplateSynthesizer.Size;
+import com.google.testing.pogen.generator.test.java.TestCodeGenerators;
+import com.google.testing.pogen.parser.template.TemplateInfo;
+import com.google.testing.pogen.parser.template.TemplateParser;
+import com.google.testing.pogen.parser.template.TemplateParsers;
+
+/**
+ * A state which holds a synthesized template and the results of the preceding stages for each
+ * combination of the engine, the shape and the size, so that each benchmark measures only its own
+ * stage.
+ *
+ * @author Kazunori Sakamoto
+ */
+@State(Scope.Benchmark)
+public class TemplateState {
+  /**
+   * A name of the attribute to be assigned for tags containing template variables.
+   */
+  public static final String ATTRIBUTE_NAME = "id";
+  /**
+   * A package name of the generated test code.
+   */
+  public static final String PACKAGE_NAME = "com.google.testing.pogen.benchmark.pages";
+  /**
+   * A class name of the generated test code.
+   */
+  public static final String CLASS_NAME = "Index";
+
+  /**
+   * A template engine of the synthesized template, which are all the engines by default.
+   */
+  @Param
+  public Engine engine;
+  /**
+   * A shape of the synthesized template, which are all the shapes by default.
+   */
+  @Param
+  public Shape shape;
+  /**
+   * A size of the synthesized template, which are all the sizes by default.
+   */
+  @Param
+  public Size size;
+
+  /**
+   * A synthesized template.
+   */
+  public String template;
+  /**
+   * An information of the parsed template.
+   */
+  public TemplateInfo templateInfo;
+  /**
+   * Test code generated from the parsed template.
+   */
+  public String code;
+
+  /**
+   * Synthesizes the template and runs the preceding stages once.
+   *
+   * @throws Exception if errors occur in parsing the template
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    template = TemplateSynthesizer.synthesize(engine, shape, size);
+    templateInfo = createParser().parse(template);
+    code =
+        TestCodeGenerators.getPreferredGenerator(ATTRIBUTE_NAME).generate(templateInfo,
+            PACKAGE_NAME, CLASS_NAME);
+  }
+
+  /**
+   * Creates the parser of the engine.
+   *
+   * @return the parser of the engine
+   */
+  public TemplateParser createParser() {
+    return TemplateParsers.getPreferredParser(engine.getFileName(), ATTRIBUTE_NAME);
+  }
+}
@@ -0,0 +1,189 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.benchmark;
+
+/**
+ * A class to synthesize templates of each template engine with the specified shape and size for
+ * the benchmarks. The synthesized templates use only the syntax which the parsers recognize, so
+ * they are not necessarily executable by the template engines.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class TemplateSynthesizer {
+  /**
+   * Template engines which are supported by PageObjectGenerator.
+   */
+  public enum Engine {
+    SOY("index.soy", "{$v%d}", "{foreach $i%d in $items}", "{/foreach}"),
+    EJS("index.ejs", "<%%= v%d %%>", "<%% for (var i%d = 0; i < n; i++) { %%>", "<% } %>"),
+    ERB("index.erb", "<%%= v%d %%>", "<%% for i%d in items { %%>", "<% } %>"),
+    JSP("index.jsp", "${v%d}", "<%% for (int i%d = 0; i < n; i++) { %%>", "<% } %>"),
+    JSF("index.xhtml", "#{v%d}", "<ui:repeat value=\"#{items}\" var=\"i%d\">", "</ui:repeat>"),
+    GTMPL("index.gtmpl", "${v%d}", "<%% for (i%d in items) { %%>", "<% } %>");
+
+    /**
+     * A file name to choose the parser of the engine.
+     */
+    private final String fileName;
+    /**
+     * A format of a template variable with its number.
+     */
+    private final String variableFormat;
+    /**
+     * A format of the start tag of a loop with its number.
+     */
+    private final String loopStartFormat;
+    /**
+     * An end tag of a loop.
+     */
+    private final String loopEnd;
+
+    private Engine(String fileName, String variableFormat, String loopStartFormat, String loopEnd) {
+      this.fileName = fileName;
+      this.variableFormat = variableFormat;
+      this.loopStartFormat = loopStartFormat;
+      this.loopEnd = loopEnd;
+    }
+
+    /**
+     * Returns the file name to choose the parser of the engine.
+     *
+     * @return the file name of the template
+     */
+    public String getFileName() {
+      return fileName;
+    }
+  }
+
+  /**
+   * Shapes of synthesized templates which stress different parts of the parsers.
+   */
+  public enum Shape {
+    /**
+     * Html tags and loops nested as deep as the size.
+     */
+    DEEP_NESTING,
+    /**
+     * Flat html tags containing as many variables as the size.
+     */
+    MANY_VARIABLES,
+    /**
+     * A loop calling as many soy templates as the size. Other engines have no calls, so they have
+     * as many sibling loops as the size instead.
+     */
+    MANY_CALLS
+  }
+
+  /**
+   * Sizes of synthesized templates, i.e. the number of the repeated units of the shape.
+   */
+  public enum Size {
+    SMALL(10), MEDIUM(200), PATHOLOGICAL(5000);
+
+    /**
+     * A number of the repeated units of the shape.
+     */
+    private final int count;
+
+    private Size(int count) {
+      this.count = count;
+    }
+
+    /**
+     * Returns the number of the repeated units of the shape.
+     *
+     * @return the number of the repeated units
+     */
+    public int getCount() {
+      return count;
+    }
+  }
+
+  private TemplateSynthesizer() {}
+
+  /**
+   * Synthesizes a template of the specified engine with the specified shape and size.
+   *
+   * @param engine the template engine of the template
+   * @param shape the shape of the template
+   * @param size the size of the template
+   * @return the synthesized template
+   */
+  public static String synthesize(Engine engine, Shape shape, Size size) {
+    StringBuilder body = new StringBuilder();
+    StringBuilder definitions = new StringBuilder();
+    int count = size.getCount();
+    switch (shape) {
+    case DEEP_NESTING:
+      for (int i = 0; i < count; i++) {
+        body.append("<div>").append(String.format(engine.loopStartFormat, i)).append("<p>")
+            .append(String.format(engine.variableFormat, i)).append("</p>\n");
+      }
+      for (int i = 0; i < count; i++) {
+        body.append(engine.loopEnd).append("</div>\n");
+      }
+      break;
+    case MANY_VARIABLES:
+      for (int i = 0; i < count; i++) {
+        String variable = String.format(engine.variableFormat, i);
+        body.append("<div><span>").append(variable).append("</span><a href=\"").append(variable)
+            .append("\">link</a><input type=\"text\" name=\"n").append(i).append("\"></div>\n");
+      }
+      break;
+    case MANY_CALLS:
+      if (engine == Engine.SOY) {
+        body.append(String.format(engine.loopStartFormat, 0)).append('\n');
+        for (int i = 0; i < count; i++) {
+          body.append("{call .t").append(i).append("/}\n");
+          definitions.append("{template .t").append(i).append("}\n<p>")
+              .append(String.format(engine.variableFormat, i)).append("</p>\n{/template}\n");
+        }
+        body.append(engine.loopEnd).append('\n');
+      } else {
+        for (int i = 0; i < count; i++) {
+          body.append(String.format(engine.loopStartFormat, i)).append("<p>")
+              .append(String.format(engine.variableFormat, i)).append("</p>")
+              .append(engine.loopEnd).append('\n');
+        }
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown shape: " + shape);
+    }
+    return wrap(engine, body, definitions);
+  }
+
+  /**
+   * Wraps the specified body with the html document and the soy template definitions.
+   *
+   * @param engine the template engine of the template
+   * @param body the body of the html document
+   * @param definitions the soy template definitions except the main template
+   * @return the wrapped template
+   */
+  private static String wrap(Engine engine, CharSequence body, CharSequence definitions) {
+    StringBuilder template = new StringBuilder();
+    if (engine == Engine.SOY) {
+      template.append("{namespace bench}\n{template .main}\n");
+    }
+    template.append("<html><head><title>bench</title></head><body>\n").append(body)
+        .append("</body></html>\n");
+    if (engine == Engine.SOY) {
+      template.append("{/template}\n").append(definitions);
+    }
+    return template.toString();
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.testing.pogen.generator.template.TemplateUpdaters;
+
+/**
+ * Benchmarks of {@link com.google.testing.pogen.generator.template.TemplateUpdater}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdaterBenchmark {
+  /**
+   * Generates the modified template with a new updater so that the attribute values start at 0.
+   *
+   * @param state the state which holds the parsed template
+   * @return the modified template
+   */
+  @Benchmark
+  public String generate(TemplateState state) {
+    return TemplateUpdaters.getPreferredUpdater(TemplateState.ATTRIBUTE_NAME).generate(
+        state.templateInfo);
+  }
+}
@@ -0,0 +1,350 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A {@link Writer} which encodes characters into a temporary file next to the target file through a
+ * buffered {@link FileChannel} and replaces the target file with it only when {@link #commit()} is
+ * called, so the target file is never left half-written. The written bytes are hashed on the fly
+ * and the target file is left untouched if it already has the same content, so its modification
+ * time doesn't trigger rebuilds. The temporary file is removed if the writer is closed without
+ * committing. The target file is replaced by an atomic move where the file system supports it, and
+ * keeps its permissions because they are copied to the temporary file beforehand.
+ * 
+ * @author Kazunori Sakamoto
+ */
+final class AtomicFileWriter extends Writer {
+  /**
+   * A number of the characters buffered before encoding them.
+   */
+  private static final int BUFFER_SIZE = 8192;
+  /**
+   * A hash function to compare the written bytes with the target file.
+   */
+  private static final HashFunction HASH_FUNCTION = Hashing.sha1();
+
+  /**
+   * A target file to be replaced.
+   */
+  private final File file;
+  /**
+   * A temporary file to be written.
+   */
+  private File tempFile;
+  /**
+   * A stream of the temporary file.
+   */
+  private final FileOutputStream stream;
+  /**
+   * A channel of the temporary file.
+   */
+  private final FileChannel channel;
+  /**
+   * An encoder which replaces malformed and unmappable characters like {@link String#getBytes}.
+   */
+  private final CharsetEncoder encoder;
+  /**
+   * A buffer of the characters to be encoded.
+   */
+  private final CharBuffer chars;
+  /**
+   * A buffer of the encoded bytes to be written into the channel.
+   */
+  private final ByteBuffer bytes;
+  /**
+   * A hasher of the written bytes to compare them with the target file.
+   */
+  private final Hasher hasher;
+  /**
+   * A number of the written bytes.
+   */
+  private long writtenSize;
+  /**
+   * A boolean whether the channel has been closed.
+   */
+  private boolean isChannelClosed;
+
+  /**
+   * Constructs an instance to replace the specified file with the characters encoded in the
+   * specified charset.
+   * 
+   * @param file the target file to be replaced
+   * @param charset the charset to encode characters
+   * @throws IOException if errors occur in creating the temporary file
+   */
+  AtomicFileWriter(File file, Charset charset) throws IOException {
+    Preconditions.checkNotNull(file);
+    Preconditions.checkNotNull(charset);
+
+    this.file = file;
+    this.tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile()
+        .getParentFile());
+    this.stream = new FileOutputStream(tempFile);
+    this.channel = stream.getChannel();
+    this.encoder =
+        charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.chars = CharBuffer.allocate(BUFFER_SIZE);
+    this.bytes = ByteBuffer.allocate((int) Math.ceil(BUFFER_SIZE * encoder.maxBytesPerChar()));
+    this.hasher = HASH_FUNCTION.newHasher();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    ensureOpen();
+    if (!chars.hasRemaining()) {
+      encode(false);
+    }
+    chars.put((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    ensureOpen();
+    int end = off + len;
+    while (off < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int length = Math.min(chars.remaining(), end - off);
+      chars.put(cbuf, off, length);
+      off += length;
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    append(str, off, off + len);
+  }
+
+  @Override
+  public Writer append(CharSequence csq) throws IOException {
+    return csq != null ? append(csq, 0, csq.length()) : append("null");
+  }
+
+  @Override
+  public Writer append(CharSequence csq, int start, int end) throws IOException {
+    if (csq == null) {
+      return append("null", start, end);
+    }
+    Preconditions.checkPositionIndexes(start, end, csq.length());
+    ensureOpen();
+    // Copy the characters into the buffer directly without creating a sub sequence
+    while (start < end) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int length = Math.min(chars.remaining(), end - start);
+      if (csq instanceof String) {
+        chars.put((String) csq, start, start + length);
+      } else {
+        for (int i = start; i < start + length; i++) {
+          chars.put(csq.charAt(i));
+        }
+      }
+      start += length;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the target file which is replaced when this writer is committed.
+   * 
+   * @return the target file
+   */
+  File getFile() {
+    return file;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    encode(false);
+    drain();
+  }
+
+  /**
+   * Writes all the buffered characters into the temporary file and replaces the target file with
+   * it unless the target file has the same content, comparing the sizes before the hashes.
+   * 
+   * @return {@code true} if the target file is replaced, {@code false} if it is unchanged
+   * @throws IOException if errors occur in writing the temporary file or replacing the target file
+   */
+  boolean commit() throws IOException {
+    ensureOpen();
+    encode(true);
+    while (encoder.flush(bytes).isOverflow()) {
+      drain();
+    }
+    drain();
+    closeChannel();
+    if (file.isFile() && file.length() == writtenSize
+        && Files.hash(file, HASH_FUNCTION).equals(hasher.hash())) {
+      close();
+      return false;
+    }
+    copyPermissions(file, tempFile);
+    replace(tempFile, file);
+    tempFile = null;
+    return true;
+  }
+
+  /**
+   * Replaces the specified target file with the specified source file, atomically if the file
+   * system supports it. Otherwise the target file is overwritten by a non-atomic move, which still
+   * never leaves the target file missing. The target file gets the permissions of the source file.
+   * 
+   * @param source the source file to be moved
+   * @param target the target file to be replaced
+   * @throws IOException if errors occur in moving the source file
+   */
+  static void replace(File source, File target) throws IOException {
+    Path sourcePath = source.toPath();
+    Path targetPath = target.toPath();
+    try {
+      try {
+        java.nio.file.Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        java.nio.file.Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      throw new FileProcessException("Failed to replace the specified file", target, e);
+    }
+  }
+
+  /**
+   * Copies the permissions of the specified target file to the specified temporary file, which is
+   * created readable only by the owner. A temporary file for a new target file is made readable by
+   * everyone like files created by other tools.
+   * 
+   * @param target the target file to be replaced
+   * @param temp the temporary file to replace the target file
+   * @throws IOException if errors occur in reading or changing the permissions
+   */
+  private static void copyPermissions(File target, File temp) throws IOException {
+    if (!target.exists()) {
+      temp.setReadable(true, false);
+      return;
+    }
+    // Other file systems have no permissions which differ between the files of the same owner
+    PosixFileAttributeView targetView =
+        java.nio.file.Files.getFileAttributeView(target.toPath(), PosixFileAttributeView.class);
+    if (targetView != null) {
+      java.nio.file.Files.setPosixFilePermissions(temp.toPath(),
+          targetView.readAttributes().permissions());
+    }
+  }
+
+  /**
+   * Closes this writer removing the temporary file if it has not been committed.
+   * 
+   * @throws IOException if errors occur in closing the temporary file
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      closeChannel();
+    } finally {
+      if (tempFile != null) {
+        tempFile.delete();
+        tempFile = null;
+      }
+    }
+  }
+
+  /**
+   * Throws an exception if this writer has been committed or closed.
+   * 
+   * @throws IOException if this writer has been committed or closed
+   */
+  private void ensureOpen() throws IOException {
+    if (tempFile == null) {
+      throw new IOException("The writer has been closed");
+    }
+  }
+
+  /**
+   * Encodes the buffered characters writing the encoded bytes into the channel when the byte
+   * buffer is full. A trailing high surrogate is kept in the buffer unless the input ends.
+   * 
+   * @param endOfInput the boolean whether no more characters are written
+   * @throws IOException if errors occur in writing the temporary file
+   */
+  private void encode(boolean endOfInput) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, endOfInput);
+      if (result.isUnderflow()) {
+        break;
+      } else if (result.isOverflow()) {
+        drain();
+      } else {
+        result.throwException();
+      }
+    }
+    chars.compact();
+  }
+
+  /**
+   * Writes all the encoded bytes into the channel.
+   * 
+   * @throws IOException if errors occur in writing the temporary file
+   */
+  private void drain() throws IOException {
+    bytes.flip();
+    hasher.putBytes(bytes.array(), bytes.arrayOffset(), bytes.limit());
+    writtenSize += bytes.limit();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+
+  /**
+   * Closes the channel of the temporary file if it is open.
+   * 
+   * @throws IOException if errors occur in closing the temporary file
+   */
+  private void closeChannel() throws IOException {
+    if (!isChannelClosed) {
+      isChannelClosed = true;
+      stream.close();
+    }
+  }
+}
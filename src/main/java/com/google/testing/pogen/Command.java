@@ -18,6 +18,19 @@ package com.google.testing.pogen;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
+import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.TemplateParser;
 
 /**
  * A class which represents a command to be executed in the main class.
@@ -25,6 +38,26 @@ import java.io.IOException;
  * @author Kazunori Sakamoto
  */
 public abstract class Command {
+  /**
+   * A stream to print the results of this command.
+   */
+  protected PrintStream out = System.out;
+  /**
+   * A stream to print the errors and the warnings of this command.
+   */
+  protected PrintStream err = System.err;
+
+  /**
+   * Sets the streams to print the results and the errors of this command, which are the standard
+   * streams by default. The streams should be set before executing this command.
+   * 
+   * @param out the stream to print the results
+   * @param err the stream to print the errors and the warnings
+   */
+  public void setOutput(PrintStream out, PrintStream err) {
+    this.out = Preconditions.checkNotNull(out);
+    this.err = Preconditions.checkNotNull(err);
+  }
 
   /**
    * Executes this command.
@@ -33,6 +66,32 @@ public abstract class Command {
    */
   public abstract void execute() throws IOException;
 
+  /**
+   * Retrieves the information list of html tags which contain template variables in the specified
+   * template file, restoring it from the specified cache if possible. Without the cache, the
+   * template is read in a streaming manner to inspect large templates in bounded memory.
+   * 
+   * @param templateFile the template file to be parsed
+   * @param parser the parser to parse the template
+   * @param cache the cache of parse results, or {@code null} not to cache them
+   * @return the information list of html tags which contain template variables
+   * @throws IOException if errors occur in reading the template file
+   * @throws TemplateParseException if the template is in bad format
+   */
+  protected List<HtmlTagInfo> parseTags(File templateFile, TemplateParser parser,
+      @Nullable TemplateInfoCache cache) throws IOException, TemplateParseException {
+    if (cache != null) {
+      String template = Files.toString(templateFile, Charset.defaultCharset());
+      return cache.parse(template, parser, "").getHtmlTagInfos();
+    }
+    Reader reader = Files.newReader(templateFile, Charset.defaultCharset());
+    try {
+      return parser.parseTags(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
   /**
    * Creates a {@link File} instance for the file specified by the path.
    * 
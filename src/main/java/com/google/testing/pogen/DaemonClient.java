@@ -0,0 +1,295 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * A class which forwards command-line arguments to the daemon started by {@link DaemonCommand} and
+ * prints the output of the daemon. When the daemon is not running, the forwarding fails silently so
+ * that the caller can execute the command in its own process. When the daemon runs another version
+ * or an older build of the generator, the client stops it, starts a new daemon in the background
+ * and executes the command in its own process.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class DaemonClient {
+  /**
+   * A timeout in milliseconds to connect to the daemon.
+   */
+  private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+  /**
+   * A timeout in milliseconds to wait for the stopped daemon to delete the state file.
+   */
+  private static final int STOP_TIMEOUT_MILLIS = 10000;
+
+  /**
+   * A state file published by the daemon.
+   */
+  private final File stateFile;
+  /**
+   * A command line to start a new daemon which publishes the state file, or {@code null} not to
+   * start daemons.
+   */
+  @Nullable
+  private final List<String> daemonCommand;
+
+  /**
+   * Constructs an instance with the specified state file, which doesn't start new daemons.
+   *
+   * @param stateFile the state file published by the daemon
+   */
+  public DaemonClient(File stateFile) {
+    this(stateFile, null);
+  }
+
+  /**
+   * Constructs an instance with the specified state file and the specified command line to start a
+   * new daemon when the running daemon doesn't match this client.
+   *
+   * @param stateFile the state file published by the daemon
+   * @param daemonCommand the command line to start a new daemon which publishes the state file, or
+   *        {@code null} not to start daemons
+   */
+  public DaemonClient(File stateFile, @Nullable List<String> daemonCommand) {
+    this.stateFile = Preconditions.checkNotNull(stateFile);
+    this.daemonCommand = daemonCommand != null ? ImmutableList.copyOf(daemonCommand) : null;
+  }
+
+  /**
+   * Returns the command line to start a daemon with the Java runtime, the class path and the home
+   * directory of this process, which publishes the default state file.
+   *
+   * @return the command line to start a daemon
+   */
+  public static List<String> getDefaultDaemonCommand() {
+    File javaFile = new File(new File(System.getProperty("java.home"), "bin"), "java");
+    return ImmutableList.of(javaFile.getPath(), "-Duser.home=" + System.getProperty("user.home"),
+        "-cp", System.getProperty("java.class.path"), PageObjectGenerator.class.getName(),
+        "daemon");
+  }
+
+  /**
+   * Forwards the specified arguments to the daemon and prints the output of the daemon with the
+   * specified streams.
+   *
+   * @param args the command-line arguments to be forwarded
+   * @param workingDir the directory to resolve relative paths in the arguments
+   * @param stdout the stream to print the standard output of the command
+   * @param stderr the stream to print the standard error of the command
+   * @return the exit status of the command, or {@code null} if the daemon is not available and the
+   *         command should be executed by the caller
+   */
+  public Integer forward(String[] args, File workingDir, PrintStream stdout, PrintStream stderr) {
+    List<String> state = readState();
+    if (state == null) {
+      return null;
+    }
+    if (!isCurrent(state)) {
+      restart(state);
+      return null;
+    }
+    Socket socket = connect(state);
+    if (socket == null) {
+      return null;
+    }
+    boolean received = false;
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeUTF(state.get(1));
+      out.writeByte(DaemonCommand.EXECUTE_REQUEST);
+      out.writeUTF(workingDir.getAbsolutePath());
+      out.writeInt(args.length);
+      for (String arg : args) {
+        out.writeUTF(arg);
+      }
+      out.flush();
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (true) {
+        int type = in.readByte();
+        received = true;
+        switch (type) {
+        case DaemonCommand.STDOUT_FRAME:
+        case DaemonCommand.STDERR_FRAME:
+          byte[] bytes = new byte[in.readInt()];
+          in.readFully(bytes);
+          PrintStream printStream = type == DaemonCommand.STDOUT_FRAME ? stdout : stderr;
+          printStream.write(bytes);
+          printStream.flush();
+          break;
+        case DaemonCommand.EXIT_FRAME:
+          return in.readInt();
+        case DaemonCommand.REJECTED_FRAME:
+          return null;
+        default:
+          throw new IOException("Unknown frame type: " + type);
+        }
+      }
+    } catch (IOException e) {
+      if (!received) {
+        // The daemon closed the connection without executing the command
+        return null;
+      }
+      stderr.println("Errors occur in communicating with the daemon.");
+      stderr.println(e.getMessage());
+      return -1;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do because the response has been handled
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the daemon published in the specified state runs the same version and
+   * the same build of the generator as this client.
+   *
+   * @param state the state read from the state file
+   * @return {@code true} if the daemon matches this client
+   */
+  private static boolean isCurrent(List<String> state) {
+    return state.size() == 4 && state.get(2).equals(GenerationManifest.GENERATOR_VERSION)
+        && state.get(3).equals(String.valueOf(DaemonCommand.getCodeTimestamp()));
+  }
+
+  /**
+   * Stops the daemon published in the specified state and starts a new daemon if the command line
+   * is specified. Nothing is done if the daemon doesn't accept the stop request.
+   *
+   * @param state the state read from the state file
+   */
+  private void restart(List<String> state) {
+    Socket socket = connect(state);
+    if (socket == null) {
+      return;
+    }
+    try {
+      socket.setSoTimeout(STOP_TIMEOUT_MILLIS);
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      out.writeUTF(state.get(1));
+      out.writeByte(DaemonCommand.STOP_REQUEST);
+      out.flush();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      if (in.readByte() != DaemonCommand.EXIT_FRAME) {
+        return;
+      }
+      in.readInt();
+    } catch (IOException e) {
+      // The daemon doesn't understand the stop request
+      return;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing to do because the response has been handled
+      }
+    }
+    try {
+      // The new daemon can't start until the stopped one releases the state file
+      long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+      while (stateFile.exists()) {
+        if (System.currentTimeMillis() > deadline) {
+          return;
+        }
+        Thread.sleep(10);
+      }
+      if (daemonCommand != null) {
+        ProcessBuilder builder = new ProcessBuilder(daemonCommand);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(Redirect.appendTo(new File(stateFile.getPath() + ".log")));
+        builder.start();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      // The command is executed by the caller even if the daemon is not started
+    }
+  }
+
+  /**
+   * Connects to the daemon which is published in the specified state.
+   *
+   * @param state the state read from the state file
+   * @return the socket connected to the daemon, or {@code null} if the daemon is not available
+   */
+  private Socket connect(List<String> state) {
+    Socket socket = new Socket();
+    try {
+      int port = Integer.parseInt(state.get(0));
+      socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+          CONNECT_TIMEOUT_MILLIS);
+      return socket;
+    } catch (IOException e) {
+      // The daemon was terminated without deleting the state file
+    } catch (RuntimeException e) {
+      // The state file is broken
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing to do because the socket is not connected
+    }
+    return null;
+  }
+
+  /**
+   * Reads the port number, the token, the generator version and the last modified time of the code
+   * of the daemon from the state file. The last two are missing in the state of older daemons.
+   *
+   * @return the list of the values in the state file, or {@code null} if the state file doesn't
+   *         exist or is broken
+   */
+  @Nullable
+  private List<String> readState() {
+    if (!stateFile.isFile()) {
+      return null;
+    }
+    try {
+      List<String> state =
+          Lists.newArrayList(Splitter.on('\t').trimResults()
+              .split(Files.toString(stateFile, Charsets.UTF_8)));
+      return state.size() >= 2 ? state : null;
+    } catch (IOException e) {
+      // The daemon deleted the state file just now
+      return null;
+    }
+  }
+}
@@ -0,0 +1,430 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+
+/**
+ * A class which represents the daemon command to execute the generate, measure and list commands
+ * forwarded by {@link DaemonClient} in a long-lived JVM, which avoids starting up the JVM, loading
+ * classes of NekoHTML and Xerces and warming up the JIT compiler for every invocation. The daemon
+ * listens on a loopback port and writes the port and a secret token into the state file, which is
+ * readable only by the owner, so that only the owner's clients can connect to it. The state file
+ * also has the generator version and the last modified time of the jar file of the daemon, so that
+ * clients can restart the daemon which runs other code. The daemon locks the lock file next to the
+ * state file while running, and refuses to start if another daemon owns the state file.
+ *
+ * Connections are handled by a fixed number of threads, so requests of different clients are
+ * executed in parallel, each printing its output only to the connected client. Parallel requests
+ * which generate into the same directories are not coordinated, just like commands run in separate
+ * processes.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class DaemonCommand extends Command {
+  /**
+   * A name of the state file in the home directory.
+   */
+  private static final String STATE_FILE_NAME = ".pogen-daemon";
+  /**
+   * A timeout in milliseconds to read a request from a connected client.
+   */
+  private static final int READ_TIMEOUT_MILLIS = 10000;
+  /**
+   * A number of requests which are executed in parallel, which is the number of the available
+   * processors because each request may also process templates in parallel.
+   */
+  private static final int REQUEST_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * A request type to execute a command.
+   */
+  static final int EXECUTE_REQUEST = 1;
+  /**
+   * A request type to stop the daemon.
+   */
+  static final int STOP_REQUEST = 2;
+
+  /**
+   * A frame type of the standard output.
+   */
+  static final int STDOUT_FRAME = 1;
+  /**
+   * A frame type of the standard error.
+   */
+  static final int STDERR_FRAME = 2;
+  /**
+   * A frame type of the exit status, which is the last frame of a response.
+   */
+  static final int EXIT_FRAME = 3;
+  /**
+   * A frame type which indicates the request is rejected and should be executed by the client.
+   */
+  static final int REJECTED_FRAME = 4;
+
+  /**
+   * A port number to listen, or {@code 0} to listen an arbitrary free port.
+   */
+  private final int port;
+  /**
+   * A state file to publish the port number and the token.
+   */
+  private final File stateFile;
+  /**
+   * A boolean whether prints received requests verbosely.
+   */
+  private final boolean verbose;
+  /**
+   * A server socket which is listening, or {@code null} if the daemon is not started.
+   */
+  private volatile ServerSocket serverSocket;
+
+  /**
+   * Constructs an instance with the specified port number, the specified state file and the
+   * boolean of the verbose mode.
+   *
+   * @param port the port number to listen, or {@code 0} to listen an arbitrary free port
+   * @param stateFile the state file to publish the port number and the token
+   * @param verbose the boolean whether prints received requests verbosely
+   */
+  public DaemonCommand(int port, File stateFile, boolean verbose) {
+    Preconditions.checkArgument(port >= 0);
+    this.port = port;
+    this.stateFile = Preconditions.checkNotNull(stateFile);
+    this.verbose = verbose;
+  }
+
+  /**
+   * Returns the default state file, which is located in the home directory.
+   *
+   * @return the default state file
+   */
+  public static File getDefaultStateFile() {
+    return new File(System.getProperty("user.home"), STATE_FILE_NAME);
+  }
+
+  /**
+   * Returns the last modified time of the jar file or the class directory which contains the code
+   * of the daemon, which is changed when the generator is rebuilt.
+   *
+   * @return the last modified time of the code, or {@code 0} if it is unknown
+   */
+  static long getCodeTimestamp() {
+    CodeSource codeSource = DaemonCommand.class.getProtectionDomain().getCodeSource();
+    if (codeSource == null) {
+      return 0;
+    }
+    try {
+      return new File(codeSource.getLocation().toURI()).lastModified();
+    } catch (URISyntaxException e) {
+      return 0;
+    } catch (IllegalArgumentException e) {
+      // The code is not loaded from a file
+      return 0;
+    }
+  }
+
+  @Override
+  public void execute() throws IOException {
+    // Keep the lock while running so that the state file is owned by only one daemon
+    RandomAccessFile lockFile = new RandomAccessFile(stateFile.getPath() + ".lock", "rw");
+    try {
+      FileLock lock;
+      try {
+        lock = lockFile.getChannel().tryLock();
+      } catch (OverlappingFileLockException e) {
+        // The daemon in this JVM owns the state file
+        lock = null;
+      }
+      if (lock == null) {
+        throw new FileProcessException("Another daemon is running with the state file", stateFile);
+      }
+      serve();
+    } finally {
+      // The lock is released after the state file is deleted
+      lockFile.close();
+    }
+  }
+
+  /**
+   * Listens on the port and serves requests until the daemon is stopped. The running requests are
+   * finished before the state file is deleted.
+   *
+   * @throws IOException if errors occur in listening on the port and writing the state file
+   */
+  private void serve() throws IOException {
+    ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    serverSocket = server;
+    byte[] tokenBytes = new byte[16];
+    new SecureRandom().nextBytes(tokenBytes);
+    final String token = BaseEncoding.base16().encode(tokenBytes);
+    ExecutorService executor = Executors.newFixedThreadPool(REQUEST_THREAD_COUNT);
+    try {
+      writeStateFile(server.getLocalPort(), token);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          stateFile.delete();
+        }
+      });
+      out.println("Listening on port " + server.getLocalPort() + " ...");
+      while (!server.isClosed()) {
+        final Socket socket;
+        try {
+          socket = server.accept();
+        } catch (IOException e) {
+          if (server.isClosed()) {
+            break;
+          }
+          throw e;
+        }
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              handleRequest(socket, token);
+            } catch (IOException e) {
+              // The connection is lost, so keep serving other clients
+              err.println("Errors occur in communicating with a client.");
+              err.println(e.getMessage());
+            } finally {
+              closeQuietly(socket);
+            }
+          }
+        });
+      }
+    } finally {
+      server.close();
+      awaitRequests(executor);
+      stateFile.delete();
+    }
+  }
+
+  /**
+   * Waits for the running and the accepted requests to be finished.
+   *
+   * @param executor the executor which executes the requests
+   * @throws InterruptedIOException if interrupted in waiting for the requests
+   */
+  private static void awaitRequests(ExecutorService executor) throws InterruptedIOException {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        // Keep waiting because the requests may process many templates
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted in waiting for the running requests");
+    }
+  }
+
+  /**
+   * Closes the specified socket ignoring errors.
+   *
+   * @param socket the socket to be closed
+   */
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // The response has been sent or the connection is lost
+    }
+  }
+
+  /**
+   * Stops accepting requests, which stops the daemon after the running requests are finished.
+   *
+   * @throws IOException if errors occur in closing the server socket
+   */
+  public void stop() throws IOException {
+    ServerSocket server = serverSocket;
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  /**
+   * Writes the port number, the token, the generator version and the last modified time of the code
+   * into the state file, which is readable only by the owner.
+   *
+   * @param localPort the port number which is listened
+   * @param token the secret token to authenticate clients
+   * @throws IOException if errors occur in writing the state file
+   */
+  private void writeStateFile(int localPort, String token) throws IOException {
+    // Write the temporary file and rename it so that clients never read the incomplete state
+    File tempFile = new File(stateFile.getPath() + ".tmp");
+    tempFile.delete();
+    Files.touch(tempFile);
+    tempFile.setReadable(false, false);
+    tempFile.setReadable(true, true);
+    tempFile.setWritable(false, false);
+    tempFile.setWritable(true, true);
+    Files.write(Joiner.on('\t').join(localPort, token, GenerationManifest.GENERATOR_VERSION,
+        getCodeTimestamp()), tempFile, Charsets.UTF_8);
+    // The state file gets the permissions of the temporary file
+    AtomicFileWriter.replace(tempFile, stateFile);
+  }
+
+  /**
+   * Reads a request from the specified socket, executes it and sends the output and the exit status
+   * to the client. A stop request closes the server socket after the response is sent.
+   *
+   * @param socket the socket connected to a client
+   * @param token the secret token to authenticate the client
+   * @throws IOException if errors occur in communicating with the client
+   */
+  private void handleRequest(Socket socket, String token) throws IOException {
+    socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+    DataInputStream socketIn =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream socketOut =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    if (!token.equals(socketIn.readUTF())) {
+      err.println("Rejected a client with an invalid token.");
+      return;
+    }
+    int requestType = socketIn.readByte();
+    if (requestType == STOP_REQUEST) {
+      out.println("Stopping the daemon requested by a client ...");
+      socketOut.writeByte(EXIT_FRAME);
+      socketOut.writeInt(0);
+      socketOut.flush();
+      stop();
+      return;
+    }
+    if (requestType != EXECUTE_REQUEST) {
+      throw new IOException("Unknown request type: " + requestType);
+    }
+    File workingDir = new File(socketIn.readUTF());
+    String[] args = new String[socketIn.readInt()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = socketIn.readUTF();
+    }
+    socket.setSoTimeout(0);
+
+    if (!PageObjectGenerator.isForwardable(args)) {
+      socketOut.writeByte(REJECTED_FRAME);
+      socketOut.flush();
+      return;
+    }
+    if (verbose) {
+      out.println(workingDir.getPath() + ": " + args[0] + " ...");
+    }
+
+    // Client streams use the default charset as well as the output of the commands
+    PrintStream clientOut = new PrintStream(new FrameOutputStream(socketOut, STDOUT_FRAME), true,
+        Charset.defaultCharset().name());
+    PrintStream clientErr = new PrintStream(new FrameOutputStream(socketOut, STDERR_FRAME), true,
+        Charset.defaultCharset().name());
+    int status;
+    try {
+      status = PageObjectGenerator.run(args, workingDir, clientOut, clientErr);
+    } catch (RuntimeException e) {
+      // Keep the daemon alive for the other requests
+      e.printStackTrace(clientErr);
+      status = -1;
+    }
+    clientOut.flush();
+    clientErr.flush();
+    if (clientOut.checkError() || clientErr.checkError()) {
+      throw new IOException("Failed to send the output to the client.");
+    }
+    synchronized (socketOut) {
+      socketOut.writeByte(EXIT_FRAME);
+      socketOut.writeInt(status);
+      socketOut.flush();
+    }
+  }
+
+  /**
+   * An output stream which sends written bytes as frames of the specified type.
+   */
+  private static class FrameOutputStream extends OutputStream {
+    /**
+     * A stream connected to the client, which is shared with other frame streams.
+     */
+    private final DataOutputStream out;
+    /**
+     * A type of frames to be sent.
+     */
+    private final int type;
+
+    /**
+     * Constructs an instance with the specified stream and the specified frame type.
+     *
+     * @param out the stream connected to the client
+     * @param type the type of frames to be sent
+     */
+    public FrameOutputStream(DataOutputStream out, int type) {
+      this.out = out;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+      // Commands can print from multiple threads in parallel generation
+      synchronized (out) {
+        out.writeByte(type);
+        out.writeInt(len);
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+}
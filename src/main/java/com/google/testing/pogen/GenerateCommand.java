@@ -17,20 +17,33 @@ package com.google.testing.pogen;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.RegexFileFilter;
+import javax.annotation.Nullable;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import com.google.testing.pogen.generator.template.SplicePlan;
 import com.google.testing.pogen.generator.template.TemplateUpdater;
 import com.google.testing.pogen.generator.template.TemplateUpdaters;
 import com.google.testing.pogen.generator.test.PageObjectUpdateException;
@@ -38,10 +51,12 @@ import com.google.testing.pogen.generator.test.java.NameConverter;
 import com.google.testing.pogen.generator.test.java.TestCodeGenerator;
 import com.google.testing.pogen.generator.test.java.TestCodeGenerators;
 import com.google.testing.pogen.parser.template.TemplateInfo;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 import com.google.testing.pogen.parser.template.TemplateParsers;
 import com.google.testing.pogen.parser.template.jsf.JsfParser;
+import com.google.testing.pogen.parser.template.soy.SoyTemplateIndex;
 
 /**
  * A class which represents the generate command to generate modified templates and skeleton test
@@ -52,14 +67,26 @@ import com.google.testing.pogen.parser.template.jsf.JsfParser;
 public class GenerateCommand extends Command {
 
   /**
-   * A file name of the {@code AbstractPage} class.
+   * A suffix of backup files.
    */
-  private static final String ABSTRACT_PAGE_NAME = "AbstractPage.java";
+  protected static final String BACKUP_SUFFIX = ".org";
   /**
-   * A package name of the {@code AbstractPage} class.
+   * File names of the classes which generated test code depends on, such as {@code AbstractPage}.
+   */
+  private static final String[] SUPPORT_CLASS_NAMES = {"AbstractPage.java", "PageSnapshot.java"};
+  /**
+   * A package name of the classes which generated test code depends on.
    */
   private static final String ABSTRACT_PAGE_PACKAGE =
       "com.google.testing.pogen.generator.test.java.page";
+  /**
+   * A maximum number of the found template files which wait to be processed.
+   */
+  private static final int FOUND_FILE_QUEUE_CAPACITY = 1024;
+  /**
+   * A maximum number of the template files which wait for each thread of a stage of the pipeline.
+   */
+  private static final int QUEUE_CAPACITY_PER_THREAD = 4;
 
   /**
    * Template paths to be parsed.
@@ -72,27 +99,65 @@ public class GenerateCommand extends Command {
   /**
    * A package name to generate skeleton test codes.
    */
-  private final String packageName;
+  protected final String packageName;
   /**
    * A boolean whether prints processed files verbosely.
    */
-  private final boolean verbose;
+  protected final boolean verbose;
   /**
    * A name of the attribute to be assigned for tags containing template variables.
    */
-  private final String attributeName;
+  protected final String attributeName;
   /**
    * A path of root directory which contains html template files.
    */
-  private String rootDirectoryPath;
+  private final String rootDirectoryPath;
   /**
    * A pattern for finding template files in the root directory.
    */
-  private String templateFilePattern;
+  protected final String templateFilePattern;
   /**
    * A boolean whether template files are recursively found.
    */
-  private boolean isRecusive;
+  protected final boolean isRecusive;
+  /**
+   * A number of threads to process template files in parallel.
+   */
+  private final int threadCount;
+  /**
+   * A number of threads to read template files and existing test code in the pipeline.
+   */
+  private final int readThreadCount;
+  /**
+   * A number of threads to parse template files in the pipeline.
+   */
+  private final int parseThreadCount;
+  /**
+   * A number of threads to render skeleton test code in the pipeline.
+   */
+  private final int renderThreadCount;
+  /**
+   * A number of threads to write modified templates and skeleton test code in the pipeline.
+   */
+  private final int writeThreadCount;
+  /**
+   * A boolean whether all templates are regenerated ignoring the manifest of the last run.
+   */
+  private final boolean isForced;
+  /**
+   * A cache of parse results shared with other commands, or {@code null} not to cache them.
+   */
+  @Nullable
+  private final TemplateInfoCache cache;
+  /**
+   * A number of the files which have been written in the current generation.
+   */
+  private final AtomicInteger writtenFileCount;
+  /**
+   * A number of the files which have been skipped in the current generation because their contents
+   * have not been changed.
+   */
+  private final AtomicInteger skippedFileCount;
 
   /**
    * Constructs an instance with the the specified template paths, specified output-directory path,
@@ -107,10 +172,54 @@ public class GenerateCommand extends Command {
    * @param rootDirectoryPath the root directory of html template files
    * @param templateFilePattern the pattern for finding template files in the root directory
    * @param isRecusive the boolean whether template files are recursively found
+   * @param threadCount the number of threads to process template files in parallel
+   * @param isForced the boolean whether all templates are regenerated ignoring the manifest of the
+   *        last run
+   * @param cache the cache of parse results, or {@code null} not to cache them
    */
   public GenerateCommand(String[] templatePaths, String testOutDirPath, String packageName,
       String attributeName, boolean verbose, String rootDirectoryPath, String templateFilePattern,
-      boolean isRecusive) {
+      boolean isRecusive, int threadCount, boolean isForced, @Nullable TemplateInfoCache cache) {
+    this(templatePaths, testOutDirPath, packageName, attributeName, verbose, rootDirectoryPath,
+        templateFilePattern, isRecusive, threadCount, threadCount, threadCount, threadCount,
+        threadCount, isForced, cache);
+  }
+
+  /**
+   * Constructs an instance with the the specified template paths, specified output-directory path,
+   * the specified package name, the specified attribute name, the boolean of the verbose mode and
+   * the specified numbers of threads of the stages of the pipeline. Template files are processed
+   * serially if every stage has only one thread.
+   * 
+   * @param templatePaths the template paths to be parsed
+   * @param testOutDirPath the output directory path of test codes
+   * @param packageName the package name to generate skeleton test codes
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param verbose the boolean whether prints processed files verbosely
+   * @param rootDirectoryPath the root directory of html template files
+   * @param templateFilePattern the pattern for finding template files in the root directory
+   * @param isRecusive the boolean whether template files are recursively found
+   * @param threadCount the number of threads to find and index template files in parallel
+   * @param readThreadCount the number of threads to read template files and existing test code
+   * @param parseThreadCount the number of threads to parse template files
+   * @param renderThreadCount the number of threads to render skeleton test code
+   * @param writeThreadCount the number of threads to write modified templates and test code
+   * @param isForced the boolean whether all templates are regenerated ignoring the manifest of the
+   *        last run
+   * @param cache the cache of parse results, or {@code null} not to cache them
+   */
+  public GenerateCommand(String[] templatePaths, String testOutDirPath, String packageName,
+      String attributeName, boolean verbose, String rootDirectoryPath, String templateFilePattern,
+      boolean isRecusive, int threadCount, int readThreadCount, int parseThreadCount,
+      int renderThreadCount, int writeThreadCount, boolean isForced,
+      @Nullable TemplateInfoCache cache) {
+    Preconditions.checkArgument(threadCount > 0);
+    Preconditions.checkArgument(readThreadCount > 0);
+    Preconditions.checkArgument(parseThreadCount > 0);
+    Preconditions.checkArgument(renderThreadCount > 0);
+    Preconditions.checkArgument(writeThreadCount > 0);
+
     this.templatePaths = Arrays.copyOf(templatePaths, templatePaths.length);
     this.testOutDirPath = testOutDirPath;
     this.packageName = packageName;
@@ -119,53 +228,390 @@ public class GenerateCommand extends Command {
     this.rootDirectoryPath = rootDirectoryPath;
     this.templateFilePattern = templateFilePattern;
     this.isRecusive = isRecusive;
+    this.threadCount = threadCount;
+    this.readThreadCount = readThreadCount;
+    this.parseThreadCount = parseThreadCount;
+    this.renderThreadCount = renderThreadCount;
+    this.writeThreadCount = writeThreadCount;
+    this.isForced = isForced;
+    this.cache = cache;
+    this.writtenFileCount = new AtomicInteger();
+    this.skippedFileCount = new AtomicInteger();
   }
 
   @Override
   public void execute() throws IOException {
-    File rootInputDir = createDirectory(rootDirectoryPath, false, true);
-    File testOutDir = createDirectory(testOutDirPath, false, true);
+    File rootInputDir = getRootInputDirectory();
+    File testOutDir = getTestOutDirectory();
+    TemplateFileFinder finder = startFindingTemplateFiles(rootInputDir);
+    try {
+      generate(getSpecifiedTemplateFiles(), finder, rootInputDir, testOutDir,
+          loadManifest(testOutDir));
+    } finally {
+      if (finder != null) {
+        finder.close();
+      }
+    }
+  }
 
+  /**
+   * Loads the manifest of the last run, or creates an empty manifest if all templates should be
+   * regenerated.
+   * 
+   * @param testOutDir the output directory of skeleton test code
+   * @return the manifest to skip unchanged templates and to record generated ones
+   * @throws IOException if errors occur in reading the manifest
+   */
+  protected GenerationManifest loadManifest(File testOutDir) throws IOException {
+    return isForced ? GenerationManifest.create(testOutDir, attributeName, packageName)
+        : GenerationManifest.load(testOutDir, attributeName, packageName);
+  }
+
+  /**
+   * Returns the root input directory of template files.
+   * 
+   * @return the root input directory
+   * @throws IOException if errors occur in processing the directory
+   */
+  protected File getRootInputDirectory() throws IOException {
+    File rootInputDir = createDirectory(rootDirectoryPath, false, true);
     // Check whether the root directory exists
     if (!rootInputDir.exists()) {
       throw new FileProcessException("Not found root intpu directory", rootInputDir);
     }
+    return rootInputDir;
+  }
+
+  /**
+   * Returns the output directory of skeleton test code generating the classes which the test code
+   * depends on, such as {@code AbstractPage}, in it if they don't exist.
+   * 
+   * @return the output directory of skeleton test code
+   * @throws IOException if errors occur in processing the directory
+   */
+  protected File getTestOutDirectory() throws IOException {
+    File testOutDir = createDirectory(testOutDirPath, false, true);
 
-    // Generate the AbstractPage class
-    File newAbstractPageFile = new File(testOutDir.getPath(), ABSTRACT_PAGE_NAME);
-    if (!newAbstractPageFile.exists()) {
-      URL abstractPageUrl = Resources.getResource(ABSTRACT_PAGE_NAME);
-      String abstractPage = Resources.toString(abstractPageUrl, Charset.defaultCharset());
-      abstractPage = abstractPage.replaceAll(ABSTRACT_PAGE_PACKAGE, packageName);
-      Files.write(abstractPage, newAbstractPageFile, Charset.defaultCharset());
-    } else if (verbose) {
-      System.err.println("Already exists: " + newAbstractPageFile.getAbsolutePath() + ".");
+    // Generate the AbstractPage class and the other support classes
+    for (String supportClassName : SUPPORT_CLASS_NAMES) {
+      File newSupportClassFile = new File(testOutDir.getPath(), supportClassName);
+      if (!newSupportClassFile.exists()) {
+        URL supportClassUrl = Resources.getResource(supportClassName);
+        String supportClass = Resources.toString(supportClassUrl, Charset.defaultCharset());
+        supportClass = supportClass.replaceAll(ABSTRACT_PAGE_PACKAGE, packageName);
+        Files.write(supportClass, newSupportClassFile, Charset.defaultCharset());
+      } else if (verbose) {
+        err.println("Already exists: " + newSupportClassFile.getAbsolutePath() + ".");
+      }
     }
+    return testOutDir;
+  }
+
+  /**
+   * Finds the template files from the specified pattern with the root directory.
+   * 
+   * @param rootInputDir the root input directory of template files
+   * @return the found template files in ascending order of their paths
+   * @throws IOException if errors occur in finding files
+   */
+  protected List<File> findTemplateFiles(File rootInputDir) throws IOException {
+    TemplateFileFinder finder = startFindingTemplateFiles(rootInputDir);
+    if (finder == null) {
+      return Lists.newArrayList();
+    }
+    try {
+      return finder.takeAll();
+    } finally {
+      finder.close();
+    }
+  }
 
-    // Collect the template files from the arguments indicating paths of template files
-    ArrayList<File> templateFiles = new ArrayList<File>();
+  /**
+   * Returns the template files from the arguments indicating paths of template files.
+   * 
+   * @return the template files specified by the arguments
+   * @throws IOException if the specified template paths don't point to files
+   */
+  protected List<File> getSpecifiedTemplateFiles() throws IOException {
+    List<File> templateFiles = Lists.newArrayList();
     for (String templatePath : templatePaths) {
       File file = createFileFromFilePath(templatePath);
       templateFiles.add(file);
     }
+    return templateFiles;
+  }
 
-    // Collect the template files from the specified pattern with the root directory
-    if (!Strings.isNullOrEmpty(templateFilePattern)) {
-      templateFiles.addAll(FileUtils.listFiles(rootInputDir, new RegexFileFilter(
-          templateFilePattern), isRecusive ? FileFilterUtils.trueFileFilter() : null));
+  /**
+   * Starts finding the template files from the specified pattern with the root directory in
+   * parallel.
+   * 
+   * @param rootInputDir the root input directory of template files
+   * @return the finder of the template files, or {@code null} if the pattern is not specified
+   */
+  @Nullable
+  private TemplateFileFinder startFindingTemplateFiles(File rootInputDir) {
+    if (Strings.isNullOrEmpty(templateFilePattern)) {
+      return null;
     }
+    TemplateFileFinder finder =
+        new TemplateFileFinder(templateFilePattern, isRecusive, threadCount,
+            FOUND_FILE_QUEUE_CAPACITY);
+    finder.start(rootInputDir);
+    return finder;
+  }
 
-    TemplateUpdater updater = TemplateUpdaters.getPreferredUpdater(attributeName);
-    TestCodeGenerator generator = TestCodeGenerators.getPreferredGenerator(attributeName);
+  /**
+   * Generates modified templates and skeleton test code from the specified template files and the
+   * template files taken from the specified finder. The found templates are taken from the bounded
+   * queue of the finder and backed up while the others are still being found. They are processed
+   * in ascending order of their paths after the specified template files so that the assigned
+   * attribute values don't depend on the order in which they are found. Parsing templates other
+   * than soy ones depends on neither the order nor the soy index, so the changed ones are read and
+   * parsed by the threads of the parse stage while the others are still being found, up to the
+   * capacity of the queue of the parse stage.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param finder the finder of the other template files, or {@code null} if not found
+   * @param rootInputDir the root input directory of template files
+   * @param testOutDir the output directory of skeleton test code
+   * @param manifest the manifest to skip unchanged templates and to record generated ones
+   * @throws IOException if errors occur in finding, reading, parsing and writing files
+   */
+  private void generate(List<File> templateFiles, @Nullable TemplateFileFinder finder,
+      File rootInputDir, File testOutDir, GenerationManifest manifest) throws IOException {
+    List<File> allFiles = Lists.newArrayList(templateFiles);
+    List<File> orgFiles = Lists.newArrayList();
     for (File file : templateFiles) {
-      checkExistenceAndPermission(file, true, true);
+      orgFiles.add(prepare(file));
+    }
+    Map<File, Future<GenerationJob>> parsingJobs = Maps.newHashMap();
+    ExecutorService parseExecutor =
+        finder != null && isPipelined() ? Executors.newFixedThreadPool(parseThreadCount) : null;
+    try {
+      if (finder != null) {
+        int parseAheadCapacity = parseThreadCount * QUEUE_CAPACITY_PER_THREAD;
+        Map<File, File> foundOrgFiles = Maps.newTreeMap();
+        for (File file = finder.take(); file != null; file = finder.take()) {
+          File orgFile = prepare(file);
+          foundOrgFiles.put(file, orgFile);
+          if (parseExecutor != null && parsingJobs.size() < parseAheadCapacity
+              && !TemplateParsers.isSoyTemplate(file.getPath())) {
+            parsingJobs.put(file,
+                parseAhead(parseExecutor, file, orgFile, rootInputDir, testOutDir, manifest));
+          }
+        }
+        allFiles.addAll(foundOrgFiles.keySet());
+        orgFiles.addAll(foundOrgFiles.values());
+      }
+      SoyTemplateIndex soyIndex = buildSoyIndex(allFiles, orgFiles);
+      generate(allFiles, orgFiles, soyIndex, rootInputDir, testOutDir, manifest,
+          takeParsedJobs(parsingJobs));
+    } finally {
+      if (parseExecutor != null) {
+        parseExecutor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Starts reading and parsing the specified template which is not a soy template with the
+   * specified executor unless it is unchanged in the specified manifest.
+   * 
+   * @param executor the executor to parse the template
+   * @param templateFile the template file to be modified
+   * @param orgFile the backup file of the template
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @param manifest the manifest to skip unchanged templates
+   * @return the future of the job whose template has been parsed, which returns {@code null} if
+   *         the template is unchanged
+   */
+  private Future<GenerationJob> parseAhead(ExecutorService executor, final File templateFile,
+      final File orgFile, final File rootInputDir, final File codeOutDir,
+      final GenerationManifest manifest) {
+    return executor.submit(new Callable<GenerationJob>() {
+      @Override
+      public GenerationJob call() throws IOException {
+        // Templates other than soy ones depend on no other templates
+        GenerationJob job = new GenerationJob(templateFile, orgFile, "");
+        if (manifest.isUnchanged(templateFile, orgFile, job.dependencyKey)) {
+          return null;
+        }
+        read(job, rootInputDir, codeOutDir);
+        parse(job, null);
+        return job;
+      }
+    });
+  }
+
+  /**
+   * Waits for the specified jobs which are being parsed ahead and returns the parsed ones. The
+   * templates which failed to be parsed are parsed again in the pipeline so that the errors are
+   * reported as well as the others.
+   * 
+   * @param parsingJobs the map of the template files and the futures of their jobs
+   * @return the map of the template files and their parsed jobs
+   * @throws InterruptedIOException if interrupted in waiting for the jobs
+   */
+  private static Map<File, GenerationJob> takeParsedJobs(
+      Map<File, Future<GenerationJob>> parsingJobs) throws InterruptedIOException {
+    Map<File, GenerationJob> parsedJobs = Maps.newHashMap();
+    for (Map.Entry<File, Future<GenerationJob>> entry : parsingJobs.entrySet()) {
       try {
-        TemplateParser parser = TemplateParsers.getPreferredParser(file.getPath(), attributeName);
-        if (attributeName.equals("id") && parser instanceof JsfParser) {
-          System.out
-              .println("WARNING: Using id attribute is not recommmended for JSF templat engine.");
+        GenerationJob job = entry.getValue().get();
+        if (job != null) {
+          parsedJobs.put(entry.getKey(), job);
         }
-        parseAndGenerate(file, rootInputDir, testOutDir, parser, updater, generator);
+      } catch (ExecutionException e) {
+        // The template is parsed again in the pipeline
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted in parsing templates");
+      }
+    }
+    return parsedJobs;
+  }
+
+  /**
+   * Returns {@code true} if the template files are processed through the pipeline, i.e. any stage
+   * has multiple threads.
+   * 
+   * @return {@code true} if the template files are processed through the pipeline
+   */
+  private boolean isPipelined() {
+    return readThreadCount > 1 || parseThreadCount > 1 || renderThreadCount > 1
+        || writeThreadCount > 1;
+  }
+
+  /**
+   * Generates modified templates and skeleton test code from the specified template files which
+   * have been backed up, skipping the templates which are up to date in the specified manifest,
+   * and saves the manifest.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param orgFiles the backup files of the templates to be read
+   * @param soyIndex the index of the soy templates in the template files
+   * @param rootInputDir the root input directory of template files
+   * @param testOutDir the output directory of skeleton test code
+   * @param manifest the manifest to skip unchanged templates and to record generated ones
+   * @throws IOException if errors occur in reading, parsing and writing files
+   */
+  protected void generate(List<File> templateFiles, List<File> orgFiles,
+      SoyTemplateIndex soyIndex, File rootInputDir, File testOutDir, GenerationManifest manifest)
+      throws IOException {
+    generate(templateFiles, orgFiles, soyIndex, rootInputDir, testOutDir, manifest,
+        ImmutableMap.<File, GenerationJob>of());
+  }
+
+  /**
+   * Generates modified templates and skeleton test code from the specified template files which
+   * have been backed up, reusing the specified jobs whose templates have been parsed ahead, and
+   * saves the manifest.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param orgFiles the backup files of the templates to be read
+   * @param soyIndex the index of the soy templates in the template files
+   * @param rootInputDir the root input directory of template files
+   * @param testOutDir the output directory of skeleton test code
+   * @param manifest the manifest to skip unchanged templates and to record generated ones
+   * @param parsedJobs the map of the template files and their jobs parsed ahead
+   * @throws IOException if errors occur in reading, parsing and writing files
+   */
+  private void generate(List<File> templateFiles, List<File> orgFiles, SoyTemplateIndex soyIndex,
+      File rootInputDir, File testOutDir, GenerationManifest manifest,
+      Map<File, GenerationJob> parsedJobs) throws IOException {
+    TemplateUpdater updater = TemplateUpdaters.getPreferredUpdater(attributeName);
+    writtenFileCount.set(0);
+    skippedFileCount.set(0);
+    try {
+      if (isPipelined()) {
+        processInPipeline(templateFiles, orgFiles, rootInputDir, testOutDir, updater, soyIndex,
+            manifest, parsedJobs);
+      } else {
+        processSerially(templateFiles, orgFiles, rootInputDir, testOutDir, updater, soyIndex,
+            manifest);
+      }
+    } finally {
+      manifest.save();
+    }
+    if (verbose) {
+      out.println("Written " + writtenFileCount.get() + " files and skipped "
+          + skippedFileCount.get() + " unchanged files.");
+    }
+  }
+
+  /**
+   * Checks and backs up the specified template file.
+   * 
+   * @param templateFile the template file to be modified
+   * @return the backup file of the template
+   * @throws IOException if errors occur in checking and backing up the file
+   */
+  protected File prepare(File templateFile) throws IOException {
+    checkExistenceAndPermission(templateFile, true, true);
+    return backupFile(templateFile);
+  }
+
+  /**
+   * Builds the index of the soy templates in the specified files with the threads of this command.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param orgFiles the backup files of the templates to be read
+   * @return the index of the soy templates
+   * @throws IOException if errors occur in reading files
+   */
+  protected SoyTemplateIndex buildSoyIndex(List<File> templateFiles, List<File> orgFiles)
+      throws IOException {
+    List<File> soyFiles = Lists.newArrayList();
+    for (int i = 0; i < templateFiles.size(); i++) {
+      if (TemplateParsers.isSoyTemplate(templateFiles.get(i).getPath())) {
+        soyFiles.add(orgFiles.get(i));
+      }
+    }
+    return SoyTemplateIndex.build(soyFiles, Charset.defaultCharset(), threadCount);
+  }
+
+  /**
+   * Returns the key of the other templates which the generated files of the specified template
+   * depend on. Soy templates called from repeated parts in other files generate different code, so
+   * the key consists of the names of the repeated templates defined in the template.
+   * 
+   * @param orgFile the backup file of the template
+   * @param soyIndex the index of the soy templates
+   * @return the dependency key of the template
+   */
+  private static String getDependencyKey(File orgFile, SoyTemplateIndex soyIndex) {
+    return Joiner.on(',').join(soyIndex.getRepeatedTemplates(orgFile));
+  }
+
+  /**
+   * Processes the specified template files one by one.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param orgFiles the backup files of the templates to be read
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @param updater the updater to update template files
+   * @param soyIndex the index of the soy templates to resolve calls across files
+   * @param manifest the manifest to skip unchanged templates and to record generated ones
+   * @throws IOException if errors occur in reading, parsing and writing files
+   */
+  private void processSerially(List<File> templateFiles, List<File> orgFiles, File rootInputDir,
+      File codeOutDir, TemplateUpdater updater, SoyTemplateIndex soyIndex,
+      GenerationManifest manifest) throws IOException {
+    TestCodeGenerator generator = TestCodeGenerators.getPreferredGenerator(attributeName);
+    for (int i = 0; i < templateFiles.size(); i++) {
+      File file = templateFiles.get(i);
+      File orgFile = orgFiles.get(i);
+      String dependencyKey = getDependencyKey(orgFile, soyIndex);
+      if (manifest.isUpToDate(file, orgFile, updater.getValueCount(), dependencyKey)) {
+        skip(file, updater, manifest);
+        continue;
+      }
+      try {
+        TemplateParser parser = createParser(file, orgFile, soyIndex);
+        parseAndGenerate(file, orgFile, dependencyKey, rootInputDir, codeOutDir, parser, updater,
+            generator, manifest);
       } catch (TemplateParseException e) {
         throw new FileProcessException("Errors occur in parsing the specified files", file, e);
       } catch (PageObjectUpdateException e) {
@@ -174,48 +620,395 @@ public class GenerateCommand extends Command {
     }
   }
 
+  /**
+   * Processes the specified template files through the pipeline of the read, parse, render and
+   * write stages, each of which has its own threads and a bounded queue. Unchanged templates are
+   * neither read nor parsed unless their attribute values are shifted. The edits of modified
+   * templates are planned in the order of the given files by the single {@link TemplateUpdater}
+   * because the attribute values it assigns are numbered sequentially over all the templates, so
+   * the results are identical to the ones of the serial processing. The modified templates and
+   * skeleton test code are then rendered concurrently into temporary files, each with its own
+   * {@link TestCodeGenerator}, and the write stage replaces the target files with them.
+   * 
+   * @param templateFiles the template files to be modified
+   * @param orgFiles the backup files of the templates to be read
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @param updater the updater to update template files
+   * @param soyIndex the index of the soy templates to resolve calls across files
+   * @param manifest the manifest to skip unchanged templates and to record generated ones
+   * @param parsedJobs the map of the template files and their jobs parsed ahead
+   * @throws IOException if errors occur in reading, parsing and writing files
+   */
+  private void processInPipeline(List<File> templateFiles, List<File> orgFiles,
+      final File rootInputDir, final File codeOutDir, final TemplateUpdater updater,
+      final SoyTemplateIndex soyIndex, final GenerationManifest manifest,
+      Map<File, GenerationJob> parsedJobs) throws IOException {
+    List<GenerationJob> jobs = Lists.newArrayList();
+    for (int i = 0; i < templateFiles.size(); i++) {
+      File orgFile = orgFiles.get(i);
+      String dependencyKey = getDependencyKey(orgFile, soyIndex);
+      GenerationJob job = parsedJobs.get(templateFiles.get(i));
+      if (job == null || !job.orgTemplateFile.equals(orgFile)
+          || !job.dependencyKey.equals(dependencyKey)) {
+        job = new GenerationJob(templateFiles.get(i), orgFile, dependencyKey);
+      }
+      jobs.add(job);
+    }
+    // Set when the attribute values of an unchanged template are shifted
+    final AtomicBoolean isShifted = new AtomicBoolean();
+
+    Pipeline.Stage<GenerationJob> readStage =
+        new Pipeline.Stage<GenerationJob>("read", readThreadCount, false) {
+          @Override
+          void process(GenerationJob job) throws IOException {
+            if (job.templateInfo != null) {
+              // The template has been parsed ahead while finding template files
+              return;
+            }
+            // Unchanged templates are read and parsed only if their attribute values are shifted
+            if (!isShifted.get()
+                && manifest.isUnchanged(job.templateFile, job.orgTemplateFile, job.dependencyKey)) {
+              job.isUnchanged = true;
+              return;
+            }
+            read(job, rootInputDir, codeOutDir);
+          }
+        };
+    Pipeline.Stage<GenerationJob> parseStage =
+        new Pipeline.Stage<GenerationJob>("parse", parseThreadCount, false) {
+          @Override
+          void process(GenerationJob job) throws IOException {
+            if (!job.isUnchanged && job.templateInfo == null) {
+              parse(job, soyIndex);
+            }
+          }
+        };
+    Pipeline.Stage<GenerationJob> renderStage =
+        new Pipeline.Stage<GenerationJob>("render", renderThreadCount, true) {
+          @Override
+          void processInOrder(GenerationJob job) throws IOException {
+            if (job.isUnchanged) {
+              if (manifest.getValueStart(job.templateFile) == updater.getValueCount()) {
+                skip(job.templateFile, updater, manifest);
+                job.isSkipped = true;
+                return;
+              }
+              // The following templates are also shifted in most cases
+              isShifted.set(true);
+              read(job, rootInputDir, codeOutDir);
+              parse(job, soyIndex);
+            }
+            job.valueStart = updater.getValueCount();
+            job.plan = updater.plan(job.templateInfo);
+            job.valueCount = updater.getValueCount() - job.valueStart;
+          }
+
+          @Override
+          void process(GenerationJob job) throws IOException {
+            if (!job.isSkipped) {
+              render(job);
+            }
+          }
+        };
+    Pipeline.Stage<GenerationJob> writeStage =
+        new Pipeline.Stage<GenerationJob>("write", writeThreadCount, false) {
+          @Override
+          void process(GenerationJob job) throws IOException {
+            if (!job.isSkipped) {
+              write(job, manifest);
+            }
+          }
+        };
+
+    Pipeline<GenerationJob> pipeline =
+        new Pipeline<GenerationJob>(ImmutableList.of(readStage, parseStage, renderStage,
+            writeStage), QUEUE_CAPACITY_PER_THREAD);
+    try {
+      pipeline.run(jobs);
+    } finally {
+      // Remove the temporary files of the jobs dropped by a failure
+      for (GenerationJob job : jobs) {
+        job.close();
+      }
+      if (verbose) {
+        for (String statistics : pipeline.getStatistics()) {
+          out.println(statistics);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the backup file of the template and the existing skeleton test code of the specified
+   * job.
+   * 
+   * @param job the job to generate files from the template
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @throws IOException if errors occur in reading files
+   */
+  private void read(GenerationJob job, File rootInputDir, File codeOutDir) throws IOException {
+    job.template = Files.toString(job.orgTemplateFile, Charset.defaultCharset());
+    job.codeFile = getCodeFile(job.templateFile, rootInputDir, codeOutDir);
+    job.packageName = packageName + getPackagePrefix(job.templateFile, rootInputDir);
+    if (job.codeFile.exists()) {
+      job.code = Files.toString(job.codeFile, Charset.defaultCharset());
+    }
+  }
+
+  /**
+   * Parses the template of the specified job which has been read.
+   * 
+   * @param job the job to generate files from the template
+   * @param soyIndex the index of the soy templates to resolve calls across files, or {@code null}
+   *        if the template is not a soy template
+   * @throws IOException if the template is in bad format
+   */
+  private void parse(GenerationJob job, @Nullable SoyTemplateIndex soyIndex) throws IOException {
+    try {
+      job.templateInfo = parse(job.template, job.dependencyKey,
+          createParser(job.templateFile, job.orgTemplateFile, soyIndex));
+      job.template = null;
+    } catch (TemplateParseException e) {
+      throw new FileProcessException("Errors occur in parsing the specified files",
+          job.templateFile, e);
+    }
+  }
+
+  /**
+   * Streams the modified template and the generated or updated skeleton test code of the specified
+   * job, whose edits of the template have been planned, into temporary files.
+   * 
+   * @param job the job to generate files from the template
+   * @throws IOException if errors occur in writing the temporary files or the existing test code
+   *         doesn't have generated code
+   */
+  private void render(GenerationJob job) throws IOException {
+    job.templateWriter = new AtomicFileWriter(job.templateFile, Charset.defaultCharset());
+    job.plan.writeTo(job.templateInfo.getTemplate(), job.templateWriter);
+    job.plan = null;
+
+    TestCodeGenerator generator = TestCodeGenerators.getPreferredGenerator(attributeName);
+    String pageName =
+        NameConverter.getJavaClassName(getFileNameWithoutExtension(job.templateFile));
+    job.codeWriter = new AtomicFileWriter(job.codeFile, Charset.defaultCharset());
+    try {
+      if (job.code != null) {
+        generator.update(job.templateInfo, job.code, job.codeWriter);
+      } else {
+        generator.generate(job.templateInfo, job.packageName, pageName, job.codeWriter);
+      }
+    } catch (PageObjectUpdateException e) {
+      throw new FileProcessException("Errors occur in updating the specified files",
+          job.templateFile, e);
+    }
+    job.code = null;
+    job.templateInfo = null;
+  }
+
+  /**
+   * Replaces the modified template and the skeleton test code of the specified job with the
+   * rendered temporary files and records them in the specified manifest.
+   * 
+   * @param job the job to generate files from the template
+   * @param manifest the manifest to record the generated template
+   * @throws IOException if errors occur in writing files
+   */
+  private void write(GenerationJob job, GenerationManifest manifest) throws IOException {
+    commit(job.templateWriter);
+    commit(job.codeWriter);
+    job.close();
+    manifest.put(job.templateFile, job.orgTemplateFile, job.codeFile, job.valueStart,
+        job.valueCount, job.dependencyKey);
+    if (verbose) {
+      out.println(job.templateFile.getAbsolutePath() + " processed successfully");
+    }
+  }
+
+  /**
+   * Skips the specified template which is up to date, advancing the attribute values of the
+   * updater as if the template was modified again.
+   * 
+   * @param templateFile the template file to be skipped
+   * @param updater the updater to update template files
+   * @param manifest the manifest which records the template
+   */
+  private void skip(File templateFile, TemplateUpdater updater, GenerationManifest manifest) {
+    updater.setValueCount(updater.getValueCount() + manifest.getValueCount(templateFile));
+    if (verbose) {
+      out.println("Up to date: " + templateFile.getAbsolutePath() + ".");
+    }
+  }
+
+  /**
+   * Creates the preferred parser for the specified template file.
+   * 
+   * @param file the template file to be parsed
+   * @param orgFile the backup file of the template, which is indexed in the soy index
+   * @param soyIndex the index of the soy templates to resolve calls across files, or {@code null}
+   *        if the template is not a soy template
+   * @return the preferred {@link TemplateParser} instance
+   */
+  private TemplateParser createParser(File file, File orgFile,
+      @Nullable SoyTemplateIndex soyIndex) {
+    TemplateParser parser =
+        TemplateParsers.getPreferredParser(file.getPath(), attributeName, soyIndex, orgFile);
+    if (attributeName.equals("id") && parser instanceof JsfParser) {
+      out.println("WARNING: Using id attribute is not recommmended for JSF templat engine.");
+    }
+    return parser;
+  }
+
   /**
    * Parses the specified template file and generates a modified template file and skeleton test
    * code.
    * 
    * @param templateFile the template file to be modified
+   * @param orgTemplateFile the backup file of the template to be read
+   * @param dependencyKey the key of the other templates which the generated files depend on
    * @param rootInputDir the root input directory of template files
    * @param codeOutDir the output directory of skeleton test code
    * @param parser the parser to parse template files
    * @param updater the updater to update template files
    * @param generator the generator to generate skeleton test code
+   * @param manifest the manifest to record the generated template
    * @throws IOException if errors occur in reading and writing files
    * @throws TemplateParseException if the specified template is in bad format
    * @throws PageObjectUpdateException if the existing test code doesn't have generated code
    */
-  private void parseAndGenerate(File templateFile, File rootInputDir, File codeOutDir,
-      TemplateParser parser, TemplateUpdater updater, TestCodeGenerator generator)
-      throws IOException, TemplateParseException, PageObjectUpdateException {
+  private void parseAndGenerate(File templateFile, File orgTemplateFile, String dependencyKey,
+      File rootInputDir, File codeOutDir, TemplateParser parser, TemplateUpdater updater,
+      TestCodeGenerator generator, GenerationManifest manifest) throws IOException,
+      TemplateParseException, PageObjectUpdateException {
+    if (verbose) {
+      out.println(templateFile.getAbsolutePath() + " ... ");
+    }
+    TemplateInfo templateInfo = parse(templateFile, orgTemplateFile, dependencyKey, parser);
+    if (verbose) {
+      out.print(".");
+    }
+    // Generate modified template into a temporary file
+    int valueStart = updater.getValueCount();
+    AtomicFileWriter templateWriter =
+        new AtomicFileWriter(templateFile, Charset.defaultCharset());
+    try {
+      updater.generate(templateInfo, templateWriter);
+      if (verbose) {
+        out.print(".");
+      }
+      File codeFile =
+          generate(templateFile, rootInputDir, codeOutDir, templateInfo, templateWriter,
+              generator);
+      manifest.put(templateFile, orgTemplateFile, codeFile, valueStart, updater.getValueCount()
+          - valueStart, dependencyKey);
+    } finally {
+      templateWriter.close();
+    }
+  }
+
+  /**
+   * Parses the specified backup file of a template, restoring the parse result from the cache if
+   * possible.
+   * 
+   * @param templateFile the template file to be modified
+   * @param orgTemplateFile the backup file of the template to be parsed
+   * @param dependencyKey the key of the other templates which the parse result depends on
+   * @param parser the parser to parse template files
+   * @return the information of the parsed template
+   * @throws IOException if errors occur in reading files
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  private TemplateInfo parse(File templateFile, File orgTemplateFile, String dependencyKey,
+      TemplateParser parser) throws IOException, TemplateParseException {
     Preconditions.checkNotNull(templateFile);
-    Preconditions.checkNotNull(rootInputDir);
-    Preconditions.checkNotNull(codeOutDir);
-    Preconditions.checkArgument(!Strings.isNullOrEmpty(packageName));
+    Preconditions.checkNotNull(orgTemplateFile);
     Preconditions.checkNotNull(parser);
 
-    if (verbose) {
-      System.out.println(templateFile.getAbsolutePath() + " ... ");
-    }
-    File orgTemplateFile = backupFile(templateFile);
-    String pageName = NameConverter.getJavaClassName(getFileNameWithoutExtension(templateFile));
     // Read template file
     String template = Files.toString(orgTemplateFile, Charset.defaultCharset());
+    return parse(template, dependencyKey, parser);
+  }
+
+  /**
+   * Parses the specified template, restoring the parse result from the cache if possible. Nothing
+   * is printed here because templates are parsed concurrently in the pipeline.
+   * 
+   * @param template the content of the backup file of the template
+   * @param dependencyKey the key of the other templates which the parse result depends on
+   * @param parser the parser to parse template files
+   * @return the information of the parsed template
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  private TemplateInfo parse(String template, String dependencyKey, TemplateParser parser)
+      throws TemplateParseException {
     // Parse template extracting template variables
-    TemplateInfo templateInfo = parser.parse(template);
-    if (verbose) {
-      System.out.print(".");
+    return cache != null ? cache.parse(template, parser, dependencyKey) : parser.parse(template);
+  }
+
+  /**
+   * Generates skeleton test code from the specified parsed template and writes it with the
+   * specified modified template. Both files are written into temporary files and replace the
+   * existing files only after the test code has been generated successfully.
+   * 
+   * @param templateFile the template file to be modified
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @param templateInfo the information of the parsed template
+   * @param templateWriter the writer into which the modified template has been written
+   * @param generator the generator to generate skeleton test code
+   * @return the written skeleton test code file
+   * @throws IOException if errors occur in reading and writing files
+   * @throws PageObjectUpdateException if the existing test code doesn't have generated code
+   */
+  private File generate(File templateFile, File rootInputDir, File codeOutDir,
+      TemplateInfo templateInfo, AtomicFileWriter templateWriter, TestCodeGenerator generator)
+      throws IOException, PageObjectUpdateException {
+    Preconditions.checkNotNull(templateFile);
+    Preconditions.checkNotNull(rootInputDir);
+    Preconditions.checkNotNull(codeOutDir);
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(packageName));
+
+    String pageName = NameConverter.getJavaClassName(getFileNameWithoutExtension(templateFile));
+    String packagePrefix = getPackagePrefix(templateFile, rootInputDir);
+
+    // Generate skeleton test code
+    File codeFile = getCodeFile(templateFile, rootInputDir, codeOutDir);
+    AtomicFileWriter codeWriter = new AtomicFileWriter(codeFile, Charset.defaultCharset());
+    try {
+      if (codeFile.exists()) {
+        generator.update(templateInfo, Files.toString(codeFile, Charset.defaultCharset()),
+            codeWriter);
+      } else {
+        generator.generate(templateInfo, packageName + packagePrefix, pageName, codeWriter);
+      }
+      if (verbose) {
+        out.print(".");
+      }
+      // Replace the template and the skeleton test code with the written ones
+      commit(templateWriter);
+      if (verbose) {
+        out.print(".");
+      }
+      commit(codeWriter);
+    } finally {
+      codeWriter.close();
     }
-    // Generate modified template
-    String modifiedTemplate = updater.generate(templateInfo);
     if (verbose) {
-      System.out.print(".");
+      out.println("\n" + templateFile.getAbsolutePath() + " processed successfully");
     }
+    return codeFile;
+  }
 
-    // Construct path of skeleton test code
+  /**
+   * Returns the path of the directory of the specified template relative to the root input
+   * directory, which starts with a separator unless it is empty.
+   * 
+   * @param templateFile the template file to be modified
+   * @param rootInputDir the root input directory of template files
+   * @return the relative directory path of the template
+   */
+  private static String getRelativeDirPath(File templateFile, File rootInputDir) {
     URI relativeDirUri = rootInputDir.toURI().relativize(templateFile.getParentFile().toURI());
     String relativeDirPath = relativeDirUri.toString();
     if (relativeDirPath.endsWith("/")) {
@@ -224,32 +1017,62 @@ public class GenerateCommand extends Command {
     if (!Strings.isNullOrEmpty(relativeDirPath)) {
       relativeDirPath = File.separatorChar + relativeDirPath;
     }
-    String packagePrefix = relativeDirPath.replace('/', '.');
-    File actualDir = new File(codeOutDir.getPath() + relativeDirPath);
-    actualDir.mkdirs();
+    return relativeDirPath;
+  }
 
-    // Generate skeleton test code
+  /**
+   * Returns the suffix of the package name of the skeleton test code of the specified template,
+   * which corresponds to the directory of the template.
+   * 
+   * @param templateFile the template file to be modified
+   * @param rootInputDir the root input directory of template files
+   * @return the package suffix which starts with a dot unless it is empty
+   */
+  private static String getPackagePrefix(File templateFile, File rootInputDir) {
+    return getRelativeDirPath(templateFile, rootInputDir).replace('/', '.');
+  }
+
+  /**
+   * Returns the skeleton test code file of the specified template making its directory.
+   * 
+   * @param templateFile the template file to be modified
+   * @param rootInputDir the root input directory of template files
+   * @param codeOutDir the output directory of skeleton test code
+   * @return the skeleton test code file
+   * @throws IOException if the existing test code file is not writable
+   */
+  private File getCodeFile(File templateFile, File rootInputDir, File codeOutDir)
+      throws IOException {
+    Preconditions.checkNotNull(templateFile);
+    Preconditions.checkNotNull(rootInputDir);
+    Preconditions.checkNotNull(codeOutDir);
+    Preconditions.checkArgument(!Strings.isNullOrEmpty(packageName));
+
+    // Construct path of skeleton test code
+    File actualDir =
+        new File(codeOutDir.getPath() + getRelativeDirPath(templateFile, rootInputDir));
+    actualDir.mkdirs();
+    String pageName = NameConverter.getJavaClassName(getFileNameWithoutExtension(templateFile));
     File codeFile = new File(actualDir, pageName + "Page.java");
     if (codeFile.exists() && !codeFile.canWrite()) {
       throw new FileProcessException("No permission for writing the specified file", codeFile);
     }
+    return codeFile;
+  }
 
-    // @formatter:off
-    String testCode = codeFile.exists()
-        ? generator.update(templateInfo, Files.toString(codeFile, Charset.defaultCharset()))
-        : generator.generate(templateInfo, packageName + packagePrefix, pageName);
-    // @formatter:on
-    if (verbose) {
-      System.out.print(".");
-    }
-    // Write generated template and skeleton test code
-    Files.write(modifiedTemplate, templateFile, Charset.defaultCharset());
-    if (verbose) {
-      System.out.print(".");
-    }
-    Files.write(testCode, codeFile, Charset.defaultCharset());
-    if (verbose) {
-      System.out.println("\n" + templateFile.getAbsolutePath() + " processed successfully");
+  /**
+   * Replaces the target file of the specified writer unless it has the same content, counting the
+   * written and the skipped files.
+   * 
+   * @param writer the writer to be committed
+   * @throws IOException if errors occur in writing the file
+   */
+  private void commit(AtomicFileWriter writer) throws IOException {
+    if (writer.commit()) {
+      writtenFileCount.incrementAndGet();
+      fileWritten(writer.getFile());
+    } else {
+      skippedFileCount.incrementAndGet();
     }
   }
 
@@ -264,13 +1087,32 @@ public class GenerateCommand extends Command {
   private File backupFile(File file) throws IOException {
     Preconditions.checkNotNull(file);
 
-    File orgHtmlFile = new File(file.getPath() + ".org");
+    File orgHtmlFile = getBackupFile(file);
     if (!orgHtmlFile.exists()) {
       Files.copy(file, orgHtmlFile);
+      fileWritten(orgHtmlFile);
     }
     return orgHtmlFile;
   }
 
+  /**
+   * Returns the backup file of the specified template file, which may not exist.
+   * 
+   * @param templateFile the template file
+   * @return the backup file whose name is xxxxx.org
+   */
+  protected static File getBackupFile(File templateFile) {
+    return new File(templateFile.getPath() + BACKUP_SUFFIX);
+  }
+
+  /**
+   * Called when this command has written the specified file, which may be called from multiple
+   * threads at once. Does nothing by default.
+   * 
+   * @param file the written file
+   */
+  protected void fileWritten(File file) {}
+
   /**
    * Gets the file name without the extension of the specified file.
    * 
@@ -287,4 +1129,56 @@ public class GenerateCommand extends Command {
     }
     return fileName;
   }
+
+  /**
+   * A class which holds the state of the generation from a template file while it passes through
+   * the stages of the pipeline. Each field is set by one stage and read by the following ones, and
+   * the queues between the stages make the writes visible to the readers.
+   */
+  private static final class GenerationJob {
+    private final File templateFile;
+    private final File orgTemplateFile;
+    private final String dependencyKey;
+    private boolean isUnchanged;
+    private boolean isSkipped;
+    private String template;
+    private TemplateInfo templateInfo;
+    private File codeFile;
+    private String packageName;
+    @Nullable
+    private String code;
+    private int valueStart;
+    private int valueCount;
+    private SplicePlan plan;
+    @Nullable
+    private AtomicFileWriter templateWriter;
+    @Nullable
+    private AtomicFileWriter codeWriter;
+
+    GenerationJob(File templateFile, File orgTemplateFile, String dependencyKey) {
+      this.templateFile = templateFile;
+      this.orgTemplateFile = orgTemplateFile;
+      this.dependencyKey = dependencyKey;
+    }
+
+    /**
+     * Closes the writers of this job, which removes the temporary files unless they have been
+     * committed.
+     * 
+     * @throws IOException if errors occur in closing the temporary files
+     */
+    void close() throws IOException {
+      try {
+        if (templateWriter != null) {
+          templateWriter.close();
+          templateWriter = null;
+        }
+      } finally {
+        if (codeWriter != null) {
+          codeWriter.close();
+          codeWriter = null;
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,327 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A class which represents the manifest of the generate command to skip templates whose inputs are
+ * unchanged since the last run. The manifest maps each template path to the hash of its backup
+ * file, the hash of the modified template, the path of the skeleton test code, the range of
+ * attribute values assigned to the template and the key of the other templates it depends on.
+ * Because the attribute values are numbered sequentially over all the templates, a template is up
+ * to date only when the range starts at the same value as the last run. Similarly, a template is
+ * up to date only when the dependency key is the same as the last run because e.g. a soy template
+ * called from a repeated part in another file generates different code.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class GenerationManifest {
+  /**
+   * A file name of the manifest in the output directory of skeleton test code.
+   */
+  public static final String MANIFEST_NAME = ".pogen-manifest";
+  /**
+   * A version of the generator which should be changed when generated code is changed.
+   */
+  static final String GENERATOR_VERSION = "2.6.0";
+  /**
+   * A string to indicate the header of the manifest.
+   */
+  private static final String HEADER_MARK = "pogen-manifest";
+  /**
+   * A separator of columns in the manifest.
+   */
+  private static final char SEPARATOR = '\t';
+  /**
+   * A charset of the manifest.
+   */
+  private static final Charset CHARSET = Charsets.UTF_8;
+
+  /**
+   * A manifest file.
+   */
+  private final File file;
+  /**
+   * A header line which contains the generator version and the options affecting generated code.
+   */
+  private final String header;
+  /**
+   * A map of template paths and recorded entries.
+   */
+  private final ConcurrentMap<String, Entry> entries;
+
+  /**
+   * Constructs an empty manifest with the specified file and the specified header.
+   * 
+   * @param file the manifest file
+   * @param header the header line of the manifest
+   */
+  private GenerationManifest(File file, String header) {
+    this.file = file;
+    this.header = header;
+    this.entries = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Creates an empty manifest in the specified directory, which is written by {@link #save()}.
+   * 
+   * @param directory the output directory of skeleton test code
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param packageName the package name to generate skeleton test codes
+   * @return the empty manifest
+   */
+  public static GenerationManifest create(File directory, String attributeName,
+      String packageName) {
+    Preconditions.checkNotNull(directory);
+    Preconditions.checkNotNull(attributeName);
+    Preconditions.checkNotNull(packageName);
+
+    String header =
+        Joiner.on(SEPARATOR).join(HEADER_MARK, GENERATOR_VERSION, attributeName, packageName);
+    return new GenerationManifest(new File(directory, MANIFEST_NAME), header);
+  }
+
+  /**
+   * Loads the manifest in the specified directory. Returns an empty manifest if the manifest
+   * doesn't exist or was written with another generator version or other options.
+   * 
+   * @param directory the output directory of skeleton test code
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param packageName the package name to generate skeleton test codes
+   * @return the loaded manifest
+   * @throws IOException if errors occur in reading the manifest
+   */
+  public static GenerationManifest load(File directory, String attributeName, String packageName)
+      throws IOException {
+    GenerationManifest manifest = create(directory, attributeName, packageName);
+    if (!manifest.file.isFile()) {
+      return manifest;
+    }
+    List<String> lines = Files.readLines(manifest.file, CHARSET);
+    if (lines.isEmpty() || !lines.get(0).equals(manifest.header)) {
+      return manifest;
+    }
+    Splitter splitter = Splitter.on(SEPARATOR);
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> columns = Lists.newArrayList(splitter.split(line));
+      if (columns.size() != 7) {
+        continue;
+      }
+      try {
+        manifest.entries.put(columns.get(0), new Entry(columns.get(1), columns.get(2), columns
+            .get(3), Integer.parseInt(columns.get(4)), Integer.parseInt(columns.get(5)), columns
+            .get(6)));
+      } catch (NumberFormatException e) {
+        // Ignore the broken entry to regenerate the template
+      }
+    }
+    return manifest;
+  }
+
+  /**
+   * Writes this manifest into the output directory of skeleton test code.
+   * 
+   * @throws IOException if errors occur in writing the manifest
+   */
+  public void save() throws IOException {
+    StringBuilder builder = new StringBuilder(header).append('\n');
+    Joiner joiner = Joiner.on(SEPARATOR);
+    for (Map.Entry<String, Entry> pathAndEntry : new TreeMap<String, Entry>(entries).entrySet()) {
+      Entry entry = pathAndEntry.getValue();
+      joiner.appendTo(builder, pathAndEntry.getKey(), entry.orgTemplateHash, entry.templateHash,
+          entry.codePath, entry.valueStart, entry.valueCount, entry.dependencyKey);
+      builder.append('\n');
+    }
+    Files.write(builder, file, CHARSET);
+  }
+
+  /**
+   * Returns {@code true} if the specified template was generated from the same backup file and the
+   * same dependency key as the last run and the generated files have not been changed or removed
+   * since then.
+   * 
+   * @param templateFile the template file to be checked
+   * @param orgTemplateFile the backup file of the template
+   * @param dependencyKey the key of the other templates which the generated files depend on
+   * @return {@code true} if the specified template is unchanged
+   * @throws IOException if errors occur in reading files
+   */
+  public boolean isUnchanged(File templateFile, File orgTemplateFile, String dependencyKey)
+      throws IOException {
+    Entry entry = entries.get(getKey(templateFile));
+    if (entry == null || !entry.dependencyKey.equals(dependencyKey)) {
+      return false;
+    }
+    if (entry.verified) {
+      return true;
+    }
+    entry.verified =
+        templateFile.isFile() && new File(entry.codePath).isFile()
+            && entry.orgTemplateHash.equals(hash(orgTemplateFile))
+            && entry.templateHash.equals(hash(templateFile));
+    return entry.verified;
+  }
+
+  /**
+   * Makes the specified template be checked again by reading files because the backup file of it
+   * might be changed. Note that the generated or checked templates are not checked again in the
+   * same instance.
+   * 
+   * @param templateFile the template file to be checked again
+   */
+  public void invalidate(File templateFile) {
+    Entry entry = entries.get(getKey(templateFile));
+    if (entry != null) {
+      entry.verified = false;
+    }
+  }
+
+  /**
+   * Makes all the templates be checked again by reading files.
+   */
+  public void invalidateAll() {
+    for (Entry entry : entries.values()) {
+      entry.verified = false;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the specified template is unchanged and the attribute values assigned
+   * to it in the last run start at the specified value.
+   * 
+   * @param templateFile the template file to be checked
+   * @param orgTemplateFile the backup file of the template
+   * @param valueStart the number of attribute values assigned to the preceding templates
+   * @param dependencyKey the key of the other templates which the generated files depend on
+   * @return {@code true} if the specified template is up to date
+   * @throws IOException if errors occur in reading files
+   */
+  public boolean isUpToDate(File templateFile, File orgTemplateFile, int valueStart,
+      String dependencyKey) throws IOException {
+    return getValueStart(templateFile) == valueStart
+        && isUnchanged(templateFile, orgTemplateFile, dependencyKey);
+  }
+
+  /**
+   * Returns the number of attribute values assigned to the templates preceding the specified
+   * template in the last run, or -1 if the template is not recorded.
+   * 
+   * @param templateFile the recorded template file
+   * @return the number of attribute values assigned to the preceding templates
+   */
+  public int getValueStart(File templateFile) {
+    Entry entry = entries.get(getKey(templateFile));
+    return entry != null ? entry.valueStart : -1;
+  }
+
+  /**
+   * Returns the number of attribute values assigned to the specified template in the last run.
+   * 
+   * @param templateFile the recorded template file
+   * @return the number of attribute values assigned to the template
+   */
+  public int getValueCount(File templateFile) {
+    Entry entry = entries.get(getKey(templateFile));
+    Preconditions.checkArgument(entry != null);
+    return entry.valueCount;
+  }
+
+  /**
+   * Records the specified template which has been generated.
+   * 
+   * @param templateFile the modified template file
+   * @param orgTemplateFile the backup file of the template
+   * @param codeFile the generated skeleton test code file
+   * @param valueStart the number of attribute values assigned to the preceding templates
+   * @param valueCount the number of attribute values assigned to the template
+   * @param dependencyKey the key of the other templates which the generated files depend on
+   * @throws IOException if errors occur in reading files
+   */
+  public void put(File templateFile, File orgTemplateFile, File codeFile, int valueStart,
+      int valueCount, String dependencyKey) throws IOException {
+    Preconditions.checkNotNull(dependencyKey);
+    Entry entry =
+        new Entry(hash(orgTemplateFile), hash(templateFile), codeFile.getAbsolutePath(),
+            valueStart, valueCount, dependencyKey);
+    entry.verified = true;
+    entries.put(getKey(templateFile), entry);
+  }
+
+  /**
+   * Returns the key of the specified template file in the manifest.
+   * 
+   * @param templateFile the template file
+   * @return the key of the template file
+   */
+  private static String getKey(File templateFile) {
+    return templateFile.getAbsolutePath();
+  }
+
+  /**
+   * Returns the hash string of the content of the specified file.
+   * 
+   * @param file the file to be hashed
+   * @return the hash string of the file content
+   * @throws IOException if errors occur in reading the file
+   */
+  private static String hash(File file) throws IOException {
+    return Files.hash(file, Hashing.sha1()).toString();
+  }
+
+  /**
+   * A class which represents a recorded template in the manifest.
+   */
+  private static final class Entry {
+    private final String orgTemplateHash;
+    private final String templateHash;
+    private final String codePath;
+    private final int valueStart;
+    private final int valueCount;
+    private final String dependencyKey;
+    /**
+     * A boolean whether the recorded files are known to be unchanged.
+     */
+    private volatile boolean verified;
+
+    Entry(String orgTemplateHash, String templateHash, String codePath, int valueStart,
+        int valueCount, String dependencyKey) {
+      this.orgTemplateHash = orgTemplateHash;
+      this.templateHash = templateHash;
+      this.codePath = codePath;
+      this.valueStart = valueStart;
+      this.valueCount = valueCount;
+      this.dependencyKey = dependencyKey;
+    }
+  }
+}
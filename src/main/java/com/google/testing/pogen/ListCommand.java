@@ -17,12 +17,12 @@ package com.google.testing.pogen;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 
-import com.google.common.io.Files;
+import javax.annotation.Nullable;
+
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
-import com.google.testing.pogen.parser.template.TemplateInfo;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 import com.google.testing.pogen.parser.template.TemplateParsers;
@@ -43,17 +43,26 @@ public class ListCommand extends Command {
    * A name of the attribute to be assigned for tags containing template variables
    */
   private final String attributeName;
+  /**
+   * A cache of parse results shared with other commands, or {@code null} not to cache them.
+   */
+  @Nullable
+  private final TemplateInfoCache cache;
 
   /**
-   * Constructs an instance with the specified template paths and the specified attribute name.
+   * Constructs an instance with the specified template paths, the specified attribute name and the
+   * specified cache.
    * 
    * @param templatePaths the template paths to be parsed
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
+   * @param cache the cache of parse results, or {@code null} not to cache them
    */
-  public ListCommand(String[] templatePaths, String attributeName) {
+  public ListCommand(String[] templatePaths, String attributeName,
+      @Nullable TemplateInfoCache cache) {
     this.attributeName = attributeName;
     this.templatePaths = Arrays.copyOf(templatePaths, templatePaths.length);
+    this.cache = cache;
   }
 
   @Override
@@ -63,20 +72,18 @@ public class ListCommand extends Command {
           TemplateParsers.getPreferredParser(templatePath, attributeName);
       File templateFile = createFileFromFilePath(templatePath);
       checkExistenceAndPermission(templateFile, true, false);
-      String template = Files.toString(templateFile, Charset.defaultCharset());
       try {
-        TemplateInfo templateInfo = templateParser.parse(template);
-        for (HtmlTagInfo tagInfo : templateInfo.getHtmlTagInfos()) {
+        for (HtmlTagInfo tagInfo : parseTags(templateFile, templateParser, cache)) {
           for (@SuppressWarnings("unused")
           VariableInfo varInfo : tagInfo.getVariableInfos()) {
             String id = tagInfo.hasAttributeValue() ? tagInfo.getAttributeValue() : "";
-            System.out.print(templatePath + ", " + id);
+            out.print(templatePath + ", " + id);
             for (VariableInfo variableInfo : tagInfo.getVariableInfos()) {
               if (!variableInfo.isManipulableTag()) {
-                System.out.print(", " + variableInfo.getName());
+                out.print(", " + variableInfo.getName());
               }
             }
-            System.out.println();
+            out.println();
           }
         }
       } catch (TemplateParseException e) {
@@ -17,12 +17,13 @@ package com.google.testing.pogen;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 
-import com.google.common.io.Files;
+import javax.annotation.Nullable;
+
 import com.google.testing.pogen.measurer.VariableCoverage;
 import com.google.testing.pogen.measurer.VariableCoverageMeasurer;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 import com.google.testing.pogen.parser.template.TemplateParsers;
@@ -47,20 +48,28 @@ public class MeasureCommand extends Command {
    * A name of the attribute to be assigned for tags containing template variables.
    */
   private final String attributeName;
+  /**
+   * A cache of parse results shared with other commands, or {@code null} not to cache them.
+   */
+  @Nullable
+  private final TemplateInfoCache cache;
 
   /**
-   * Constructs an instance with the specified template paths, the specified attribute name and the
-   * boolean of the vebose mode.
+   * Constructs an instance with the specified template paths, the specified attribute name, the
+   * boolean of the vebose mode and the specified cache.
    * 
    * @param templatePaths the template paths to be parsed
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
    * @param verbose the boolean whether prints processed files verbosely
+   * @param cache the cache of parse results, or {@code null} not to cache them
    */
-  public MeasureCommand(String[] templatePaths, String attributeName, boolean verbose) {
+  public MeasureCommand(String[] templatePaths, String attributeName, boolean verbose,
+      @Nullable TemplateInfoCache cache) {
     this.templatePaths = Arrays.copyOf(templatePaths, templatePaths.length);
     this.attributeName = attributeName;
     this.verbose = verbose;
+    this.cache = cache;
   }
 
   @Override
@@ -71,13 +80,13 @@ public class MeasureCommand extends Command {
           TemplateParsers.getPreferredParser(templatePath, attributeName);
       File templateFile = createFileFromFilePath(templatePath);
       checkExistenceAndPermission(templateFile, true, false);
-      String template = Files.toString(templateFile, Charset.defaultCharset());
       try {
-        VariableCoverage result = VariableCoverageMeasurer.measure(templateParser.parse(template));
+        VariableCoverage result =
+            VariableCoverageMeasurer.measure(parseTags(templateFile, templateParser, cache));
         sumAllVariableCount += result.getAllVariableCount();
         sumVariableWithIdCount += result.getVariableWithIdCount();
         if (verbose) {
-          System.out.format("%.2f%% : %s", result.getCoverage() * 100,
+          out.format("%.2f%% : %s", result.getCoverage() * 100,
               templateFile.getAbsolutePath());
         }
       } catch (TemplateParseException e) {
@@ -86,10 +95,10 @@ public class MeasureCommand extends Command {
       }
     }
     if (sumAllVariableCount > 0) {
-      System.out.format("Summary: %.2f%% (%d / %d)", (double) sumVariableWithIdCount
+      out.format("Summary: %.2f%% (%d / %d)", (double) sumVariableWithIdCount
           / sumAllVariableCount * 100, sumVariableWithIdCount, sumAllVariableCount);
     } else {
-      System.out.println("Summary: no template variables were found.");
+      out.println("Summary: no template variables were found.");
     }
   }
 }
@@ -15,9 +15,12 @@
 
 package com.google.testing.pogen;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.Set;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -26,6 +29,9 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
+
 /**
  * A main class of PageObjectGenerator. The PageObjectGenerator is a tool to generate modified
  * template files inserting id attributes and skeleton test code designed by PageObject pattern. The
@@ -53,14 +59,92 @@ public class PageObjectGenerator {
    */
   private static final String LIST_COMMAND = "list";
 
+  /**
+   * A name of watch command.
+   */
+  private static final String WATCH_COMMAND = "watch";
+
+  /**
+   * A name of daemon command.
+   */
+  private static final String DAEMON_COMMAND = "daemon";
+
+  /**
+   * A set of names of the commands which can be forwarded to the running daemon.
+   */
+  private static final Set<String> FORWARDABLE_COMMANDS = ImmutableSet.of(GENERATE_COMMAND,
+      MEASURE_COMMAND, LIST_COMMAND);
+
   private PageObjectGenerator() {}
 
+  public static void main(String[] args) {
+    if (isForwardable(args)) {
+      // Forward the arguments to the running daemon to avoid starting up and warming up the JVM
+      DaemonClient client = new DaemonClient(DaemonCommand.getDefaultStateFile(),
+          DaemonClient.getDefaultDaemonCommand());
+      Integer status =
+          client.forward(args, new File("").getAbsoluteFile(), System.out, System.err);
+      if (status != null) {
+        exit(status);
+        return;
+      }
+    }
+    exit(run(args, null));
+  }
+
+  /**
+   * Terminates the JVM with the specified status only if the command failed, so that the JVM stays
+   * alive while non-daemon threads such as the daemon server are running.
+   * 
+   * @param status the exit status of the command
+   */
+  private static void exit(int status) {
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the specified arguments represent a command which can be forwarded to
+   * the running daemon.
+   * 
+   * @param args the command-line arguments
+   * @return {@code true} if the command can be forwarded to the running daemon
+   */
+  static boolean isForwardable(String[] args) {
+    return args.length > 0 && FORWARDABLE_COMMANDS.contains(args[0]);
+  }
+
+  /**
+   * Runs the command specified by the arguments in this process, printing results to
+   * {@link System#out} and {@link System#err}.
+   * 
+   * @param args the command-line arguments
+   * @param workingDir the directory to resolve relative paths, or {@code null} to resolve them
+   *        against the current directory of this process
+   * @return the exit status, which is {@code 0} if the command succeeded
+   */
+  static int run(String[] args, File workingDir) {
+    return run(args, workingDir, System.out, System.err);
+  }
+
+  /**
+   * Runs the command specified by the arguments in this process, printing results to the specified
+   * streams, so that commands forwarded by different clients can run in parallel.
+   * 
+   * @param args the command-line arguments
+   * @param workingDir the directory to resolve relative paths, or {@code null} to resolve them
+   *        against the current directory of this process
+   * @param out the stream to print the results
+   * @param err the stream to print the errors
+   * @return the exit status, which is {@code 0} if the command succeeded
+   */
   // Apache's OptionBuilder has static Builder pattern
   @SuppressWarnings("static-access")
-  public static void main(String[] args) {
+  static int run(String[] args, File workingDir, PrintStream out, PrintStream err) {
     if (args.length == 0) {
-      printUsage(System.out);
-      return;
+      printUsage(out);
+      return 0;
     }
 
     String commandName = args[0];
@@ -75,11 +159,19 @@ public class PageObjectGenerator {
             .create('h'))
         .addOption(OptionBuilder
             .withDescription("Print processed files verbosely.")
-            .create('v'));
+            .create('v'))
+        .addOption(OptionBuilder
+            .withDescription("Directory to cache parse results across commands (default is no cache).")
+            .hasArg()
+            .create("cache"))
+        .addOption(OptionBuilder
+            .withDescription("Maximum size in megabytes of the cached parse results (default is 64).")
+            .hasArg()
+            .create("cachesize"));
     // @formatter:on
 
     String helpMessage = null;
-    if (commandName.equals(GENERATE_COMMAND)) {
+    if (commandName.equals(GENERATE_COMMAND) || commandName.equals(WATCH_COMMAND)) {
       // @formatter:off
       options
           .addOption(OptionBuilder
@@ -103,20 +195,52 @@ public class PageObjectGenerator {
               .create('e'))
           .addOption(OptionBuilder
               .withDescription("Option for finding html template files recursively.")
-              .create('r'));
+              .create('r'))
+          .addOption(OptionBuilder
+              .withDescription("Number of threads for processing template files in parallel (default is 1).")
+              .hasArg()
+              .create('j'))
+          .addOption(OptionBuilder
+              .withDescription("Number of threads for reading template files and test code (default is the number of -j).")
+              .hasArg()
+              .create("readthreads"))
+          .addOption(OptionBuilder
+              .withDescription("Number of threads for parsing template files (default is the number of -j).")
+              .hasArg()
+              .create("parsethreads"))
+          .addOption(OptionBuilder
+              .withDescription("Number of threads for rendering test code (default is the number of -j).")
+              .hasArg()
+              .create("renderthreads"))
+          .addOption(OptionBuilder
+              .withDescription("Number of threads for writing template files and test code (default is the number of -j).")
+              .hasArg()
+              .create("writethreads"))
+          .addOption(OptionBuilder
+              .withDescription("Regenerate all template files ignoring the manifest of the last run.")
+              .create('f'));
       // @formatter:on
       helpMessage =
-          "java PageObjectGenerator generate -o <test_out_dir> -p <package_name>"
+          "java PageObjectGenerator " + commandName + " -o <test_out_dir> -p <package_name>"
               + " [OPTIONS] <template_file1> <template_file2> ...";
     } else if (commandName.equals(MEASURE_COMMAND)) {
       helpMessage =
           "java PageObjectGenerator measure [OPTIONS] <template_file1> <template_file2> ...";
     } else if (commandName.equals(LIST_COMMAND)) {
       helpMessage = "java PageObjectGenerator list <template_file1> <template_file2> ...";
+    } else if (commandName.equals(DAEMON_COMMAND)) {
+      // @formatter:off
+      options
+          .addOption(OptionBuilder
+              .withDescription("Loopback port number to listen (default is an arbitrary free port).")
+              .hasArg()
+              .create("port"));
+      // @formatter:on
+      helpMessage = "java PageObjectGenerator daemon [OPTIONS]";
     } else {
-      System.err.format("'%s' is not a PageObjectGenerator command.", commandName);
-      printUsage(System.err);
-      System.exit(-1);
+      err.format("'%s' is not a PageObjectGenerator command.", commandName);
+      printUsage(err);
+      return -1;
     }
 
     BasicParser cmdParser = new BasicParser();
@@ -124,42 +248,120 @@ public class PageObjectGenerator {
     try {
       CommandLine cl = cmdParser.parse(options, Arrays.copyOfRange(args, 1, args.length));
       if (cl.hasOption('h')) {
-        f.printHelp(helpMessage, options);
-        return;
+        printHelp(f, helpMessage, options, out);
+        return 0;
       }
 
       Command command = null;
       String[] templatePaths = cl.getArgs();
+      for (int i = 0; i < templatePaths.length; i++) {
+        templatePaths[i] = resolvePath(workingDir, templatePaths[i]);
+      }
       String attributeName = cl.getOptionValue('a');
       attributeName = attributeName != null ? attributeName : "id";
-      if (commandName.equals(GENERATE_COMMAND)) {
-        String rootDirectoryPath = cl.getOptionValue('i');
+      String cacheDirectoryPath = resolvePath(workingDir, cl.getOptionValue("cache"));
+      long cacheMaxBytes =
+          parsePositiveInt(cl.getOptionValue("cachesize"),
+              (int) (TemplateInfoCache.DEFAULT_MAX_BYTES >> 20)) * 1024L * 1024L;
+      TemplateInfoCache cache =
+          cacheDirectoryPath != null ? new TemplateInfoCache(new File(cacheDirectoryPath),
+              cacheMaxBytes) : null;
+      if (commandName.equals(GENERATE_COMMAND) || commandName.equals(WATCH_COMMAND)) {
+        String testOutDirPath = resolvePath(workingDir, cl.getOptionValue('o'));
+        String rootDirectoryPath = resolvePath(workingDir, cl.getOptionValue('i'));
         String templateFilePattern = cl.getOptionValue('e');
         boolean isRecusive = cl.hasOption('r');
+        int threadCount = parsePositiveInt(cl.getOptionValue('j'), 1);
+        int readThreadCount = parsePositiveInt(cl.getOptionValue("readthreads"), threadCount);
+        int parseThreadCount = parsePositiveInt(cl.getOptionValue("parsethreads"), threadCount);
+        int renderThreadCount = parsePositiveInt(cl.getOptionValue("renderthreads"), threadCount);
+        int writeThreadCount = parsePositiveInt(cl.getOptionValue("writethreads"), threadCount);
         command =
-            new GenerateCommand(templatePaths, cl.getOptionValue('o'), cl.getOptionValue('p'),
-                attributeName, cl.hasOption('v'), rootDirectoryPath, templateFilePattern,
-                isRecusive);
+            commandName.equals(GENERATE_COMMAND) ? new GenerateCommand(templatePaths,
+                testOutDirPath, cl.getOptionValue('p'), attributeName, cl.hasOption('v'),
+                rootDirectoryPath, templateFilePattern, isRecusive, threadCount, readThreadCount,
+                parseThreadCount, renderThreadCount, writeThreadCount, cl.hasOption('f'), cache)
+                : new WatchCommand(templatePaths, testOutDirPath, cl.getOptionValue('p'),
+                    attributeName, cl.hasOption('v'), rootDirectoryPath, templateFilePattern,
+                    isRecusive, threadCount, readThreadCount, parseThreadCount,
+                    renderThreadCount, writeThreadCount, cl.hasOption('f'), cache);
       } else if (commandName.equals(MEASURE_COMMAND)) {
-        command = new MeasureCommand(templatePaths, attributeName, cl.hasOption('v'));
+        command = new MeasureCommand(templatePaths, attributeName, cl.hasOption('v'), cache);
       } else if (commandName.equals(LIST_COMMAND)) {
-        command = new ListCommand(templatePaths, attributeName);
+        command = new ListCommand(templatePaths, attributeName, cache);
+      } else if (commandName.equals(DAEMON_COMMAND)) {
+        int port = parsePositiveInt(cl.getOptionValue("port"), 0);
+        command = new DaemonCommand(port, DaemonCommand.getDefaultStateFile(), cl.hasOption('v'));
       }
+      command.setOutput(out, err);
       try {
         command.execute();
-        return;
+        return 0;
       } catch (FileProcessException e) {
-        System.err.println(e.getMessage());
+        err.println(e.getMessage());
       } catch (IOException e) {
-        System.err.println("Errors occur in processing files.");
-        System.err.println(e.getMessage());
+        err.println("Errors occur in processing files.");
+        err.println(e.getMessage());
       }
     } catch (ParseException e) {
-      System.err.println("Errors occur in parsing the command arguments.");
-      System.err.println(e.getMessage());
-      f.printHelp(helpMessage, options);
+      err.println("Errors occur in parsing the command arguments.");
+      err.println(e.getMessage());
+      printHelp(f, helpMessage, options, err);
+    }
+    return -1;
+  }
+
+  /**
+   * Resolves the specified path against the specified working directory if the path is relative.
+   * 
+   * @param workingDir the directory to resolve relative paths, or {@code null} not to resolve them
+   * @param path the path to be resolved, or {@code null} if the option is not specified
+   * @return the resolved path
+   */
+  private static String resolvePath(File workingDir, String path) {
+    if (workingDir == null || path == null || new File(path).isAbsolute()) {
+      return path;
+    }
+    return new File(workingDir, path).getPath();
+  }
+
+  /**
+   * Parses the specified option value as a positive integer.
+   * 
+   * @param value the option value to be parsed, or {@code null} if the option is not specified
+   * @param defaultValue the value to be returned if the option is not specified
+   * @return the parsed positive integer
+   * @throws ParseException if the option value is not a positive integer
+   */
+  private static int parsePositiveInt(String value, int defaultValue) throws ParseException {
+    if (value == null) {
+      return defaultValue;
     }
-    System.exit(-1);
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through to report the invalid value
+    }
+    throw new ParseException("Not a positive integer: " + value);
+  }
+
+  /**
+   * Prints the help of the command with the specified {@link PrintStream} instance.
+   * 
+   * @param formatter the formatter to format the help
+   * @param helpMessage the syntax of the command
+   * @param options the options of the command
+   * @param printStream the {@link PrintStream} to print
+   */
+  private static void printHelp(HelpFormatter formatter, String helpMessage, Options options,
+      PrintStream printStream) {
+    PrintWriter writer = new PrintWriter(printStream);
+    formatter.printHelp(writer, formatter.getWidth(), helpMessage, null, options,
+        formatter.getLeftPadding(), formatter.getDescPadding(), null);
+    writer.flush();
   }
 
   /**
@@ -174,5 +376,9 @@ public class PageObjectGenerator {
         GENERATE_COMMAND);
     printStream.format("   %-10s Measure template-variable coverage\n", MEASURE_COMMAND);
     printStream.format("   %-10s List template variables and ids\n", LIST_COMMAND);
+    printStream.format("   %-10s Regenerate modified templates and skeleton test code on change\n",
+        WATCH_COMMAND);
+    printStream.format("   %-10s Run a daemon to execute commands without starting up JVMs\n",
+        DAEMON_COMMAND);
   }
 }
@@ -0,0 +1,465 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A class which processes items through stages connected by bounded queues. Each stage has its
+ * own threads, so stages waiting for disks overlap with stages using CPUs, and a stage blocks when
+ * the queue of the next stage is full, so fast stages don't accumulate items in memory. An ordered
+ * stage receives the items in the order in which they are given and processes its ordered section
+ * one by one in that order. An item is admitted into the pipeline only while it is within the
+ * capacity of the queue of the last ordered stage from the next turn of that stage, so the entries
+ * waiting for preceding ones are bounded, and workers of earlier stages never wait for an entry
+ * which hasn't arrived yet. When an item fails, the following items are dropped and the first
+ * error is rethrown.
+ * 
+ * @author Kazunori Sakamoto
+ * @param <T> the type of the processed items
+ */
+final class Pipeline<T> {
+  /**
+   * A marker which indicates that no more items come to a stage.
+   */
+  private static final Object END = new Object();
+
+  /**
+   * A class which represents a stage of a pipeline.
+   * 
+   * @param <T> the type of the processed items
+   */
+  abstract static class Stage<T> {
+    /**
+     * A name of this stage.
+     */
+    private final String name;
+    /**
+     * A number of threads to process items in parallel.
+     */
+    private final int threadCount;
+    /**
+     * A boolean whether items are processed in order in {@link #processInOrder(Object)}.
+     */
+    private final boolean isOrdered;
+
+    /**
+     * Constructs a stage with the specified name and the specified number of threads.
+     * 
+     * @param name the name of the stage
+     * @param threadCount the number of threads to process items in parallel
+     * @param isOrdered the boolean whether items are processed in order in
+     *        {@link #processInOrder(Object)}
+     */
+    Stage(String name, int threadCount, boolean isOrdered) {
+      Preconditions.checkNotNull(name);
+      Preconditions.checkArgument(threadCount > 0);
+
+      this.name = name;
+      this.threadCount = threadCount;
+      this.isOrdered = isOrdered;
+    }
+
+    /**
+     * Processes the specified item one by one in the order of the items before
+     * {@link #process(Object)} if this stage is ordered.
+     * 
+     * @param item the item to be processed
+     * @throws IOException if errors occur in processing the item
+     */
+    void processInOrder(T item) throws IOException {}
+
+    /**
+     * Processes the specified item concurrently with the other items.
+     * 
+     * @param item the item to be processed
+     * @throws IOException if errors occur in processing the item
+     */
+    abstract void process(T item) throws IOException;
+  }
+
+  /**
+   * Runners of the stages in order.
+   */
+  private final List<StageRunner> runners;
+  /**
+   * The first error which occurred in processing items.
+   */
+  private final AtomicReference<Throwable> error;
+
+  /**
+   * Constructs a pipeline which consists of the specified stages in order.
+   * 
+   * @param stages the stages of the pipeline
+   * @param queueCapacityPerThread the capacity of the queue of each stage per its thread
+   */
+  Pipeline(List<? extends Stage<T>> stages, int queueCapacityPerThread) {
+    Preconditions.checkArgument(!stages.isEmpty());
+    Preconditions.checkArgument(queueCapacityPerThread > 0);
+
+    List<StageRunner> runners = Lists.newArrayList();
+    for (Stage<T> stage : stages) {
+      runners.add(new StageRunner(stage, stage.threadCount * queueCapacityPerThread));
+    }
+    this.runners = ImmutableList.copyOf(runners);
+    this.error = new AtomicReference<Throwable>();
+  }
+
+  /**
+   * Processes the specified items through all the stages waiting for them to be processed.
+   * 
+   * @param items the items to be processed
+   * @throws IOException if errors occur in processing the items
+   */
+  void run(List<T> items) throws IOException {
+    int threadCount = 0;
+    for (StageRunner runner : runners) {
+      threadCount += runner.stage.threadCount;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      for (int i = 0; i < runners.size(); i++) {
+        StageRunner runner = runners.get(i);
+        StageRunner next = i + 1 < runners.size() ? runners.get(i + 1) : null;
+        for (int j = 0; j < runner.stage.threadCount; j++) {
+          executor.execute(runner.newWorker(next));
+        }
+      }
+      StageRunner first = runners.get(0);
+      StageRunner lastOrdered = null;
+      for (StageRunner runner : runners) {
+        if (runner.stage.isOrdered) {
+          lastOrdered = runner;
+        }
+      }
+      for (int i = 0; i < items.size() && error.get() == null; i++) {
+        if (lastOrdered != null) {
+          lastOrdered.awaitWindow(i);
+        }
+        first.put(new Entry<T>(i, items.get(i)));
+      }
+      first.end();
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        // Wait for all the items to be processed
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted in processing the pipeline");
+    } finally {
+      executor.shutdownNow();
+    }
+    Throwable cause = error.get();
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * Returns the statistics of the stages, i.e. the numbers of the processed items, the throughputs
+   * and the depths of their queues, which are available after {@link #run(List)}.
+   * 
+   * @return the list of the statistics of the stages in order
+   */
+  List<String> getStatistics() {
+    List<String> statistics = Lists.newArrayList();
+    for (StageRunner runner : runners) {
+      statistics.add(runner.getStatistics());
+    }
+    return statistics;
+  }
+
+  /**
+   * Records the specified error and wakes up the threads waiting for their turns.
+   * 
+   * @param cause the error which occurred in processing an item
+   */
+  private void fail(Throwable cause) {
+    if (error.compareAndSet(null, cause)) {
+      for (StageRunner runner : runners) {
+        synchronized (runner) {
+          runner.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * A class which represents an item with its index in the given items.
+   * 
+   * @param <T> the type of the item
+   */
+  private static final class Entry<T> {
+    private final int index;
+    private final T item;
+
+    Entry(int index, T item) {
+      this.index = index;
+      this.item = item;
+    }
+  }
+
+  /**
+   * A class which runs a stage with its queue and measures it. Its monitor guards the turns of the
+   * ordered section and the admission of items into the pipeline.
+   */
+  private final class StageRunner {
+    private final Stage<T> stage;
+    private final BlockingQueue<Object> queue;
+    private final int queueCapacity;
+    /**
+     * Entries which arrived before the preceding ones, used only by ordered stages, which are
+     * bounded by the admission window of the pipeline.
+     */
+    private final Map<Integer, Entry<T>> reorderedEntries;
+    private int nextEntryIndex;
+    private int nextTurnIndex;
+    private final AtomicInteger remainingWorkerCount;
+    private final AtomicInteger processedCount;
+    private final AtomicLong busyNanos;
+    private final AtomicLong startNanos;
+    private final AtomicLong endNanos;
+    private final AtomicLong queueDepthSum;
+    private final AtomicInteger queueDepthSampleCount;
+    private final AtomicInteger maxQueueDepth;
+
+    /**
+     * Constructs a runner of the specified stage with the queue of the specified capacity.
+     * 
+     * @param stage the stage to be run
+     * @param queueCapacity the capacity of the queue of the stage
+     */
+    StageRunner(Stage<T> stage, int queueCapacity) {
+      this.stage = stage;
+      this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+      this.queueCapacity = queueCapacity;
+      this.reorderedEntries = Maps.newHashMap();
+      this.remainingWorkerCount = new AtomicInteger(stage.threadCount);
+      this.processedCount = new AtomicInteger();
+      this.busyNanos = new AtomicLong();
+      this.startNanos = new AtomicLong();
+      this.endNanos = new AtomicLong();
+      this.queueDepthSum = new AtomicLong();
+      this.queueDepthSampleCount = new AtomicInteger();
+      this.maxQueueDepth = new AtomicInteger();
+    }
+
+    /**
+     * Waits until the entry of the specified index is within the capacity of the queue from the
+     * next turn of this ordered stage, or another entry has failed.
+     * 
+     * @param index the index of the entry to be admitted into the pipeline
+     * @throws InterruptedException if interrupted in waiting for the turns
+     */
+    synchronized void awaitWindow(int index) throws InterruptedException {
+      while (index >= nextTurnIndex + queueCapacity && error.get() == null) {
+        wait();
+      }
+    }
+
+    /**
+     * Puts the specified entry into the queue waiting for its room, reordering entries for ordered
+     * stages. Entries which arrive before the preceding ones are kept without waiting, and the
+     * consecutive entries are enqueued in order.
+     * 
+     * @param entry the entry to be processed
+     * @throws InterruptedException if interrupted in waiting for the room of the queue
+     */
+    void put(Entry<T> entry) throws InterruptedException {
+      if (!stage.isOrdered) {
+        enqueue(entry);
+        return;
+      }
+      synchronized (reorderedEntries) {
+        if (error.get() != null) {
+          return;
+        }
+        reorderedEntries.put(entry.index, entry);
+        Entry<T> next;
+        while ((next = reorderedEntries.remove(nextEntryIndex)) != null) {
+          enqueue(next);
+          nextEntryIndex++;
+        }
+      }
+    }
+
+    /**
+     * Puts the specified entry into the queue waiting for its room, sampling the queue depth.
+     * 
+     * @param entry the entry to be processed
+     * @throws InterruptedException if interrupted in waiting for the room of the queue
+     */
+    private void enqueue(Object entry) throws InterruptedException {
+      queue.put(entry);
+      int depth = queue.size();
+      queueDepthSum.addAndGet(depth);
+      queueDepthSampleCount.incrementAndGet();
+      int max;
+      while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+        // Retry updating the maximum depth
+      }
+    }
+
+    /**
+     * Tells all the workers that no more entries come, dropping the entries waiting for the
+     * failed ones.
+     * 
+     * @throws InterruptedException if interrupted in waiting for the room of the queue
+     */
+    void end() throws InterruptedException {
+      synchronized (reorderedEntries) {
+        reorderedEntries.clear();
+      }
+      for (int i = 0; i < stage.threadCount; i++) {
+        queue.put(END);
+      }
+    }
+
+    /**
+     * Creates a worker which processes the entries in the queue and passes them to the specified
+     * next stage.
+     * 
+     * @param next the runner of the next stage, or {@code null} if this stage is the last
+     * @return the created worker
+     */
+    Runnable newWorker(final StageRunner next) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          try {
+            work(next);
+          } catch (InterruptedException e) {
+            // The pipeline is aborted
+          }
+        }
+      };
+    }
+
+    /**
+     * Processes the entries in the queue until the end marker and tells the next stage the end
+     * after all the workers of this stage finish.
+     * 
+     * @param next the runner of the next stage, or {@code null} if this stage is the last
+     * @throws InterruptedException if interrupted in waiting for entries or rooms of queues
+     */
+    private void work(StageRunner next) throws InterruptedException {
+      while (true) {
+        Object taken = queue.take();
+        if (taken == END) {
+          break;
+        }
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) taken;
+        long start = System.nanoTime();
+        startNanos.compareAndSet(0, start);
+        boolean isProcessed = process(entry);
+        busyNanos.addAndGet(System.nanoTime() - start);
+        if (isProcessed) {
+          processedCount.incrementAndGet();
+          if (next != null) {
+            next.put(entry);
+          }
+        }
+      }
+      if (remainingWorkerCount.decrementAndGet() == 0) {
+        endNanos.set(System.nanoTime());
+        if (next != null) {
+          next.end();
+        }
+      }
+    }
+
+    /**
+     * Processes the specified entry, waiting for its turn in the ordered section, unless another
+     * entry has failed.
+     * 
+     * @param entry the entry to be processed
+     * @return {@code true} if the entry is processed successfully
+     * @throws InterruptedException if interrupted in waiting for the turn
+     */
+    private boolean process(Entry<T> entry) throws InterruptedException {
+      if (error.get() != null) {
+        return false;
+      }
+      try {
+        if (stage.isOrdered) {
+          synchronized (this) {
+            while (nextTurnIndex != entry.index && error.get() == null) {
+              wait();
+            }
+          }
+          if (error.get() != null) {
+            return false;
+          }
+          try {
+            stage.processInOrder(entry.item);
+          } finally {
+            synchronized (this) {
+              nextTurnIndex++;
+              notifyAll();
+            }
+          }
+        }
+        stage.process(entry.item);
+        return true;
+      } catch (IOException e) {
+        fail(e);
+      } catch (RuntimeException e) {
+        fail(e);
+      } catch (Error e) {
+        // Keep the worker alive to tell the following stages the end
+        fail(e);
+      }
+      return false;
+    }
+
+    /**
+     * Returns the statistics of the stage.
+     * 
+     * @return the string of the statistics
+     */
+    String getStatistics() {
+      long elapsedNanos = Math.max(endNanos.get() - startNanos.get(), 1);
+      int sampleCount = Math.max(queueDepthSampleCount.get(), 1);
+      return String.format("%s: %d threads, %d items in %d ms (%.1f items/s, %.0f%% busy),"
+          + " queue depth avg %.1f max %d/%d", stage.name, stage.threadCount,
+          processedCount.get(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+          processedCount.get() * 1e9 / elapsedNanos,
+          busyNanos.get() * 100.0 / elapsedNanos / stage.threadCount,
+          (double) queueDepthSum.get() / sampleCount, maxQueueDepth.get(), queueCapacity);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A class to find the template files whose names match the specified pattern under a directory.
+ * Directories are listed in parallel with NIO, reading the attributes of each entry once, and the
+ * found files are pushed into a bounded queue, so the caller can process them while the others are
+ * still being found. The files are found in no particular order.
+ * 
+ * @author Kazunori Sakamoto
+ */
+final class TemplateFileFinder implements Closeable {
+  /**
+   * A marker which indicates that all the files have been found.
+   */
+  private static final File END = new File("");
+
+  /**
+   * A pattern of the names of template files.
+   */
+  private final Pattern pattern;
+  /**
+   * A boolean whether template files are recursively found.
+   */
+  private final boolean isRecursive;
+  /**
+   * An executor to list directories in parallel.
+   */
+  private final ExecutorService executor;
+  /**
+   * A queue of the found files.
+   */
+  private final BlockingQueue<File> queue;
+  /**
+   * A number of the directories which are being listed or waiting to be listed.
+   */
+  private final AtomicInteger pendingDirectoryCount;
+  /**
+   * The first error which occurred in listing directories.
+   */
+  private final AtomicReference<IOException> error;
+
+  /**
+   * Constructs an instance to find the files whose names match the specified pattern.
+   * 
+   * @param filePattern the pattern of the names of template files
+   * @param isRecursive the boolean whether template files are recursively found
+   * @param threadCount the number of threads to list directories in parallel
+   * @param queueCapacity the maximum number of the found files which are not taken yet
+   */
+  TemplateFileFinder(String filePattern, boolean isRecursive, int threadCount, int queueCapacity) {
+    Preconditions.checkNotNull(filePattern);
+    Preconditions.checkArgument(threadCount > 0);
+    Preconditions.checkArgument(queueCapacity > 0);
+
+    this.pattern = Pattern.compile(filePattern);
+    this.isRecursive = isRecursive;
+    this.executor = Executors.newFixedThreadPool(threadCount);
+    this.queue = new ArrayBlockingQueue<File>(queueCapacity);
+    this.pendingDirectoryCount = new AtomicInteger();
+    this.error = new AtomicReference<IOException>();
+  }
+
+  /**
+   * Starts finding the template files in the specified directory.
+   * 
+   * @param rootDirectory the directory to find template files
+   */
+  void start(File rootDirectory) {
+    Preconditions.checkNotNull(rootDirectory);
+    Preconditions.checkState(pendingDirectoryCount.get() == 0);
+    submit(rootDirectory.toPath());
+  }
+
+  /**
+   * Takes the next found template file waiting for it to be found.
+   * 
+   * @return the found template file, or {@code null} if all the files have been taken
+   * @throws IOException if errors occur in listing directories
+   */
+  @Nullable
+  File take() throws IOException {
+    File file;
+    try {
+      file = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted in finding template files");
+    }
+    if (file != END) {
+      return file;
+    }
+    // Keep the end marker for the following calls
+    queue.add(END);
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return null;
+  }
+
+  /**
+   * Takes all the found template files in ascending order of their paths, waiting for all of them
+   * to be found.
+   * 
+   * @return the sorted list of the found template files
+   * @throws IOException if errors occur in listing directories
+   */
+  List<File> takeAll() throws IOException {
+    List<File> files = Lists.newArrayList();
+    for (File file = take(); file != null; file = take()) {
+      files.add(file);
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  /**
+   * Stops finding template files.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Submits a task to list the specified directory.
+   * 
+   * @param directory the directory to be listed
+   */
+  private void submit(final Path directory) {
+    pendingDirectoryCount.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            try {
+              list(directory);
+            } catch (IOException e) {
+              error.compareAndSet(null, e);
+            } catch (DirectoryIteratorException e) {
+              error.compareAndSet(null, e.getCause());
+            } catch (RuntimeException e) {
+              error.compareAndSet(null, new IOException(e));
+            }
+            finish();
+          } catch (InterruptedException e) {
+            // The finder is closed
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The finder is closed
+      pendingDirectoryCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Lists the specified directory pushing the template files into the queue and submitting the
+   * sub directories.
+   * 
+   * @param directory the directory to be listed
+   * @throws IOException if errors occur in listing the directory
+   * @throws InterruptedException if interrupted in waiting for the room of the queue
+   */
+  private void list(Path directory) throws IOException, InterruptedException {
+    DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+    try {
+      for (Path path : stream) {
+        if (isDirectory(path)) {
+          if (isRecursive) {
+            submit(path);
+          }
+        } else if (pattern.matcher(path.getFileName().toString()).matches()) {
+          queue.put(path.toFile());
+        }
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Returns {@code true} if the specified path is a directory reading its attributes once. Paths
+   * whose attributes can't be read such as broken symbolic links are regarded as files.
+   * 
+   * @param path the path to be checked
+   * @return {@code true} if the path is a directory
+   */
+  private static boolean isDirectory(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class).isDirectory();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Pushes the end marker into the queue if all the directories have been listed.
+   * 
+   * @throws InterruptedException if interrupted in waiting for the room of the queue
+   */
+  private void finish() throws InterruptedException {
+    if (pendingDirectoryCount.decrementAndGet() == 0) {
+      queue.put(END);
+    }
+  }
+}
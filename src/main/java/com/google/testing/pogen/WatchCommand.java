@@ -0,0 +1,456 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.testing.pogen.parser.template.TemplateInfoCache;
+import com.google.testing.pogen.parser.template.TemplateParsers;
+import com.google.testing.pogen.parser.template.soy.SoyTemplateIndex;
+
+/**
+ * A class which represents the watch command to regenerate modified templates and skeleton test
+ * code whenever template files in the root input directory are changed. The backup files
+ * (xxxxx.org) are the sources of modified templates as well as the generate command, so changing a
+ * backup file or adding a new template file triggers the regeneration. Edits to the templates
+ * themselves are left as they are with a warning because regenerating them from the backup files
+ * would overwrite the edits. Only the changed templates and the ones whose attribute values are
+ * shifted by them are parsed again. The template files are found in the whole root input directory
+ * only at the beginning and when events are lost or directories are created, otherwise only the
+ * changed files are backed up, and soy templates are indexed again only when soy templates are
+ * changed. Events caused by the files written by this command are ignored.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class WatchCommand extends GenerateCommand {
+  /**
+   * A period in milliseconds to wait for following events to regenerate templates at once.
+   */
+  private static final long DEBOUNCE_MILLIS = 50;
+
+  /**
+   * A map of watch keys and the watched directories.
+   */
+  private final Map<WatchKey, Path> watchedDirs;
+  /**
+   * Template files specified by the arguments.
+   */
+  private List<File> specifiedFiles;
+  /**
+   * A set of the template files found in the root input directory in ascending order of their
+   * paths, which is kept up to date by the events.
+   */
+  private final NavigableSet<File> foundFiles;
+  /**
+   * A set of the template files which have to be checked and backed up before the next
+   * regeneration.
+   */
+  private final Set<File> changedFiles;
+  /**
+   * A set of the template files which have been edited since they were generated from their
+   * backup files, to print the warning only once.
+   */
+  private final Set<File> editedFiles;
+  /**
+   * A boolean whether the template files have to be found in the whole root input directory before
+   * the next regeneration.
+   */
+  private boolean needsDiscovery;
+  /**
+   * An index of the soy templates, or {@code null} if it has to be built before the next
+   * regeneration.
+   */
+  @Nullable
+  private SoyTemplateIndex soyIndex;
+  /**
+   * A map of the paths of the files written by this command and their last modified times just
+   * after they were written, to ignore the events caused by this command.
+   */
+  private final ConcurrentMap<Path, FileTime> writtenFiles;
+
+  /**
+   * Constructs an instance with the the specified template paths, specified output-directory path,
+   * the specified package name, the specified attribute name and the boolean of the verbose mode.
+   *
+   * @param templatePaths the template paths to be parsed
+   * @param testOutDirPath the output directory path of test codes
+   * @param packageName the package name to generate skeleton test codes
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param verbose the boolean whether prints processed files verbosely
+   * @param rootDirectoryPath the root directory of html template files
+   * @param templateFilePattern the pattern for finding template files in the root directory
+   * @param isRecusive the boolean whether template files are recursively found
+   * @param threadCount the number of threads to process template files in parallel
+   * @param isForced the boolean whether all templates are regenerated ignoring the manifest of the
+   *        last run at the beginning
+   * @param cache the cache of parse results, or {@code null} not to cache them
+   */
+  public WatchCommand(String[] templatePaths, String testOutDirPath, String packageName,
+      String attributeName, boolean verbose, String rootDirectoryPath, String templateFilePattern,
+      boolean isRecusive, int threadCount, boolean isForced, @Nullable TemplateInfoCache cache) {
+    this(templatePaths, testOutDirPath, packageName, attributeName, verbose, rootDirectoryPath,
+        templateFilePattern, isRecusive, threadCount, threadCount, threadCount, threadCount,
+        threadCount, isForced, cache);
+  }
+
+  /**
+   * Constructs an instance with the the specified template paths, specified output-directory path,
+   * the specified package name, the specified attribute name, the boolean of the verbose mode and
+   * the specified numbers of threads of the stages of the pipeline.
+   *
+   * @param templatePaths the template paths to be parsed
+   * @param testOutDirPath the output directory path of test codes
+   * @param packageName the package name to generate skeleton test codes
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param verbose the boolean whether prints processed files verbosely
+   * @param rootDirectoryPath the root directory of html template files
+   * @param templateFilePattern the pattern for finding template files in the root directory
+   * @param isRecusive the boolean whether template files are recursively found
+   * @param threadCount the number of threads to find and index template files in parallel
+   * @param readThreadCount the number of threads to read template files and existing test code
+   * @param parseThreadCount the number of threads to parse template files
+   * @param renderThreadCount the number of threads to render skeleton test code
+   * @param writeThreadCount the number of threads to write modified templates and test code
+   * @param isForced the boolean whether all templates are regenerated ignoring the manifest of the
+   *        last run at the beginning
+   * @param cache the cache of parse results, or {@code null} not to cache them
+   */
+  public WatchCommand(String[] templatePaths, String testOutDirPath, String packageName,
+      String attributeName, boolean verbose, String rootDirectoryPath, String templateFilePattern,
+      boolean isRecusive, int threadCount, int readThreadCount, int parseThreadCount,
+      int renderThreadCount, int writeThreadCount, boolean isForced,
+      @Nullable TemplateInfoCache cache) {
+    super(templatePaths, testOutDirPath, packageName, attributeName, verbose, rootDirectoryPath,
+        templateFilePattern, isRecusive, threadCount, readThreadCount, parseThreadCount,
+        renderThreadCount, writeThreadCount, isForced, cache);
+    this.watchedDirs = Maps.newHashMap();
+    this.specifiedFiles = Lists.newArrayList();
+    this.foundFiles = Sets.newTreeSet();
+    this.changedFiles = Sets.newHashSet();
+    this.editedFiles = Sets.newHashSet();
+    this.needsDiscovery = true;
+    this.writtenFiles = Maps.newConcurrentMap();
+  }
+
+  @Override
+  public void execute() throws IOException {
+    File rootInputDir = getRootInputDirectory();
+    File testOutDir = getTestOutDirectory();
+    Pattern pattern =
+        !Strings.isNullOrEmpty(templateFilePattern) ? Pattern.compile(templateFilePattern) : null;
+
+    WatchService watchService = rootInputDir.toPath().getFileSystem().newWatchService();
+    try {
+      register(watchService, rootInputDir.toPath());
+      GenerationManifest manifest = loadManifest(testOutDir);
+      regenerate(rootInputDir, testOutDir, manifest);
+      out.println("Watching " + rootInputDir.getAbsolutePath() + " ...");
+
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean affected = false;
+        // Wait for following events such as writing backup files by the generation
+        do {
+          affected |= processEvents(key, watchService, pattern, manifest);
+          key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        } while (key != null);
+        if (affected) {
+          regenerate(rootInputDir, testOutDir, manifest);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      watchService.close();
+    }
+  }
+
+  /**
+   * Regenerates the template files checking and backing up only the changed ones, and prints
+   * errors without stopping watching. The changed files whose checks failed are checked again in
+   * the next regeneration.
+   *
+   * @param rootInputDir the root input directory of template files
+   * @param testOutDir the output directory of skeleton test code
+   * @param manifest the manifest which is kept during watching
+   */
+  private void regenerate(File rootInputDir, File testOutDir, GenerationManifest manifest) {
+    long startTime = System.nanoTime();
+    try {
+      if (needsDiscovery) {
+        specifiedFiles = getSpecifiedTemplateFiles();
+        foundFiles.clear();
+        foundFiles.addAll(findTemplateFiles(rootInputDir));
+        // Backup files might have been removed while events were lost
+        changedFiles.addAll(specifiedFiles);
+        changedFiles.addAll(foundFiles);
+        soyIndex = null;
+        needsDiscovery = false;
+      }
+      List<File> templateFiles = Lists.newArrayList(specifiedFiles);
+      templateFiles.addAll(foundFiles);
+      for (Iterator<File> it = changedFiles.iterator(); it.hasNext();) {
+        File file = it.next();
+        if (isKnownTemplate(file)) {
+          prepare(file);
+        }
+        it.remove();
+      }
+      List<File> orgFiles = Lists.newArrayList();
+      for (File file : templateFiles) {
+        orgFiles.add(getBackupFile(file));
+      }
+      if (soyIndex == null) {
+        soyIndex = buildSoyIndex(templateFiles, orgFiles);
+      }
+      generate(templateFiles, orgFiles, soyIndex, rootInputDir, testOutDir, manifest);
+      if (verbose) {
+        out.format("Regenerated in %d ms.%n",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+      }
+    } catch (IOException e) {
+      err.println(e.getMessage());
+    } catch (RuntimeException e) {
+      // Keep watching even if a parser or an updater fails for a template
+      e.printStackTrace(err);
+    }
+  }
+
+  @Override
+  protected void fileWritten(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    try {
+      writtenFiles.put(path, Files.getLastModifiedTime(path));
+    } catch (IOException e) {
+      // The file has been removed, so its events are not ignored
+    }
+  }
+
+  /**
+   * Returns {@code true} if the specified file has not been changed since this command wrote it.
+   *
+   * @param path the absolute path of the file
+   * @return {@code true} if the file was written by this command
+   */
+  private boolean isWrittenByThis(Path path) {
+    FileTime writtenTime = writtenFiles.get(path);
+    if (writtenTime == null) {
+      return false;
+    }
+    try {
+      if (writtenTime.equals(Files.getLastModifiedTime(path))) {
+        return true;
+      }
+    } catch (IOException e) {
+      // The file has been removed by others
+    }
+    writtenFiles.remove(path);
+    return false;
+  }
+
+  /**
+   * Processes the events of the specified watch key, updating the known template files, and
+   * returns {@code true} if the events affect template files. Failures of watching new directories
+   * are printed without stopping watching.
+   *
+   * @param key the signalled watch key
+   * @param watchService the watch service to register new directories
+   * @param pattern the pattern of template file names, or {@code null} if not specified
+   * @param manifest the manifest to make changed templates be checked again
+   * @return {@code true} if the events affect template files
+   */
+  private boolean processEvents(WatchKey key, WatchService watchService, Pattern pattern,
+      GenerationManifest manifest) {
+    Path dir = watchedDirs.get(key);
+    boolean affected = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW || dir == null) {
+        // Some events are lost, so find and check all the templates again
+        manifest.invalidateAll();
+        needsDiscovery = true;
+        affected = true;
+        continue;
+      }
+      Path path = dir.resolve((Path) event.context()).toAbsolutePath();
+      if (isWrittenByThis(path)) {
+        continue;
+      }
+      if (event.kind() == ENTRY_CREATE && isRecusive && Files.isDirectory(path)) {
+        try {
+          register(watchService, path);
+        } catch (IOException e) {
+          err.println("Failed to watch " + path + ": " + e.getMessage());
+        }
+        // Template files might have been created before the directory is registered
+        needsDiscovery = true;
+        affected = true;
+        continue;
+      }
+      String name = path.getFileName().toString();
+      boolean isBackup = name.endsWith(BACKUP_SUFFIX);
+      File file =
+          isBackup ? path.resolveSibling(
+              name.substring(0, name.length() - BACKUP_SUFFIX.length())).toFile() : path.toFile();
+      if (isKnownTemplate(file)) {
+        if (!isBackup && event.kind() == ENTRY_DELETE) {
+          foundFiles.remove(file);
+        } else if (!isBackup && !changedFiles.contains(file)) {
+          // Regenerating the template from its backup would overwrite the edit
+          warnEdited(file);
+          continue;
+        } else {
+          editedFiles.remove(file);
+          manifest.invalidate(file);
+          changedFiles.add(file);
+        }
+      } else if (pattern != null && pattern.matcher(file.getName()).matches() && file.isFile()) {
+        // Editors may save a template by replacing it, which isn't regenerated while it is known
+        // to be unchanged in the manifest
+        if (!isBackup && getBackupFile(file).isFile()) {
+          warnEdited(file);
+        }
+        foundFiles.add(file);
+        changedFiles.add(file);
+      } else if (event.kind() != ENTRY_DELETE || !removeFoundFiles(path)) {
+        continue;
+      }
+      if (TemplateParsers.isSoyTemplate(file.getPath())) {
+        soyIndex = null;
+      }
+      affected = true;
+    }
+    if (!key.reset()) {
+      watchedDirs.remove(key);
+    }
+    return affected;
+  }
+
+  /**
+   * Prints a warning that the specified template which is generated from its backup file has been
+   * edited, unless the warning has been printed since the backup file was changed.
+   *
+   * @param templateFile the edited template file
+   */
+  private void warnEdited(File templateFile) {
+    if (!editedFiles.add(templateFile)) {
+      return;
+    }
+    err.println("Warning: " + templateFile.getPath() + " is generated from "
+        + getBackupFile(templateFile).getName()
+        + ", so the edit is overwritten when the backup file is changed."
+        + " Edit the backup file instead.");
+  }
+
+  /**
+   * Returns {@code true} if the specified file is a known template file.
+   *
+   * @param file the absolute file to be checked
+   * @return {@code true} if the specified file is a template file
+   */
+  private boolean isKnownTemplate(File file) {
+    return foundFiles.contains(file) || specifiedFiles.contains(file);
+  }
+
+  /**
+   * Forgets the found template files in the specified removed directory.
+   *
+   * @param dir the absolute path of the removed directory
+   * @return {@code true} if any template files are forgotten
+   */
+  private boolean removeFoundFiles(Path dir) {
+    boolean removed = false;
+    for (Iterator<File> it = foundFiles.iterator(); it.hasNext();) {
+      File file = it.next();
+      if (file.toPath().startsWith(dir)) {
+        it.remove();
+        removed = true;
+        if (TemplateParsers.isSoyTemplate(file.getPath())) {
+          soyIndex = null;
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Registers the specified directory and its sub directories if template files are recursively
+   * found with the specified watch service. Failures of registering sub directories are printed
+   * without stopping registering the others.
+   *
+   * @param watchService the watch service to register directories
+   * @param dir the directory to be registered
+   * @throws IOException if errors occur in registering the specified directory
+   */
+  private void register(final WatchService watchService, final Path dir) throws IOException {
+    watchedDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+        dir.toAbsolutePath());
+    if (!isRecusive) {
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) {
+        if (!subDir.equals(dir)) {
+          try {
+            watchedDirs.put(
+                subDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+                subDir.toAbsolutePath());
+          } catch (IOException e) {
+            err.println("Failed to watch " + subDir + ": " + e.getMessage());
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        err.println("Failed to watch " + file + ": " + e.getMessage());
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.generator.template;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class to collect edits of a template, each of which replaces a range of the template with a
+ * text, and to apply them in one pass. The ranges and the offsets of the texts are stored in a
+ * primitive buffer and all the texts are appended to a single buffer, so the template is never
+ * copied per html tag. Edits have to be added in ascending order of their ranges, which must not
+ * overlap. A plan doesn't depend on the state of the {@link TemplateUpdater} which made it, so it
+ * can be written by another thread.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public final class SplicePlan {
+  /**
+   * A number of the integers of an edit, i.e. the start and the end of the replaced range and the
+   * start of the text in {@code texts}.
+   */
+  private static final int EDIT_SIZE = 3;
+
+  /**
+   * Edits which are triples of the start and the end of the replaced range and the start of the
+   * replacing text.
+   */
+  private int[] edits;
+  /**
+   * A number of the edits.
+   */
+  private int editCount;
+  /**
+   * Replacing texts of all the edits, where the text of an edit ends at the start of the next one.
+   */
+  private final StringBuilder texts;
+  /**
+   * A total length of the replaced ranges.
+   */
+  private int replacedLength;
+
+  /**
+   * Constructs an empty plan.
+   */
+  SplicePlan() {
+    this.edits = new int[EDIT_SIZE * 16];
+    this.texts = new StringBuilder();
+  }
+
+  /**
+   * Adds an edit which replaces the specified range of the template with the text to be appended
+   * to the returned buffer before the next edit is added.
+   * 
+   * @param start the start position of the replaced range
+   * @param end the end position (exclusive) of the replaced range
+   * @return the buffer to append the replacing text
+   */
+  StringBuilder replace(int start, int end) {
+    Preconditions.checkArgument(start <= end);
+    Preconditions.checkArgument(editCount == 0 || edits[(editCount - 1) * EDIT_SIZE + 1] <= start,
+        "Edits have to be added in ascending order without overlaps.");
+
+    if ((editCount + 1) * EDIT_SIZE > edits.length) {
+      edits = Arrays.copyOf(edits, edits.length * 2);
+    }
+    int index = editCount * EDIT_SIZE;
+    edits[index] = start;
+    edits[index + 1] = end;
+    edits[index + 2] = texts.length();
+    editCount++;
+    replacedLength += end - start;
+    return texts;
+  }
+
+  /**
+   * Adds an edit which inserts the text to be appended to the returned buffer at the specified
+   * position.
+   * 
+   * @param offset the position to insert the text
+   * @return the buffer to append the inserted text
+   */
+  StringBuilder insert(int offset) {
+    return replace(offset, offset);
+  }
+
+  /**
+   * Returns the length of the specified template after applying the edits.
+   * 
+   * @param templateLength the length of the template
+   * @return the length of the edited template
+   */
+  int getEditedLength(int templateLength) {
+    return templateLength - replacedLength + texts.length();
+  }
+
+  /**
+   * Applies the edits to the specified template in one pass.
+   * 
+   * @param template the template to be edited
+   * @return the edited template
+   */
+  public String apply(CharSequence template) {
+    StringBuilder builder = new StringBuilder(getEditedLength(template.length()));
+    int lastEnd = 0;
+    for (int i = 0; i < editCount; i++) {
+      int index = i * EDIT_SIZE;
+      builder.append(template, lastEnd, edits[index]);
+      builder.append(texts, edits[index + 2], getTextEnd(i));
+      lastEnd = edits[index + 1];
+    }
+    return builder.append(template, lastEnd, template.length()).toString();
+  }
+
+  /**
+   * Writes the specified template applying the edits to the specified output in one pass.
+   * 
+   * @param template the template to be edited
+   * @param out the output to write the edited template
+   * @throws IOException if errors occur in writing the edited template
+   */
+  public void writeTo(CharSequence template, Appendable out) throws IOException {
+    int lastEnd = 0;
+    for (int i = 0; i < editCount; i++) {
+      int index = i * EDIT_SIZE;
+      out.append(template, lastEnd, edits[index]);
+      out.append(texts, edits[index + 2], getTextEnd(i));
+      lastEnd = edits[index + 1];
+    }
+    out.append(template, lastEnd, template.length());
+  }
+
+  /**
+   * Returns the end position of the text of the specified edit in {@code texts}.
+   * 
+   * @param i the index of the edit
+   * @return the end position of the text
+   */
+  private int getTextEnd(int i) {
+    return i + 1 < editCount ? edits[(i + 1) * EDIT_SIZE + 2] : texts.length();
+  }
+}
@@ -15,13 +15,12 @@
 
 package com.google.testing.pogen.generator.template;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
 import com.google.testing.pogen.parser.template.TemplateInfo;
 import com.google.testing.pogen.parser.template.VariableInfo;
@@ -70,59 +69,169 @@ public abstract class TemplateUpdater {
    */
   public String generate(TemplateInfo templateInfo) {
     Preconditions.checkNotNull(templateInfo);
+    return plan(templateInfo).apply(templateInfo.getTemplate());
+  }
 
-    StringBuilder newTemplate = new StringBuilder();
-    String template = templateInfo.getTemplate();
-    int lastIndex = 0;
-
-    List<HtmlTagInfo> htmlTagInfos = Lists.newArrayList(templateInfo.getHtmlTagInfos());
-    Collections.sort(htmlTagInfos, new Comparator<HtmlTagInfo>() {
-      @Override
-      public int compare(HtmlTagInfo o1, HtmlTagInfo o2) {
-        if (o1.getEndIndex() < o2.getEndIndex()) {
-          return -1;
-        } else if (o1.getEndIndex() > o2.getEndIndex()) {
-          return 1;
-        }
-        return 0;
-      }
-    });
+  /**
+   * Generates a modified template from the specified {@link TemplateInfo} inserting specific
+   * attributes into html tags which contain template variables, and writes it into the specified
+   * output in one pass.
+   * 
+   * @param templateInfo the {@link TemplateInfo} instance of the template to be updated
+   * @param out the output to write the modified template with the inserted id attributes
+   * @throws IOException if errors occur in writing the modified template
+   */
+  public void generate(TemplateInfo templateInfo, Appendable out) throws IOException {
+    Preconditions.checkNotNull(templateInfo);
+    Preconditions.checkNotNull(out);
+    plan(templateInfo).writeTo(templateInfo.getTemplate(), out);
+  }
 
-    for (HtmlTagInfo tagInfo : htmlTagInfos) {
+  /**
+   * Plans the edits of the template of the specified {@link TemplateInfo}, which insert comments
+   * and attributes for html tags containing template variables in order of their positions. The
+   * attribute values are assigned when planned, so templates have to be planned in order while the
+   * plans can be written later with {@link SplicePlan#writeTo(CharSequence, Appendable)}.
+   * 
+   * @param templateInfo the {@link TemplateInfo} instance of the template to be updated
+   * @return the plan of the edits of the template
+   */
+  public SplicePlan plan(TemplateInfo templateInfo) {
+    Preconditions.checkNotNull(templateInfo);
+    String template = templateInfo.getTemplate();
+    List<HtmlTagInfo> htmlTagInfos = templateInfo.getHtmlTagInfos();
+    int[] order = sortByEndIndex(htmlTagInfos);
+    SplicePlan plan = new SplicePlan();
+    for (int i = 0; i < htmlTagInfos.size(); i++) {
+      HtmlTagInfo tagInfo = htmlTagInfos.get(order != null ? order[i] : i);
       // Skip this variable if it has no parent html tag
       // TODO(kazuu): Deal with these variable with a more proper way
       if (!tagInfo.hasParentTag()) {
         continue;
       }
 
-      // Append rest content
-      newTemplate.append(template.subSequence(lastIndex, tagInfo.getStartIndex()));
-      lastIndex = tagInfo.getEndIndex();
-
-      // Build a modified tag containing template variables
-      StringBuilder tag = buildModifiedTag(template, tagInfo);
+      // Assign the attribute value before the comments refer it
+      boolean modified = assignAttributeValue(tagInfo);
+      StringBuilder comments = null;
       for (VariableInfo varInfo : tagInfo.getVariableInfos()) {
         if (!varInfo.isManipulableTag()) {
-          newTemplate.append("<!--" + commentPrefix + "," + tagInfo.getAttributeValue() + ","
-              + varInfo.getName() + "," + varInfo.getPrintCommandText() + "-->");
+          if (comments == null) {
+            comments = plan.insert(tagInfo.getStartIndex());
+          }
+          comments.append("<!--").append(commentPrefix).append(',')
+              .append(tagInfo.getAttributeValue()).append(',').append(varInfo.getName())
+              .append(',').append(varInfo.getPrintCommandText()).append("-->");
         }
       }
-      newTemplate.append(tag);
+      if (modified) {
+        planModifiedTag(template, tagInfo, plan);
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Returns the indexes of the specified html tags in ascending order of their end indexes keeping
+   * the order of the tags with the same end index. Tags are usually found in the ascending order
+   * except nested tags, so they are sorted only if they are out of order.
+   * 
+   * @param htmlTagInfos the html tags to be sorted
+   * @return the sorted indexes of the html tags, or {@code null} if they are already sorted
+   */
+  private static int[] sortByEndIndex(List<HtmlTagInfo> htmlTagInfos) {
+    int size = htmlTagInfos.size();
+    int lastEndIndex = Integer.MIN_VALUE;
+    int i = 0;
+    for (; i < size; i++) {
+      int endIndex = htmlTagInfos.get(i).getEndIndex();
+      if (endIndex < lastEndIndex) {
+        break;
+      }
+      lastEndIndex = endIndex;
     }
-    // Add the rest part of the template
-    newTemplate.append(template.subSequence(lastIndex, template.length()));
-    return newTemplate.toString();
+    if (i == size) {
+      return null;
+    }
+    // Pack end indexes and tag indexes to sort primitives stably
+    long[] keys = new long[size];
+    for (i = 0; i < size; i++) {
+      keys[i] = ((long) htmlTagInfos.get(i).getEndIndex() << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] order = new int[size];
+    for (i = 0; i < size; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
   }
 
   /**
-   * Builds the modified tag containing template variables.
+   * Assigns the attribute value to the specified html tag containing template variables if
+   * necessary.
+   * 
+   * @param tagInfo the information of the html tag containing template variables
+   * @return {@code true} if the html tag should be modified
+   */
+  protected abstract boolean assignAttributeValue(HtmlTagInfo tagInfo);
+
+  /**
+   * Plans the edits of the html tag containing template variables to which the attribute value is
+   * assigned.
+   * 
+   * @param template the string of the html template
+   * @param tagInfo the information of the html tag containing template variables
+   * @param plan the plan to add the edits
+   */
+  protected abstract void planModifiedTag(String template, HtmlTagInfo tagInfo, SplicePlan plan);
+
+  /**
+   * Plans the edit of the specified html tag which appends a new attribute with the assigned
+   * attribute value removing redundant spaces before the end of the tag.
    * 
    * @param template the string of the html template
    * @param tagInfo the information of the html tag containing template variables
-   * @return the string of the modified tag
+   * @param attributeName the name of the appended attribute
+   * @param plan the plan to add the edit
    */
-  protected abstract StringBuilder buildModifiedTag(String template, HtmlTagInfo tagInfo);
+  protected static void planAppendedAttribute(String template, HtmlTagInfo tagInfo,
+      String attributeName, SplicePlan plan) {
+    int startIndex = tagInfo.getStartIndex();
+    // Deal with closed tag such as <br />
+    int insertIndex = tagInfo.getEndIndex() - 2;
+    String tail = ">";
+    if (template.charAt(insertIndex) == '/') {
+      --insertIndex;
+      tail = " />";
+    }
+    // Remove redundant space
+    while (insertIndex >= startIndex && template.charAt(insertIndex) == ' ') {
+      insertIndex--;
+    }
+    // Insert the generated attribute
+    plan.replace(insertIndex + 1, tagInfo.getEndIndex()).append(' ').append(attributeName)
+        .append("=\"").append(tagInfo.getAttributeValue()).append('"').append(tail);
+  }
 
+  /**
+   * Returns the number of attribute values which have been generated, which is also the number of
+   * the next attribute value.
+   * 
+   * @return the number of generated attribute values
+   */
+  public int getValueCount() {
+    return valueCount;
+  }
+
+  /**
+   * Sets the number of the next attribute value, e.g. to skip attribute values which were assigned
+   * to the unchanged templates in the last run.
+   * 
+   * @param valueCount the number of the next attribute value
+   */
+  public void setValueCount(int valueCount) {
+    Preconditions.checkArgument(valueCount >= 0);
+    this.valueCount = valueCount;
+  }
 
   /**
    * Generates a unique attribute value.
@@ -15,8 +15,6 @@
 
 package com.google.testing.pogen.generator.template;
 
-import org.apache.commons.lang3.StringUtils;
-
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
 import com.google.testing.pogen.parser.template.TemplateInfo;
 
@@ -44,38 +42,72 @@ class TemplateUpdaterWithClassAttribute extends TemplateUpdater {
     super(idPrefix);
   }
 
-  protected StringBuilder buildModifiedTag(String template, HtmlTagInfo tagInfo) {
-    StringBuilder tag =
-        new StringBuilder(template.substring(tagInfo.getStartIndex(), tagInfo.getEndIndex()));
+  @Override
+  protected boolean assignAttributeValue(HtmlTagInfo tagInfo) {
     tagInfo.setAttributeValue(generateUniqueValue());
+    return true;
+  }
+
+  @Override
+  protected void planModifiedTag(String template, HtmlTagInfo tagInfo, SplicePlan plan) {
     if (tagInfo.hasAttributeValue()) {
-      int space = StringUtils.indexOfAny(tag, ' ', '\t', '\r', '\n');
+      // Find the class attribute in the tag without copying the tag
+      int tagStart = tagInfo.getStartIndex();
+      int tagEnd = tagInfo.getEndIndex();
+      int space = indexOfAny(template, tagStart, tagEnd, 0, " \t\r\n");
       int equal;
-      while (space > 0 && (equal = StringUtils.indexOf(tag, '=', space + 1)) > 0) {
-        String name = tag.substring(space + 1, equal).trim();
-        int leftQuote = StringUtils.indexOfAny(
-            tag.substring(space + 1), '"', '\'') + space + 1;
-        if (name.equals("class")) {
-          tag.insert(leftQuote + 1, tagInfo.getAttributeValue() + " ");
-          return tag;
+      while (space > 0 && (equal = indexOfAny(template, tagStart, tagEnd, space + 1, "=")) > 0) {
+        int leftQuote = indexOfAny(template, tagStart, tagEnd, space + 1, "\"'");
+        if (leftQuote < 0) {
+          leftQuote = space;
+        }
+        if (isClassName(template, tagStart + space + 1, tagStart + equal)) {
+          plan.insert(tagStart + leftQuote + 1).append(tagInfo.getAttributeValue()).append(' ');
+          return;
         }
-        space = StringUtils.indexOf(tag, tag.charAt(leftQuote), leftQuote + 1) + 1;
+        String quote = String.valueOf(template.charAt(tagStart + leftQuote));
+        space = indexOfAny(template, tagStart, tagEnd, leftQuote + 1, quote) + 1;
+      }
+    }
+    planAppendedAttribute(template, tagInfo, "class", plan);
+  }
+
+  /**
+   * Returns the index of the first one of the specified characters in the specified tag of the
+   * template.
+   * 
+   * @param template the string of the html template
+   * @param tagStart the start index of the tag in the template
+   * @param tagEnd the end index of the tag in the template
+   * @param fromIndex the index in the tag to start searching
+   * @param chars the characters to be searched
+   * @return the index of the found character in the tag, or {@code -1} if not found
+   */
+  private static int indexOfAny(String template, int tagStart, int tagEnd, int fromIndex,
+      String chars) {
+    for (int i = tagStart + fromIndex; i < tagEnd; i++) {
+      if (chars.indexOf(template.charAt(i)) >= 0) {
+        return i - tagStart;
       }
     }
-    // Deal with closed tag such as <br />
-    int insertIndex = tag.length() - 2;
-    String tail = ">";
-    if (tag.charAt(insertIndex) == '/') {
-      --insertIndex;
-      tail = " />";
+    return -1;
+  }
+
+  /**
+   * Returns whether the specified range of the template is "class" surrounded by white spaces.
+   * 
+   * @param template the string of the html template
+   * @param start the start index of the range
+   * @param end the end index of the range
+   * @return {@code true} if the range is the name of the class attribute
+   */
+  private static boolean isClassName(String template, int start, int end) {
+    while (start < end && template.charAt(start) <= ' ') {
+      start++;
     }
-    // Remove redundant space
-    while (tag.charAt(insertIndex) == ' ') {
-      insertIndex--;
+    while (start < end && template.charAt(end - 1) <= ' ') {
+      end--;
     }
-    // Insert the generated id attribute
-    tag.setLength(insertIndex + 1);
-    tag.append(" class=\"" + tagInfo.getAttributeValue() + "\"" + tail);
-    return tag;
+    return end - start == 5 && template.startsWith("class", start);
   }
 }
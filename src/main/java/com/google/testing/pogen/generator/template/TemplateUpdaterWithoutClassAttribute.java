@@ -55,34 +55,17 @@ class TemplateUpdaterWithoutClassAttribute extends TemplateUpdater {
     this.attributeName = attributeName;
   }
 
-  /**
-   * Builds the modified tag containing template variables.
-   * 
-   * @param template the string of the html template
-   * @param tagInfo the information of the html tag containing template variables
-   * @return the string of the modified tag
-   */
-  protected StringBuilder buildModifiedTag(String template, HtmlTagInfo tagInfo) {
-    StringBuilder tag =
-        new StringBuilder(template.substring(tagInfo.getStartIndex(), tagInfo.getEndIndex()));
+  @Override
+  protected boolean assignAttributeValue(HtmlTagInfo tagInfo) {
     if (tagInfo.hasAttributeValue()) {
-      return tag;
+      return false;
     }
     tagInfo.setAttributeValue(generateUniqueValue());
-    // Deal with closed tag such as <br />
-    int insertIndex = tag.length() - 2;
-    String tail = ">";
-    if (tag.charAt(insertIndex) == '/') {
-      --insertIndex;
-      tail = " />";
-    }
-    // Remove redundant space
-    while (tag.charAt(insertIndex) == ' ') {
-      insertIndex--;
-    }
-    // Insert the generated id attribute
-    tag.setLength(insertIndex + 1);
-    tag.append(" " + attributeName + "=\"" + tagInfo.getAttributeValue() + "\"" + tail);
-    return tag;
+    return true;
+  }
+
+  @Override
+  protected void planModifiedTag(String template, HtmlTagInfo tagInfo, SplicePlan plan) {
+    planAppendedAttribute(template, tagInfo, attributeName, plan);
   }
 }
@@ -0,0 +1,100 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.generator.test.java;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Strategies of locators to find html tags by the assigned attributes in generated test code. The
+ * fastest locator is chosen for each attribute name because browsers look up elements by id and
+ * name natively while XPath expressions such as "//*[@attr='value']" scan all the elements.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public enum LocatorStrategy {
+  /**
+   * A strategy to find html tags by their id attributes.
+   */
+  ID("ID", "id"),
+  /**
+   * A strategy to find html tags by their name attributes.
+   */
+  NAME("NAME", "name"),
+  /**
+   * A strategy to find html tags by CSS attribute selectors for other attributes.
+   */
+  CSS("CSS", "cssSelector");
+
+  /**
+   * A name of the constant of {@code How} for {@code FindBy} annotations.
+   */
+  private final String howName;
+  /**
+   * A name of the static factory method of {@code By}.
+   */
+  private final String byMethodName;
+
+  private LocatorStrategy(String howName, String byMethodName) {
+    this.howName = howName;
+    this.byMethodName = byMethodName;
+  }
+
+  /**
+   * Returns the fastest strategy to find html tags by the specified attribute.
+   * 
+   * @param attributeName the name of the attribute assigned for html tags
+   * @return the fastest strategy for the attribute
+   */
+  public static LocatorStrategy forAttribute(String attributeName) {
+    Preconditions.checkNotNull(attributeName);
+    if (attributeName.equals("id")) {
+      return ID;
+    } else if (attributeName.equals("name")) {
+      return NAME;
+    }
+    return CSS;
+  }
+
+  /**
+   * Returns the name of the constant of {@code How} for {@code FindBy} annotations, e.g. "ID".
+   * 
+   * @return the name of the constant of {@code How}
+   */
+  public String getHowName() {
+    return howName;
+  }
+
+  /**
+   * Returns the name of the static factory method of {@code By}, e.g. "id".
+   * 
+   * @return the name of the factory method of {@code By}
+   */
+  public String getByMethodName() {
+    return byMethodName;
+  }
+
+  /**
+   * Returns the locator string to find html tags which have the specified attribute value.
+   * 
+   * @param attributeName the name of the attribute assigned for html tags
+   * @param attributeValue the value of the attribute assigned for html tags
+   * @return the locator string such as "value" or "[attr='value']"
+   */
+  public String getUsing(String attributeName, String attributeValue) {
+    return this == CSS ? String.format("[%s='%s']", attributeName, attributeValue)
+        : attributeValue;
+  }
+}
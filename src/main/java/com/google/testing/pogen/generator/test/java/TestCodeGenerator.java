@@ -15,10 +15,14 @@
 
 package com.google.testing.pogen.generator.test.java;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
 import com.google.testing.pogen.generator.test.PageObjectUpdateException;
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
 import com.google.testing.pogen.parser.template.TemplateInfo;
@@ -41,6 +45,21 @@ public abstract class TestCodeGenerator {
    */
   public static final String GENERATED_CODE_START_MARK =
       "/* ------------------- GENERATED CODE START ------------------- */";
+  /**
+   * An import declaration of the annotation to cache the fields of html tags out of repeated parts.
+   */
+  private static final String CACHE_LOOKUP_IMPORT =
+      "import org.openqa.selenium.support.CacheLookup;";
+  /**
+   * A script to return a key which changes when the page is navigated or its DOM is mutated. Each
+   * document is marked with a random id and the number of mutations observed in it. The script
+   * returns null on browsers without {@code MutationObserver}.
+   */
+  private static final String PAGE_KEY_SCRIPT =
+      "if (!window.MutationObserver) return null; var d = document; var k = d.__pogenPageKey; "
+          + "if (!k) { k = d.__pogenPageKey = {id: Math.random(), n: 0}; "
+          + "new MutationObserver(function() { k.n++; }).observe(d, "
+          + "{childList: true, subtree: true, characterData: true}); } return k.id + ':' + k.n;";
   /**
    * An indent string.
    */
@@ -79,9 +98,32 @@ public abstract class TestCodeGenerator {
    * @return the generated skeleton test code
    */
   public String generate(TemplateInfo templateInfo, String packageName, String className) {
+    StringBuilder builder = new StringBuilder();
+    try {
+      generate(templateInfo, packageName, className, builder);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Generates skeleton test code with getter methods for html tags, texts and attributes to
+   * retrieve values of variables from Selenium2 into the specified output.
+   * 
+   * @param templateInfo the {@link TemplateInfo} of the template whose skeleton test code we want
+   *        to generate
+   * @param packageName the package name to generate skeleton test code
+   * @param className the class name to generate skeleton test code
+   * @param out the output to write the generated skeleton test code
+   * @throws IOException if errors occur in writing the generated test code
+   */
+  public void generate(TemplateInfo templateInfo, String packageName, String className,
+      Appendable out) throws IOException {
     Preconditions.checkNotNull(templateInfo);
     Preconditions.checkNotNull(packageName);
     Preconditions.checkNotNull(className);
+    Preconditions.checkNotNull(out);
 
     StringBuilder builder = new StringBuilder();
     appendLine(builder, 0, String.format("package %s;", packageName));
@@ -94,6 +136,7 @@ public abstract class TestCodeGenerator {
     appendLine(builder, 0, "import org.openqa.selenium.By;");
     appendLine(builder, 0, "import org.openqa.selenium.WebDriver;");
     appendLine(builder, 0, "import org.openqa.selenium.WebElement;");
+    appendLine(builder, 0, CACHE_LOOKUP_IMPORT);
     appendLine(builder, 0, "import org.openqa.selenium.support.FindBy;");
     appendLine(builder, 0, "import org.openqa.selenium.support.How;");
     appendLine(builder);
@@ -116,10 +159,11 @@ public abstract class TestCodeGenerator {
     appendLine(builder);
 
     appendLine(builder, 1, GENERATED_CODE_START_MARK);
-    appendFieldsAndGetters(builder, templateInfo);
+    appendFieldsAndGetters(builder, templateInfo, out);
+    builder.setLength(0);
     appendLine(builder, 1, GENERATED_CODE_END_MARK);
     appendLine(builder, 0, "}");
-    return builder.toString();
+    out.append(builder);
   }
 
   /**
@@ -133,41 +177,114 @@ public abstract class TestCodeGenerator {
    * @throws PageObjectUpdateException if the existing test code doesn't have generated code
    */
   public String update(TemplateInfo templateInfo, String code) throws PageObjectUpdateException {
+    StringBuilder builder = new StringBuilder();
+    try {
+      update(templateInfo, code, builder);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Updates existing test code with getter methods for html tags, texts and attributes to retrieve
+   * the values of the variables from Selenium2 into the specified output. Nothing is written if
+   * the existing test code doesn't have generated code.
+   * 
+   * @param templateInfo the {@link TemplateInfo} of the template whose skeleton test code we want
+   *        to generate
+   * @param code the existing test code
+   * @param out the output to write the updated skeleton test code
+   * @throws IOException if errors occur in writing the updated test code
+   * @throws PageObjectUpdateException if the existing test code doesn't have generated code
+   */
+  public void update(TemplateInfo templateInfo, String code, Appendable out) throws IOException,
+      PageObjectUpdateException {
     Preconditions.checkNotNull(templateInfo);
     Preconditions.checkNotNull(code);
+    Preconditions.checkNotNull(out);
 
-    StringBuilder builder = new StringBuilder();
     int startIndex = code.indexOf(GENERATED_CODE_START_MARK);
     int endIndex = code.indexOf(GENERATED_CODE_END_MARK);
     if (startIndex < 0 || endIndex < 0 || endIndex < startIndex) {
       throw new PageObjectUpdateException();
     }
-    builder.append(code.subSequence(0, startIndex + GENERATED_CODE_START_MARK.length()));
-    builder.append(newLine);
-    appendFieldsAndGetters(builder, templateInfo);
-    builder.append(code.subSequence(endIndex, code.length()));
-    return builder.toString();
+    int prefixEnd = startIndex + GENERATED_CODE_START_MARK.length();
+    int importIndex = getCacheLookupImportIndex(code, prefixEnd);
+    if (importIndex >= 0) {
+      out.append(code, 0, importIndex).append(CACHE_LOOKUP_IMPORT).append(newLine);
+      out.append(code, importIndex, prefixEnd);
+    } else {
+      out.append(code, 0, prefixEnd);
+    }
+    StringBuilder builder = new StringBuilder(newLine);
+    appendFieldsAndGetters(builder, templateInfo, out);
+    out.append(code, endIndex, code.length());
   }
 
   /**
-   * Appends the body of skeleton test code, that is, only html tag fields and getter methods to
-   * retrieve the values of the variables into the given string builder.
+   * Returns the index of the existing test code to insert the import declaration of
+   * {@code CacheLookup} before the first import declaration if it is not imported, because the code
+   * generated by older versions doesn't import it.
    * 
-   * @param builder {@link StringBuilder} the generated test code will be appended to
+   * @param code the existing test code
+   * @param prefixEnd the end index of the existing test code before the generated code
+   * @return the index to insert the import declaration, or {@code -1} if it is not inserted
+   */
+  private static int getCacheLookupImportIndex(String code, int prefixEnd) {
+    if (indexOf(code, CACHE_LOOKUP_IMPORT, prefixEnd) >= 0) {
+      return -1;
+    }
+    int importIndex = indexOf(code, "import org.openqa.selenium.", prefixEnd);
+    if (importIndex < 0) {
+      importIndex = indexOf(code, "import ", prefixEnd);
+    }
+    return importIndex;
+  }
+
+  /**
+   * Returns the index of the first occurrence of the specified string which ends before the
+   * specified index in the code.
+   * 
+   * @param code the code to be searched
+   * @param str the string to be found
+   * @param endIndex the end index of the searched range of the code
+   * @return the index of the found string, or {@code -1} if not found
+   */
+  private static int indexOf(String code, String str, int endIndex) {
+    int index = code.indexOf(str);
+    return index >= 0 && index + str.length() <= endIndex ? index : -1;
+  }
+
+  /**
+   * Writes the body of skeleton test code, that is, only html tag fields and getter methods to
+   * retrieve the values of the variables into the given output after the contents of the given
+   * string builder.
+   * 
+   * @param builder {@link StringBuilder} the generated fields will be appended to
    * @param templateInfo the {@link TemplateInfo} of the template whose skeleton test code we want
    *        to generate
+   * @param out the output to write the generated fields and methods
+   * @throws IOException if errors occur in writing the generated code
    */
-  private void appendFieldsAndGetters(StringBuilder builder, TemplateInfo templateInfo) {
+  private void appendFieldsAndGetters(StringBuilder builder, TemplateInfo templateInfo,
+      Appendable out) throws IOException {
     // Create new StringBuilder to separate methods group from fields group such
     // as "private int field1; private int field2;
     // private void method1() {} private void method2() {}".
     StringBuilder methodBuilder = new StringBuilder();
     HashMultiset<String> varNameCounter = HashMultiset.create();
+    // Pairs of the unique variable names and the attribute values for the snapshot
+    List<String> snapshotArguments = Lists.newArrayList();
 
     appendLine(
         builder,
         1,
         "private static Pattern commentPattern = Pattern.compile(\"<!--POGEN,([^,]*),([^,]*),(.*?)-->\", Pattern.DOTALL);");
+    appendLine(builder, 1, String.format("private static String commentPageKeyScript = \"%s\";",
+        PAGE_KEY_SCRIPT));
+    appendLine(builder, 1, "private Object commentPageKey;");
+    appendLine(builder, 1, "private HashMap<String, List<String>> commentValues;");
 
     for (HtmlTagInfo tagInfo : templateInfo.getHtmlTagInfos()) {
       // Skip this variable if it has no parent html tag
@@ -187,6 +304,8 @@ public abstract class TestCodeGenerator {
         String newVarName = varInfo.getName() + convertToString(varIndex);
 
         appendElementGetter(builder, methodBuilder, newVarName, attrValue, isRepeated);
+        snapshotArguments.add(newVarName);
+        snapshotArguments.add(attrValue);
         if (!varInfo.isManipulableTag()) {
           appendTextGetter(methodBuilder, newVarName, tagInfo, varInfo, isRepeated);
         }
@@ -195,8 +314,80 @@ public abstract class TestCodeGenerator {
         }
       }
     }
-    // Append method definitions after field definitions
-    builder.append(methodBuilder);
+    appendSnapshotTaker(methodBuilder, snapshotArguments);
+    appendCommentValuesGetter(methodBuilder);
+    // Write method definitions after field definitions
+    out.append(builder).append(methodBuilder);
+  }
+
+  /**
+   * Appends a method to take a snapshot of the texts and the attributes of all the html tags
+   * containing variables through one script execution into the given string builder. The
+   * {@code PageSnapshot} class is generated with the {@code AbstractPage} class.
+   * 
+   * @param methodBuilder {@link StringBuilder} the generated method will be appended to
+   * @param namesAndValues the unique variable names and the attribute values assigned to their html
+   *        tags alternately
+   */
+  private void appendSnapshotTaker(StringBuilder methodBuilder, List<String> namesAndValues) {
+    StringBuilder arguments = new StringBuilder();
+    arguments.append('"').append(getAssignedAttributeName()).append('"');
+    for (String nameOrValue : namesAndValues) {
+      arguments.append(", \"").append(nameOrValue).append('"');
+    }
+    appendLine(methodBuilder);
+    appendLine(methodBuilder, 1, "public PageSnapshot takeSnapshot() {");
+    appendLine(methodBuilder, 2, String.format("return PageSnapshot.take(driver, %s);", arguments));
+    appendLine(methodBuilder, 1, "}");
+  }
+
+  /**
+   * Appends a method to retrieve the values of a variable from the comments in the page source
+   * into the given string builder. The comments are parsed into a map from the pair of the
+   * attribute value and the variable name to the values only once while the page is not changed,
+   * which is detected by the key returned by {@code PAGE_KEY_SCRIPT}, or by comparing the page
+   * source when scripts are unavailable. Note that the fully qualified names are used because the
+   * existing test code updated by {@link #update(TemplateInfo, String)} doesn't import them.
+   * 
+   * @param methodBuilder {@link StringBuilder} the generated method will be appended to
+   */
+  private void appendCommentValuesGetter(StringBuilder methodBuilder) {
+    appendLine(methodBuilder);
+    appendLine(methodBuilder, 1,
+        "private List<String> getCommentValues(String attributeValue, String variableName) {");
+    appendLine(methodBuilder, 2, "Object pageKey = null;");
+    appendLine(methodBuilder, 2, "try {");
+    appendLine(methodBuilder, 3,
+        "pageKey = ((org.openqa.selenium.JavascriptExecutor) driver).executeScript(commentPageKeyScript);");
+    appendLine(methodBuilder, 2, "} catch (RuntimeException e) {");
+    appendLine(methodBuilder, 3, "// Compare the page source if scripts are unavailable");
+    appendLine(methodBuilder, 2, "}");
+    appendLine(methodBuilder, 2, "String pageSource = null;");
+    appendLine(methodBuilder, 2, "if (pageKey == null) {");
+    appendLine(methodBuilder, 3, "pageSource = driver.getPageSource();");
+    appendLine(methodBuilder, 3, "pageKey = pageSource;");
+    appendLine(methodBuilder, 2, "}");
+    appendLine(methodBuilder, 2, "if (commentValues == null || !pageKey.equals(commentPageKey)) {");
+    appendLine(methodBuilder, 3, "if (pageSource == null) {");
+    appendLine(methodBuilder, 4, "pageSource = driver.getPageSource();");
+    appendLine(methodBuilder, 3, "}");
+    appendLine(methodBuilder, 3, "commentValues = new HashMap<String, List<String>>();");
+    appendLine(methodBuilder, 3, "Matcher matcher = commentPattern.matcher(pageSource);");
+    appendLine(methodBuilder, 3, "while (matcher.find()) {");
+    appendLine(methodBuilder, 4, "String key = matcher.group(1) + \",\" + matcher.group(2);");
+    appendLine(methodBuilder, 4, "List<String> values = commentValues.get(key);");
+    appendLine(methodBuilder, 4, "if (values == null) {");
+    appendLine(methodBuilder, 5, "values = new ArrayList<String>();");
+    appendLine(methodBuilder, 5, "commentValues.put(key, values);");
+    appendLine(methodBuilder, 4, "}");
+    appendLine(methodBuilder, 4, "values.add(matcher.group(3));");
+    appendLine(methodBuilder, 3, "}");
+    appendLine(methodBuilder, 3, "commentPageKey = pageKey;");
+    appendLine(methodBuilder, 2, "}");
+    appendLine(methodBuilder, 2,
+        "List<String> values = commentValues.get(attributeValue + \",\" + variableName);");
+    appendLine(methodBuilder, 2, "return values != null ? values : new ArrayList<String>();");
+    appendLine(methodBuilder, 1, "}");
   }
 
   /**
@@ -235,27 +426,22 @@ public abstract class TestCodeGenerator {
     // TODO(kazuu): Help to select proper one from getFoo, getFoo2, getFoo3 ...
     appendLine(methodBuilder);
     String methodNamePrefix = !isRepeated ? "String getTextOf" : "List<String> getTextsOf";
-    String foundedProcess =
-        !isRepeated ? "return matcher.group(3);" : "result.add(matcher.group(3));";
-    String finalProcess = !isRepeated ? "return null;" : "return result;";
+    String commentValues =
+        String.format("getCommentValues(\"%s\", \"%s\")", tagInfo.getAttributeValue(),
+            varInfo.getName());
     appendLine(
         methodBuilder,
         1,
         String.format("public %s%s() {", methodNamePrefix,
             StringUtils.capitalize(uniqueVariableName)));
-    if (isRepeated) {
-      appendLine(methodBuilder, 2, "List<String> result = new ArrayList<String>();");
+    if (!isRepeated) {
+      appendLine(methodBuilder, 2, String.format("List<String> values = %s;", commentValues));
+      appendLine(methodBuilder, 2, "return values.isEmpty() ? null : values.get(0);");
+    } else {
+      // Copy the values to prevent callers from modifying the cached ones
+      appendLine(methodBuilder, 2,
+          String.format("return new ArrayList<String>(%s);", commentValues));
     }
-    appendLine(methodBuilder, 2,
-        "Matcher matcher = commentPattern.matcher(driver.getPageSource());");
-    appendLine(methodBuilder, 2, "while (matcher.find()) {");
-    appendLine(methodBuilder, 3, String.format(
-        "if (matcher.group(1).equals(\"%s\") && matcher.group(2).equals(\"%s\")) {",
-        tagInfo.getAttributeValue(), varInfo.getName()));
-    appendLine(methodBuilder, 4, foundedProcess);
-    appendLine(methodBuilder, 3, "}");
-    appendLine(methodBuilder, 2, "}");
-    appendLine(methodBuilder, 2, finalProcess);
     appendLine(methodBuilder, 1, "}");
   }
 
@@ -281,9 +467,16 @@ public abstract class TestCodeGenerator {
     }
   }
 
+  /**
+   * Returns the name of the attribute assigned for html tags containing template variables.
+   * 
+   * @return the assigned attribute name
+   */
+  protected abstract String getAssignedAttributeName();
+
   /**
    * Appends a private field for accessing the html tag which has the specified attribute value and
-   * contains the variable specified by the name with {@literal @FindBy(how = How.XPATH , ...)} into
+   * contains the variable specified by the name with {@literal @FindBy(how = How.ID , ...)} into
    * the given string builder.
    * 
    * @param builder {@link StringBuilder} the generated test code will be appended to
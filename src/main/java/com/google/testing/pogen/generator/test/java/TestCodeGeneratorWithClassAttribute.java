@@ -45,12 +45,17 @@ public class TestCodeGeneratorWithClassAttribute extends TestCodeGenerator {
     super(indent, newLine);
   }
 
+  protected String getAssignedAttributeName() {
+    return "class";
+  }
+
   protected void appendField(StringBuilder builder, String variableName,
       String assignedAttributeValue) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(assignedAttributeValue));
 
     appendLine(builder, 1,
         String.format("@FindBy(how = How.CSS, using = \".%s\")", assignedAttributeValue));
+    appendLine(builder, 1, "@CacheLookup");
     appendLine(builder, 1, String.format("private WebElement %s;", variableName));
   }
 
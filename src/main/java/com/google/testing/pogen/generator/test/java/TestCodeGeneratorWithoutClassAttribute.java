@@ -32,6 +32,10 @@ public class TestCodeGeneratorWithoutClassAttribute extends TestCodeGenerator {
    * An assigned attribute name to find html tags containing template variables.
    */
   private final String assignedAttributeName;
+  /**
+   * A strategy of locators to find html tags by the assigned attribute.
+   */
+  private final LocatorStrategy locatorStrategy;
 
   /**
    * Constructs an instance with the given assigned attribute name and the default indent and
@@ -57,14 +61,21 @@ public class TestCodeGeneratorWithoutClassAttribute extends TestCodeGenerator {
       String newLine) {
     super(indent, newLine);
     this.assignedAttributeName = assignedAttributeName;
+    this.locatorStrategy = LocatorStrategy.forAttribute(assignedAttributeName);
+  }
+
+  protected String getAssignedAttributeName() {
+    return assignedAttributeName;
   }
 
   protected void appendField(StringBuilder builder, String variableName,
       String assignedAttributeValue) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(assignedAttributeValue));
 
-    appendLine(builder, 1, String.format("@FindBy(how = How.XPATH, using = \"//*[@%s='%s']\")",
-        assignedAttributeName, assignedAttributeValue));
+    appendLine(builder, 1, String.format("@FindBy(how = How.%s, using = \"%s\")",
+        locatorStrategy.getHowName(),
+        locatorStrategy.getUsing(assignedAttributeName, assignedAttributeValue)));
+    appendLine(builder, 1, "@CacheLookup");
     appendLine(builder, 1, String.format("private WebElement %s;", variableName));
   }
 
@@ -81,8 +92,9 @@ public class TestCodeGeneratorWithoutClassAttribute extends TestCodeGenerator {
     appendLine(builder, 2,
         String.format("List<%s> result = new ArrayList<%s>();", returnType, returnType));
     appendLine(builder, 2, String.format(
-        "for (WebElement e : driver.findElements(By.xpath(\"//*[@%s='%s']\"))) {",
-        assignedAttributeName, assignedAttributeValue));
+        "for (WebElement e : driver.findElements(By.%s(\"%s\"))) {",
+        locatorStrategy.getByMethodName(),
+        locatorStrategy.getUsing(assignedAttributeName, assignedAttributeValue)));
     appendLine(builder, 3, String.format("result.add(e%s);", elementSuffixForInvoking));
     appendLine(builder, 2, "}");
     appendLine(builder, 2, "return result;");
@@ -15,6 +15,8 @@
 
 package com.google.testing.pogen.measurer;
 
+import java.util.List;
+
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
 import com.google.testing.pogen.parser.template.TemplateInfo;
 import com.google.testing.pogen.parser.template.VariableInfo;
@@ -36,8 +38,20 @@ public class VariableCoverageMeasurer {
    * @return the {@link VariableCoverage} instance which stores the measurement result
    */
   public static VariableCoverage measure(TemplateInfo templateInfo) {
+    return measure(templateInfo.getHtmlTagInfos());
+  }
+
+  /**
+   * Measures template-variable coverage from the specified information list of html tags which
+   * contain template variables. Note that same template variables in other html tags count as
+   * other template variables.
+   * 
+   * @param htmlTagInfos the information list of html tags to be measured
+   * @return the {@link VariableCoverage} instance which stores the measurement result
+   */
+  public static VariableCoverage measure(List<HtmlTagInfo> htmlTagInfos) {
     int allVarCount = 0, varWithIdCount = 0;
-    for (HtmlTagInfo tagInfo : templateInfo.getHtmlTagInfos()) {
+    for (HtmlTagInfo tagInfo : htmlTagInfos) {
       for (@SuppressWarnings("unused")
       VariableInfo varInfo : tagInfo.getVariableInfos()) {
         if (tagInfo.hasAttributeValue()) {
@@ -0,0 +1,267 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+/**
+ * A class to find control-flow tokens such as "{for ...}" and "{/for}" in a template with a single
+ * scan. All tokens of a template engine begin with the common delimiter such as "{" or "<%", so
+ * this lexer jumps between the delimiters. At each delimiter it tries only the token patterns which
+ * can start with the character following the delimiter, e.g. only the patterns of calls at "{c".
+ * Therefore the cost is proportional to the number of the delimiters times the number of the
+ * patterns sharing the following character, which is at most a few for soy templates. Patterns
+ * whose character following the delimiter is not a plain literal, e.g. "<%\s*for", are tried at
+ * every delimiter.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class ControlFlowLexer {
+  /**
+   * A number of the characters following delimiters which are looked up in the dispatch table.
+   */
+  private static final int TABLE_SIZE = 128;
+  /**
+   * Characters which have special meanings in regular expressions.
+   */
+  private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+  /**
+   * Characters which make the preceding character optional or repeated in regular expressions.
+   */
+  private static final String QUANTIFIERS = "?*+{";
+
+  /**
+   * A delimiter which every token begins with.
+   */
+  private final String delimiter;
+  /**
+   * Regular expressions of the token kinds, which must match from the delimiter.
+   */
+  private final Pattern[] tokenPatterns;
+  /**
+   * Kinds of the tokens to be tried at a delimiter followed by each ASCII character.
+   */
+  private final int[][] kindsByChar;
+  /**
+   * Kinds of the tokens to be tried at a delimiter followed by other characters or at the end.
+   */
+  private final int[] otherKinds;
+
+  /**
+   * Constructs an instance with the specified delimiter and the specified token patterns. The
+   * position of each pattern is used as the kind of its tokens, and the first group of the pattern,
+   * if exists, is retrieved as the name of the token.
+   *
+   * @param delimiter the delimiter which every token begins with
+   * @param tokenPatterns the regular expressions of the token kinds
+   */
+  public ControlFlowLexer(String delimiter, Pattern... tokenPatterns) {
+    Preconditions.checkArgument(!delimiter.isEmpty());
+    this.delimiter = delimiter;
+    this.tokenPatterns = tokenPatterns.clone();
+
+    int[] firstChars = new int[tokenPatterns.length];
+    List<Integer> others = Lists.newArrayList();
+    for (int kind = 0; kind < tokenPatterns.length; kind++) {
+      firstChars[kind] = getFirstChar(tokenPatterns[kind], delimiter);
+      if (firstChars[kind] < 0) {
+        others.add(kind);
+      }
+    }
+    this.otherKinds = Ints.toArray(others);
+    this.kindsByChar = new int[TABLE_SIZE][];
+    for (int c = 0; c < TABLE_SIZE; c++) {
+      List<Integer> kinds = Lists.newArrayList();
+      for (int kind = 0; kind < tokenPatterns.length; kind++) {
+        if (firstChars[kind] < 0 || firstChars[kind] == c) {
+          kinds.add(kind);
+        }
+      }
+      kindsByChar[c] = Ints.toArray(kinds);
+    }
+  }
+
+  /**
+   * Returns the ASCII character which the specified pattern requires right after the specified
+   * delimiter, which is found only if the pattern begins with the delimiter and the character as
+   * plain literals.
+   *
+   * @param pattern the regular expression of the token kind
+   * @param delimiter the delimiter which every token begins with
+   * @return the character following the delimiter, or {@code -1} if it is not found
+   */
+  private static int getFirstChar(Pattern pattern, String delimiter) {
+    String regex = pattern.pattern();
+    if (pattern.flags() != 0 || regex.indexOf('|') >= 0) {
+      // Flags and alternatives can allow other characters
+      return -1;
+    }
+    int index = 0;
+    for (int i = 0; i < delimiter.length(); i++, index++) {
+      if (index + 1 < regex.length() && regex.charAt(index) == '\\'
+          && !Character.isLetterOrDigit(regex.charAt(index + 1))) {
+        // Skip the backslash of an escaped punctuation
+        index++;
+      }
+      if (index >= regex.length() || regex.charAt(index) != delimiter.charAt(i)) {
+        return -1;
+      }
+    }
+    if (index >= regex.length() || regex.charAt(index) >= TABLE_SIZE
+        || META_CHARACTERS.indexOf(regex.charAt(index)) >= 0) {
+      return -1;
+    }
+    if (index + 1 < regex.length() && QUANTIFIERS.indexOf(regex.charAt(index + 1)) >= 0) {
+      return -1;
+    }
+    return regex.charAt(index);
+  }
+
+  /**
+   * Finds all the tokens in the specified template. Note that tokens of different kinds can be found
+   * at the same position.
+   *
+   * @param template the string of the template to be scanned
+   * @return the found tokens
+   */
+  public Tokens lex(String template) {
+    Preconditions.checkNotNull(template);
+    Matcher[] matchers = new Matcher[tokenPatterns.length];
+    Tokens tokens = new Tokens(tokenPatterns.length);
+    for (int kind = 0; kind < tokenPatterns.length; kind++) {
+      matchers[kind] = tokenPatterns[kind].matcher(template);
+    }
+    int length = template.length();
+    for (int index = template.indexOf(delimiter); index >= 0; index =
+        template.indexOf(delimiter, index + 1)) {
+      int next = index + delimiter.length();
+      int[] kinds =
+          next < length && template.charAt(next) < TABLE_SIZE ? kindsByChar[template.charAt(next)]
+              : otherKinds;
+      for (int kind : kinds) {
+        Matcher matcher = matchers[kind];
+        matcher.region(index, length);
+        if (matcher.lookingAt()) {
+          tokens.add(kind, index, matcher.groupCount() > 0 ? matcher.group(1) : null);
+        }
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * A class which contains the positions and the names of found tokens for each kind in ascending
+   * order of the positions.
+   */
+  public static class Tokens {
+    /**
+     * Positions of tokens for each kind.
+     */
+    private final int[][] indexes;
+    /**
+     * Names of tokens for each kind, which are {@code null} for patterns without groups.
+     */
+    private final String[][] names;
+    /**
+     * The numbers of tokens for each kind.
+     */
+    private final int[] counts;
+
+    /**
+     * Constructs an empty instance with the specified number of token kinds.
+     *
+     * @param kindCount the number of token kinds
+     */
+    private Tokens(int kindCount) {
+      this.indexes = new int[kindCount][];
+      this.names = new String[kindCount][];
+      this.counts = new int[kindCount];
+      for (int kind = 0; kind < kindCount; kind++) {
+        indexes[kind] = new int[4];
+        names[kind] = new String[4];
+      }
+    }
+
+    /**
+     * Adds a token with the specified kind, position and name.
+     *
+     * @param kind the kind of the token
+     * @param index the position of the token
+     * @param name the name of the token, or {@code null} if the pattern has no groups
+     */
+    private void add(int kind, int index, String name) {
+      int count = counts[kind];
+      if (count == indexes[kind].length) {
+        indexes[kind] = Arrays.copyOf(indexes[kind], count * 2);
+        names[kind] = Arrays.copyOf(names[kind], count * 2);
+      }
+      indexes[kind][count] = index;
+      names[kind][count] = name;
+      counts[kind] = count + 1;
+    }
+
+    /**
+     * Returns the number of the tokens of the specified kind.
+     *
+     * @param kind the kind of tokens
+     * @return the number of the tokens
+     */
+    public int count(int kind) {
+      return counts[kind];
+    }
+
+    /**
+     * Returns the position of the {@code i}-th token of the specified kind.
+     *
+     * @param kind the kind of tokens
+     * @param i the position of the token in the tokens of the kind
+     * @return the position of the token in the template
+     */
+    public int getIndex(int kind, int i) {
+      Preconditions.checkElementIndex(i, counts[kind]);
+      return indexes[kind][i];
+    }
+
+    /**
+     * Returns the name of the {@code i}-th token of the specified kind.
+     *
+     * @param kind the kind of tokens
+     * @param i the position of the token in the tokens of the kind
+     * @return the name of the token, or {@code null} if the pattern of the kind has no groups
+     */
+    public String getName(int kind, int i) {
+      Preconditions.checkElementIndex(i, counts[kind]);
+      return names[kind][i];
+    }
+
+    /**
+     * Returns the positions of the tokens of the specified kind in ascending order.
+     *
+     * @param kind the kind of tokens
+     * @return the copied array of the positions
+     */
+    public int[] getIndexes(int kind) {
+      return Arrays.copyOf(indexes[kind], counts[kind]);
+    }
+  }
+}
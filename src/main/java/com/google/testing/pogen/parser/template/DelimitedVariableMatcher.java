@@ -0,0 +1,278 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A base class of hand-written matchers which find template variables by scanning their opening
+ * delimiters such as "{$" and "<%=" with {@code indexOf}-style loops instead of backtracking regular
+ * expressions. Inputs without any opening delimiter, e.g. most attribute values, are rejected by a
+ * single scan. Subclasses match a template variable at each found delimiter by {@link #matchAt}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public abstract class DelimitedVariableMatcher implements VariableMatcher {
+  /**
+   * Opening delimiters of template variables.
+   */
+  private final String[] delimiters;
+  /**
+   * First characters of the opening delimiters to find candidates quickly.
+   */
+  private final char[] firstChars;
+  /**
+   * An input being scanned.
+   */
+  protected CharSequence input;
+  /**
+   * A position in the input to start finding the next template variable.
+   */
+  private int position;
+  /**
+   * A start position of the command text of the last match.
+   */
+  private int start;
+  /**
+   * An end position of the command text of the last match.
+   */
+  private int end;
+  /**
+   * A start position of the variable name of the last match.
+   */
+  private int nameStart;
+  /**
+   * An end position of the variable name of the last match.
+   */
+  private int nameEnd;
+
+  /**
+   * Constructs an instance with the specified opening delimiters.
+   * 
+   * @param delimiters the opening delimiters of template variables
+   */
+  protected DelimitedVariableMatcher(String... delimiters) {
+    Preconditions.checkArgument(delimiters.length > 0);
+
+    this.delimiters = delimiters.clone();
+    this.firstChars = new char[delimiters.length];
+    for (int i = 0; i < delimiters.length; i++) {
+      Preconditions.checkArgument(!delimiters[i].isEmpty());
+      firstChars[i] = delimiters[i].charAt(0);
+    }
+  }
+
+  @Override
+  public VariableMatcher reset(CharSequence input) {
+    this.input = Preconditions.checkNotNull(input);
+    this.position = 0;
+    return this;
+  }
+
+  @Override
+  public boolean find() {
+    for (int index = indexOfDelimiter(position); index >= 0; index = indexOfDelimiter(index + 1)) {
+      if (matchAt(index)) {
+        return true;
+      }
+    }
+    position = input.length();
+    return false;
+  }
+
+  /**
+   * Matches a template variable at the specified position, where one of the opening delimiters
+   * appears, and records it by {@link #setMatch} if it is found.
+   * 
+   * @param index the position of the opening delimiter
+   * @return {@code true} if a template variable is found
+   */
+  protected abstract boolean matchAt(int index);
+
+  /**
+   * Records the found template variable and moves the position to its end.
+   * 
+   * @param start the start position of the command text
+   * @param end the end position of the command text
+   * @param nameStart the start position of the variable name
+   * @param nameEnd the end position of the variable name
+   */
+  protected void setMatch(int start, int end, int nameStart, int nameEnd) {
+    this.start = start;
+    this.end = end;
+    this.nameStart = nameStart;
+    this.nameEnd = nameEnd;
+    this.position = end;
+  }
+
+  /**
+   * Returns the first position of any opening delimiter in the input from the specified position.
+   * 
+   * @param fromIndex the position to start finding
+   * @return the position of the opening delimiter, or -1 if it is not found
+   */
+  private int indexOfDelimiter(int fromIndex) {
+    int length = input.length();
+    for (int i = fromIndex; i < length; i++) {
+      char c = input.charAt(i);
+      for (int j = 0; j < firstChars.length; j++) {
+        if (c == firstChars[j] && regionMatches(i, delimiters[j])) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns {@code true} if the input contains the specified string at the specified position.
+   * 
+   * @param index the position in the input
+   * @param string the string to be compared
+   * @return {@code true} if the string appears at the position
+   */
+  protected boolean regionMatches(int index, String string) {
+    if (index + string.length() > input.length()) {
+      return false;
+    }
+    for (int i = 0; i < string.length(); i++) {
+      if (input.charAt(index + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Matches an output tag such as "<%= name %>" at the specified position like the regular
+   * expression "<%=\s*(.*?)%>", i.e. the name starts after the whitespaces and ends with the first
+   * "%>", which has to appear before any line terminator.
+   * 
+   * @param index the position of "<%="
+   * @return {@code true} if an output tag is found
+   */
+  protected boolean matchOutputTag(int index) {
+    int length = input.length();
+    int nameStart = index + 3;
+    while (nameStart < length && isWhitespace(input.charAt(nameStart))) {
+      nameStart++;
+    }
+    for (int i = nameStart; i < length; i++) {
+      char c = input.charAt(i);
+      if (c == '%' && regionMatches(i, "%>")) {
+        setMatch(index, i + 2, nameStart, i);
+        return true;
+      } else if (isLineTerminator(c)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Matches an expression such as "${name}" at the specified position like the regular expression
+   * "\$\{([^{]*)\}", i.e. the name ends with the last "}" before the next "{".
+   * 
+   * @param index the position of the opening delimiter
+   * @param delimiterLength the length of the opening delimiter
+   * @return {@code true} if an expression is found
+   */
+  protected boolean matchExpression(int index, int delimiterLength) {
+    int nameStart = index + delimiterLength;
+    int closeIndex = lastIndexOf('}', nameStart, indexOf('{', nameStart));
+    if (closeIndex < 0) {
+      return false;
+    }
+    setMatch(index, closeIndex + 1, nameStart, closeIndex);
+    return true;
+  }
+
+  /**
+   * Returns the first position of the specified character in the input from the specified
+   * position.
+   * 
+   * @param c the character to be found
+   * @param fromIndex the position to start finding
+   * @return the position of the character, or the length of the input if it is not found
+   */
+  protected int indexOf(char c, int fromIndex) {
+    int length = input.length();
+    for (int i = fromIndex; i < length; i++) {
+      if (input.charAt(i) == c) {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Returns the last position of the specified character in the specified range of the input.
+   * 
+   * @param c the character to be found
+   * @param fromIndex the start position of the range
+   * @param toIndex the end position (exclusive) of the range
+   * @return the last position of the character, or -1 if it is not found
+   */
+  protected int lastIndexOf(char c, int fromIndex, int toIndex) {
+    for (int i = toIndex - 1; i >= fromIndex; i--) {
+      if (input.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns {@code true} if the specified character matches "\s" of regular expressions.
+   * 
+   * @param c the character to be checked
+   * @return {@code true} if the character is a whitespace
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /**
+   * Returns {@code true} if the specified character is a line terminator, which "." of regular
+   * expressions doesn't match.
+   * 
+   * @param c the character to be checked
+   * @return {@code true} if the character is a line terminator
+   */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  @Override
+  public int start() {
+    return start;
+  }
+
+  @Override
+  public int end() {
+    return end;
+  }
+
+  @Override
+  public int nameStart() {
+    return nameStart;
+  }
+
+  @Override
+  public int nameEnd() {
+    return nameEnd;
+  }
+}
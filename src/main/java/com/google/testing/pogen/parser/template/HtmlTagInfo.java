@@ -15,23 +15,38 @@
 
 package com.google.testing.pogen.parser.template;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
+import java.util.Collections;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
 
 /**
  * A class to contain the information of a html tag such as its location, its assigned attribute
  * value and template variables which it contains. The instance of this class is used to retrieve
- * template variables on the html tag unit.
+ * template variables on the html tag unit. Most tags contain only one or two template variables, so
+ * they are stored in small arrays which grow on demand instead of a hash map.
  * 
  * @author Kazunori Sakamoto
  */
 public class HtmlTagInfo {
+  /**
+   * A shared empty array of variable keys for the tags which have no template variables.
+   */
+  private static final String[] EMPTY_KEYS = new String[0];
+  /**
+   * A shared empty array of {@link VariableInfo} instances for the tags which have no template
+   * variables.
+   */
+  private static final VariableInfo[] EMPTY_VARIABLES = new VariableInfo[0];
+  /**
+   * An initial capacity of the arrays of template variables.
+   */
+  private static final int INITIAL_CAPACITY = 2;
+
   /**
    * A start position in the parsed template which contains this tag. E.g. about
    * {@literal "<html><img /></html>"}, {@code startIndex} of the img tag is 6.
@@ -48,9 +63,18 @@ public class HtmlTagInfo {
    */
   private String attributeValue;
   /**
-   * A map of variable names and {@link VariableInfo} instances.
+   * Interned variable names before converted into Java identifiers, which are the keys to find the
+   * {@link VariableInfo} instances at the same indexes of {@code variables}.
+   */
+  private String[] variableKeys;
+  /**
+   * {@link VariableInfo} instances in the order of addition.
    */
-  private final Map<String, VariableInfo> variables;
+  private VariableInfo[] variables;
+  /**
+   * A number of the template variables in the arrays.
+   */
+  private int variableCount;
   /**
    * An id attribute value in this html tag.
    */
@@ -76,7 +100,8 @@ public class HtmlTagInfo {
     this.attributeValue = attributeValue;
     this.startIndex = startIndex;
     this.endIndex = endIndex;
-    this.variables = Maps.newHashMap();
+    this.variableKeys = EMPTY_KEYS;
+    this.variables = EMPTY_VARIABLES;
   }
 
   /**
@@ -142,23 +167,57 @@ public class HtmlTagInfo {
    */
   private VariableInfo getOrCreateVariableInfo(String printCommandText, String variableName,
       int variableStartIndex, boolean containedByText, boolean manipulableTag) {
-    VariableInfo varInfo = variables.get(variableName);
-    if (varInfo == null) {
-      varInfo =
-          new VariableInfo(printCommandText, variableName, variableStartIndex, containedByText,
-              manipulableTag);
-      variables.put(variableName, varInfo);
+    int index = indexOfVariable(variableName);
+    if (index >= 0) {
+      return variables[index];
     }
+    VariableInfo varInfo =
+        new VariableInfo(printCommandText, variableName, variableStartIndex, containedByText,
+            manipulableTag);
+    appendVariableInfo(VariableInfo.intern(variableName), varInfo);
     return varInfo;
   }
 
+  /**
+   * Returns the index of the template variable with the specified key by scanning the small array.
+   * 
+   * @param key the variable name before converted into a Java identifier
+   * @return the index of the template variable, or -1 if it doesn't exist
+   */
+  private int indexOfVariable(String key) {
+    for (int i = 0; i < variableCount; i++) {
+      if (variableKeys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Appends the specified {@link VariableInfo} instance with the specified key, growing the arrays
+   * if they are full.
+   * 
+   * @param key the interned variable name before converted into a Java identifier
+   * @param varInfo the {@link VariableInfo} instance to be appended
+   */
+  private void appendVariableInfo(String key, VariableInfo varInfo) {
+    if (variableCount == variables.length) {
+      int capacity = Math.max(INITIAL_CAPACITY, variableCount * 2);
+      variableKeys = Arrays.copyOf(variableKeys, capacity);
+      variables = Arrays.copyOf(variables, capacity);
+    }
+    variableKeys[variableCount] = key;
+    variables[variableCount] = varInfo;
+    variableCount++;
+  }
+
   /**
    * Returns {@code true} if this html tag has template variables.
    * 
    * @return {@code true} if this html tag has template variables
    */
   public boolean hasVariables() {
-    return variables.isEmpty();
+    return variableCount == 0;
   }
 
   /**
@@ -194,8 +253,64 @@ public class HtmlTagInfo {
     return attributeValue;
   }
 
+  /**
+   * Returns the {@link VariableInfo} instances in the order of addition.
+   * 
+   * @return the unmodifiable view of the {@link VariableInfo} instances
+   */
   public Collection<VariableInfo> getVariableInfos() {
-    return variables.values();
+    return Collections.unmodifiableList(Arrays.asList(variables).subList(0, variableCount));
+  }
+
+  /**
+   * Returns the number of the template variables in this html tag.
+   * 
+   * @return the number of the template variables
+   */
+  int getVariableCount() {
+    return variableCount;
+  }
+
+  /**
+   * Returns the key of the template variable at the specified index in the order of
+   * {@link #getVariableInfos()}. The keys are the variable names before converted into Java
+   * identifiers, which are needed to merge the same template variables.
+   * 
+   * @param index the index of the template variable
+   * @return the variable name before converted into a Java identifier
+   */
+  String getVariableKey(int index) {
+    Preconditions.checkElementIndex(index, variableCount);
+    return variableKeys[index];
+  }
+
+  /**
+   * Returns the {@link VariableInfo} instance at the specified index in the order of
+   * {@link #getVariableInfos()}.
+   * 
+   * @param index the index of the template variable
+   * @return the {@link VariableInfo} instance
+   */
+  VariableInfo getVariableInfo(int index) {
+    Preconditions.checkElementIndex(index, variableCount);
+    return variables[index];
+  }
+
+  /**
+   * Puts the specified {@link VariableInfo} instance with the specified key, e.g. to restore the
+   * template variables read by {@link #getVariableKey(int)} and {@link #getVariableInfo(int)}.
+   * 
+   * @param key the variable name before converted into a Java identifier
+   * @param variableInfo the {@link VariableInfo} instance to be put
+   */
+  void putVariableInfo(String key, VariableInfo variableInfo) {
+    Preconditions.checkNotNull(variableInfo);
+    int index = indexOfVariable(key);
+    if (index >= 0) {
+      variables[index] = variableInfo;
+    } else {
+      appendVariableInfo(VariableInfo.intern(key), variableInfo);
+    }
   }
 
   public void setAttributeValue(String attributeValue) {
@@ -0,0 +1,265 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+
+/**
+ * A set of positions in a template which consists of disjoint closed-open ranges such as
+ * {@code [start, end)}. Connected ranges are merged as well as
+ * {@link com.google.common.collect.TreeRangeSet}, but the bounds are stored in sorted primitive
+ * int arrays, so that adding ranges in ascending order and finding a position by the binary search
+ * need no boxing.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class IntRangeSet {
+  /**
+   * An initial capacity of the arrays of bounds.
+   */
+  private static final int INITIAL_CAPACITY = 8;
+
+  /**
+   * Sorted lower bounds (inclusive) of the disjoint ranges.
+   */
+  private int[] lowers;
+  /**
+   * Sorted upper bounds (exclusive) of the disjoint ranges.
+   */
+  private int[] uppers;
+  /**
+   * The number of the disjoint ranges.
+   */
+  private int size;
+
+  /**
+   * Constructs an empty instance.
+   */
+  public IntRangeSet() {
+    this.lowers = new int[INITIAL_CAPACITY];
+    this.uppers = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Creates an instance which contains the same positions as the specified {@link RangeSet}, e.g.
+   * for callers which still pass the repeated or excluded parts as a {@link RangeSet}.
+   *
+   * @param rangeSet the set of positions to be copied
+   * @return the created instance
+   */
+  public static IntRangeSet copyOf(RangeSet<Integer> rangeSet) {
+    Preconditions.checkNotNull(rangeSet);
+    IntRangeSet set = new IntRangeSet();
+    for (Range<Integer> range : rangeSet.asRanges()) {
+      // Convert the range into the closed-open form whose lower bound always exists
+      Range<Integer> canonical = range.canonical(DiscreteDomain.integers());
+      set.add(canonical.lowerEndpoint(),
+          canonical.hasUpperBound() ? canonical.upperEndpoint() : Integer.MAX_VALUE);
+    }
+    return set;
+  }
+
+  /**
+   * Adds the closed-open range {@code [lower, upper)} merging connected ranges. Empty ranges are
+   * ignored.
+   *
+   * @param lower the lower bound (inclusive) of the range to be added
+   * @param upper the upper bound (exclusive) of the range to be added
+   */
+  public void add(int lower, int upper) {
+    Preconditions.checkArgument(lower <= upper);
+    if (lower == upper) {
+      return;
+    }
+    // The first range whose upper bound is connected to the new range
+    int first = findFirstUpperAtLeast(lower);
+    // The last range whose lower bound is connected to the new range
+    int last = first;
+    while (last < size && lowers[last] <= upper) {
+      last++;
+    }
+    if (first == last) {
+      insert(first, lower, upper);
+      return;
+    }
+    lower = Math.min(lower, lowers[first]);
+    upper = Math.max(upper, uppers[last - 1]);
+    lowers[first] = lower;
+    uppers[first] = upper;
+    int removedCount = last - first - 1;
+    if (removedCount > 0) {
+      System.arraycopy(lowers, last, lowers, first + 1, size - last);
+      System.arraycopy(uppers, last, uppers, first + 1, size - last);
+      size -= removedCount;
+    }
+  }
+
+  /**
+   * Adds all the ranges in the specified set.
+   *
+   * @param other the set whose ranges are added
+   */
+  public void addAll(IntRangeSet other) {
+    for (int i = 0; i < other.size; i++) {
+      add(other.lowers[i], other.uppers[i]);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the specified position is contained in one of the ranges.
+   *
+   * @param index the position to be checked
+   * @return {@code true} if the specified position is contained in one of the ranges
+   */
+  public boolean contains(int index) {
+    int i = findFirstUpperAtLeast(index + 1);
+    return i < size && lowers[i] <= index;
+  }
+
+  /**
+   * Removes all the ranges.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Returns {@code true} if this set contains no range.
+   *
+   * @return {@code true} if this set contains no range
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of the disjoint ranges.
+   *
+   * @return the number of the disjoint ranges
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the lower bound (inclusive) of the range at the specified position in ascending order.
+   *
+   * @param i the position of the range
+   * @return the lower bound of the range
+   */
+  public int getLower(int i) {
+    Preconditions.checkElementIndex(i, size);
+    return lowers[i];
+  }
+
+  /**
+   * Returns the upper bound (exclusive) of the range at the specified position in ascending order.
+   *
+   * @param i the position of the range
+   * @return the upper bound of the range
+   */
+  public int getUpper(int i) {
+    Preconditions.checkElementIndex(i, size);
+    return uppers[i];
+  }
+
+  /**
+   * Returns the position of the first range whose upper bound is equal to or greater than the
+   * specified value.
+   *
+   * @param value the value to be compared with upper bounds
+   * @return the position of the range, or {@code size} if there is no such range
+   */
+  private int findFirstUpperAtLeast(int value) {
+    // Ranges are usually added in ascending order
+    if (size == 0 || uppers[size - 1] < value) {
+      return size;
+    }
+    int low = 0, high = size - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (uppers[mid] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Inserts the specified range at the specified position.
+   *
+   * @param i the position to insert the range
+   * @param lower the lower bound of the range
+   * @param upper the upper bound of the range
+   */
+  private void insert(int i, int lower, int upper) {
+    if (size == lowers.length) {
+      lowers = Arrays.copyOf(lowers, size * 2);
+      uppers = Arrays.copyOf(uppers, size * 2);
+    }
+    System.arraycopy(lowers, i, lowers, i + 1, size - i);
+    System.arraycopy(uppers, i, uppers, i + 1, size - i);
+    lowers[i] = lower;
+    uppers[i] = upper;
+    size++;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof IntRangeSet)) {
+      return false;
+    }
+    IntRangeSet other = (IntRangeSet) obj;
+    if (size != other.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (lowers[i] != other.lowers[i] || uppers[i] != other.uppers[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * (31 * result + lowers[i]) + uppers[i];
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      builder.append(i > 0 ? ", [" : "[").append(lowers[i]).append("..").append(uppers[i])
+          .append(')');
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -22,6 +22,8 @@ import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.xerces.xni.Augmentations;
 import org.apache.xerces.xni.NamespaceContext;
@@ -36,12 +38,15 @@ import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.RangeSet;
 
 /**
  * A class to extract template variables with its parent html tags by parsing a template with
- * CyberNeko HTML Parser.
+ * CyberNeko HTML Parser. An instance can parse many templates one after another because the state
+ * of the previous template is reset in {@link #startDocument}, which saves the costly set-up of the
+ * parser configuration for each template.
  * 
  * @author Kazunori Sakamoto
  */
@@ -51,9 +56,10 @@ public abstract class RegexVariableExtractor extends SAXParser {
    */
   private static final String AUGMENTATIONS = "http://cyberneko.org/html/features/augmentations";
   /**
-   * A regular expression which indicates template variable to print.
+   * A matcher to find template variables to print, which is reused for all the texts and the
+   * attribute values.
    */
-  private final Pattern variablePattern;
+  private final VariableMatcher variableMatcher;
   /**
    * A stack of extracted information of a html tag such as the start position, the end position,
    * the id value and the information of template variables. This field is only used to create the
@@ -66,13 +72,44 @@ public abstract class RegexVariableExtractor extends SAXParser {
    */
   private final List<HtmlTagInfo> sortedHtmlTagInfos;
   /**
-   * Positions of excluded parts such as "{call .t1}excluded part{/call}".
+   * Positions of excluded parts such as "{call .t1}excluded part{/call}" in the template being
+   * parsed.
+   */
+  private final IntRangeSet excludedRanges;
+  /**
+   * Positions of excluded parts given in advance, which are copied into {@code excludedRanges} at
+   * the start of each template, or {@code null} if the excluded parts are detected while parsing.
+   */
+  private IntRangeSet presetExcludedRanges;
+  /**
+   * A regular expression of the start tags of excluded parts to be detected while parsing, or
+   * {@code null} if the excluded parts are given in advance.
+   */
+  private final Pattern excludedStartPattern;
+  /**
+   * A regular expression of the end tags of excluded parts to be detected while parsing, or
+   * {@code null} if the excluded parts are given in advance.
+   */
+  private final Pattern excludedEndPattern;
+  /**
+   * A start position of the excluded part whose end tag has not been found yet, or {@code -1} if
+   * there is no such excluded part.
    */
-  private final RangeSet<Integer> excludedRanges;
+  private int openExcludedStartIndex;
   /**
-   * A string for divided characters because "<%=a%>" is diveded into "<" and "%=a%>".
+   * A boolean whether broken pairs of start and end tags of excluded parts are found.
    */
-  private String lastText;
+  private boolean hasBrokenExcludedParts;
+  /**
+   * A reusable buffer for divided characters because "<%=a%>" is diveded into "<" and "%=a%>".
+   * The characters are appended without creating strings and the variable pattern is matched
+   * against the buffer directly, so texts arriving in many chunks are not copied repeatedly.
+   */
+  private final StringBuilder lastText;
+  /**
+   * A start position of {@code lastText} in the parsed template.
+   */
+  private int lastTextIndex;
   /**
    * A name of the attribute to be assigned for tags containing template variables.
    */
@@ -90,6 +127,21 @@ public abstract class RegexVariableExtractor extends SAXParser {
    * Constructs an instance to extract template variables with the specified positions of excluded
    * parts and the given attribute name for memorizing the value.
    * 
+   * @param excludedRanges the {@link IntRangeSet} with the positions of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public RegexVariableExtractor(IntRangeSet excludedRanges, String attributeName)
+      throws TemplateParseException {
+    this(Preconditions.checkNotNull(excludedRanges), null, null, attributeName);
+    this.presetExcludedRanges = excludedRanges;
+  }
+
+  /**
+   * Constructs an instance to extract template variables with the specified positions of excluded
+   * parts given as a {@link RangeSet} and the given attribute name for memorizing the value.
+   * 
    * @param excludedRanges the {@link RangeSet} with the positions of excluded parts
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
@@ -97,11 +149,39 @@ public abstract class RegexVariableExtractor extends SAXParser {
    */
   public RegexVariableExtractor(RangeSet<Integer> excludedRanges, String attributeName)
       throws TemplateParseException {
-    this.excludedRanges = excludedRanges;
+    this(IntRangeSet.copyOf(excludedRanges), attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables detecting excluded parts with the
+   * specified start and end patterns while parsing and the given attribute name for memorizing the
+   * value. Note that the start and end tags of excluded parts are detected only in texts between
+   * html tags.
+   * 
+   * @param excludedStartPattern the regular expression of the start tags of excluded parts
+   * @param excludedEndPattern the regular expression of the end tags of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public RegexVariableExtractor(Pattern excludedStartPattern, Pattern excludedEndPattern,
+      String attributeName) throws TemplateParseException {
+    this(new IntRangeSet(), Preconditions.checkNotNull(excludedStartPattern),
+        Preconditions.checkNotNull(excludedEndPattern), attributeName);
+  }
+
+  private RegexVariableExtractor(IntRangeSet excludedRanges, Pattern excludedStartPattern,
+      Pattern excludedEndPattern, String attributeName) throws TemplateParseException {
+    this.excludedRanges = new IntRangeSet();
+    this.excludedRanges.addAll(excludedRanges);
+    this.excludedStartPattern = excludedStartPattern;
+    this.excludedEndPattern = excludedEndPattern;
+    this.openExcludedStartIndex = -1;
     this.attributeName = attributeName;
     this.tagInfoStack = new Stack<HtmlTagInfo>();
     this.sortedHtmlTagInfos = new ArrayList<HtmlTagInfo>();
-    this.variablePattern = initializeVariablePattern();
+    this.lastText = new StringBuilder();
+    this.variableMatcher = createVariableMatcher();
 
     // CyberNeko HTML Parser supports AUGMENTATIONS
     try {
@@ -114,22 +194,76 @@ public abstract class RegexVariableExtractor extends SAXParser {
   }
 
   /**
-   * Returns a regular expression for template variables.
+   * Creates a matcher to find template variables, e.g. a {@link RegexVariableMatcher} instance with
+   * a precompiled regular expression shared by all the extractors, or a hand-written
+   * {@link DelimitedVariableMatcher} instance.
    * 
-   * @return a regular expression for template variables
+   * @return the matcher to find template variables
    */
-  protected abstract Pattern initializeVariablePattern();
+  protected abstract VariableMatcher createVariableMatcher();
 
   public List<HtmlTagInfo> getSortedHtmlTagInfos() {
     return Collections.unmodifiableList(sortedHtmlTagInfos);
   }
 
+  /**
+   * Returns {@code true} if broken pairs of start and end tags of excluded parts are found while
+   * parsing. Note that this method always returns {@code false} if the excluded parts are given in
+   * advance.
+   * 
+   * @return {@code true} if broken pairs of start and end tags of excluded parts are found
+   */
+  public boolean hasBrokenExcludedParts() {
+    return hasBrokenExcludedParts || openExcludedStartIndex >= 0;
+  }
+
+  /**
+   * Sets the positions of excluded parts of the templates to be parsed next, which overrides the
+   * detection with the start and end patterns until this method is called with {@code null}.
+   * 
+   * @param excludedRanges the {@link IntRangeSet} with the positions of excluded parts, or
+   *        {@code null} to detect them with the patterns given to the constructor
+   */
+  public void setExcludedRanges(@Nullable IntRangeSet excludedRanges) {
+    Preconditions.checkArgument(excludedRanges != null || excludedStartPattern != null);
+
+    this.presetExcludedRanges = excludedRanges;
+  }
+
+  /**
+   * Returns {@code true} if the excluded parts are detected with the start and end patterns while
+   * parsing instead of being given in advance.
+   * 
+   * @return {@code true} if the excluded parts are detected while parsing
+   */
+  private boolean detectsExcludedParts() {
+    return presetExcludedRanges == null;
+  }
+
+  /**
+   * Returns {@code true} if the specified position is located in excluded parts.
+   * 
+   * @param index the position in the parsed template
+   * @return {@code true} if the specified position is located in excluded parts
+   */
+  private boolean isExcluded(int index) {
+    return excludedRanges.contains(index)
+        || (openExcludedStartIndex >= 0 && index >= openExcludedStartIndex);
+  }
+
   @Override
   public void startDocument(XMLLocator locator, String encoding, NamespaceContext namespaceContext,
       Augmentations augs) throws XNIException {
     tagInfoStack.clear();
     sortedHtmlTagInfos.clear();
-    lastText = "";
+    lastText.setLength(0);
+    lastTextIndex = 0;
+    excludedRanges.clear();
+    openExcludedStartIndex = -1;
+    hasBrokenExcludedParts = false;
+    if (!detectsExcludedParts()) {
+      excludedRanges.addAll(presetExcludedRanges);
+    }
 
     super.startDocument(locator, encoding, namespaceContext, augs);
   }
@@ -137,6 +271,7 @@ public abstract class RegexVariableExtractor extends SAXParser {
   @Override
   public void startElement(QName element, XMLAttributes attrs, Augmentations augs) {
     processCharacters();
+    lastText.setLength(0);
 
     // Ignore elements with prefix (:) to deal with not html elements such as "c:set" in JSP.
     if (element.prefix == null) {
@@ -149,12 +284,15 @@ public abstract class RegexVariableExtractor extends SAXParser {
 
       for (int i = 0; i < attrs.getLength(); i++) {
         // Ignore variables appearing two more than
-        Matcher matcher = variablePattern.matcher(attrs.getValue(i));
-        while (matcher.find()) {
-          int iGroup = getFirstAvailableGroupIndex(matcher);
-          if (!excludedRanges.contains(matcher.start(iGroup))) {
-            tagInfo.addVariableInfo(matcher.group(0), matcher.group(iGroup), matcher.start(iGroup),
-                attrs.getQName(i));
+        String value = attrs.getValue(i);
+        variableMatcher.reset(value);
+        while (variableMatcher.find()) {
+          // NekoHTML provides no positions of attribute values, so use the position of the tag
+          if (!isExcluded(tagInfo.getStartIndex())) {
+            tagInfo.addVariableInfo(
+                value.substring(variableMatcher.start(), variableMatcher.end()),
+                value.substring(variableMatcher.nameStart(), variableMatcher.nameEnd()),
+                tagInfo.getStartIndex(), attrs.getQName(i));
           }
         }
         if (attrs.getQName(i).equals("id")) {
@@ -167,26 +305,18 @@ public abstract class RegexVariableExtractor extends SAXParser {
     super.startElement(element, attrs, augs);
   }
 
-  private int getFirstAvailableGroupIndex(Matcher matcher) {
-    int iGroup = 0;
-    do {
-      iGroup++;
-    } while (matcher.group(iGroup) == null);
-    return iGroup;
-  }
-
   @Override
   public void endElement(QName element, Augmentations augs) throws XNIException {
-    String text = processCharacters();
+    processCharacters();
 
     // Ignore elements with prefix (:) to deal with not html elements such as "c:set" in JSP.
     // TODO(kazuu): Should we ignore elements with prefix (:)? Really?
     if (element.prefix == null) {
       HtmlTagInfo tagInfo = tagInfoStack.pop();
-      if (!excludedRanges.contains(tagInfo.getStartIndex())) {
+      if (!isExcluded(tagInfo.getStartIndex())) {
         for (String tag : manipulableTags) {
           if (StringUtils.equalsIgnoreCase(element.rawname, tag)) {
-            String name = decideName(element, text, tagInfo);
+            String name = decideName(element, lastText, tagInfo);
             tagInfo.addManipulableTag(name, tagInfo.getStartIndex());
             break;
           }
@@ -197,6 +327,7 @@ public abstract class RegexVariableExtractor extends SAXParser {
         sortedHtmlTagInfos.add(tagInfo);
       }
     }
+    lastText.setLength(0);
 
     super.endElement(element, augs);
   }
@@ -207,7 +338,7 @@ public abstract class RegexVariableExtractor extends SAXParser {
    * @param tagInfo
    * @return
    */
-  private String decideName(QName element, String text, HtmlTagInfo tagInfo) {
+  private String decideName(QName element, CharSequence text, HtmlTagInfo tagInfo) {
     // TODO: Write method explanation
     // TODO: Reconsider about <a href='{$url}'></a>
     String name = element.rawname;
@@ -217,33 +348,75 @@ public abstract class RegexVariableExtractor extends SAXParser {
     if (!Strings.isNullOrEmpty(tagInfo.getIdValue())) {
       name += "_" + tagInfo.getIdValue();
     }
-    if (name == element.rawname && !Strings.isNullOrEmpty(text)) {
+    if (name == element.rawname && text.length() > 0) {
       name += "_" + text;
     }
     return name;
   }
 
-  private String processCharacters() {
-    String text = lastText;
-    Matcher matcher = variablePattern.matcher(lastText);
-    while (matcher.find()) {
-      if (excludedRanges.contains(matcher.start(1))) {
+  /**
+   * Extracts template variables from the characters accumulated in {@code lastText}. Note that the
+   * buffer is kept to be used by the caller, which must clear it.
+   */
+  private void processCharacters() {
+    if (detectsExcludedParts()) {
+      updateExcludedRanges(lastText, lastTextIndex);
+    }
+    variableMatcher.reset(lastText);
+    while (variableMatcher.find()) {
+      int startIndex = lastTextIndex + variableMatcher.nameStart();
+      if (isExcluded(startIndex)) {
         continue;
       }
       // tagInfoStack always has some elements
       // because NekoHTML add <html> tag as a root element automatically
       // Note that tags automatically added have -1 start/end indices
       HtmlTagInfo tagInfo = tagInfoStack.peek();
-      int iGroup = getFirstAvailableGroupIndex(matcher);
-      tagInfo.addVariableInfo(matcher.group(0), matcher.group(iGroup), matcher.start(iGroup));
+      tagInfo.addVariableInfo(lastText.substring(variableMatcher.start(), variableMatcher.end()),
+          lastText.substring(variableMatcher.nameStart(), variableMatcher.nameEnd()), startIndex);
+    }
+  }
+
+  /**
+   * Adds the ranges of excluded parts which are found in the specified text between html tags.
+   * 
+   * @param text the text between html tags
+   * @param textIndex the start position of the text in the parsed template
+   */
+  private void updateExcludedRanges(CharSequence text, int textIndex) {
+    Matcher startMatcher = excludedStartPattern.matcher(text);
+    Matcher endMatcher = excludedEndPattern.matcher(text);
+    int startIndex = startMatcher.find() ? startMatcher.start() : -1;
+    int endIndex = endMatcher.find() ? endMatcher.start() : -1;
+    while (startIndex >= 0 || endIndex >= 0) {
+      if (endIndex < 0 || (startIndex >= 0 && startIndex < endIndex)) {
+        if (openExcludedStartIndex >= 0) {
+          hasBrokenExcludedParts = true;
+        } else {
+          openExcludedStartIndex = textIndex + startIndex;
+        }
+        startIndex = startMatcher.find() ? startMatcher.start() : -1;
+      } else {
+        if (openExcludedStartIndex < 0) {
+          hasBrokenExcludedParts = true;
+        } else {
+          excludedRanges.add(openExcludedStartIndex, textIndex + endIndex);
+          openExcludedStartIndex = -1;
+        }
+        endIndex = endMatcher.find() ? endMatcher.start() : -1;
+      }
     }
-    lastText = "";
-    return text;
   }
 
   @Override
   public void characters(XMLString string, Augmentations augs) throws XNIException {
-    lastText += string.toString();
+    if (lastText.length() == 0) {
+      // Record the offset of the text to locate template variables in the whole template
+      HTMLEventInfo info = augs != null ? (HTMLEventInfo) augs.getItem(AUGMENTATIONS) : null;
+      lastTextIndex =
+          info != null && info.getBeginCharacterOffset() >= 0 ? info.getBeginCharacterOffset() : 0;
+    }
+    lastText.append(string.ch, string.offset, string.length);
 
     super.characters(string, augs);
   }
@@ -0,0 +1,150 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class to find template variables with a regular expression, where the first matched group is
+ * the variable name. The compiled pattern should be shared by the instances and the
+ * {@link Matcher} instance is reused for all the inputs. Inputs without any of the given sentinels,
+ * i.e. the opening delimiters of template variables, are rejected without running the regular
+ * expression.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class RegexVariableMatcher implements VariableMatcher {
+  /**
+   * A regular expression which indicates template variables to print.
+   */
+  private final Pattern pattern;
+  /**
+   * Strings which every template variable contains, or an empty array to run the regular
+   * expression for all the inputs.
+   */
+  private final String[] sentinels;
+  /**
+   * A matcher of the pattern reused for all the inputs, or {@code null} before the first input.
+   */
+  private Matcher matcher;
+  /**
+   * A boolean whether the current input contains any sentinel.
+   */
+  private boolean hasSentinel;
+  /**
+   * An index of the first matched group of the last match.
+   */
+  private int nameGroup;
+
+  /**
+   * Constructs an instance with the specified regular expression and the specified sentinels.
+   * 
+   * @param pattern the regular expression whose first matched group is the variable name
+   * @param sentinels the strings which every template variable contains such as "${", or nothing
+   *        to run the regular expression for all the inputs
+   */
+  public RegexVariableMatcher(Pattern pattern, String... sentinels) {
+    this.pattern = Preconditions.checkNotNull(pattern);
+    this.sentinels = sentinels.clone();
+  }
+
+  @Override
+  public VariableMatcher reset(CharSequence input) {
+    hasSentinel = sentinels.length == 0 || containsSentinel(input);
+    if (!hasSentinel) {
+      return this;
+    } else if (matcher == null) {
+      matcher = pattern.matcher(input);
+    } else {
+      matcher.reset(input);
+    }
+    return this;
+  }
+
+  /**
+   * Returns {@code true} if the specified input contains any sentinel.
+   * 
+   * @param input the input to be checked
+   * @return {@code true} if the input contains any sentinel
+   */
+  private boolean containsSentinel(CharSequence input) {
+    int length = input.length();
+    for (int i = 0; i < length; i++) {
+      for (String sentinel : sentinels) {
+        if (input.charAt(i) == sentinel.charAt(0) && startsWith(input, i, sentinel)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns {@code true} if the specified input contains the specified string at the specified
+   * position.
+   * 
+   * @param input the input to be checked
+   * @param index the position in the input
+   * @param string the string to be compared
+   * @return {@code true} if the string appears at the position
+   */
+  private static boolean startsWith(CharSequence input, int index, String string) {
+    if (index + string.length() > input.length()) {
+      return false;
+    }
+    for (int i = 1; i < string.length(); i++) {
+      if (input.charAt(index + i) != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean find() {
+    if (!hasSentinel || !matcher.find()) {
+      return false;
+    }
+    nameGroup = 1;
+    while (matcher.start(nameGroup) < 0) {
+      nameGroup++;
+    }
+    return true;
+  }
+
+  @Override
+  public int start() {
+    return matcher.start();
+  }
+
+  @Override
+  public int end() {
+    return matcher.end();
+  }
+
+  @Override
+  public int nameStart() {
+    return matcher.start(nameGroup);
+  }
+
+  @Override
+  public int nameEnd() {
+    return matcher.end(nameGroup);
+  }
+}
@@ -40,7 +40,7 @@ public class TemplateInfo {
    * A set of positions of repeated parts such as "{template .t1}repeated
    * part{/template}{foreach ...}repeated part{call .t1}{/foreach}".
    */
-  private final RangeSet<Integer> repeatedRanges;
+  private final IntRangeSet repeatedRanges;
 
   /**
    * Constructs an instance with the specified template and information of html
@@ -49,10 +49,10 @@ public class TemplateInfo {
    * @param template the string of template content
    * @param htmlTagInfos the list of the information of html which contain
    *        template variables
-   * @param repeatedRanges the {@link RangeSet} where repeated part is located
+   * @param repeatedRanges the {@link IntRangeSet} where repeated part is located
    */
   public TemplateInfo(String template, List<HtmlTagInfo> htmlTagInfos,
-      RangeSet<Integer> repeatedRanges) {
+      IntRangeSet repeatedRanges) {
     Preconditions.checkNotNull(template);
     Preconditions.checkNotNull(htmlTagInfos);
     Preconditions.checkNotNull(repeatedRanges);
@@ -62,6 +62,20 @@ public class TemplateInfo {
     this.repeatedRanges = repeatedRanges;
   }
 
+  /**
+   * Constructs an instance with the specified template, information of html
+   * tags and positions of repeated parts given as a {@link RangeSet}.
+   *
+   * @param template the string of template content
+   * @param htmlTagInfos the list of the information of html which contain
+   *        template variables
+   * @param repeatedRanges the {@link RangeSet} where repeated part is located
+   */
+  public TemplateInfo(String template, List<HtmlTagInfo> htmlTagInfos,
+      RangeSet<Integer> repeatedRanges) {
+    this(template, htmlTagInfos, IntRangeSet.copyOf(repeatedRanges));
+  }
+
   /**
    * Returns {@code true} if the specified html tag appears in repeated part.
    *
@@ -80,4 +94,14 @@ public class TemplateInfo {
   public List<HtmlTagInfo> getHtmlTagInfos() {
     return htmlTagInfos;
   }
+
+  /**
+   * Returns the set of positions of repeated parts, e.g. to serialize this
+   * instance.
+   *
+   * @return the {@link IntRangeSet} where repeated part is located
+   */
+  IntRangeSet getRepeatedRanges() {
+    return repeatedRanges;
+  }
 }
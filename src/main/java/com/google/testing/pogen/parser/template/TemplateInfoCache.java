@@ -0,0 +1,293 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+
+/**
+ * A class which caches the parse results of templates on disk to share them between commands and
+ * runs. Each entry is keyed by the hash of the template content, the parser class, the assigned
+ * attribute name and the key of the other templates which the result depends on, so a cache hit
+ * skips parsing by NekoHTML entirely. The total size of the entries is bounded and the least
+ * recently used entries are evicted, where the recency is recorded as the last-modified time of the
+ * entry files to be shared between processes.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class TemplateInfoCache {
+  /**
+   * A default maximum total size in bytes of the cache entries.
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /**
+   * A suffix of the cache entry files.
+   */
+  private static final String ENTRY_SUFFIX = ".tinfo";
+  /**
+   * A version of the format of the cache entry files, which should be incremented when the format
+   * or the parse results change.
+   */
+  private static final int FORMAT_VERSION = 3;
+  /**
+   * A reader of the cache entry files for each thread to reuse its buffers.
+   */
+  private static final ThreadLocal<TemplateInfoReader> READERS =
+      new ThreadLocal<TemplateInfoReader>() {
+        @Override
+        protected TemplateInfoReader initialValue() {
+          return new TemplateInfoReader();
+        }
+      };
+  /**
+   * A writer of the cache entry files for each thread to reuse its buffers.
+   */
+  private static final ThreadLocal<TemplateInfoWriter> WRITERS =
+      new ThreadLocal<TemplateInfoWriter>() {
+        @Override
+        protected TemplateInfoWriter initialValue() {
+          return new TemplateInfoWriter();
+        }
+      };
+
+  /**
+   * A directory which contains the cache entry files.
+   */
+  private final File directory;
+  /**
+   * A maximum total size in bytes of the cache entries.
+   */
+  private final long maxBytes;
+  /**
+   * A map of the names of the cache entry files and their sizes in the order of access.
+   */
+  private final LinkedHashMap<String, Long> entrySizes;
+  /**
+   * A total size in bytes of the cache entries.
+   */
+  private long totalBytes;
+  /**
+   * A number of the cache hits.
+   */
+  private int hitCount;
+  /**
+   * A number of the cache misses.
+   */
+  private int missCount;
+
+  /**
+   * Constructs an instance with the specified directory and the specified maximum total size,
+   * loading the existing entries in the order of their last-modified times. Errors in creating the
+   * directory are ignored because the cache is only an optimization, so nothing is cached then.
+   * 
+   * @param directory the directory which contains the cache entry files
+   * @param maxBytes the maximum total size in bytes of the cache entries
+   */
+  public TemplateInfoCache(File directory, long maxBytes) {
+    Preconditions.checkNotNull(directory);
+    Preconditions.checkArgument(maxBytes > 0);
+
+    directory.mkdirs();
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.entrySizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(ENTRY_SUFFIX);
+      }
+    });
+    if (files != null) {
+      Arrays.sort(files, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          long m1 = f1.lastModified(), m2 = f2.lastModified();
+          return m1 < m2 ? -1 : (m1 > m2 ? 1 : f1.getName().compareTo(f2.getName()));
+        }
+      });
+      for (File file : files) {
+        entrySizes.put(file.getName(), file.length());
+        totalBytes += file.length();
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Parses the specified template with the specified parser, or restores the parse result from the
+   * cache if the same template was parsed with the same kind of parser.
+   * 
+   * @param template the string of the template to be parsed
+   * @param parser the parser to parse the template
+   * @param dependencyKey the key of the other templates which the parse result depends on, e.g.
+   *        the soy templates in other files calling the templates in the template
+   * @return the information of the template
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public TemplateInfo parse(String template, TemplateParser parser, String dependencyKey)
+      throws TemplateParseException {
+    Preconditions.checkNotNull(template);
+    Preconditions.checkNotNull(parser);
+    Preconditions.checkNotNull(dependencyKey);
+
+    String entryName = getEntryName(template, parser, dependencyKey);
+    TemplateInfo templateInfo = read(entryName, template);
+    if (templateInfo != null) {
+      return templateInfo;
+    }
+    templateInfo = parser.parse(template);
+    write(entryName, templateInfo);
+    return templateInfo;
+  }
+
+  /**
+   * Returns the number of the cache hits.
+   * 
+   * @return the number of the cache hits
+   */
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of the cache misses.
+   * 
+   * @return the number of the cache misses
+   */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the name of the cache entry file for the specified template, parser and dependency key.
+   * 
+   * @param template the string of the template
+   * @param parser the parser to parse the template
+   * @param dependencyKey the key of the other templates which the parse result depends on
+   * @return the name of the cache entry file
+   */
+  private static String getEntryName(String template, TemplateParser parser, String dependencyKey) {
+    StringBuilder key = new StringBuilder();
+    key.append(FORMAT_VERSION).append('\0').append(parser.getClass().getName()).append('\0')
+        .append(parser.attributeName).append('\0').append(dependencyKey).append('\0')
+        .append(template);
+    return Hashing.sha256().hashBytes(key.toString().getBytes(Charsets.UTF_8)).toString()
+        + ENTRY_SUFFIX;
+  }
+
+  /**
+   * Reads the cache entry with the specified name, marking it as recently used.
+   * 
+   * @param entryName the name of the cache entry file
+   * @param template the string of the template, which is not stored in the entry
+   * @return the information of the template, or {@code null} if the entry doesn't exist or is
+   *         broken
+   */
+  @Nullable
+  private TemplateInfo read(String entryName, String template) {
+    File file = new File(directory, entryName);
+    TemplateInfo templateInfo = null;
+    if (file.isFile()) {
+      try {
+        templateInfo = READERS.get().read(file, template);
+      } catch (IOException e) {
+        // Parse the template again if the entry is broken or written by other versions
+        templateInfo = null;
+      }
+    }
+    synchronized (this) {
+      if (templateInfo != null) {
+        hitCount++;
+        file.setLastModified(System.currentTimeMillis());
+        if (!entrySizes.containsKey(entryName)) {
+          // Written by another process
+          entrySizes.put(entryName, file.length());
+          totalBytes += file.length();
+        }
+        // Mark the entry as recently used
+        entrySizes.get(entryName);
+      } else {
+        missCount++;
+      }
+    }
+    return templateInfo;
+  }
+
+  /**
+   * Writes the cache entry with the specified name atomically and evicts the least recently used
+   * entries if the total size exceeds the maximum. Errors in writing are ignored because the cache
+   * is only an optimization.
+   * 
+   * @param entryName the name of the cache entry file
+   * @param templateInfo the information of the template to be cached
+   */
+  private void write(String entryName, TemplateInfo templateInfo) {
+    File file = new File(directory, entryName);
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile(entryName, ".tmp", directory);
+      WRITERS.get().write(templateInfo, tempFile);
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        // Readers may see a missing entry, which is a cache miss, but never a partial one
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+    } catch (IOException e) {
+      return;
+    } finally {
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+    synchronized (this) {
+      Long oldSize = entrySizes.put(entryName, file.length());
+      totalBytes += file.length() - (oldSize != null ? oldSize : 0);
+      evict();
+    }
+  }
+
+  /**
+   * Evicts the least recently used entries until the total size doesn't exceed the maximum.
+   */
+  private synchronized void evict() {
+    Iterator<Map.Entry<String, Long>> iterator = entrySizes.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      new File(directory, entry.getKey()).delete();
+      totalBytes -= entry.getValue();
+      iterator.remove();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A class to read {@link TemplateInfo} instances written by {@link TemplateInfoWriter}. Each
+ * distinct string is decoded only once into the string table and shared by all the html tags and
+ * variables referring it. An instance reuses its buffers between reads, so it is not thread-safe.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class TemplateInfoReader {
+  /**
+   * A string table of the buffer being read, where the element at zero is {@code null}.
+   */
+  private String[] strings;
+  /**
+   * A buffer to decode UTF-8 bytes of strings.
+   */
+  private byte[] utf8;
+  /**
+   * A buffer to hold the contents of the file being read.
+   */
+  private ByteBuffer contents;
+
+  /**
+   * Constructs an instance with empty buffers.
+   */
+  public TemplateInfoReader() {
+    this.strings = new String[64];
+    this.utf8 = new byte[256];
+    this.contents = ByteBuffer.allocate(4096);
+  }
+
+  /**
+   * Reads the {@link TemplateInfo} instance written in the specified file. The file is read into a
+   * heap buffer rather than mapped, because a mapped file can't be renamed or deleted on Windows
+   * until the mapping is garbage-collected.
+   * 
+   * @param file the file to be read
+   * @param template the string of the template, which is not contained in the file
+   * @return the read {@link TemplateInfo} instance
+   * @throws IOException if errors occur in reading the file or it is in bad format
+   */
+  public TemplateInfo read(File file, String template) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Too large template information: " + file);
+      }
+      if (size > contents.capacity()) {
+        contents = ByteBuffer.allocate(Math.max((int) size, contents.capacity() * 2));
+      }
+      contents.clear();
+      contents.limit((int) size);
+      while (contents.hasRemaining()) {
+        if (channel.read(contents) < 0) {
+          throw new EOFException("Unexpected end of the template information: " + file);
+        }
+      }
+      contents.flip();
+      return decode(contents, template);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Decodes the {@link TemplateInfo} instance from the remaining bytes of the specified buffer.
+   * 
+   * @param buffer the buffer to be decoded
+   * @param template the string of the template, which is not contained in the buffer
+   * @return the decoded {@link TemplateInfo} instance
+   * @throws IOException if the buffer is in bad format
+   */
+  public TemplateInfo decode(ByteBuffer buffer, String template) throws IOException {
+    Preconditions.checkNotNull(buffer);
+    Preconditions.checkNotNull(template);
+
+    try {
+      if (readVarint(buffer) != TemplateInfoWriter.MAGIC
+          || readVarint(buffer) != TemplateInfoWriter.VERSION) {
+        throw new IOException("Unknown format of the template information");
+      }
+      int stringCount = readCount(buffer);
+      if (stringCount >= strings.length) {
+        strings = new String[Math.max(stringCount + 1, strings.length * 2)];
+      }
+      for (int i = 1; i <= stringCount; i++) {
+        int length = readCount(buffer);
+        if (length > utf8.length) {
+          utf8 = new byte[Math.max(length, utf8.length * 2)];
+        }
+        buffer.get(utf8, 0, length);
+        strings[i] = new String(utf8, 0, length, Charsets.UTF_8);
+      }
+
+      int tagCount = readCount(buffer);
+      List<HtmlTagInfo> tagInfos = Lists.newArrayListWithCapacity(tagCount);
+      int lastStart = -1;
+      for (int i = 0; i < tagCount; i++) {
+        String attributeValue = readString(buffer, stringCount);
+        String idValue = readString(buffer, stringCount);
+        String nameValue = readString(buffer, stringCount);
+        int start = lastStart + unzigzag(readVarint(buffer));
+        int end = start + unzigzag(readVarint(buffer));
+        lastStart = start;
+        HtmlTagInfo tagInfo = new HtmlTagInfo(attributeValue, start, end);
+        tagInfo.setIdValue(idValue);
+        tagInfo.setNameValue(nameValue);
+
+        int varCount = readCount(buffer);
+        for (int j = 0; j < varCount; j++) {
+          String key = readString(buffer, stringCount);
+          String name = readString(buffer, stringCount);
+          String printCommandText = readString(buffer, stringCount);
+          int varStart = start + unzigzag(readVarint(buffer));
+          int flags = readVarint(buffer);
+          VariableInfo varInfo =
+              new VariableInfo(printCommandText, name, varStart,
+                  (flags & TemplateInfoWriter.CONTAINED_BY_TEXT) != 0,
+                  (flags & TemplateInfoWriter.MANIPULABLE_TAG) != 0);
+          int attributeCount = readCount(buffer);
+          for (int k = 0; k < attributeCount; k++) {
+            varInfo.addAttributeName(readString(buffer, stringCount));
+          }
+          tagInfo.putVariableInfo(key != null ? key : name, varInfo);
+        }
+        tagInfos.add(tagInfo);
+      }
+
+      int rangeCount = readCount(buffer);
+      IntRangeSet ranges = new IntRangeSet();
+      int lastUpper = 0;
+      for (int i = 0; i < rangeCount; i++) {
+        int lower = lastUpper + unzigzag(readVarint(buffer));
+        lastUpper = lower + readVarint(buffer);
+        ranges.add(lower, lastUpper);
+      }
+      return new TemplateInfo(template, tagInfos, ranges);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated template information", e);
+    } catch (IllegalArgumentException e) {
+      // Thrown by the preconditions of the constructed instances
+      throw new IOException("Broken template information", e);
+    } finally {
+      // Release the strings of the buffer
+      Arrays.fill(strings, null);
+    }
+  }
+
+  /**
+   * Reads a string reference and returns the referred string.
+   * 
+   * @param buffer the buffer to be read
+   * @param stringCount the number of the strings in the string table
+   * @return the referred string, or {@code null} if the reference is zero
+   * @throws IOException if the reference is out of the string table
+   */
+  @Nullable
+  private String readString(ByteBuffer buffer, int stringCount) throws IOException {
+    int reference = readVarint(buffer);
+    if (reference < 0 || reference > stringCount) {
+      throw new IOException("Invalid string reference: " + reference);
+    }
+    return strings[reference];
+  }
+
+  /**
+   * Reads a varint of the number of the following elements, which is at most the remaining bytes.
+   * 
+   * @param buffer the buffer to be read
+   * @return the number of the following elements
+   * @throws IOException if the number is larger than the remaining bytes
+   */
+  private static int readCount(ByteBuffer buffer) throws IOException {
+    int count = readVarint(buffer);
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IOException("Invalid count: " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Reads an unsigned LEB128 varint.
+   * 
+   * @param buffer the buffer to be read
+   * @return the read integer
+   * @throws IOException if the varint is longer than five bytes
+   */
+  private static int readVarint(ByteBuffer buffer) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Too long varint");
+  }
+
+  /**
+   * Decodes the specified zigzag-encoded integer.
+   * 
+   * @param value the zigzag-encoded integer
+   * @return the decoded signed integer
+   */
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
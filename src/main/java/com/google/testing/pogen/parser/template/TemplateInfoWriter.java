@@ -0,0 +1,290 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A class to write {@link TemplateInfo} instances except their templates in a compact binary
+ * format, which is read by {@link TemplateInfoReader}. The format consists of the following parts
+ * where all the integers are unsigned LEB128 varints, and signed ones are zigzag-encoded:
+ * <ol>
+ * <li>the magic number "PGTI" and the format version</li>
+ * <li>the string table of the distinct strings such as variable and attribute names, each of which
+ * is the length and the UTF-8 bytes</li>
+ * <li>the html tags, each of which is the string references of the attribute, id and name values,
+ * the start position as a signed delta from the previous tag, the length, and the variables</li>
+ * <li>the repeated ranges as packed pairs of the gap from the previous upper bound and the length</li>
+ * </ol>
+ * String references are the indexes in the string table plus one, where zero means {@code null},
+ * or the same string as the variable name for the keys of variables.
+ * An instance reuses its buffers between writes, so it is not thread-safe.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class TemplateInfoWriter {
+  /**
+   * A magic number at the beginning of the format, i.e. "PGTI" in ASCII.
+   */
+  static final int MAGIC = 0x50475449;
+  /**
+   * A version of the format, which should be incremented when the format changes.
+   */
+  static final int VERSION = 2;
+  /**
+   * A flag of variables contained by text elements.
+   */
+  static final int CONTAINED_BY_TEXT = 1;
+  /**
+   * A flag of variables which are dummy for the manipulable tags.
+   */
+  static final int MANIPULABLE_TAG = 2;
+
+  /**
+   * A map of the strings in the string table and their references.
+   */
+  private final Map<String, Integer> stringReferences;
+  /**
+   * A list of the strings in the string table in the order of their references.
+   */
+  private final List<String> strings;
+  /**
+   * A buffer of the encoded body, which follows the string table.
+   */
+  private byte[] body;
+  /**
+   * A length of the encoded body.
+   */
+  private int bodyLength;
+  /**
+   * A buffer of the whole encoded bytes.
+   */
+  private byte[] bytes;
+  /**
+   * A length of the whole encoded bytes.
+   */
+  private int length;
+
+  /**
+   * Constructs an instance with empty buffers.
+   */
+  public TemplateInfoWriter() {
+    this.stringReferences = Maps.newHashMap();
+    this.strings = Lists.newArrayList();
+    this.body = new byte[256];
+    this.bytes = new byte[256];
+  }
+
+  /**
+   * Encodes the specified {@link TemplateInfo} instance into the buffer of this writer.
+   * 
+   * @param templateInfo the {@link TemplateInfo} instance to be encoded
+   * @return the buffer which wraps the encoded bytes, which is valid until the next encoding
+   */
+  public ByteBuffer encode(TemplateInfo templateInfo) {
+    Preconditions.checkNotNull(templateInfo);
+
+    stringReferences.clear();
+    strings.clear();
+    bodyLength = 0;
+    List<HtmlTagInfo> tagInfos = templateInfo.getHtmlTagInfos();
+    writeBodyVarint(tagInfos.size());
+    int lastStart = -1;
+    for (HtmlTagInfo tagInfo : tagInfos) {
+      int start = tagInfo.getStartIndex();
+      writeBodyVarint(reference(tagInfo.getAttributeValue()));
+      writeBodyVarint(reference(tagInfo.getIdValue()));
+      writeBodyVarint(reference(tagInfo.getNameValue()));
+      writeBodyVarint(zigzag(start - lastStart));
+      writeBodyVarint(zigzag(tagInfo.getEndIndex() - start));
+      lastStart = start;
+
+      int varCount = tagInfo.getVariableCount();
+      writeBodyVarint(varCount);
+      for (int i = 0; i < varCount; i++) {
+        String key = tagInfo.getVariableKey(i);
+        VariableInfo varInfo = tagInfo.getVariableInfo(i);
+        String name = varInfo.getName();
+        // The key is usually the same as the name, which is referred by zero
+        writeBodyVarint(key.equals(name) ? 0 : reference(key));
+        writeBodyVarint(reference(name));
+        writeBodyVarint(reference(varInfo.getPrintCommandText()));
+        writeBodyVarint(zigzag(varInfo.getStartIndex() - start));
+        writeBodyVarint((varInfo.isContainedByText() ? CONTAINED_BY_TEXT : 0)
+            | (varInfo.isManipulableTag() ? MANIPULABLE_TAG : 0));
+        Set<String> attributeNames = varInfo.getSortedAttributeNames();
+        writeBodyVarint(attributeNames.size());
+        for (String attributeName : attributeNames) {
+          writeBodyVarint(reference(attributeName));
+        }
+      }
+    }
+    IntRangeSet ranges = templateInfo.getRepeatedRanges();
+    writeBodyVarint(ranges.size());
+    int lastUpper = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      writeBodyVarint(zigzag(ranges.getLower(i) - lastUpper));
+      writeBodyVarint(ranges.getUpper(i) - ranges.getLower(i));
+      lastUpper = ranges.getUpper(i);
+    }
+
+    // Write the header and the string table followed by the body
+    length = 0;
+    writeVarint(MAGIC);
+    writeVarint(VERSION);
+    writeVarint(strings.size());
+    for (String string : strings) {
+      byte[] utf8 = string.getBytes(Charsets.UTF_8);
+      writeVarint(utf8.length);
+      writeBytes(utf8, utf8.length);
+    }
+    writeBytes(body, bodyLength);
+    return ByteBuffer.wrap(bytes, 0, length);
+  }
+
+  /**
+   * Writes the specified {@link TemplateInfo} instance into the specified file, replacing the
+   * contents of the file.
+   * 
+   * @param templateInfo the {@link TemplateInfo} instance to be written
+   * @param file the file to be written
+   * @throws IOException if errors occur in writing the file
+   */
+  public void write(TemplateInfo templateInfo, File file) throws IOException {
+    ByteBuffer encoded = encode(templateInfo);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(encoded.remaining());
+      FileChannel channel = randomAccessFile.getChannel();
+      while (encoded.hasRemaining()) {
+        channel.write(encoded);
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Returns the reference of the specified string, adding it into the string table if needed.
+   * 
+   * @param string the string to be referred, or {@code null}
+   * @return the index of the string in the string table plus one, or zero for {@code null}
+   */
+  private int reference(@Nullable String string) {
+    if (string == null) {
+      return 0;
+    }
+    Integer reference = stringReferences.get(string);
+    if (reference == null) {
+      strings.add(string);
+      reference = strings.size();
+      stringReferences.put(string, reference);
+    }
+    return reference;
+  }
+
+  /**
+   * Encodes the specified signed integer with zigzag encoding to make small negative values small.
+   * 
+   * @param value the signed integer to be encoded
+   * @return the zigzag-encoded integer
+   */
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  /**
+   * Writes the specified unsigned integer as a varint into the body buffer.
+   * 
+   * @param value the unsigned integer to be written
+   */
+  private void writeBodyVarint(int value) {
+    if (bodyLength + 5 > body.length) {
+      body = grow(body, bodyLength + 5);
+    }
+    bodyLength = putVarint(body, bodyLength, value);
+  }
+
+  /**
+   * Writes the specified unsigned integer as a varint into the whole buffer.
+   * 
+   * @param value the unsigned integer to be written
+   */
+  private void writeVarint(int value) {
+    if (length + 5 > bytes.length) {
+      bytes = grow(bytes, length + 5);
+    }
+    length = putVarint(bytes, length, value);
+  }
+
+  /**
+   * Writes the specified bytes into the whole buffer.
+   * 
+   * @param source the bytes to be written
+   * @param sourceLength the number of the bytes to be written
+   */
+  private void writeBytes(byte[] source, int sourceLength) {
+    if (length + sourceLength > bytes.length) {
+      bytes = grow(bytes, length + sourceLength);
+    }
+    System.arraycopy(source, 0, bytes, length, sourceLength);
+    length += sourceLength;
+  }
+
+  /**
+   * Puts the specified unsigned integer as a varint into the specified array.
+   * 
+   * @param array the array which has at least five bytes after the position
+   * @param position the position to put the varint
+   * @param value the unsigned integer to be put
+   * @return the position after the varint
+   */
+  private static int putVarint(byte[] array, int position, int value) {
+    while ((value & ~0x7f) != 0) {
+      array[position++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    array[position++] = (byte) value;
+    return position;
+  }
+
+  /**
+   * Returns a copy of the specified array which has at least the specified capacity.
+   * 
+   * @param array the array to be grown
+   * @param minCapacity the minimum capacity of the grown array
+   * @return the grown array
+   */
+  private static byte[] grow(byte[] array, int minCapacity) {
+    byte[] grown = new byte[Math.max(minCapacity, array.length * 2)];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
@@ -15,17 +15,18 @@
 
 package com.google.testing.pogen.parser.template;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 
 /**
  * A class to parse a template to retrieve the {@link TemplateInfo} instance.
@@ -34,6 +35,20 @@ import com.google.common.collect.TreeRangeSet;
  */
 public abstract class TemplateParser {
 
+	/**
+	 * Maps of the keys of parsers and their {@link RegexVariableExtractor}
+	 * instances for each thread. The extractors are reused for all the
+	 * templates parsed in the thread because constructing an extractor sets
+	 * up the whole configuration of NekoHTML, which costs more than parsing
+	 * small templates.
+	 */
+	private static final ThreadLocal<Map<String, RegexVariableExtractor>> EXTRACTORS = new ThreadLocal<Map<String, RegexVariableExtractor>>() {
+		@Override
+		protected Map<String, RegexVariableExtractor> initialValue() {
+			return Maps.newHashMap();
+		}
+	};
+
 	/**
 	 * A name of the attribute to be assigned for tags containing template
 	 * variables.
@@ -65,10 +80,108 @@ public abstract class TemplateParser {
 		Preconditions.checkNotNull(template);
 
 		List<HtmlTagInfo> htmlTagInfos = parseTagsContainingVariables(template);
-		RangeSet<Integer> repeatedParts = parseRepeatedPart(template);
+		IntRangeSet repeatedParts = parseRepeatedPart(template);
 		return new TemplateInfo(template, htmlTagInfos, repeatedParts);
 	}
 
+	/**
+	 * Retrieves an information list of html tags which contain template
+	 * variables by parsing the template read from the specified reader. Unlike
+	 * {@link #parse(String)}, the whole template is never held in memory and
+	 * the positions of template variables are recorded as offsets, so this
+	 * method is suitable for large templates which are only inspected such as
+	 * measuring coverage and listing variables.
+	 * 
+	 * @param reader
+	 *            the reader of the template to be parsed, which is not closed
+	 *            by this method
+	 * @return the information list of html tags which contain template
+	 *         variables
+	 * @throws TemplateParseException
+	 *             if the specified template is in bad format or errors occur
+	 *             in reading it
+	 */
+	public List<HtmlTagInfo> parseTags(Reader reader)
+			throws TemplateParseException {
+		Preconditions.checkNotNull(reader);
+
+		RegexVariableExtractor extractor = getVariableExtractor();
+		extractVariables(extractor, new InputSource(reader));
+		if (extractor.hasBrokenExcludedParts()) {
+			throw new TemplateParseException(
+					"There are broken pairs of start and end tags of excluded parts");
+		}
+		return ImmutableList.copyOf(extractor.getSortedHtmlTagInfos());
+	}
+
+	/**
+	 * Returns the {@link RegexVariableExtractor} instance of this parser
+	 * pooled for the current thread, creating it by
+	 * {@link #createVariableExtractor()} at the first call. The extractor is
+	 * shared by the parsers of the same class and the same attribute name, so
+	 * the results have to be copied before parsing the next template.
+	 * 
+	 * @return the pooled {@link RegexVariableExtractor} instance
+	 * @throws TemplateParseException
+	 *             if errors occur in creating the extractor
+	 */
+	protected RegexVariableExtractor getVariableExtractor()
+			throws TemplateParseException {
+		String key = getClass().getName() + '\0' + attributeName;
+		Map<String, RegexVariableExtractor> extractors = EXTRACTORS.get();
+		RegexVariableExtractor extractor = extractors.get(key);
+		if (extractor == null) {
+			extractor = createVariableExtractor();
+			extractors.put(key, extractor);
+		}
+		return extractor;
+	}
+
+	/**
+	 * Extracts template variables from the specified input with the specified
+	 * pooled extractor. The extractor is removed from the pool if it fails
+	 * because its state may be broken in the middle of the template.
+	 * 
+	 * @param extractor
+	 *            the extractor returned by {@link #getVariableExtractor()}
+	 * @param input
+	 *            the input of the template to be parsed
+	 * @throws TemplateParseException
+	 *             if the template is in bad format or errors occur in reading
+	 *             it
+	 */
+	protected void extractVariables(RegexVariableExtractor extractor,
+			InputSource input) throws TemplateParseException {
+		boolean succeeded = false;
+		try {
+			extractor.parse(input);
+			succeeded = true;
+		} catch (SAXException e) {
+			throw new TemplateParseException(e);
+		} catch (IOException e) {
+			throw new TemplateParseException(e);
+		} finally {
+			if (!succeeded) {
+				EXTRACTORS.get().values().remove(extractor);
+			}
+		}
+	}
+
+	/**
+	 * Creates a {@link RegexVariableExtractor} instance to extract template
+	 * variables from the template read by {@link #parseTags(Reader)}. The
+	 * extractor has to detect excluded parts by itself because the whole
+	 * template is not available in advance. The created extractor is pooled
+	 * by {@link #getVariableExtractor()} and reused for the following
+	 * templates.
+	 * 
+	 * @return the {@link RegexVariableExtractor} instance
+	 * @throws TemplateParseException
+	 *             if errors occur in creating the extractor
+	 */
+	protected abstract RegexVariableExtractor createVariableExtractor()
+			throws TemplateParseException;
+
 	/**
 	 * Retrieves an information list of html tags which contain template
 	 * variables by parsing the specified template.
@@ -84,7 +197,7 @@ public abstract class TemplateParser {
 			String template) throws TemplateParseException;
 
 	/**
-	 * Retrieves a {@link RangeSet} of indexes where the repeated part are
+	 * Retrieves an {@link IntRangeSet} of indexes where the repeated part are
 	 * located in the specified template. Note that repeated part is inner part
 	 * of for/foreach tags and of template tags called from another repeated
 	 * part. For example, {template .t1}repeated part{/template}{foreach
@@ -92,135 +205,98 @@ public abstract class TemplateParser {
 	 * 
 	 * @param template
 	 *            the string of the template to be parsed
-	 * @return the {@link RangeSet} of the indexes where repeated part are
+	 * @return the {@link IntRangeSet} of the indexes where repeated part are
 	 *         located
 	 * @throws TemplateParseException
 	 *             if the specified template is in bad format
 	 */
-	protected abstract RangeSet<Integer> parseRepeatedPart(String template)
+	protected abstract IntRangeSet parseRepeatedPart(String template)
 			throws TemplateParseException;
 
 	/**
-	 * Returns start indexes of strings that match the indicated regular
-	 * expression.
-	 * 
-	 * @param text
-	 *            the string to be parsed
-	 * @param pattern
-	 *            the regular expression to find
-	 * @return the start indexes of matched strings with the indicated pattern
-	 */
-	protected static List<Integer> getMatchedIndexes(String text,
-			Pattern pattern) {
-		List<Integer> results = Lists.newArrayList();
-		Matcher m = pattern.matcher(text);
-		while (m.find()) {
-			results.add(m.start());
-		}
-		return results;
-	}
-
-	/**
-	 * Returns a list of pairs containing matched strings and their start index
-	 * for the specified regular expression and the given group index.
-	 * 
-	 * @param text
-	 *            the string to be parsed
-	 * @param pattern
-	 *            the regular expression to find
-	 * @param groupIndex
-	 *            the index of the group whose matched string we want to
-	 *            retrieve
-	 * @return the start indexes of matched strings with the indicated pattern
-	 */
-	protected static List<StringWithIndex> getMatchedStringAndIndexes(
-			String text, Pattern pattern, int groupIndex) {
-		List<StringWithIndex> results = Lists.newArrayList();
-		Matcher m = pattern.matcher(text);
-		while (m.find()) {
-			results.add(new StringWithIndex(m.group(groupIndex), m.start()));
-		}
-		return results;
-	}
-
-	/**
-	 * Returns a {@link RangeSet} of indexes between the start and the end tags
-	 * for non-nested tags.
+	 * Returns an {@link IntRangeSet} of indexes between the start and the end
+	 * tags for non-nested tags.
 	 * 
-	 * @param text
-	 *            the string to be parsed
-	 * @param startPattern
-	 *            the regular expression of start tags to find
-	 * @param endPattern
-	 *            the regular expression of end tags to find
-	 * @return the {@link RangeSet} of the indexes between the start and the end
-	 *         tags
+	 * @param tokens
+	 *            the tokens found in the template
+	 * @param startKind
+	 *            the kind of start tags
+	 * @param endKind
+	 *            the kind of end tags
+	 * @return the {@link IntRangeSet} of the indexes between the start and the
+	 *         end tags
 	 * @throws TemplateParseException
 	 *             if the specified template is in bad format where broken pairs
 	 *             of start and end tags appear
 	 */
-	protected static RangeSet<Integer> getIndexRangesOfNonNestedTags(
-			String text, Pattern startPattern, Pattern endPattern)
+	protected static IntRangeSet getIndexRangesOfNonNestedTags(
+			ControlFlowLexer.Tokens tokens, int startKind, int endKind)
 			throws TemplateParseException {
+		IntRangeSet rangeSet = new IntRangeSet();
 
-		RangeSet<Integer> rangeSet = TreeRangeSet.create();
-
-		List<Integer> startIndexes = getMatchedIndexes(text, startPattern);
-		List<Integer> endIndexes = getMatchedIndexes(text, endPattern);
+		int startCount = tokens.count(startKind);
+		int endCount = tokens.count(endKind);
 		// Check whether all start tags and end tags are paired correctly
-		if (startIndexes.size() != endIndexes.size()) {
+		if (startCount != endCount) {
 			throw new TemplateParseException(
 					String.format(
 							"There are broken pairs of start and end tags (#start tags: %d, #end tags: %d)",
-							startIndexes.size(), endIndexes.size()));
+							startCount, endCount));
 		}
 
-		for (int i = 0; i < startIndexes.size(); i++) {
-			rangeSet.add(Range.closedOpen(startIndexes.get(i),
-					endIndexes.get(i)));
+		for (int i = 0; i < startCount; i++) {
+			int startIndex = tokens.getIndex(startKind, i);
+			int endIndex = tokens.getIndex(endKind, i);
+			// Check whether all start tags and end tags are paired correctly
+			if (startIndex > endIndex) {
+				throw new TemplateParseException(
+						String.format("Broken pairs of start and end tags are found."));
+			}
+			rangeSet.add(startIndex, endIndex);
 		}
 		return rangeSet;
 	}
 
 	/**
-	 * Returns a {@link RangeSet} of indexes between the start and the end tags
-	 * for nested tags. If there're nested tags, returns the outermost ranges.
+	 * Returns an {@link IntRangeSet} of indexes between the start and the end
+	 * tags for nested tags. If there're nested tags, returns the outermost
+	 * ranges.
 	 * 
-	 * @param text
-	 *            the string to be parsed
-	 * @param startPattern
-	 *            the regular expression of start tags to find
-	 * @param endPattern
-	 *            the regular expression of end tags to find
-	 * @return the {@link RangeSet} of the indexes between the start and the end
-	 *         tags
+	 * @param tokens
+	 *            the tokens found in the template
+	 * @param startKind
+	 *            the kind of start tags
+	 * @param endKind
+	 *            the kind of end tags
+	 * @return the {@link IntRangeSet} of the indexes between the start and the
+	 *         end tags
 	 * @throws TemplateParseException
 	 *             if the specified template is in bad format where broken pairs
 	 *             of start and end tags appear
 	 */
-	protected static RangeSet<Integer> getIndexRangesOfNestedTags(String text,
-			Pattern startPattern, Pattern endPattern)
+	protected static IntRangeSet getIndexRangesOfNestedTags(
+			ControlFlowLexer.Tokens tokens, int startKind, int endKind)
 			throws TemplateParseException {
-		RangeSet<Integer> rangeSet = TreeRangeSet.create();
-
-		List<Integer> startIndexes = getMatchedIndexes(text, startPattern);
-		List<Integer> endIndexes = getMatchedIndexes(text, endPattern);
+		IntRangeSet rangeSet = new IntRangeSet();
 
-		int startIndex = 0, endIndex = 0;
+		int startCount = tokens.count(startKind);
+		int endCount = tokens.count(endKind);
 		// Check whether the sizes of start tags and end tags are equal
-		if (startIndexes.size() != endIndexes.size()) {
+		if (startCount != endCount) {
 			throw new TemplateParseException(
 					String.format(
 							"The sizes of start tags and end tags are not equal (#start tags: %d, #end tags: %d).",
-							startIndexes.size(), endIndexes.size()));
+							startCount, endCount));
 		}
 
+		int startIndex = 0, endIndex = 0;
 		int depth = 0, lastStartIndex = 0;
-		while (endIndex < endIndexes.size()) {
-			boolean consumedStartIndexes = startIndex == startIndexes.size();
+		while (endIndex < endCount) {
+			boolean consumedStartIndexes = startIndex == startCount;
 			// Process a previous index before a next index
 			if (consumedStartIndexes
-					|| endIndexes.get(endIndex) < startIndexes.get(startIndex)) {
+					|| tokens.getIndex(endKind, endIndex) < tokens.getIndex(
+							startKind, startIndex)) {
 				if (--depth <= 0) {
 					if (depth < 0) {
 						// Check whether all start tags and end tags are paired
@@ -228,13 +304,13 @@ public abstract class TemplateParser {
 						throw new TemplateParseException(
 								String.format("Broken pairs of start and end tags are found."));
 					}
-					rangeSet.add(Range.closedOpen(lastStartIndex,
-							endIndexes.get(endIndex)));
+					rangeSet.add(lastStartIndex,
+							tokens.getIndex(endKind, endIndex));
 				}
 				endIndex++;
 			} else {
 				if (depth++ == 0) {
-					lastStartIndex = startIndexes.get(startIndex);
+					lastStartIndex = tokens.getIndex(startKind, startIndex);
 				}
 				startIndex++;
 			}
@@ -246,14 +322,12 @@ public abstract class TemplateParser {
 	 * Returns a {@link Map} of names and indexes between the start and the end
 	 * tags for non-nested tags.
 	 * 
-	 * @param text
-	 *            the string to be parsed
-	 * @param startPattern
-	 *            the regular expression of start tags to find
-	 * @param endPattern
-	 *            the regular expression of end tags to find
-	 * @param groupIndex
-	 *            the index of the group in matched parts to retrieve a name
+	 * @param tokens
+	 *            the tokens found in the template
+	 * @param startKind
+	 *            the kind of start tags whose names are retrieved
+	 * @param endKind
+	 *            the kind of end tags
 	 * @return the {@link Map} of the names and the indexes between the start
 	 *         and the end tags
 	 * @throws TemplateParseException
@@ -261,31 +335,30 @@ public abstract class TemplateParser {
 	 *             of start and end tags appear
 	 */
 	protected static Map<String, Range<Integer>> getNamedIndexRangesOfNonNestedTags(
-			String text, Pattern startPattern, Pattern endPattern,
-			int groupIndex) throws TemplateParseException {
+			ControlFlowLexer.Tokens tokens, int startKind, int endKind)
+			throws TemplateParseException {
 		Map<String, Range<Integer>> templates = Maps.newHashMap();
 
-		List<StringWithIndex> starts = getMatchedStringAndIndexes(text,
-				startPattern, groupIndex);
-		List<Integer> ends = getMatchedIndexes(text, endPattern);
+		int startCount = tokens.count(startKind);
+		int endCount = tokens.count(endKind);
 		// Check whether the sizes of start tags and end tags are equal
-		if (starts.size() != ends.size()) {
+		if (startCount != endCount) {
 			throw new TemplateParseException(
 					String.format(
 							"There are broken pairs of start and end tags (#start tags: %d, #end tags: %d)",
-							starts.size(), ends.size()));
+							startCount, endCount));
 		}
 
-		int endIndexesIndex = 0;
-		for (StringWithIndex nameAndIndex : starts) {
-			int endIndex = ends.get(endIndexesIndex++);
+		for (int i = 0; i < startCount; i++) {
+			int startIndex = tokens.getIndex(startKind, i);
+			int endIndex = tokens.getIndex(endKind, i);
 			// Check whether all start tags and end tags are paired correctly
-			if (nameAndIndex.getIndex() >= endIndex) {
+			if (startIndex >= endIndex) {
 				throw new TemplateParseException(
 						String.format("Broken pairs of start and end tags are found."));
 			}
-			templates.put(nameAndIndex.getString(),
-					Range.closedOpen(nameAndIndex.getIndex(), endIndex));
+			templates.put(tokens.getName(startKind, i),
+					Range.closedOpen(startIndex, endIndex));
 		}
 		return templates;
 	}
@@ -1,11 +1,16 @@
 package com.google.testing.pogen.parser.template;
 
+import java.io.File;
+
+import javax.annotation.Nullable;
+
 import com.google.testing.pogen.parser.template.ejs.EjsParser;
 import com.google.testing.pogen.parser.template.erb.ErbParser;
 import com.google.testing.pogen.parser.template.gtmpl.GroovyTemplateParser;
 import com.google.testing.pogen.parser.template.jsf.JsfParser;
 import com.google.testing.pogen.parser.template.jsp.JspParser;
 import com.google.testing.pogen.parser.template.soy.SoyParser;
+import com.google.testing.pogen.parser.template.soy.SoyTemplateIndex;
 
 /**
  * A utility class to find the preferred {@link TemplateParser} instance for the template file.
@@ -25,6 +30,43 @@ public class TemplateParsers {
    * @return the preferred {@link TemplateParser} instance
    */
   public static TemplateParser getPreferredParser(String templatePath, String attributeName) {
+    return getPreferredParser(templatePath, attributeName, null);
+  }
+
+  /**
+   * Returns the preferred {@link TemplateParser} instance for the specified path of the template
+   * file and the given attribute name, which resolves calls of soy templates with the specified
+   * index.
+   * 
+   * @param templatePath the path of the template file to be find
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param soyIndex the index of the soy templates in all the processed files, or {@code null} if
+   *        calls are resolved only in each template
+   * @return the preferred {@link TemplateParser} instance
+   */
+  public static TemplateParser getPreferredParser(String templatePath, String attributeName,
+      @Nullable SoyTemplateIndex soyIndex) {
+    return getPreferredParser(templatePath, attributeName, soyIndex, null);
+  }
+
+  /**
+   * Returns the preferred {@link TemplateParser} instance for the specified path of the template
+   * file and the given attribute name, which resolves calls of soy templates with the specified
+   * index including the ones of the templates without namespace declarations in the specified
+   * file.
+   * 
+   * @param templatePath the path of the template file to be find
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param soyIndex the index of the soy templates in all the processed files, or {@code null} if
+   *        calls are resolved only in each template
+   * @param indexedFile the file of the template in the index, or {@code null} if the templates
+   *        without namespace declarations are resolved only in each template
+   * @return the preferred {@link TemplateParser} instance
+   */
+  public static TemplateParser getPreferredParser(String templatePath, String attributeName,
+      @Nullable SoyTemplateIndex soyIndex, @Nullable File indexedFile) {
     if (templatePath.endsWith(".ejs")) {
       return new EjsParser(attributeName);
     } else if (templatePath.endsWith(".erb")) {
@@ -36,7 +78,19 @@ public class TemplateParsers {
     } else if (templatePath.endsWith(".gtmpl")) {
       return new GroovyTemplateParser(attributeName);
     } else {
-      return new SoyParser(attributeName);
+      return new SoyParser(attributeName, soyIndex, indexedFile);
     }
   }
+
+  /**
+   * Returns {@code true} if the specified template file is parsed by {@link SoyParser}.
+   * 
+   * @param templatePath the path of the template file
+   * @return {@code true} if the template file is a soy template
+   */
+  public static boolean isSoyTemplate(String templatePath) {
+    return !(templatePath.endsWith(".ejs") || templatePath.endsWith(".erb")
+        || templatePath.endsWith(".xhtml") || templatePath.endsWith(".jsp") || templatePath
+        .endsWith(".gtmpl"));
+  }
 }
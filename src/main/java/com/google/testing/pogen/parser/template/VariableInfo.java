@@ -15,23 +15,34 @@
 
 package com.google.testing.pogen.parser.template;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Set;
-import java.util.TreeSet;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.testing.pogen.generator.test.java.NameConverter;
 
 /**
  * A class to contain the information of a template variable such as the variable name, the
  * attribute names and the start position. Note that template variable means variable in html
- * template files such as soy and php.
+ * template files such as soy and php. The names are interned because the same names appear in many
+ * tags and templates, and the attribute names are stored in a small sorted array.
  * 
  * @author Kazunori Sakamoto
  */
 public class VariableInfo {
+  /**
+   * An interner of the variable names and the attribute names shared by all the instances.
+   */
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+  /**
+   * A shared empty array of attribute names for the variables which appear in no attribute.
+   */
+  private static final String[] EMPTY_ATTRIBUTE_NAMES = new String[0];
+
   /**
    * A command text to print the template variable.
    */
@@ -53,10 +64,10 @@ public class VariableInfo {
    */
   private boolean manipulableTag;
   /**
-   * Sorted names of attributes which contain this template variable. Note that an empty string of
-   * an attribute name means this variable appears in a text element.
+   * Sorted and interned names of attributes which contain this template variable. Note that an
+   * empty string of an attribute name means this variable appears in a text element.
    */
-  private final TreeSet<String> attributeNames;
+  private String[] attributeNames;
 
   /**
    * Constructs the information of a template variable with the specified name, the specified start
@@ -77,9 +88,9 @@ public class VariableInfo {
 
     this.printCommandText = printCommandText;
     name = NameConverter.replaceSignsToTexts(name);
-    this.name = NameConverter.getJavaIdentifier(name);
+    this.name = intern(NameConverter.getJavaIdentifier(name));
     this.startIndex = startIndex;
-    this.attributeNames = Sets.newTreeSet();
+    this.attributeNames = EMPTY_ATTRIBUTE_NAMES;
     this.containedByText = containedByText;
     this.manipulableTag = manipulableTag;
   }
@@ -92,7 +103,26 @@ public class VariableInfo {
   public void addAttributeName(String attributeName) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(attributeName));
 
-    attributeNames.add(attributeName);
+    int index = Arrays.binarySearch(attributeNames, attributeName);
+    if (index < 0) {
+      int insertionIndex = -index - 1;
+      String[] newNames = new String[attributeNames.length + 1];
+      System.arraycopy(attributeNames, 0, newNames, 0, insertionIndex);
+      newNames[insertionIndex] = intern(attributeName);
+      System.arraycopy(attributeNames, insertionIndex, newNames, insertionIndex + 1,
+          attributeNames.length - insertionIndex);
+      attributeNames = newNames;
+    }
+  }
+
+  /**
+   * Returns the canonical instance of the specified name shared by all the template variables.
+   * 
+   * @param name the variable name or the attribute name to be interned
+   * @return the interned name
+   */
+  static String intern(String name) {
+    return NAMES.intern(name);
   }
 
   public String getPrintCommandText() {
@@ -103,8 +133,13 @@ public class VariableInfo {
     return name;
   }
 
+  /**
+   * Returns the sorted names of attributes which contain this template variable.
+   * 
+   * @return the immutable sorted set of the attribute names
+   */
   public Set<String> getSortedAttributeNames() {
-    return Collections.unmodifiableSet(attributeNames);
+    return ImmutableSortedSet.copyOf(attributeNames);
   }
 
   public int getStartIndex() {
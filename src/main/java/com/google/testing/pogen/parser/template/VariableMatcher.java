@@ -0,0 +1,69 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+/**
+ * An interface to find template variables to print in texts and attribute values, which is used by
+ * {@link RegexVariableExtractor}. An instance is reset with each input and reused like
+ * {@link java.util.regex.Matcher}, so template engines can supply hand-written scanners instead of
+ * regular expressions. Instances are not thread-safe.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public interface VariableMatcher {
+  /**
+   * Resets this matcher to find template variables in the specified input from the beginning.
+   * 
+   * @param input the input to be scanned
+   * @return this matcher
+   */
+  VariableMatcher reset(CharSequence input);
+
+  /**
+   * Finds the next template variable in the input after the previous match.
+   * 
+   * @return {@code true} if a template variable is found
+   */
+  boolean find();
+
+  /**
+   * Returns the start position of the command text of the found template variable.
+   * 
+   * @return the start position of the command text in the input
+   */
+  int start();
+
+  /**
+   * Returns the end position of the command text of the found template variable.
+   * 
+   * @return the end position (exclusive) of the command text in the input
+   */
+  int end();
+
+  /**
+   * Returns the start position of the name of the found template variable.
+   * 
+   * @return the start position of the variable name in the input
+   */
+  int nameStart();
+
+  /**
+   * Returns the end position of the name of the found template variable.
+   * 
+   * @return the end position (exclusive) of the variable name in the input
+   */
+  int nameEnd();
+}
@@ -15,18 +15,15 @@
 
 package com.google.testing.pogen.parser.template.ejs;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.util.List;
 import java.util.regex.Pattern;
 
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
 import com.google.common.base.Preconditions;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
+import com.google.testing.pogen.parser.template.ControlFlowLexer;
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.IntRangeSet;
+import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 
@@ -44,6 +41,19 @@ public class EjsParser extends TemplateParser {
    * A regular expression which indicates the end tag of for.
    */
   private static final Pattern FOR_END_PATTERN = Pattern.compile("<%\\s*}");
+  /**
+   * A kind of the start tags of for in the tokens found by {@code LEXER}.
+   */
+  private static final int FOR_START = 0;
+  /**
+   * A kind of the end tags of for in the tokens found by {@code LEXER}.
+   */
+  private static final int FOR_END = 1;
+  /**
+   * A lexer to find the start and end tags of for in a single scan.
+   */
+  private static final ControlFlowLexer LEXER = new ControlFlowLexer("<%", FOR_START_PATTERN,
+      FOR_END_PATTERN);
 
   /**
    * Constructs the instance of {@link TemplateParser} with the specified attribute name.
@@ -59,21 +69,17 @@ public class EjsParser extends TemplateParser {
   protected List<HtmlTagInfo> parseTagsContainingVariables(String template)
       throws TemplateParseException {
     Preconditions.checkNotNull(template);
-    EjsVariableExtractor extractor =
-        new EjsVariableExtractor(TreeRangeSet.<Integer>create(), attributeName);
-    try {
-      extractor.parse(new InputSource(new StringReader(template)));
-    } catch (SAXException e) {
-      throw new TemplateParseException(e);
-    } catch (IOException e) {
-      throw new TemplateParseException(e);
-    }
-    return extractor.getSortedHtmlTagInfos();
+    return parseTags(new StringReader(template));
+  }
+
+  @Override
+  protected RegexVariableExtractor createVariableExtractor() throws TemplateParseException {
+    return new EjsVariableExtractor(new IntRangeSet(), attributeName);
   }
 
   @Override
-  protected RangeSet<Integer> parseRepeatedPart(String template) throws TemplateParseException {
+  protected IntRangeSet parseRepeatedPart(String template) throws TemplateParseException {
     // Get a set of merged ranges which locates the inner parts of for/foreach
-    return getIndexRangesOfNestedTags(template, FOR_START_PATTERN, FOR_END_PATTERN);
+    return getIndexRangesOfNestedTags(LEXER.lex(template), FOR_START, FOR_END);
   }
 }
@@ -0,0 +1,39 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.ejs;
+
+import com.google.testing.pogen.parser.template.DelimitedVariableMatcher;
+
+/**
+ * A class to find output tags of ejs templates such as "<%= name %>" by scanning the delimiters. It
+ * finds the same template variables as the regular expression "<%=\s*(.*?)%>" without
+ * backtracking. Erb templates have the same output tags, so this class is also used for them.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class EjsVariableMatcher extends DelimitedVariableMatcher {
+  /**
+   * Constructs an instance to find output tags starting with "<%=".
+   */
+  public EjsVariableMatcher() {
+    super("<%=");
+  }
+
+  @Override
+  protected boolean matchAt(int index) {
+    return matchOutputTag(index);
+  }
+}
@@ -15,11 +15,12 @@
 
 package com.google.testing.pogen.parser.template.erb;
 
-import java.util.regex.Pattern;
-
 import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.VariableMatcher;
+import com.google.testing.pogen.parser.template.ejs.EjsVariableMatcher;
 
 /**
  * A class to extract template variables for the erb template engine.
@@ -32,6 +33,20 @@ public class ErbVariableExtractor extends RegexVariableExtractor {
    * Constructs an instance to extract template variables with the specified positions of excluded
    * parts and the given attribute name for memorizing the value.
    * 
+   * @param excludedRanges an {@link IntRangeSet} with the positions of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public ErbVariableExtractor(IntRangeSet excludedRanges, String attributeName)
+      throws TemplateParseException {
+    super(excludedRanges, attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables with the specified positions of excluded
+   * parts given as a {@link RangeSet} and the given attribute name for memorizing the value.
+   * 
    * @param excludedRanges a {@link RangeSet} with the positions of excluded parts
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
@@ -39,11 +54,12 @@ public class ErbVariableExtractor extends RegexVariableExtractor {
    */
   public ErbVariableExtractor(RangeSet<Integer> excludedRanges, String attributeName)
       throws TemplateParseException {
-    super(excludedRanges, attributeName);
+    this(IntRangeSet.copyOf(excludedRanges), attributeName);
   }
 
   @Override
-  protected Pattern initializeVariablePattern() {
-    return Pattern.compile("<%=\\s*(.*?)%>");
+  protected VariableMatcher createVariableMatcher() {
+    // Erb templates have the same output tags as ejs templates
+    return new EjsVariableMatcher();
   }
 }
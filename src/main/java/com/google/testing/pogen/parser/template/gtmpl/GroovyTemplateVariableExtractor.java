@@ -18,8 +18,11 @@ package com.google.testing.pogen.parser.template.gtmpl;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.RegexVariableExtractor;
+import com.google.testing.pogen.parser.template.RegexVariableMatcher;
 import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.VariableMatcher;
 
 /**
  * A class to extract template variables for the Groovy template engine.
@@ -27,11 +30,31 @@ import com.google.testing.pogen.parser.template.TemplateParseException;
  * @author Kazunori Sakamoto
  */
 public class GroovyTemplateVariableExtractor extends RegexVariableExtractor {
+  /**
+   * A regular expression which indicates template variables to print, which is compiled once and
+   * shared by all the extractors.
+   */
+  private static final Pattern VARIABLE_PATTERN =
+      Pattern.compile("\\@\\{([^{]*)\\}|\\$\\{([^{]*)\\}");
 
   /**
    * Constructs an instance to extract template variables with the specified positions of excluded
    * parts and the given attribute name for memorizing the value.
    * 
+   * @param excludedRanges an {@link IntRangeSet} with the positions of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public GroovyTemplateVariableExtractor(IntRangeSet excludedRanges, String attributeName)
+      throws TemplateParseException {
+    super(excludedRanges, attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables with the specified positions of excluded
+   * parts given as a {@link RangeSet} and the given attribute name for memorizing the value.
+   * 
    * @param excludedRanges a {@link RangeSet} with the positions of excluded parts
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
@@ -39,11 +62,11 @@ public class GroovyTemplateVariableExtractor extends RegexVariableExtractor {
    */
   public GroovyTemplateVariableExtractor(RangeSet<Integer> excludedRanges, String attributeName)
       throws TemplateParseException {
-    super(excludedRanges, attributeName);
+    this(IntRangeSet.copyOf(excludedRanges), attributeName);
   }
 
   @Override
-  protected Pattern initializeVariablePattern() {
-    return Pattern.compile("\\@\\{([^{]*)\\}|\\$\\{([^{]*)\\}");
+  protected VariableMatcher createVariableMatcher() {
+    return new RegexVariableMatcher(VARIABLE_PATTERN, "@{", "${");
   }
 }
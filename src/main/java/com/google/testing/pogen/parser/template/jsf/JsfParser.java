@@ -15,17 +15,13 @@
 
 package com.google.testing.pogen.parser.template.jsf;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.util.List;
 
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
 import com.google.common.base.Preconditions;
-import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.IntRangeSet;
+import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 
@@ -50,20 +46,16 @@ public class JsfParser extends TemplateParser {
   protected List<HtmlTagInfo> parseTagsContainingVariables(String template)
       throws TemplateParseException {
     Preconditions.checkNotNull(template);
-    JsfVariableExtractor extractor =
-        new JsfVariableExtractor(TreeRangeSet.<Integer>create(), attributeName);
-    try {
-      extractor.parse(new InputSource(new StringReader(template)));
-    } catch (SAXException e) {
-      throw new TemplateParseException(e);
-    } catch (IOException e) {
-      throw new TemplateParseException(e);
-    }
-    return extractor.getSortedHtmlTagInfos();
+    return parseTags(new StringReader(template));
+  }
+
+  @Override
+  protected RegexVariableExtractor createVariableExtractor() throws TemplateParseException {
+    return new JsfVariableExtractor(new IntRangeSet(), attributeName);
   }
 
   @Override
-  protected RangeSet<Integer> parseRepeatedPart(String template) throws TemplateParseException {
-    return TreeRangeSet.<Integer>create();
+  protected IntRangeSet parseRepeatedPart(String template) throws TemplateParseException {
+    return new IntRangeSet();
   }
 }
@@ -15,11 +15,11 @@
 
 package com.google.testing.pogen.parser.template.jsp;
 
-import java.util.regex.Pattern;
-
 import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.VariableMatcher;
 
 /**
  * A class to extract template variables for the JSP template engine.
@@ -32,6 +32,20 @@ public class JspVariableExtractor extends RegexVariableExtractor {
    * Constructs an instance to extract template variables with the specified positions of excluded
    * parts and the given attribute name for memorizing the value.
    * 
+   * @param excludedRanges an {@link IntRangeSet} with the positions of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public JspVariableExtractor(IntRangeSet excludedRanges, String attributeName)
+      throws TemplateParseException {
+    super(excludedRanges, attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables with the specified positions of excluded
+   * parts given as a {@link RangeSet} and the given attribute name for memorizing the value.
+   * 
    * @param excludedRanges a {@link RangeSet} with the positions of excluded parts
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
@@ -39,11 +53,11 @@ public class JspVariableExtractor extends RegexVariableExtractor {
    */
   public JspVariableExtractor(RangeSet<Integer> excludedRanges, String attributeName)
       throws TemplateParseException {
-    super(excludedRanges, attributeName);
+    this(IntRangeSet.copyOf(excludedRanges), attributeName);
   }
 
   @Override
-  protected Pattern initializeVariablePattern() {
-    return Pattern.compile("<%=\\s*(.*?)%>|\\$\\{([^{]*)\\}");
+  protected VariableMatcher createVariableMatcher() {
+    return new JspVariableMatcher();
   }
 }
@@ -0,0 +1,39 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.jsp;
+
+import com.google.testing.pogen.parser.template.DelimitedVariableMatcher;
+
+/**
+ * A class to find expressions of jsp templates such as "<%= name %>" and "${name}" by scanning the
+ * delimiters. It finds the same template variables as the regular expression
+ * "<%=\s*(.*?)%>|\$\{([^{]*)\}" without backtracking.
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class JspVariableMatcher extends DelimitedVariableMatcher {
+  /**
+   * Constructs an instance to find expressions starting with "<%=" or "${".
+   */
+  public JspVariableMatcher() {
+    super("<%=", "${");
+  }
+
+  @Override
+  protected boolean matchAt(int index) {
+    return input.charAt(index) == '<' ? matchOutputTag(index) : matchExpression(index, 2);
+  }
+}
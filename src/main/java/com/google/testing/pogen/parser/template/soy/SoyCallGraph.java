@@ -0,0 +1,101 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.soy;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * A class which represents a graph of calls between soy templates to find the templates which are
+ * called from repeated parts directly or indirectly. E.g. about "{template .t1}{/template}{template
+ * .t2}{call .t1/}{/template}{foreach ...}{call .t2/}{/foreach}", both .t1 and .t2 are repeated.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class SoyCallGraph {
+  /**
+   * A multimap of the names of caller templates and the names of their callee templates.
+   */
+  private final SetMultimap<String, String> callees;
+  /**
+   * A set of the names of the templates which are called from repeated parts directly.
+   */
+  private final Set<String> repeatedCallees;
+
+  /**
+   * Constructs an empty call graph.
+   */
+  public SoyCallGraph() {
+    this.callees = LinkedHashMultimap.create();
+    this.repeatedCallees = Sets.newLinkedHashSet();
+  }
+
+  /**
+   * Adds a call of the specified callee template from the specified caller template.
+   *
+   * @param callerName the name of the template which contains the call, or {@code null} if the call
+   *        appears outside templates
+   * @param calleeName the name of the called template
+   * @param isRepeated {@code true} if the call appears in a repeated part such as for/foreach
+   */
+  public void addCall(@Nullable String callerName, String calleeName, boolean isRepeated) {
+    Preconditions.checkNotNull(calleeName);
+    if (isRepeated) {
+      repeatedCallees.add(calleeName);
+    } else if (callerName != null) {
+      callees.put(callerName, calleeName);
+    }
+  }
+
+  /**
+   * Adds all the calls in the specified call graph, e.g. to merge the call graphs of templates in
+   * different files.
+   *
+   * @param other the call graph whose calls are added
+   */
+  public void addAll(SoyCallGraph other) {
+    callees.putAll(other.callees);
+    repeatedCallees.addAll(other.repeatedCallees);
+  }
+
+  /**
+   * Returns the names of the templates which are called from repeated parts directly or
+   * indirectly, visiting each call only once in breadth-first order.
+   *
+   * @return the unmodifiable set of the names of the repeated templates
+   */
+  public Set<String> getRepeatedTemplates() {
+    Set<String> visited = Sets.newLinkedHashSet(repeatedCallees);
+    Queue<String> queue = new ArrayDeque<String>(visited);
+    while (!queue.isEmpty()) {
+      for (String callee : callees.get(queue.remove())) {
+        if (visited.add(callee)) {
+          queue.add(callee);
+        }
+      }
+    }
+    return Collections.unmodifiableSet(visited);
+  }
+}
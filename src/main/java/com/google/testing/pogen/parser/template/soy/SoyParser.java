@@ -15,20 +15,24 @@
 
 package com.google.testing.pogen.parser.template.soy;
 
-import java.io.IOException;
+import java.io.File;
 import java.io.StringReader;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
-import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.ControlFlowLexer;
 import com.google.testing.pogen.parser.template.HtmlTagInfo;
-import com.google.testing.pogen.parser.template.StringWithIndex;
+import com.google.testing.pogen.parser.template.IntRangeSet;
+import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.TemplateParser;
 
@@ -68,6 +72,71 @@ public class SoyParser extends TemplateParser {
    * A regular expression which indicates the end tags of call.
    */
   private static final Pattern CALL_END_PATTERN = Pattern.compile("\\{/call\\}");
+  /**
+   * A regular expression which indicates the namespace declaration.
+   */
+  private static final Pattern NAMESPACE_PATTERN = Pattern.compile("\\{namespace\\s+([^\\s}]+)");
+
+  /**
+   * A kind of {@code CALL_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int CALL = 0;
+  /**
+   * A kind of {@code FOR_START_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int FOR_START = 1;
+  /**
+   * A kind of {@code FOR_END_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int FOR_END = 2;
+  /**
+   * A kind of {@code TEMPLATE_START_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int TEMPLATE_START = 3;
+  /**
+   * A kind of {@code TEMPLATE_END_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int TEMPLATE_END = 4;
+  /**
+   * A kind of {@code CALL_START_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int CALL_START = 5;
+  /**
+   * A kind of {@code CALL_END_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int CALL_END = 6;
+  /**
+   * A kind of {@code NAMESPACE_PATTERN} in the tokens found by {@code LEXER}.
+   */
+  private static final int NAMESPACE = 7;
+  /**
+   * A lexer to find all the control-flow tags of soy templates in a single scan.
+   */
+  private static final ControlFlowLexer LEXER = new ControlFlowLexer("{", CALL_PATTERN,
+      FOR_START_PATTERN, FOR_END_PATTERN, TEMPLATE_START_PATTERN, TEMPLATE_END_PATTERN,
+      CALL_START_PATTERN, CALL_END_PATTERN, NAMESPACE_PATTERN);
+
+  /**
+   * An index of the soy templates in all the processed files to resolve calls across files, or
+   * {@code null} if calls are resolved only in the parsed template.
+   */
+  @Nullable
+  private final SoyTemplateIndex index;
+  /**
+   * A namespace of the templates in the parsed template without namespace declarations, which is
+   * unique to its file in the index, or {@code null} if their names are not qualified.
+   */
+  @Nullable
+  private final String fileNamespace;
+
+  /**
+   * A template which was scanned last, which is compared by identity to reuse the tokens.
+   */
+  private String lastTemplate;
+  /**
+   * Tokens found in the template which was scanned last.
+   */
+  private ControlFlowLexer.Tokens lastTokens;
 
   /**
    * Constructs the instance of {@link TemplateParser} with the specified attribute name.
@@ -76,7 +145,40 @@ public class SoyParser extends TemplateParser {
    *        variables
    */
   public SoyParser(String attributeName) {
+    this(attributeName, null);
+  }
+
+  /**
+   * Constructs the instance of {@link TemplateParser} with the specified attribute name and the
+   * specified index of the soy templates in other files.
+   * 
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param index the index of the soy templates to resolve calls across files, or {@code null} if
+   *        calls are resolved only in the parsed template
+   */
+  public SoyParser(String attributeName, @Nullable SoyTemplateIndex index) {
+    this(attributeName, index, null);
+  }
+
+  /**
+   * Constructs the instance of {@link TemplateParser} with the specified attribute name, the
+   * specified index of the soy templates in other files and the file of the parsed template in the
+   * index, which resolves the templates without namespace declarations in the file.
+   * 
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @param index the index of the soy templates to resolve calls across files, or {@code null} if
+   *        calls are resolved only in the parsed template
+   * @param indexedFile the file of the parsed template in the index, or {@code null} if the
+   *        templates without namespace declarations are resolved only in the parsed template
+   */
+  public SoyParser(String attributeName, @Nullable SoyTemplateIndex index,
+      @Nullable File indexedFile) {
     super(attributeName);
+    this.index = index;
+    this.fileNamespace =
+        indexedFile != null ? SoyTemplateIndex.getFileNamespace(indexedFile) : null;
   }
 
   @Override
@@ -86,73 +188,203 @@ public class SoyParser extends TemplateParser {
     // Exclude template variables in call parameters.
     // E.g. about {call .t1}{paramarg1}{$p1}{/param}{/call}, $p1 isn't targeted.
     // Because parameters should be tested in the callee side.
-    RangeSet<Integer> excludedPart =
-        getIndexRangesOfNonNestedTags(template, CALL_START_PATTERN, CALL_END_PATTERN);
-    SoyVariableExtractor extractor = new SoyVariableExtractor(excludedPart, attributeName);
+    IntRangeSet excludedPart = getIndexRangesOfNonNestedTags(lex(template), CALL_START, CALL_END);
+    RegexVariableExtractor extractor = getVariableExtractor();
+    extractor.setExcludedRanges(excludedPart);
     try {
-      extractor.parse(new InputSource(new StringReader(template)));
-    } catch (SAXException e) {
-      throw new TemplateParseException(e);
-    } catch (IOException e) {
-      throw new TemplateParseException(e);
+      extractVariables(extractor, new InputSource(new StringReader(template)));
+    } finally {
+      // Detect call parameters again when the pooled extractor reads a template
+      extractor.setExcludedRanges(null);
     }
-    return extractor.getSortedHtmlTagInfos();
+    return ImmutableList.copyOf(extractor.getSortedHtmlTagInfos());
   }
 
   @Override
-  protected RangeSet<Integer> parseRepeatedPart(String template) throws TemplateParseException {
-    // TODO(kazuu): We parse CALL_PATTERNs only in 1 file. We can't detect
-    // repeated pattern for calling other template.
+  protected RegexVariableExtractor createVariableExtractor() throws TemplateParseException {
+    // Detect call parameters while reading the template
+    return new SoyVariableExtractor(CALL_START_PATTERN, CALL_END_PATTERN, attributeName);
+  }
+
+  @Override
+  protected IntRangeSet parseRepeatedPart(String template) throws TemplateParseException {
+    ControlFlowLexer.Tokens tokens = lex(template);
 
     // Get a set of merged ranges which locates the inner parts of
     // for/foreach
-    RangeSet<Integer> forRanges = parseForTags(template);
-
-    Map<String, Range<Integer>> templateRanges = parseTemplateTags(template);
-    List<StringWithIndex> calls = getMatchedStringAndIndexes(template, CALL_PATTERN, 1);
-
-    boolean added;
-    do {
-      added = false;
-      for (int i = calls.size() - 1; i >= 0; i--) {
-        StringWithIndex nameAndIndex = calls.get(i);
-        if (forRanges.contains(nameAndIndex.getIndex())) {
-          // If a template definition is called from another repeated part, it's
-          // treated as repeated part
-          forRanges.add(templateRanges.get(nameAndIndex.getString()));
-          calls.remove(i);
-          added = true;
+    IntRangeSet repeatedRanges = parseForTags(tokens);
+    Map<String, Range<Integer>> templateRanges = parseTemplateTags(tokens, fileNamespace);
+
+    // If a template definition is called from another repeated part, it's
+    // treated as repeated part, so propagate it through the call graph
+    SoyCallGraph callGraph = new SoyCallGraph();
+    addCalls(tokens, repeatedRanges, callGraph, fileNamespace);
+    if (index != null) {
+      // Templates called from repeated parts in other files are resolved by the index
+      for (String templateName : templateRanges.keySet()) {
+        if (index.isRepeated(templateName)) {
+          callGraph.addCall(null, templateName, true);
         }
       }
-    } while (added);
-    return forRanges;
+    }
+    for (String templateName : callGraph.getRepeatedTemplates()) {
+      Range<Integer> templateRange = templateRanges.get(templateName);
+      // Templates defined in other files are marked in their own files
+      if (templateRange != null) {
+        repeatedRanges.add(templateRange.lowerEndpoint(), templateRange.upperEndpoint());
+      }
+    }
+    return repeatedRanges;
+  }
+
+  /**
+   * Scans the template definitions and the calls in the specified template to build
+   * {@link SoyTemplateIndex}, adding the calls into the specified call graph.
+   * 
+   * @param template the string of the template to be scanned
+   * @param callGraph the call graph to add the calls
+   * @param fileNamespace the namespace of the templates if the template has no namespace
+   *        declaration, which is unique to the file of the template
+   * @return the {@link Map} of the fully qualified names and the indexes which locates the parts
+   *         between start and end tags of template command
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  static Map<String, Range<Integer>> scan(String template, SoyCallGraph callGraph,
+      String fileNamespace) throws TemplateParseException {
+    ControlFlowLexer.Tokens tokens = LEXER.lex(template);
+    addCalls(tokens, parseForTags(tokens), callGraph, fileNamespace);
+    return parseTemplateTags(tokens, fileNamespace);
+  }
+
+  /**
+   * Adds the calls in the specified template into the specified call graph with the fully
+   * qualified names of the callers and the callees.
+   * 
+   * @param tokens the tokens found in the template to be parsed
+   * @param repeatedRanges the ranges of the inner parts of for/foreach
+   * @param callGraph the call graph to add the calls
+   * @param fileNamespace the namespace of the templates if the template has no namespace
+   *        declaration, or {@code null} not to qualify them
+   */
+  private static void addCalls(ControlFlowLexer.Tokens tokens, IntRangeSet repeatedRanges,
+      SoyCallGraph callGraph, @Nullable String fileNamespace) {
+    String namespace = getNamespace(tokens, fileNamespace);
+    for (int i = 0; i < tokens.count(CALL); i++) {
+      int callIndex = tokens.getIndex(CALL, i);
+      String callerName = findEnclosingTemplate(tokens, callIndex);
+      callGraph.addCall(callerName != null ? qualify(namespace, callerName) : null,
+          qualify(namespace, tokens.getName(CALL, i)), repeatedRanges.contains(callIndex));
+    }
+  }
+
+  /**
+   * Returns the namespace declared in the specified template, or the specified namespace of the
+   * file if the template has no namespace declaration.
+   * 
+   * @param tokens the tokens found in the template to be parsed
+   * @param fileNamespace the namespace of the templates if the template has no namespace
+   *        declaration, or {@code null} not to qualify them
+   * @return the namespace of the templates, or {@code null} if they are not qualified
+   */
+  private static String getNamespace(ControlFlowLexer.Tokens tokens,
+      @Nullable String fileNamespace) {
+    return tokens.count(NAMESPACE) > 0 ? tokens.getName(NAMESPACE, 0) : fileNamespace;
+  }
+
+  /**
+   * Returns the fully qualified name of the specified template name. E.g. about
+   * "{namespace ns}", ".t1" is qualified as "ns.t1" and "other.t1" is kept as it is.
+   * 
+   * @param namespace the namespace declared in the template, or {@code null} if it isn't declared
+   * @param templateName the template name which appears in a template or call command
+   * @return the fully qualified name of the template
+   */
+  private static String qualify(@Nullable String namespace, String templateName) {
+    return namespace != null && templateName.startsWith(".") ? namespace + templateName
+        : templateName;
+  }
+
+  /**
+   * Returns the name of the template which contains the specified position.
+   * 
+   * @param tokens the tokens found in the template to be parsed
+   * @param index the position in the template
+   * @return the name of the template which contains the position, or {@code null} if the position
+   *         is outside templates
+   */
+  private static String findEnclosingTemplate(ControlFlowLexer.Tokens tokens, int index) {
+    // Find the last template which starts before the position by the binary search because the
+    // template tags are not nested
+    int low = 0, high = tokens.count(TEMPLATE_START) - 1, found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (tokens.getIndex(TEMPLATE_START, mid) <= index) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (found >= 0 && found < tokens.count(TEMPLATE_END)
+        && index < tokens.getIndex(TEMPLATE_END, found)) {
+      return tokens.getName(TEMPLATE_START, found);
+    }
+    return null;
   }
 
   /**
    * Gets a {@link Map} of names and position ranges which locates the parts between start and end
    * tags of template command in the specified template.
    * 
-   * @param template the string of the template to be parsed
-   * @return the {@link Map} of the names and the indexes which locates the parts between start and
-   *         end tags of template command
+   * @param tokens the tokens found in the template to be parsed
+   * @param fileNamespace the namespace of the templates if the template has no namespace
+   *        declaration, or {@code null} not to qualify them
+   * @return the {@link Map} of the fully qualified names and the indexes which locates the parts
+   *         between start and end tags of template command
    * @throws TemplateParseException if the specified template is in bad format
    */
-  private static Map<String, Range<Integer>> parseTemplateTags(String template)
-      throws TemplateParseException {
-    return getNamedIndexRangesOfNonNestedTags(template, TEMPLATE_START_PATTERN,
-        TEMPLATE_END_PATTERN, 1);
+  private static Map<String, Range<Integer>> parseTemplateTags(ControlFlowLexer.Tokens tokens,
+      @Nullable String fileNamespace) throws TemplateParseException {
+    String namespace = getNamespace(tokens, fileNamespace);
+    Map<String, Range<Integer>> templateRanges =
+        getNamedIndexRangesOfNonNestedTags(tokens, TEMPLATE_START, TEMPLATE_END);
+    if (namespace == null) {
+      return templateRanges;
+    }
+    Map<String, Range<Integer>> qualifiedRanges = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Range<Integer>> entry : templateRanges.entrySet()) {
+      qualifiedRanges.put(qualify(namespace, entry.getKey()), entry.getValue());
+    }
+    return qualifiedRanges;
   }
 
   /**
-   * Gets a {@link RangeSet} of indexes which locates the parts between start and end tags of
+   * Gets an {@link IntRangeSet} of indexes which locates the parts between start and end tags of
    * for/foreach command in the specified template.
    * 
-   * @param template the string of the template to be parsed
-   * @return the {@link RangeSet} of the indexes which locates the parts between start and end tags
-   *         of for/foreach command in the specified template
+   * @param tokens the tokens found in the template to be parsed
+   * @return the {@link IntRangeSet} of the indexes which locates the parts between start and end
+   *         tags of for/foreach command in the specified template
    * @throws TemplateParseException if the specified template is in bad format
    */
-  private static RangeSet<Integer> parseForTags(String template) throws TemplateParseException {
-    return getIndexRangesOfNestedTags(template, FOR_START_PATTERN, FOR_END_PATTERN);
+  private static IntRangeSet parseForTags(ControlFlowLexer.Tokens tokens)
+      throws TemplateParseException {
+    return getIndexRangesOfNestedTags(tokens, FOR_START, FOR_END);
+  }
+
+  /**
+   * Finds the control-flow tags in the specified template, reusing the tokens if the template was
+   * scanned last because both {@link #parseTagsContainingVariables(String)} and
+   * {@link #parseRepeatedPart(String)} need them.
+   * 
+   * @param template the string of the template to be scanned
+   * @return the tokens found in the template
+   */
+  private ControlFlowLexer.Tokens lex(String template) {
+    if (template != lastTemplate) {
+      lastTokens = LEXER.lex(template);
+      lastTemplate = template;
+    }
+    return lastTokens;
   }
 }
@@ -0,0 +1,277 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.soy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Range;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.io.Files;
+import com.google.testing.pogen.parser.template.TemplateParseException;
+
+/**
+ * A class which indexes the soy templates in all the processed files by their fully qualified
+ * names, i.e. the namespace and the template name, to resolve calls across files. The index is
+ * built once from all the files and the repeated templates are computed once over the merged call
+ * graph, so each {@link SoyParser} only looks up the templates defined in its own file. E.g. about
+ * "{namespace a}{template .t1}{/template}" and "{namespace b}{template .t2}{foreach ...}{call
+ * a.t1/}{/foreach}{/template}" in different files, a.t1 is repeated. The templates in a file
+ * without namespace declarations are qualified by the namespace unique to the file, so the ones
+ * with the same name in different files don't collide.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class SoyTemplateIndex {
+  /**
+   * A map of the fully qualified names of templates and their definitions.
+   */
+  private final Map<String, Definition> definitions;
+  /**
+   * A multimap of files and the sorted fully qualified names of the repeated templates defined in
+   * them.
+   */
+  private final Multimap<File, String> repeatedTemplatesByFile;
+  /**
+   * A set of the fully qualified names of the templates which are called from repeated parts
+   * directly or indirectly.
+   */
+  private final Set<String> repeatedTemplates;
+
+  /**
+   * Constructs an instance with the specified definitions and the specified repeated templates.
+   *
+   * @param definitions the map of the fully qualified names of templates and their definitions
+   * @param repeatedTemplates the set of the fully qualified names of the repeated templates
+   */
+  private SoyTemplateIndex(Map<String, Definition> definitions, Set<String> repeatedTemplates) {
+    this.definitions = definitions;
+    this.repeatedTemplates = repeatedTemplates;
+    this.repeatedTemplatesByFile = TreeMultimap.create();
+    for (String templateName : repeatedTemplates) {
+      Definition definition = definitions.get(templateName);
+      if (definition != null) {
+        repeatedTemplatesByFile.put(definition.file, templateName);
+      }
+    }
+  }
+
+  /**
+   * Builds the index of the soy templates in the specified files, scanning the files with the
+   * specified number of threads. Files in bad format are ignored because they are reported when
+   * they are parsed.
+   *
+   * @param templateFiles the soy template files to be indexed
+   * @param charset the charset of the template files
+   * @param threadCount the number of threads to scan the template files in parallel
+   * @return the built index
+   * @throws IOException if errors occur in reading the template files
+   */
+  public static SoyTemplateIndex build(List<File> templateFiles, final Charset charset,
+      int threadCount) throws IOException {
+    Preconditions.checkNotNull(charset);
+    Preconditions.checkArgument(threadCount > 0);
+
+    List<ScannedFile> scannedFiles = Lists.newArrayList();
+    if (threadCount == 1 || templateFiles.size() <= 1) {
+      for (File file : templateFiles) {
+        scannedFiles.add(scan(file, charset));
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      try {
+        List<Future<ScannedFile>> futures = Lists.newArrayList();
+        for (final File file : templateFiles) {
+          futures.add(executor.submit(new Callable<ScannedFile>() {
+            @Override
+            public ScannedFile call() throws IOException {
+              return scan(file, charset);
+            }
+          }));
+        }
+        for (Future<ScannedFile> future : futures) {
+          scannedFiles.add(getResult(future));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    // Merge the results in the order of the files to be deterministic
+    Map<String, Definition> definitions = Maps.newHashMap();
+    SoyCallGraph callGraph = new SoyCallGraph();
+    for (ScannedFile scannedFile : scannedFiles) {
+      if (scannedFile == null) {
+        continue;
+      }
+      for (Map.Entry<String, Range<Integer>> entry : scannedFile.templateRanges.entrySet()) {
+        if (!definitions.containsKey(entry.getKey())) {
+          definitions.put(entry.getKey(), new Definition(scannedFile.file, entry.getValue()));
+        }
+      }
+      callGraph.addAll(scannedFile.callGraph);
+    }
+    return new SoyTemplateIndex(definitions, callGraph.getRepeatedTemplates());
+  }
+
+  /**
+   * Scans the template definitions and the calls in the specified file.
+   *
+   * @param file the soy template file to be scanned
+   * @param charset the charset of the template file
+   * @return the scanned file, or {@code null} if the template is in bad format
+   * @throws IOException if errors occur in reading the template file
+   */
+  private static ScannedFile scan(File file, Charset charset) throws IOException {
+    SoyCallGraph callGraph = new SoyCallGraph();
+    try {
+      return new ScannedFile(file, SoyParser.scan(Files.toString(file, charset), callGraph,
+          getFileNamespace(file)), callGraph);
+    } catch (TemplateParseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the result of the task scanning a file and rethrows the exception thrown by the task.
+   *
+   * @param future the {@link Future} instance of the task
+   * @return the result of the task
+   * @throws IOException if errors occur in reading the template file
+   */
+  private static ScannedFile getResult(Future<ScannedFile> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted in indexing soy templates");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns the namespace of the templates in the specified file which has no namespace
+   * declaration. It is unique to the file and never collides with declared namespaces.
+   *
+   * @param templateFile the indexed template file
+   * @return the namespace of the templates in the file
+   */
+  public static String getFileNamespace(File templateFile) {
+    return "file:" + templateFile.getAbsolutePath();
+  }
+
+  /**
+   * Returns {@code true} if the specified template is called from repeated parts directly or
+   * indirectly in any indexed file.
+   *
+   * @param templateName the fully qualified name of the template
+   * @return {@code true} if the specified template is repeated
+   */
+  public boolean isRepeated(String templateName) {
+    return repeatedTemplates.contains(templateName);
+  }
+
+  /**
+   * Returns the file which defines the specified template.
+   *
+   * @param templateName the fully qualified name of the template
+   * @return the file which defines the template, or {@code null} if the template is not indexed
+   */
+  @Nullable
+  public File getFile(String templateName) {
+    Definition definition = definitions.get(templateName);
+    return definition != null ? definition.file : null;
+  }
+
+  /**
+   * Returns the range of the specified template in the file which defines it.
+   *
+   * @param templateName the fully qualified name of the template
+   * @return the range between start and end tags of the template command, or {@code null} if the
+   *         template is not indexed
+   */
+  @Nullable
+  public Range<Integer> getRange(String templateName) {
+    Definition definition = definitions.get(templateName);
+    return definition != null ? definition.range : null;
+  }
+
+  /**
+   * Returns the fully qualified names of the repeated templates defined in the specified file in
+   * ascending order, which changes when calls in other files change the repeated parts of the file.
+   *
+   * @param templateFile the indexed template file
+   * @return the unmodifiable collection of the names of the repeated templates in the file
+   */
+  public Collection<String> getRepeatedTemplates(File templateFile) {
+    return Collections.unmodifiableCollection(repeatedTemplatesByFile.get(templateFile));
+  }
+
+  /**
+   * A class which represents the location of a template definition.
+   */
+  private static final class Definition {
+    private final File file;
+    private final Range<Integer> range;
+
+    Definition(File file, Range<Integer> range) {
+      this.file = file;
+      this.range = range;
+    }
+  }
+
+  /**
+   * A class which represents the template definitions and the calls found in a file.
+   */
+  private static final class ScannedFile {
+    private final File file;
+    private final Map<String, Range<Integer>> templateRanges;
+    private final SoyCallGraph callGraph;
+
+    ScannedFile(File file, Map<String, Range<Integer>> templateRanges, SoyCallGraph callGraph) {
+      this.file = file;
+      this.templateRanges = templateRanges;
+      this.callGraph = callGraph;
+    }
+  }
+}
@@ -18,8 +18,10 @@ package com.google.testing.pogen.parser.template.soy;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.RegexVariableExtractor;
 import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.VariableMatcher;
 
 /**
  * A class to extract template variables for soy template engine.
@@ -32,6 +34,20 @@ public class SoyVariableExtractor extends RegexVariableExtractor {
    * Constructs an instance to extract template variables with the specified positions of excluded
    * parts and the given attribute name for memorizing the value.
    * 
+   * @param excludedRanges an {@link IntRangeSet} with the positions of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public SoyVariableExtractor(IntRangeSet excludedRanges, String attributeName)
+      throws TemplateParseException {
+    super(excludedRanges, attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables with the specified positions of excluded
+   * parts given as a {@link RangeSet} and the given attribute name for memorizing the value.
+   * 
    * @param excludedRanges a {@link RangeSet} with the positions of excluded parts
    * @param attributeName the name of the attribute to be assigned for tags containing template
    *        variables
@@ -39,11 +55,27 @@ public class SoyVariableExtractor extends RegexVariableExtractor {
    */
   public SoyVariableExtractor(RangeSet<Integer> excludedRanges, String attributeName)
       throws TemplateParseException {
-    super(excludedRanges, attributeName);
+    this(IntRangeSet.copyOf(excludedRanges), attributeName);
+  }
+
+  /**
+   * Constructs an instance to extract template variables detecting excluded parts with the
+   * specified start and end patterns while parsing and the given attribute name for memorizing the
+   * value.
+   * 
+   * @param excludedStartPattern the regular expression of the start tags of excluded parts
+   * @param excludedEndPattern the regular expression of the end tags of excluded parts
+   * @param attributeName the name of the attribute to be assigned for tags containing template
+   *        variables
+   * @throws TemplateParseException if the specified template is in bad format
+   */
+  public SoyVariableExtractor(Pattern excludedStartPattern, Pattern excludedEndPattern,
+      String attributeName) throws TemplateParseException {
+    super(excludedStartPattern, excludedEndPattern, attributeName);
   }
 
   @Override
-  protected Pattern initializeVariablePattern() {
-    return Pattern.compile("\\{\\$([^{|]*)(|[^{]*)?\\}");
+  protected VariableMatcher createVariableMatcher() {
+    return new SoyVariableMatcher();
   }
 }
@@ -0,0 +1,57 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.soy;
+
+import com.google.testing.pogen.parser.template.DelimitedVariableMatcher;
+
+/**
+ * A class to find print commands of soy templates such as "{$name}" and "{$name|escapeUri}" by
+ * scanning the delimiters. It finds the same template variables as the regular expression
+ * "\{\$([^{|]*)(|[^{]*)?\}" without backtracking, i.e. the name continues until "{" or "|" and the
+ * command ends with the last "}" before the next "{".
+ * 
+ * @author Kazunori Sakamoto
+ */
+public class SoyVariableMatcher extends DelimitedVariableMatcher {
+  /**
+   * Constructs an instance to find print commands starting with "{$".
+   */
+  public SoyVariableMatcher() {
+    super("{$");
+  }
+
+  @Override
+  protected boolean matchAt(int index) {
+    int length = input.length();
+    int nameStart = index + 2;
+    int nameEnd = nameStart;
+    while (nameEnd < length && input.charAt(nameEnd) != '{' && input.charAt(nameEnd) != '|') {
+      nameEnd++;
+    }
+    // Prefer the last "}" after the name such as "{$name|escapeUri}"
+    int closeIndex = lastIndexOf('}', nameEnd, indexOf('{', nameEnd));
+    if (closeIndex < 0) {
+      // Otherwise the name ends with the last "}" in it
+      closeIndex = lastIndexOf('}', nameStart, nameEnd);
+      nameEnd = closeIndex;
+    }
+    if (closeIndex < 0) {
+      return false;
+    }
+    setMatch(index, closeIndex + 1, nameStart, nameEnd);
+    return true;
+  }
+}
@@ -15,11 +15,30 @@
 
 package com.google.testing.pogen.generator.test.java.page;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsElement;
 import org.openqa.selenium.support.PageFactory;
+import org.openqa.selenium.support.pagefactory.Annotations;
+import org.openqa.selenium.support.pagefactory.DefaultFieldDecorator;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+import org.openqa.selenium.support.pagefactory.ElementLocatorFactory;
 
 /**
- * A class to provide common code for classes designed by PageObject pattern.
+ * A class to provide common code for classes designed by PageObject pattern. Fields annotated with
+ * {@code @CacheLookup} are located only once while the caching mode is enabled, and they are
+ * re-located once when the cached elements become stale.
  *
  * @author Kazunori Sakamoto
  */
@@ -27,7 +46,138 @@ public abstract class AbstractPage {
   protected final WebDriver driver;
 
   public AbstractPage(WebDriver driver) {
+    this(driver, true);
+  }
+
+  /**
+   * Constructs an instance initializing the fields annotated with {@code @FindBy}.
+   *
+   * @param driver the driver which has the page
+   * @param cachesElements the boolean whether the fields annotated with {@code @CacheLookup} are
+   *        located only once
+   */
+  public AbstractPage(WebDriver driver, boolean cachesElements) {
     this.driver = driver;
-    PageFactory.initElements(driver, this);
+    PageFactory.initElements(new StaleAwareFieldDecorator(new CachingElementLocatorFactory(driver,
+        cachesElements)), this);
+  }
+
+  /**
+   * A factory of {@link CachingElementLocator}s.
+   */
+  private static class CachingElementLocatorFactory implements ElementLocatorFactory {
+    private final SearchContext searchContext;
+    private final boolean cachesElements;
+
+    CachingElementLocatorFactory(SearchContext searchContext, boolean cachesElements) {
+      this.searchContext = searchContext;
+      this.cachesElements = cachesElements;
+    }
+
+    @Override
+    public ElementLocator createLocator(Field field) {
+      Annotations annotations = new Annotations(field);
+      return new CachingElementLocator(searchContext, annotations.buildBy(),
+          cachesElements && annotations.isLookupCached());
+    }
+  }
+
+  /**
+   * A locator which caches the located elements until they are invalidated.
+   */
+  private static class CachingElementLocator implements ElementLocator {
+    private final SearchContext searchContext;
+    private final By by;
+    private final boolean cachesElements;
+    private WebElement cachedElement;
+    private List<WebElement> cachedElements;
+
+    CachingElementLocator(SearchContext searchContext, By by, boolean cachesElements) {
+      this.searchContext = searchContext;
+      this.by = by;
+      this.cachesElements = cachesElements;
+    }
+
+    @Override
+    public WebElement findElement() {
+      if (cachedElement != null) {
+        return cachedElement;
+      }
+      WebElement element = searchContext.findElement(by);
+      if (cachesElements) {
+        cachedElement = element;
+      }
+      return element;
+    }
+
+    @Override
+    public List<WebElement> findElements() {
+      if (cachedElements != null) {
+        return cachedElements;
+      }
+      List<WebElement> elements = searchContext.findElements(by);
+      if (cachesElements) {
+        cachedElements = elements;
+      }
+      return elements;
+    }
+
+    /**
+     * Discards the cached elements to locate them again.
+     */
+    void invalidate() {
+      cachedElement = null;
+      cachedElements = null;
+    }
+  }
+
+  /**
+   * A decorator which creates proxies re-locating the cached elements once when they are stale.
+   */
+  private static class StaleAwareFieldDecorator extends DefaultFieldDecorator {
+    StaleAwareFieldDecorator(ElementLocatorFactory factory) {
+      super(factory);
+    }
+
+    @Override
+    protected WebElement proxyForLocator(ClassLoader loader, ElementLocator locator) {
+      final CachingElementLocator cachingLocator = (CachingElementLocator) locator;
+      InvocationHandler handler = new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          WebElement element = cachingLocator.findElement();
+          if ("getWrappedElement".equals(method.getName())) {
+            return element;
+          }
+          try {
+            return invokeOn(element, method, args);
+          } catch (StaleElementReferenceException e) {
+            // Re-locate the element only once so that really removed elements still fail
+            cachingLocator.invalidate();
+            return invokeOn(cachingLocator.findElement(), method, args);
+          }
+        }
+      };
+      return (WebElement) Proxy.newProxyInstance(loader, new Class<?>[] {WebElement.class,
+          WrapsElement.class, Locatable.class}, handler);
+    }
+
+    /**
+     * Invokes the specified method on the specified element, unwrapping the thrown exception.
+     *
+     * @param element the element to invoke the method on
+     * @param method the method to be invoked
+     * @param args the arguments of the method
+     * @return the result of the method
+     * @throws Throwable if the method throws an exception
+     */
+    private static Object invokeOn(WebElement element, Method method, Object[] args)
+        throws Throwable {
+      try {
+        return method.invoke(element, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
   }
 }
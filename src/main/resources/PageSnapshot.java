@@ -0,0 +1,177 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.generator.test.java.page;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * A class which represents a snapshot of the texts and the attributes of the html tags in a page,
+ * which are retrieved through one script execution instead of one round trip per element.
+ *
+ * @author Kazunori Sakamoto
+ */
+public class PageSnapshot {
+  /**
+   * A script to retrieve the texts and the attributes of the html tags which have the specified
+   * values of the specified attribute.
+   */
+  private static final String SNAPSHOT_SCRIPT =
+      "var name = arguments[0], values = arguments[1], result = {};"
+          + "for (var i = 0; i < values.length; i++) {"
+          + "  var v = values[i], es = name == 'class' ? document.getElementsByClassName(v)"
+          + "      : document.querySelectorAll('[' + name + '=\"' + v + '\"]'), list = [];"
+          + "  for (var j = 0; j < es.length; j++) {"
+          + "    var e = es[j], attrs = {};"
+          + "    for (var k = 0; k < e.attributes.length; k++) {"
+          + "      attrs[e.attributes[k].name] = e.attributes[k].value;"
+          + "    }"
+          + "    list.push({text: e.innerText !== undefined ? e.innerText : e.textContent,"
+          + "        attributes: attrs});"
+          + "  }"
+          + "  result[v] = list;"
+          + "}"
+          + "return result;";
+
+  /**
+   * A map of the variable names and the values of the assigned attribute of their html tags.
+   */
+  private final Map<String, String> attributeValues;
+  /**
+   * A map of the values of the assigned attribute and the retrieved html tags.
+   */
+  private final Map<String, List<Map<String, Object>>> elements;
+
+  private PageSnapshot(Map<String, String> attributeValues,
+      Map<String, List<Map<String, Object>>> elements) {
+    this.attributeValues = attributeValues;
+    this.elements = elements;
+  }
+
+  /**
+   * Takes a snapshot of the html tags which contain the specified variables through one script
+   * execution.
+   *
+   * @param driver the driver which has the page
+   * @param attributeName the name of the attribute assigned for html tags
+   * @param namesAndValues the variable names and the values of the assigned attribute of their html
+   *        tags alternately
+   * @return the snapshot of the html tags
+   */
+  @SuppressWarnings("unchecked")
+  public static PageSnapshot take(WebDriver driver, String attributeName,
+      String... namesAndValues) {
+    Map<String, String> attributeValues = new HashMap<String, String>();
+    LinkedHashSet<String> uniqueValues = new LinkedHashSet<String>();
+    for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+      attributeValues.put(namesAndValues[i], namesAndValues[i + 1]);
+      uniqueValues.add(namesAndValues[i + 1]);
+    }
+    Object result = ((JavascriptExecutor) driver).executeScript(SNAPSHOT_SCRIPT, attributeName,
+        new ArrayList<String>(uniqueValues));
+    Map<String, List<Map<String, Object>>> elements =
+        new HashMap<String, List<Map<String, Object>>>();
+    if (result instanceof Map) {
+      elements.putAll((Map<String, List<Map<String, Object>>>) result);
+    }
+    return new PageSnapshot(attributeValues, elements);
+  }
+
+  /**
+   * Returns the retrieved html tags which contain the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @return the list of the retrieved html tags
+   */
+  private List<Map<String, Object>> getElements(String variableName) {
+    List<Map<String, Object>> list = elements.get(attributeValues.get(variableName));
+    return list != null ? list : Collections.<Map<String, Object>>emptyList();
+  }
+
+  /**
+   * Returns the number of the html tags which contain the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @return the number of the html tags
+   */
+  public int getElementCount(String variableName) {
+    return getElements(variableName).size();
+  }
+
+  /**
+   * Returns the text of the first html tag which contains the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @return the text of the html tag, or {@code null} if no html tag is found
+   */
+  public String getText(String variableName) {
+    List<String> texts = getTexts(variableName);
+    return texts.isEmpty() ? null : texts.get(0);
+  }
+
+  /**
+   * Returns the texts of the html tags which contain the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @return the list of the texts of the html tags
+   */
+  public List<String> getTexts(String variableName) {
+    List<String> texts = new ArrayList<String>();
+    for (Map<String, Object> element : getElements(variableName)) {
+      Object text = element.get("text");
+      texts.add(text != null ? text.toString() : null);
+    }
+    return texts;
+  }
+
+  /**
+   * Returns the specified attribute of the first html tag which contains the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @param attributeName the name of the attribute
+   * @return the value of the attribute, or {@code null} if no html tag or attribute is found
+   */
+  public String getAttribute(String variableName, String attributeName) {
+    List<String> values = getAttributes(variableName, attributeName);
+    return values.isEmpty() ? null : values.get(0);
+  }
+
+  /**
+   * Returns the specified attribute of the html tags which contain the specified variable.
+   *
+   * @param variableName the name of the variable
+   * @param attributeName the name of the attribute
+   * @return the list of the values of the attribute, which contains {@code null} for the html
+   *         tags without the attribute
+   */
+  @SuppressWarnings("unchecked")
+  public List<String> getAttributes(String variableName, String attributeName) {
+    List<String> values = new ArrayList<String>();
+    for (Map<String, Object> element : getElements(variableName)) {
+      Map<String, Object> attributes = (Map<String, Object>) element.get("attributes");
+      Object value = attributes != null ? attributes.get(attributeName) : null;
+      values.add(value != null ? value.toString() : null);
+    }
+    return values;
+  }
+}
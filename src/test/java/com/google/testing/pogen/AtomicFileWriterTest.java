@@ -0,0 +1,128 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Tests for {@link AtomicFileWriter}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class AtomicFileWriterTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = folder.newFile("index.html");
+    Files.write("<div>{$a}</div>", file, Charsets.UTF_8);
+  }
+
+  @Test
+  public void replaceFileOnCommit() throws IOException {
+    // Split a surrogate pair and multi-byte characters across the boundaries of the buffers
+    String content =
+        Strings.repeat("a", 8191) + "𠮷" + Strings.repeat("あ", 9000) + "\ud800";
+    AtomicFileWriter writer = new AtomicFileWriter(file, Charsets.UTF_8);
+    try {
+      writer.append(new StringBuilder(content), 0, 8192);
+      writer.write(content, 8192, content.length() - 8192);
+      assertTrue(writer.commit());
+    } finally {
+      writer.close();
+    }
+    assertArrayEquals(content.getBytes(Charsets.UTF_8), Files.toByteArray(file));
+    assertEquals(ImmutableList.of("index.html"), Arrays.asList(folder.getRoot().list()));
+  }
+
+  @Test
+  public void keepPermissionsOnCommit() throws IOException {
+    assumeTrue(file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+    Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+    java.nio.file.Files.setPosixFilePermissions(file.toPath(), permissions);
+    AtomicFileWriter writer = new AtomicFileWriter(file, Charsets.UTF_8);
+    try {
+      writer.write("<div class=\"_0\">{$a}</div>");
+      assertTrue(writer.commit());
+    } finally {
+      writer.close();
+    }
+    assertEquals(permissions, java.nio.file.Files.getPosixFilePermissions(file.toPath()));
+  }
+
+  @Test
+  public void keepFileWithoutCommit() throws IOException {
+    AtomicFileWriter writer = new AtomicFileWriter(file, Charsets.UTF_8);
+    try {
+      writer.append("<div class=\"_0\">");
+      writer.flush();
+    } finally {
+      writer.close();
+    }
+    assertEquals("<div>{$a}</div>", Files.toString(file, Charsets.UTF_8));
+    assertEquals(ImmutableList.of("index.html"), Arrays.asList(folder.getRoot().list()));
+  }
+
+  @Test
+  public void skipUnchangedFile() throws IOException {
+    file.setLastModified(1000L);
+    AtomicFileWriter writer = new AtomicFileWriter(file, Charsets.UTF_8);
+    try {
+      writer.append("<div>{$a}</div>");
+      assertFalse(writer.commit());
+    } finally {
+      writer.close();
+    }
+    assertEquals(1000L, file.lastModified());
+    assertEquals(ImmutableList.of("index.html"), Arrays.asList(folder.getRoot().list()));
+
+    writer = new AtomicFileWriter(file, Charsets.UTF_8);
+    try {
+      writer.append("<div>{$b}</div>");
+      assertTrue(writer.commit());
+    } finally {
+      writer.close();
+    }
+    assertEquals("<div>{$b}</div>", Files.toString(file, Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * Tests for {@link DaemonCommand} and {@link DaemonClient}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class DaemonCommandTest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File stateFile;
+  private DaemonCommand daemon;
+  private Thread daemonThread;
+  private ByteArrayOutputStream stdout;
+  private ByteArrayOutputStream stderr;
+
+  @Before
+  public void setUp() throws Exception {
+    stateFile = new File(tempFolder.getRoot(), "daemon");
+    stdout = new ByteArrayOutputStream();
+    stderr = new ByteArrayOutputStream();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (daemon != null) {
+      daemon.stop();
+      daemonThread.join();
+    }
+  }
+
+  private void startDaemon() throws Exception {
+    daemon = new DaemonCommand(0, stateFile, false);
+    daemonThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          daemon.execute();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    daemonThread.start();
+    while (!stateFile.isFile()) {
+      Thread.sleep(10);
+    }
+  }
+
+  private Integer forward(String... args) {
+    return new DaemonClient(stateFile).forward(args, tempFolder.getRoot(), new PrintStream(stdout),
+        new PrintStream(stderr));
+  }
+
+  @Test
+  public void fallBackWithoutDaemon() throws Exception {
+    assertNull(forward("list", "index.html"));
+  }
+
+  @Test
+  public void fallBackWithStaleStateFile() throws Exception {
+    startDaemon();
+    String state = Files.toString(stateFile, Charsets.UTF_8);
+    daemon.stop();
+    daemonThread.join();
+    daemon = null;
+    Files.write(state, stateFile, Charsets.UTF_8);
+    assertNull(forward("list", "index.html"));
+  }
+
+  @Test
+  public void forwardCommand() throws Exception {
+    startDaemon();
+    assertEquals(Integer.valueOf(-1), forward("list", "index.html"));
+    String error = new String(stderr.toByteArray());
+    // The relative path is resolved against the working directory of the client
+    assertTrue(error, error.contains(new File(tempFolder.getRoot(), "index.html").getPath()));
+  }
+
+  @Test
+  public void forwardCommandsInParallel() throws Exception {
+    startDaemon();
+    int clientCount = 4;
+    final ByteArrayOutputStream[] errors = new ByteArrayOutputStream[clientCount];
+    final Integer[] statuses = new Integer[clientCount];
+    Thread[] clients = new Thread[clientCount];
+    for (int i = 0; i < clientCount; i++) {
+      final int index = i;
+      errors[i] = new ByteArrayOutputStream();
+      clients[i] = new Thread() {
+        @Override
+        public void run() {
+          statuses[index] = new DaemonClient(stateFile).forward(
+              new String[] { "list", "index" + index + ".html" }, tempFolder.getRoot(),
+              new PrintStream(new ByteArrayOutputStream()), new PrintStream(errors[index]));
+        }
+      };
+      clients[i].start();
+    }
+    for (int i = 0; i < clientCount; i++) {
+      clients[i].join();
+      assertEquals(Integer.valueOf(-1), statuses[i]);
+      // Each client receives only the output of its own request
+      String error = new String(errors[i].toByteArray());
+      for (int j = 0; j < clientCount; j++) {
+        assertEquals(error, i == j, error.contains("index" + j + ".html"));
+      }
+    }
+  }
+
+  @Test
+  public void rejectCommandWhichIsNotForwardable() throws Exception {
+    startDaemon();
+    assertNull(forward("watch", "-o", "out", "-p", "pkg", "-i", "in"));
+  }
+
+  @Test
+  public void rejectInvalidToken() throws Exception {
+    startDaemon();
+    String[] state = Files.toString(stateFile, Charsets.UTF_8).split("\t");
+    state[1] = "0000";
+    File fakeStateFile = tempFolder.newFile("fake");
+    Files.write(Joiner.on('\t').join(state), fakeStateFile, Charsets.UTF_8);
+    assertNull(new DaemonClient(fakeStateFile).forward(new String[] { "list", "index.html" },
+        tempFolder.getRoot(), new PrintStream(stdout), new PrintStream(stderr)));
+  }
+
+  @Test
+  public void refuseToStartWithLiveDaemon() throws Exception {
+    startDaemon();
+    String state = Files.toString(stateFile, Charsets.UTF_8);
+    try {
+      new DaemonCommand(0, stateFile, false).execute();
+      fail();
+    } catch (IOException e) {
+      // The running daemon keeps owning the state file
+    }
+    assertEquals(state, Files.toString(stateFile, Charsets.UTF_8));
+    assertEquals(Integer.valueOf(-1), forward("list", "index.html"));
+  }
+
+  @Test
+  public void stopMismatchedDaemon() throws Exception {
+    startDaemon();
+    String[] state = Files.toString(stateFile, Charsets.UTF_8).split("\t");
+    state[2] = "0.0.0";
+    Files.write(Joiner.on('\t').join(state), stateFile, Charsets.UTF_8);
+    assertNull(forward("list", "index.html"));
+    daemonThread.join();
+    daemon = null;
+    assertFalse(stateFile.exists());
+  }
+}
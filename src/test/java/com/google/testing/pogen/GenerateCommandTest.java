@@ -0,0 +1,149 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Bytes;
+
+/**
+ * Tests for {@link GenerateCommand}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class GenerateCommandTest {
+  private static final int GENERATED_TEMPLATE_COUNT = 12;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File inDir;
+  private File outDir;
+
+  @Before
+  public void setUp() {
+    inDir = new File(folder.getRoot(), "in");
+    outDir = new File(folder.getRoot(), "out");
+  }
+
+  /**
+   * Removes the generated files and writes the templates to be modified, which include soy
+   * templates calling each other from repeated parts and templates of other engines.
+   */
+  private void writeTemplates() throws IOException {
+    deleteRecursively(inDir);
+    deleteRecursively(outDir);
+    write("list.html", "{namespace ex.list}\n{template .main}<p>{$title}</p><ul>"
+        + "{foreach $item in $items}{call ex.item.row data=\"$item\"/}{/foreach}</ul>"
+        + "{/template}");
+    write("item.html", "{namespace ex.item}\n{template .row}<li><a>{$name}</a></li>{/template}");
+    write("sub/form.html", "<form><span>{$error}</span><p>{$value}</p></form>");
+    write("sub/page.ejs", "<div><p><%= title %></p><span><%= body %></span></div>");
+    for (int i = 0; i < GENERATED_TEMPLATE_COUNT; i++) {
+      write("sub/gen/t" + i + ".html", "<div><p>{$a" + i + "}</p><span>{$b" + i + "}</span></div>");
+    }
+  }
+
+  private void write(String path, String content) throws IOException {
+    File file = new File(inDir, path);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private void generate(int threadCount, boolean isForced) throws IOException {
+    new GenerateCommand(new String[0], outDir.getPath(), "com.example", "class", false,
+        inDir.getPath(), ".*\\.(html|ejs)", true, threadCount, threadCount, threadCount,
+        threadCount, threadCount, isForced, null).execute();
+  }
+
+  /**
+   * Returns the contents of the templates, their backup files, the skeleton test code and the
+   * manifest, keyed by their paths relative to the temporary folder.
+   */
+  private Map<String, List<Byte>> snapshot() throws IOException {
+    Map<String, List<Byte>> contents = Maps.newTreeMap();
+    snapshot(inDir, contents);
+    snapshot(outDir, contents);
+    return contents;
+  }
+
+  private void snapshot(File file, Map<String, List<Byte>> contents) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        snapshot(child, contents);
+      }
+    } else if (file.isFile()) {
+      String path = file.getPath().substring(folder.getRoot().getPath().length());
+      contents.put(path, Bytes.asList(Files.toByteArray(file)));
+    }
+  }
+
+  @Test
+  public void generateSameFilesInPipeline() throws IOException {
+    writeTemplates();
+    generate(1, true);
+    Map<String, List<Byte>> expected = snapshot();
+    assertTrue(expected.containsKey("/out/sub/gen/T0Page.java"));
+    assertTrue(expected.containsKey("/out/" + GenerationManifest.MANIFEST_NAME));
+
+    writeTemplates();
+    generate(4, true);
+    assertEquals(expected, snapshot());
+  }
+
+  @Test
+  public void regenerateSameFilesInPipeline() throws IOException {
+    writeTemplates();
+    generate(1, true);
+    write("sub/gen/t1.html.org", "<div><p>{$a1}</p><p>{$c1}</p><span>{$b1}</span></div>");
+    generate(1, false);
+    Map<String, List<Byte>> expected = snapshot();
+
+    writeTemplates();
+    generate(1, true);
+    write("sub/gen/t1.html.org", "<div><p>{$a1}</p><p>{$c1}</p><span>{$b1}</span></div>");
+    generate(4, false);
+    assertEquals(expected, snapshot());
+  }
+}
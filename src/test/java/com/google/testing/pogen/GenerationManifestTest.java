@@ -0,0 +1,121 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Tests for {@link GenerationManifest}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class GenerationManifestTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File outDir;
+  private File template;
+  private File orgTemplate;
+  private File code;
+
+  @Before
+  public void setUp() throws IOException {
+    outDir = folder.newFolder("out");
+    template = write("index.html", "<div id=\"__pogen_3\">{$a}</div>");
+    orgTemplate = write("index.html.org", "<div>{$a}</div>");
+    code = write("out/IndexPage.java", "class IndexPage {}");
+  }
+
+  private File write(String path, String content) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private GenerationManifest saveAndLoad(String attributeName, String packageName)
+      throws IOException {
+    GenerationManifest manifest = GenerationManifest.create(outDir, "id", "com.example");
+    manifest.put(template, orgTemplate, code, 3, 1, ".t1");
+    manifest.save();
+    return GenerationManifest.load(outDir, attributeName, packageName);
+  }
+
+  @Test
+  public void keepUnchangedTemplate() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    assertTrue(manifest.isUnchanged(template, orgTemplate, ".t1"));
+    assertTrue(manifest.isUpToDate(template, orgTemplate, 3, ".t1"));
+    assertEquals(3, manifest.getValueStart(template));
+    assertEquals(1, manifest.getValueCount(template));
+  }
+
+  @Test
+  public void detectShiftedAttributeValues() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    assertFalse(manifest.isUpToDate(template, orgTemplate, 2, ".t1"));
+  }
+
+  @Test
+  public void detectChangedBackupFile() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    write("index.html.org", "<div>{$b}</div>");
+    assertFalse(manifest.isUnchanged(template, orgTemplate, ".t1"));
+  }
+
+  @Test
+  public void detectChangedDependencyKey() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    assertFalse(manifest.isUnchanged(template, orgTemplate, ""));
+    assertFalse(manifest.isUpToDate(template, orgTemplate, 3, ".t1,.t2"));
+  }
+
+  @Test
+  public void detectChangedTemplateFile() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    write("index.html", "<div>{$a}</div>");
+    assertFalse(manifest.isUnchanged(template, orgTemplate, ".t1"));
+  }
+
+  @Test
+  public void detectRemovedCodeFile() throws IOException {
+    GenerationManifest manifest = saveAndLoad("id", "com.example");
+    assertTrue(code.delete());
+    assertFalse(manifest.isUnchanged(template, orgTemplate, ".t1"));
+  }
+
+  @Test
+  public void discardManifestWithOtherOptions() throws IOException {
+    assertFalse(saveAndLoad("class", "com.example").isUnchanged(template, orgTemplate, ".t1"));
+    assertFalse(saveAndLoad("id", "com.example.other").isUnchanged(template, orgTemplate, ".t1"));
+    assertEquals(-1, saveAndLoad("id", "com.example.other").getValueStart(template));
+  }
+}
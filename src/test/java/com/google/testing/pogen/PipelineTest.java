@@ -0,0 +1,148 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link Pipeline}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class PipelineTest {
+  private static final int ITEM_COUNT = 200;
+
+  private static List<Integer> createItems() {
+    List<Integer> items = Lists.newArrayList();
+    for (int i = 0; i < ITEM_COUNT; i++) {
+      items.add(i);
+    }
+    return items;
+  }
+
+  private static Pipeline.Stage<Integer> newShufflingStage(String name, int threadCount) {
+    final Random random = new Random(name.hashCode());
+    return new Pipeline.Stage<Integer>(name, threadCount, false) {
+      @Override
+      void process(Integer item) {
+        try {
+          Thread.sleep(random.nextInt(2));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  @Test
+  public void processInOrder() throws IOException {
+    final List<Integer> orderedItems = Lists.newArrayList();
+    final List<Integer> processedItems =
+        Collections.synchronizedList(Lists.<Integer>newArrayList());
+    Pipeline.Stage<Integer> orderedStage = new Pipeline.Stage<Integer>("ordered", 3, true) {
+      @Override
+      void processInOrder(Integer item) {
+        orderedItems.add(item);
+      }
+
+      @Override
+      void process(Integer item) {
+        processedItems.add(item);
+      }
+    };
+    Pipeline<Integer> pipeline =
+        new Pipeline<Integer>(ImmutableList.of(newShufflingStage("first", 4), orderedStage,
+            newShufflingStage("last", 2)), 1);
+    pipeline.run(createItems());
+
+    assertEquals(createItems(), orderedItems);
+    Collections.sort(processedItems);
+    assertEquals(createItems(), processedItems);
+    List<String> statistics = pipeline.getStatistics();
+    assertEquals(3, statistics.size());
+    assertTrue(statistics.get(1), statistics.get(1).startsWith("ordered: 3 threads, 200 items"));
+  }
+
+  @Test(timeout = 10000)
+  public void admitItemsBehindSlowItem() throws IOException {
+    final List<Integer> orderedItems = Lists.newArrayList();
+    // The first item keeps a worker of the first stage busy while the others fill the queues
+    Pipeline.Stage<Integer> slowStage = new Pipeline.Stage<Integer>("slow", 2, false) {
+      @Override
+      void process(Integer item) {
+        if (item == 0) {
+          try {
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    Pipeline.Stage<Integer> orderedStage = new Pipeline.Stage<Integer>("ordered", 1, true) {
+      @Override
+      void processInOrder(Integer item) {
+        orderedItems.add(item);
+      }
+
+      @Override
+      void process(Integer item) {}
+    };
+    new Pipeline<Integer>(ImmutableList.of(slowStage, newShufflingStage("second", 1),
+        orderedStage, newShufflingStage("last", 1)), 1).run(createItems());
+
+    assertEquals(createItems(), orderedItems);
+  }
+
+  @Test
+  public void rethrowFirstError() {
+    final IOException error = new IOException();
+    Pipeline.Stage<Integer> failingStage = new Pipeline.Stage<Integer>("failing", 2, true) {
+      @Override
+      void processInOrder(Integer item) throws IOException {
+        if (item == ITEM_COUNT / 2) {
+          throw error;
+        }
+      }
+
+      @Override
+      void process(Integer item) {}
+    };
+    try {
+      new Pipeline<Integer>(ImmutableList.of(newShufflingStage("first", 2), failingStage,
+          newShufflingStage("last", 2)), 2).run(createItems());
+      fail();
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link TemplateFileFinder}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class TemplateFileFinderTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = folder.getRoot();
+    for (String path : new String[] {"a.html", "b.soy", "x/c.html", "x/y/d.html", "x/y/e.txt",
+        "z.html/f.html"}) {
+      File file = new File(root, path);
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+    }
+  }
+
+  private List<File> find(boolean isRecursive, int threadCount, int queueCapacity)
+      throws IOException {
+    TemplateFileFinder finder =
+        new TemplateFileFinder(".*\\.html", isRecursive, threadCount, queueCapacity);
+    try {
+      finder.start(root);
+      List<File> files = finder.takeAll();
+      assertNull(finder.take());
+      return files;
+    } finally {
+      finder.close();
+    }
+  }
+
+  @Test
+  public void findFilesRecursively() throws IOException {
+    List<File> expected =
+        ImmutableList.of(new File(root, "a.html"), new File(root, "x/c.html"), new File(root,
+            "x/y/d.html"), new File(root, "z.html/f.html"));
+    assertEquals(expected, find(true, 1, 16));
+    // A small queue makes the threads wait for the found files to be taken
+    assertEquals(expected, find(true, 4, 1));
+  }
+
+  @Test
+  public void findFilesInRootDirectory() throws IOException {
+    assertEquals(ImmutableList.of(new File(root, "a.html")), find(false, 2, 16));
+  }
+}
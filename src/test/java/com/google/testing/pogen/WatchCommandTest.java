@@ -0,0 +1,165 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.testing.pogen.parser.template.soy.SoyTemplateIndex;
+
+/**
+ * Tests for {@link WatchCommand}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class WatchCommandTest {
+  private static final long EVENT_TIMEOUT_SECONDS = 10;
+  private static final long QUIET_MILLIS = 500;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File inDir;
+  private File outDir;
+  private BlockingQueue<Set<String>> generations;
+  private Thread watchThread;
+
+  /**
+   * A watch command which records the names of the templates prepared for each generation.
+   */
+  private class RecordingWatchCommand extends WatchCommand {
+    private final Set<String> preparedNames = Sets.newHashSet();
+
+    RecordingWatchCommand() {
+      super(new String[0], outDir.getPath(), "com.example", "id", false, inDir.getPath(),
+          ".*\\.html", true, 1, false, null);
+    }
+
+    @Override
+    protected File prepare(File templateFile) throws IOException {
+      preparedNames.add(templateFile.getName());
+      return super.prepare(templateFile);
+    }
+
+    @Override
+    protected void generate(List<File> templateFiles, List<File> orgFiles,
+        SoyTemplateIndex soyIndex, File rootInputDir, File testOutDir,
+        GenerationManifest manifest) throws IOException {
+      super.generate(templateFiles, orgFiles, soyIndex, rootInputDir, testOutDir, manifest);
+      generations.add(ImmutableSet.copyOf(preparedNames));
+      preparedNames.clear();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    inDir = folder.newFolder("in");
+    outDir = folder.newFolder("out");
+    generations = new LinkedBlockingQueue<Set<String>>();
+    Files.write("<div>{$a}</div>", new File(inDir, "a.html"), Charsets.UTF_8);
+    Files.write("<div>{$b}</div>", new File(inDir, "b.html"), Charsets.UTF_8);
+
+    final WatchCommand command = new RecordingWatchCommand();
+    watchThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          command.execute();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    watchThread.start();
+    assertEquals(ImmutableSet.of("a.html", "b.html"), takeGeneration());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watchThread.interrupt();
+    watchThread.join();
+  }
+
+  private Set<String> takeGeneration() throws InterruptedException {
+    return generations.poll(EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private void assertNoGeneration() throws InterruptedException {
+    assertNull(generations.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Writes the specified content into the specified file and moves its last modified time forward
+   * so that the change is distinguished from the writes of the command on coarse file systems.
+   */
+  private static void edit(File file, String content) throws IOException {
+    long lastModified = file.lastModified();
+    Files.write(content, file, Charsets.UTF_8);
+    file.setLastModified(lastModified + 2000);
+  }
+
+  @Test
+  public void regenerateOnlyChangedTemplate() throws Exception {
+    edit(new File(inDir, "a.html.org"), "<div>{$a}</div><p>{$c}</p>");
+    assertEquals(ImmutableSet.of("a.html"), takeGeneration());
+    // Regenerating the template and the test code doesn't trigger another regeneration
+    assertNoGeneration();
+  }
+
+  @Test
+  public void regenerateOnceForBurstOfChanges() throws Exception {
+    edit(new File(inDir, "a.html.org"), "<div>{$a}</div><p>{$c}</p>");
+    edit(new File(inDir, "b.html.org"), "<div>{$b}</div><p>{$d}</p>");
+    assertEquals(ImmutableSet.of("a.html", "b.html"), takeGeneration());
+    assertNoGeneration();
+  }
+
+  @Test
+  public void regenerateNewTemplate() throws Exception {
+    Files.write("<div>{$c}</div>", new File(inDir, "c.html"), Charsets.UTF_8);
+    assertEquals(ImmutableSet.of("c.html"), takeGeneration());
+    assertNoGeneration();
+  }
+
+  @Test
+  public void keepEditedTemplate() throws Exception {
+    File template = new File(inDir, "a.html");
+    edit(template, "<div>edited</div>");
+    assertNoGeneration();
+    assertEquals("<div>edited</div>", Files.toString(template, Charsets.UTF_8));
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.generator.template;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.IntRangeSet;
+import com.google.testing.pogen.parser.template.TemplateInfo;
+
+/**
+ * Tests for {@link SplicePlan}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class SplicePlanTest {
+  @Test
+  public void applyEditsInOnePass() throws IOException {
+    SplicePlan plan = new SplicePlan();
+    plan.insert(0).append("[");
+    plan.replace(2, 4).append("x");
+    plan.replace(4, 4);
+    plan.insert(6).append("]");
+    assertEquals(6 - 2 + 3, plan.getEditedLength(6));
+    assertEquals("[abxef]", plan.apply("abcdef"));
+    StringWriter writer = new StringWriter();
+    plan.writeTo("abcdef", writer);
+    assertEquals("[abxef]", writer.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectOverlappedEdits() {
+    SplicePlan plan = new SplicePlan();
+    plan.replace(2, 4);
+    plan.insert(3);
+  }
+
+  @Test
+  public void updateNestedTagsFoundInEndOrder() {
+    String template = "<div><p class='c'>{$a}</p>{$b}</div>";
+    HtmlTagInfo div = new HtmlTagInfo(null, 0, 5);
+    div.addVariableInfo("{$b}", "b", 26);
+    HtmlTagInfo p = new HtmlTagInfo(null, 5, 18);
+    p.addVariableInfo("{$a}", "a", 18);
+    TemplateInfo templateInfo =
+        new TemplateInfo(template, Lists.newArrayList(p, div), new IntRangeSet());
+    TemplateUpdater updater = new TemplateUpdaterWithClassAttribute("_");
+    assertEquals("<!--POGEN,_0,b,{$b}--><div class=\"_0\"><!--POGEN,_1,a,{$a}-->"
+        + "<p class='_1 c'>{$a}</p>{$b}</div>", updater.generate(templateInfo));
+  }
+}
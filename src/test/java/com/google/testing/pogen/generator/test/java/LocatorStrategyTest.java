@@ -0,0 +1,57 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.generator.test.java;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link LocatorStrategy}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class LocatorStrategyTest {
+  @Test
+  public void chooseIdForIdAttributes() {
+    LocatorStrategy strategy = LocatorStrategy.forAttribute("id");
+    assertEquals(LocatorStrategy.ID, strategy);
+    assertEquals("ID", strategy.getHowName());
+    assertEquals("id", strategy.getByMethodName());
+    assertEquals("_0", strategy.getUsing("id", "_0"));
+  }
+
+  @Test
+  public void chooseNameForNameAttributes() {
+    LocatorStrategy strategy = LocatorStrategy.forAttribute("name");
+    assertEquals(LocatorStrategy.NAME, strategy);
+    assertEquals("NAME", strategy.getHowName());
+    assertEquals("name", strategy.getByMethodName());
+    assertEquals("_0", strategy.getUsing("name", "_0"));
+  }
+
+  @Test
+  public void chooseCssForOtherAttributes() {
+    LocatorStrategy strategy = LocatorStrategy.forAttribute("lang");
+    assertEquals(LocatorStrategy.CSS, strategy);
+    assertEquals("CSS", strategy.getHowName());
+    assertEquals("cssSelector", strategy.getByMethodName());
+    assertEquals("[lang='__pogen_0']", strategy.getUsing("lang", "__pogen_0"));
+  }
+}
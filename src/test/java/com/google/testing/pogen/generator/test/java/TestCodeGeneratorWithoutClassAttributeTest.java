@@ -16,6 +16,9 @@
 package com.google.testing.pogen.generator.test.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -24,6 +27,9 @@ import org.junit.runners.JUnit4;
 
 import com.google.testing.pogen.generator.template.TemplateUpdater;
 import com.google.testing.pogen.generator.template.TemplateUpdaters;
+import com.google.testing.pogen.generator.test.PageObjectUpdateException;
+import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.TemplateInfo;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 import com.google.testing.pogen.parser.template.soy.SoyParser;
@@ -47,10 +53,46 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
           + "  }\n\n"
           + "  /* ------------------- GENERATED CODE START ------------------- */\n"
           + "  private static Pattern commentPattern = Pattern.compile(\"<!--POGEN,([^,]*),([^,]*),(.*?)-->\", Pattern.DOTALL);\n"
+          + "  private static String commentPageKeyScript = \"if (!window.MutationObserver) return null; var d = document; var k = d.__pogenPageKey; if (!k) { k = d.__pogenPageKey = {id: Math.random(), n: 0}; new MutationObserver(function() { k.n++; }).observe(d, {childList: true, subtree: true, characterData: true}); } return k.id + ':' + k.n;\";\n"
+          + "  private Object commentPageKey;\n"
+          + "  private HashMap<String, List<String>> commentValues;\n"
+          ;
+  private static final String COMMENT_VALUES_GETTER =
+      "  private List<String> getCommentValues(String attributeValue, String variableName) {\n"
+          + "    Object pageKey = null;\n"
+          + "    try {\n"
+          + "      pageKey = ((org.openqa.selenium.JavascriptExecutor) driver).executeScript(commentPageKeyScript);\n"
+          + "    } catch (RuntimeException e) {\n"
+          + "      // Compare the page source if scripts are unavailable\n"
+          + "    }\n"
+          + "    String pageSource = null;\n"
+          + "    if (pageKey == null) {\n"
+          + "      pageSource = driver.getPageSource();\n"
+          + "      pageKey = pageSource;\n"
+          + "    }\n"
+          + "    if (commentValues == null || !pageKey.equals(commentPageKey)) {\n"
+          + "      if (pageSource == null) {\n"
+          + "        pageSource = driver.getPageSource();\n"
+          + "      }\n"
+          + "      commentValues = new HashMap<String, List<String>>();\n"
+          + "      Matcher matcher = commentPattern.matcher(pageSource);\n"
+          + "      while (matcher.find()) {\n"
+          + "        String key = matcher.group(1) + \",\" + matcher.group(2);\n"
+          + "        List<String> values = commentValues.get(key);\n"
+          + "        if (values == null) {\n"
+          + "          values = new ArrayList<String>();\n"
+          + "          commentValues.put(key, values);\n"
+          + "        }\n"
+          + "        values.add(matcher.group(3));\n"
+          + "      }\n"
+          + "      commentPageKey = pageKey;\n"
+          + "    }\n"
+          + "    List<String> values = commentValues.get(attributeValue + \",\" + variableName);\n"
+          + "    return values != null ? values : new ArrayList<String>();\n"
+          + "  }\n"
           ;
-  private static final String CLASS_TAIL = "\n"
-      + "  /* -------------------- GENERATED CODE END -------------------- */\n}\n"
-      ;
+  private static final String CLASS_END =
+      "  /* -------------------- GENERATED CODE END -------------------- */\n}\n";
 
   private static final String HEAD =
       "package ;\n\n"
@@ -59,6 +101,7 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
           + "import org.openqa.selenium.By;\n"
           + "import org.openqa.selenium.WebDriver;\n"
           + "import org.openqa.selenium.WebElement;\n"
+          + "import org.openqa.selenium.support.CacheLookup;\n"
           + "import org.openqa.selenium.support.FindBy;\n"
           + "import org.openqa.selenium.support.How;\n\n"
           + "import java.util.ArrayList;\n"
@@ -68,7 +111,25 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
           + "import java.util.regex.Pattern;\n\n"
           + CLASS_HEAD
           ;
-  private static final String TAIL = CLASS_TAIL;
+
+  /**
+   * Returns the expected tail of generated code with the specified arguments of the snapshot.
+   *
+   * @param namesAndValues the variable names and the attribute values alternately
+   * @return the expected tail of generated code
+   */
+  private static String tail(String... namesAndValues) {
+    StringBuilder arguments = new StringBuilder("\"id\"");
+    for (String nameOrValue : namesAndValues) {
+      arguments.append(", \"").append(nameOrValue).append('"');
+    }
+    return "\n\n"
+        + "  public PageSnapshot takeSnapshot() {\n"
+        + "    return PageSnapshot.take(driver, " + arguments + ");\n"
+        + "  }\n\n"
+        + COMMENT_VALUES_GETTER
+        + CLASS_END;
+  }
 
   private TemplateUpdater updater;
   private SoyParser parser;
@@ -89,20 +150,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement title;\n\n"
         + "  public WebElement getElementOfTitle() {\n"
         + "    return title;\n"
         + "  }\n\n"
         + "  public String getTextOfTitle() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"title\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"title\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("title", "_0");
     assertEquals(expected, actual);
   }
 
@@ -112,20 +169,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content", "_0");
     assertEquals(expected, actual);
   }
 
@@ -136,20 +189,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement p_dot_title;\n\n"
         + "  public WebElement getElementOfP_dot_title() {\n"
         + "    return p_dot_title;\n"
         + "  }\n\n"
         + "  public String getTextOfP_dot_title() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"p_dot_title\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"p_dot_title\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("p_dot_title", "_0");
     assertEquals(expected, actual);
   }
 
@@ -161,20 +210,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement title;\n\n"
         + "  public WebElement getElementOfTitle() {\n"
         + "    return title;\n"
         + "  }\n\n"
         + "  public String getTextOfTitle() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"title\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"title\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("title", "_0");
     assertEquals(expected, actual);
   }
 
@@ -184,34 +229,26 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content1;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content2;\n\n"
         + "  public WebElement getElementOfContent1() {\n"
         + "    return content1;\n"
         + "  }\n\n"
         + "  public String getTextOfContent1() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content1\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"content1\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public WebElement getElementOfContent2() {\n"
         + "    return content2;\n"
         + "  }\n\n"
         + "  public String getTextOfContent2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content2\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"content2\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content1", "_0", "content2", "_0");
     assertEquals(expected, actual);
   }
 
@@ -221,20 +258,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content", "_0");
     assertEquals(expected, actual);
   }
 
@@ -245,34 +278,26 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_1']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_1\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content2;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public WebElement getElementOfContent2() {\n"
         + "    return content2;\n"
         + "  }\n\n"
         + "  public String getTextOfContent2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_1\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_1\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content", "_0", "content2", "_1");
     assertEquals(expected, actual);
   }
 
@@ -284,21 +309,18 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content1;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content2;\n\n"
         + "  public WebElement getElementOfContent1() {\n"
         + "    return content1;\n"
         + "  }\n\n"
         + "  public String getTextOfContent1() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content1\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"content1\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public String getAttributeOfAttrOnContent1() {\n"
         + "    return content1.getAttribute(\"attr\");\n"
@@ -307,14 +329,9 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
         + "    return content2;\n"
         + "  }\n\n"
         + "  public String getTextOfContent2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content2\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"content2\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content1", "_0", "content2", "_0");
     assertEquals(expected, actual);
   }
 
@@ -324,21 +341,17 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }"
-        + TAIL;
+        + tail("content", "_0");
     assertEquals(expected, actual);
   }
 
@@ -349,21 +362,17 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='content']\")\n"
+        + "  @FindBy(how = How.ID, using = \"content\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"content\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"content\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }"
-        + TAIL;
+        + tail("content", "content");
     assertEquals(expected, actual);
   }
 
@@ -374,20 +383,16 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content", "_0");
     assertEquals(expected, actual);
   }
 
@@ -399,48 +404,36 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     String actual = generator.generate(templateInfo, "", "Test");
     // TODO(kazuu): Deal with conflicted fileds and methods.
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_1']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_1\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content2;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_1']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_1\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement content2;\n\n"
         + "  public WebElement getElementOfContent() {\n"
         + "    return content;\n"
         + "  }\n\n"
         + "  public String getTextOfContent() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public WebElement getElementOfContent2() {\n"
         + "    return content2;\n"
         + "  }\n\n"
         + "  public String getTextOfContent2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_1\") && matcher.group(2).equals(\"content\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_1\", \"content\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public WebElement getElementOfContent2() {\n"
         + "    return content2;\n"
         + "  }\n\n"
         + "  public String getTextOfContent2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_1\") && matcher.group(2).equals(\"content2\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_1\", \"content2\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("content", "_0", "content2", "_1", "content2", "_1");
     assertEquals(expected, actual);
   }
 
@@ -450,9 +443,11 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement A;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement url;\n\n"
         + "  public WebElement getElementOfA() {\n"
         + "    return A;\n"
@@ -461,17 +456,12 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
         + "    return url;\n"
         + "  }\n\n"
         + "  public String getTextOfUrl() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"url\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"url\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public String getAttributeOfHrefOnUrl() {\n"
         + "    return url.getAttribute(\"href\");\n"
-        + "  }" + TAIL;
+        + "  }" + tail("A", "_0", "url", "_0");
     assertEquals(expected, actual);
   }
 
@@ -482,9 +472,11 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement A__$url_;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement url;\n\n"
         + "  public WebElement getElementOfA__$url_() {\n"
         + "    return A__$url_;\n"
@@ -493,17 +485,12 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
         + "    return url;\n"
         + "  }\n\n"
         + "  public String getTextOfUrl() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"url\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
+        + "    List<String> values = getCommentValues(\"_0\", \"url\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
         + "  }\n\n"
         + "  public String getAttributeOfHrefOnUrl() {\n"
         + "    return url.getAttribute(\"href\");\n"
-        + "  }" + TAIL;
+        + "  }" + tail("A__$url_", "_0", "url", "_0");
     assertEquals(expected, actual);
   }
 
@@ -517,35 +504,28 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     String expected = HEAD + "\n"
         + "  public List<WebElement> getElementsOfA__$url_() {\n"
         + "    List<WebElement> result = new ArrayList<WebElement>();\n"
-        + "    for (WebElement e : driver.findElements(By.xpath(\"//*[@id='_0']\"))) {\n"
+        + "    for (WebElement e : driver.findElements(By.id(\"_0\"))) {\n"
         + "      result.add(e);\n"
         + "    }\n"
         + "    return result;\n"
         + "  }\n\n"
         + "  public List<WebElement> getElementsOfUrl() {\n"
         + "    List<WebElement> result = new ArrayList<WebElement>();\n"
-        + "    for (WebElement e : driver.findElements(By.xpath(\"//*[@id='_0']\"))) {\n"
+        + "    for (WebElement e : driver.findElements(By.id(\"_0\"))) {\n"
         + "      result.add(e);\n"
         + "    }\n"
         + "    return result;\n"
         + "  }\n\n"
         + "  public List<String> getTextsOfUrl() {\n"
-        + "    List<String> result = new ArrayList<String>();\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"url\")) {\n"
-        + "        result.add(matcher.group(3));\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return result;\n"
+        + "    return new ArrayList<String>(getCommentValues(\"_0\", \"url\"));\n"
         + "  }\n\n"
         + "  public List<String> getAttributesOfHrefOnUrl() {\n"
         + "    List<String> result = new ArrayList<String>();\n"
-        + "    for (WebElement e : driver.findElements(By.xpath(\"//*[@id='_0']\"))) {\n"
+        + "    for (WebElement e : driver.findElements(By.id(\"_0\"))) {\n"
         + "      result.add(e.getAttribute(\"href\"));\n"
         + "    }\n"
         + "    return result;\n"
-        + "  }" + TAIL;
+        + "  }" + tail("A__$url_", "_0", "url", "_0");
     assertEquals(expected, actual);
   }
 
@@ -556,9 +536,11 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
     updater.generate(templateInfo);
     String actual = generator.generate(templateInfo, "", "Test");
     String expected = HEAD
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement A__$v2_;\n"
-        + "  @FindBy(how = How.XPATH, using = \"//*[@id='_0']\")\n"
+        + "  @FindBy(how = How.ID, using = \"_0\")\n"
+        + "  @CacheLookup\n"
         + "  private WebElement v2;\n\n"
         + "  public WebElement getElementOfA__$v2_() {\n"
         + "    return A__$v2_;\n"
@@ -567,14 +549,25 @@ public class TestCodeGeneratorWithoutClassAttributeTest {
         + "    return v2;\n"
         + "  }\n\n"
         + "  public String getTextOfV2() {\n"
-        + "    Matcher matcher = commentPattern.matcher(driver.getPageSource());\n"
-        + "    while (matcher.find()) {\n"
-        + "      if (matcher.group(1).equals(\"_0\") && matcher.group(2).equals(\"v2\")) {\n"
-        + "        return matcher.group(3);\n"
-        + "      }\n"
-        + "    }\n"
-        + "    return null;\n"
-        + "  }" + TAIL;
+        + "    List<String> values = getCommentValues(\"_0\", \"v2\");\n"
+        + "    return values.isEmpty() ? null : values.get(0);\n"
+        + "  }" + tail("A__$v2_", "_0", "v2", "_0");
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void importCacheLookupInUpdatedCode() throws PageObjectUpdateException {
+    TemplateInfo templateInfo =
+        new TemplateInfo("", new ArrayList<HtmlTagInfo>(), new IntRangeSet());
+    String code = "package ;\n\n"
+        + "import org.openqa.selenium.By;\n\n"
+        + "public class TestPage extends AbstractPage {\n"
+        + "  " + TestCodeGenerator.GENERATED_CODE_START_MARK + "\n"
+        + "  " + TestCodeGenerator.GENERATED_CODE_END_MARK + "\n}\n";
+    String actual = generator.update(templateInfo, code);
+    assertTrue(actual.startsWith("package ;\n\n"
+        + "import org.openqa.selenium.support.CacheLookup;\n"
+        + "import org.openqa.selenium.By;\n\n"));
+    assertEquals(actual, generator.update(templateInfo, actual));
+  }
 }
@@ -0,0 +1,73 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ControlFlowLexer}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class ControlFlowLexerTest {
+  private final ControlFlowLexer lexer = new ControlFlowLexer("{",
+      Pattern.compile("\\{call\\s+([^\\s/}]+)"), Pattern.compile("\\{for"),
+      Pattern.compile("\\{/for"), Pattern.compile("\\{call\\s+[^\\s/}]+\\}"));
+
+  @Test
+  public void lexAllKindsInSingleScan() {
+    String template = "{for $i in $l}{call .t1/}{/for}{$v}{call .t2}{/call}";
+    ControlFlowLexer.Tokens tokens = lexer.lex(template);
+    assertArrayEquals(new int[] { 14, 35 }, tokens.getIndexes(0));
+    assertEquals(".t1", tokens.getName(0, 0));
+    assertEquals(".t2", tokens.getName(0, 1));
+    assertArrayEquals(new int[] { 0 }, tokens.getIndexes(1));
+    assertArrayEquals(new int[] { 25 }, tokens.getIndexes(2));
+    assertNull(tokens.getName(1, 0));
+    // Self-closing calls are not the start tags of calls
+    assertArrayEquals(new int[] { 35 }, tokens.getIndexes(3));
+  }
+
+  @Test
+  public void lexPatternsWithoutLiteralAfterDelimiter() {
+    ControlFlowLexer scriptletLexer = new ControlFlowLexer("<%", Pattern.compile("<%\\s*for"),
+        Pattern.compile("<%\\s*}"), Pattern.compile("<%/?if"),
+        Pattern.compile("<%end", Pattern.CASE_INSENSITIVE));
+    String template = "<% for (x) { %><%if%><%/if%><%END%><% } %>";
+    ControlFlowLexer.Tokens tokens = scriptletLexer.lex(template);
+    assertArrayEquals(new int[] { 0 }, tokens.getIndexes(0));
+    assertArrayEquals(new int[] { 35 }, tokens.getIndexes(1));
+    assertArrayEquals(new int[] { 15, 21 }, tokens.getIndexes(2));
+    assertArrayEquals(new int[] { 28 }, tokens.getIndexes(3));
+  }
+
+  @Test
+  public void lexTemplateWithoutTokens() {
+    ControlFlowLexer.Tokens tokens = lexer.lex("<html>{$v}</html>");
+    for (int kind = 0; kind < 4; kind++) {
+      assertEquals(0, tokens.count(kind));
+    }
+  }
+}
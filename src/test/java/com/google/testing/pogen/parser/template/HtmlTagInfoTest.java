@@ -0,0 +1,83 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link HtmlTagInfo} and {@link VariableInfo}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class HtmlTagInfoTest {
+  @Test
+  public void keepVariablesInOrderOfAddition() {
+    HtmlTagInfo tagInfo = new HtmlTagInfo(null, 0, 100);
+    assertTrue(tagInfo.getVariableInfos().isEmpty());
+    for (int i = 9; i >= 0; i--) {
+      tagInfo.addVariableInfo("{$v" + i + "}", "v" + i, 10 - i);
+    }
+    tagInfo.addVariableInfo("{$v5}", "v5", 20, "href");
+    List<VariableInfo> varInfos = ImmutableList.copyOf(tagInfo.getVariableInfos());
+    assertEquals(10, varInfos.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("v" + (9 - i), varInfos.get(i).getName());
+    }
+    // The same template variable is merged into the first one
+    assertEquals(5, varInfos.get(4).getStartIndex());
+    assertEquals(ImmutableList.of("href"),
+        ImmutableList.copyOf(varInfos.get(4).getSortedAttributeNames()));
+  }
+
+  @Test
+  public void sortAttributeNames() {
+    VariableInfo varInfo = new VariableInfo("{$url}", "url", 0, false, false);
+    assertTrue(varInfo.getSortedAttributeNames().isEmpty());
+    varInfo.addAttributeName("title");
+    varInfo.addAttributeName("alt");
+    varInfo.addAttributeName("title");
+    varInfo.addAttributeName("href");
+    assertEquals(ImmutableList.of("alt", "href", "title"),
+        ImmutableList.copyOf(varInfo.getSortedAttributeNames()));
+    assertFalse(varInfo.getSortedAttributeNames().contains("src"));
+  }
+
+  @Test
+  public void internNames() {
+    HtmlTagInfo tagInfo1 = new HtmlTagInfo(null, 0, 10);
+    tagInfo1.addVariableInfo("{$a.b}", new String("a.b"), 3, new String("href"));
+    HtmlTagInfo tagInfo2 = new HtmlTagInfo(null, 20, 30);
+    tagInfo2.addVariableInfo("{$a.b}", new String("a.b"), 23, new String("href"));
+    VariableInfo varInfo1 = tagInfo1.getVariableInfos().iterator().next();
+    VariableInfo varInfo2 = tagInfo2.getVariableInfos().iterator().next();
+    assertSame(varInfo1.getName(), varInfo2.getName());
+    assertSame(tagInfo1.getVariableKey(0), tagInfo2.getVariableKey(0));
+    assertSame(varInfo1.getSortedAttributeNames().iterator().next(), varInfo2
+        .getSortedAttributeNames().iterator().next());
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+/**
+ * Tests for {@link IntRangeSet}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class IntRangeSetTest {
+  @Test
+  public void addDisjointRanges() {
+    IntRangeSet set = new IntRangeSet();
+    set.add(10, 20);
+    set.add(0, 5);
+    set.add(30, 40);
+    assertEquals("{[0..5), [10..20), [30..40)}", set.toString());
+    assertTrue(set.contains(0));
+    assertFalse(set.contains(5));
+    assertTrue(set.contains(19));
+    assertFalse(set.contains(25));
+  }
+
+  @Test
+  public void mergeConnectedRanges() {
+    IntRangeSet set = new IntRangeSet();
+    set.add(0, 5);
+    set.add(10, 20);
+    set.add(30, 40);
+    set.add(5, 10);
+    assertEquals("{[0..20), [30..40)}", set.toString());
+    set.add(15, 35);
+    assertEquals("{[0..40)}", set.toString());
+    set.add(50, 50);
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void behaveLikeTreeRangeSet() {
+    Random random = new Random(0);
+    for (int n = 0; n < 100; n++) {
+      IntRangeSet set = new IntRangeSet();
+      RangeSet<Integer> expected = TreeRangeSet.create();
+      for (int i = 0; i < 20; i++) {
+        int lower = random.nextInt(100);
+        int upper = lower + random.nextInt(10);
+        set.add(lower, upper);
+        expected.add(Range.closedOpen(lower, upper));
+      }
+      assertEquals(expected.asRanges().size(), set.size());
+      for (int index = -1; index <= 110; index++) {
+        assertEquals(expected.contains(index), set.contains(index));
+      }
+    }
+  }
+
+  @Test
+  public void copyRangeSet() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Range.closedOpen(0, 5));
+    rangeSet.add(Range.closed(10, 20));
+    rangeSet.add(Range.open(30, 40));
+    rangeSet.add(Range.open(50, 51));
+    assertEquals("{[0..5), [10..21), [31..40)}", IntRangeSet.copyOf(rangeSet).toString());
+  }
+}
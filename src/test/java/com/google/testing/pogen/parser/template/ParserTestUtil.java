@@ -15,13 +15,16 @@
 
 package com.google.testing.pogen.parser.template;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
 import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.RangeSet;
 
 /**
  * A utility class for parser tests.
@@ -37,8 +40,17 @@ public class ParserTestUtil {
   }
 
   public static List<String> getCommandsInRanges(TemplateParser parser, String template,
-      @Nullable RangeSet<Integer> ranges) throws TemplateParseException {
-    List<HtmlTagInfo> tags = parser.parseTagsContainingVariables(template);
+      @Nullable IntRangeSet ranges) throws TemplateParseException {
+    return getCommandsInRanges(parser.parseTagsContainingVariables(template), ranges);
+  }
+
+  public static List<String> getCommandsByStreaming(TemplateParser parser, String template)
+      throws TemplateParseException {
+    return getCommandsInRanges(parser.parseTags(new StringReader(template)), null);
+  }
+
+  private static List<String> getCommandsInRanges(List<HtmlTagInfo> tags,
+      @Nullable IntRangeSet ranges) {
     List<String> commands = Lists.newArrayList();
     for (HtmlTagInfo tag : tags) {
       for (VariableInfo var : tag.getVariableInfos()) {
@@ -50,4 +62,32 @@ public class ParserTestUtil {
     Collections.sort(commands);
     return commands;
   }
+
+  public static void assertSameInfo(TemplateInfo expected, TemplateInfo actual) {
+    assertEquals(expected.getTemplate(), actual.getTemplate());
+    assertEquals(expected.getRepeatedRanges(), actual.getRepeatedRanges());
+    assertEquals(expected.getHtmlTagInfos().size(), actual.getHtmlTagInfos().size());
+    for (int i = 0; i < expected.getHtmlTagInfos().size(); i++) {
+      HtmlTagInfo expectedTag = expected.getHtmlTagInfos().get(i);
+      HtmlTagInfo actualTag = actual.getHtmlTagInfos().get(i);
+      assertEquals(expectedTag.getAttributeValue(), actualTag.getAttributeValue());
+      assertEquals(expectedTag.getStartIndex(), actualTag.getStartIndex());
+      assertEquals(expectedTag.getEndIndex(), actualTag.getEndIndex());
+      assertEquals(expectedTag.getIdValue(), actualTag.getIdValue());
+      assertEquals(expectedTag.getNameValue(), actualTag.getNameValue());
+      List<VariableInfo> expectedVars = ImmutableList.copyOf(expectedTag.getVariableInfos());
+      List<VariableInfo> actualVars = ImmutableList.copyOf(actualTag.getVariableInfos());
+      assertEquals(expectedVars.size(), actualVars.size());
+      for (int j = 0; j < expectedVars.size(); j++) {
+        VariableInfo expectedVar = expectedVars.get(j);
+        VariableInfo actualVar = actualVars.get(j);
+        assertEquals(expectedVar.getPrintCommandText(), actualVar.getPrintCommandText());
+        assertEquals(expectedVar.getName(), actualVar.getName());
+        assertEquals(expectedVar.getStartIndex(), actualVar.getStartIndex());
+        assertEquals(expectedVar.isContainedByText(), actualVar.isContainedByText());
+        assertEquals(expectedVar.isManipulableTag(), actualVar.isManipulableTag());
+        assertEquals(expectedVar.getSortedAttributeNames(), actualVar.getSortedAttributeNames());
+      }
+    }
+  }
 }
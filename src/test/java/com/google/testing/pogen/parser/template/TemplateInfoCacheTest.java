@@ -0,0 +1,139 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static com.google.testing.pogen.parser.template.ParserTestUtil.assertSameInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link TemplateInfoCache}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class TemplateInfoCacheTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CountingParser parser;
+
+  @Before
+  public void setUp() {
+    parser = new CountingParser("id");
+  }
+
+  /**
+   * A parser which returns fixed results and counts the parsed templates.
+   */
+  private static class CountingParser extends TemplateParser {
+    private int parseCount;
+
+    CountingParser(String attributeName) {
+      super(attributeName);
+    }
+
+    @Override
+    protected RegexVariableExtractor createVariableExtractor() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected List<HtmlTagInfo> parseTagsContainingVariables(String template) {
+      parseCount++;
+      HtmlTagInfo tagInfo = new HtmlTagInfo(null, 0, template.length());
+      tagInfo.setIdValue("title");
+      tagInfo.addVariableInfo("{$a.b}", "a.b", 3);
+      tagInfo.addVariableInfo("{$a_dot_b}", "a_dot_b", 9);
+      tagInfo.addVariableInfo("{$c}", "c", 15, "href");
+      tagInfo.addManipulableTag("c", 15);
+      return Lists.newArrayList(tagInfo, new HtmlTagInfo("_0", -1, -1));
+    }
+
+    @Override
+    protected IntRangeSet parseRepeatedPart(String template) {
+      IntRangeSet ranges = new IntRangeSet();
+      ranges.add(0, 1);
+      return ranges;
+    }
+  }
+
+  @Test
+  public void restoreParseResults() throws TemplateParseException {
+    TemplateInfoCache cache = new TemplateInfoCache(folder.getRoot(), 1024 * 1024);
+    TemplateInfo parsed = cache.parse("<p>{$a.b}{$a_dot_b}{$c}</p>", parser, "");
+    TemplateInfo restored = cache.parse("<p>{$a.b}{$a_dot_b}{$c}</p>", parser, "");
+    assertEquals(1, parser.parseCount);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertSameInfo(parsed, restored);
+    assertTrue(restored.isRepeated(restored.getHtmlTagInfos().get(0)));
+    assertNull(restored.getHtmlTagInfos().get(0).getAttributeValue());
+  }
+
+  @Test
+  public void shareParseResultsBetweenInstances() throws TemplateParseException {
+    new TemplateInfoCache(folder.getRoot(), 1024 * 1024).parse("<p>{$c}</p>", parser, "");
+    TemplateInfoCache cache = new TemplateInfoCache(folder.getRoot(), 1024 * 1024);
+    cache.parse("<p>{$c}</p>", parser, "");
+    assertEquals(1, parser.parseCount);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void distinguishKeys() throws TemplateParseException {
+    TemplateInfoCache cache = new TemplateInfoCache(folder.getRoot(), 1024 * 1024);
+    cache.parse("<p>{$c}</p>", parser, "");
+    cache.parse("<p>{$c}</p>", parser, "ns.t1");
+    cache.parse("<p>{$c}</p>", new CountingParser("class"), "");
+    cache.parse("<p>{$d}</p>", parser, "");
+    assertEquals(0, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsedEntries() throws TemplateParseException {
+    File dir = folder.getRoot();
+    TemplateInfoCache cache = new TemplateInfoCache(dir, 1024 * 1024);
+    cache.parse("<p>{$c}</p>", parser, "");
+    long entryBytes = dir.listFiles()[0].length();
+
+    cache = new TemplateInfoCache(dir, entryBytes * 2);
+    cache.parse("<p>{$d}</p>", parser, "");
+    // Use the first entry to evict the second one
+    cache.parse("<p>{$c}</p>", parser, "");
+    cache.parse("<p>{$e}</p>", parser, "");
+    assertEquals(2, dir.listFiles().length);
+    cache.parse("<p>{$c}</p>", parser, "");
+    assertEquals(2, cache.getHitCount());
+    cache.parse("<p>{$d}</p>", parser, "");
+    assertEquals(4, parser.parseCount);
+    assertEquals(2, dir.listFiles().length);
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static com.google.testing.pogen.parser.template.ParserTestUtil.assertSameInfo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link TemplateInfoWriter} and {@link TemplateInfoReader}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class TemplateInfoFormatTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String TEMPLATE = "<ul><li><a href=\"{$a.b}\">{$a_dot_b}</a>{$c}</li></ul>";
+
+  private TemplateInfo templateInfo;
+
+  @Before
+  public void setUp() {
+    List<HtmlTagInfo> tagInfos = Lists.newArrayList();
+    HtmlTagInfo tagInfo = new HtmlTagInfo("_0", 8, 41);
+    tagInfo.setIdValue("title");
+    tagInfo.addVariableInfo("{$a.b}", "a.b", 17, "href");
+    tagInfo.addVariableInfo("{$a_dot_b}", "a_dot_b", 25);
+    tagInfo.addManipulableTag("a_dot_b", 25);
+    tagInfos.add(tagInfo);
+    HtmlTagInfo outerTagInfo = new HtmlTagInfo(null, 4, 45);
+    outerTagInfo.setNameValue("item");
+    outerTagInfo.addVariableInfo("{$c}", "c", 39);
+    tagInfos.add(outerTagInfo);
+    tagInfos.add(new HtmlTagInfo("_1", -1, -1));
+    IntRangeSet ranges = new IntRangeSet();
+    ranges.add(4, 10);
+    ranges.add(20, 45);
+    templateInfo = new TemplateInfo(TEMPLATE, tagInfos, ranges);
+  }
+
+  @Test
+  public void decodeEncodedInfo() throws IOException {
+    TemplateInfoWriter writer = new TemplateInfoWriter();
+    TemplateInfoReader reader = new TemplateInfoReader();
+    // Reuse the buffers of the writer and the reader
+    for (int i = 0; i < 2; i++) {
+      assertSameInfo(templateInfo, reader.decode(writer.encode(templateInfo), TEMPLATE));
+    }
+  }
+
+  @Test
+  public void readWrittenFile() throws IOException {
+    File file = folder.newFile("info.tinfo");
+    TemplateInfoWriter writer = new TemplateInfoWriter();
+    TemplateInfoReader reader = new TemplateInfoReader();
+    // Overwrite and reread the file, which must not be kept open or mapped
+    for (int i = 0; i < 2; i++) {
+      writer.write(templateInfo, file);
+      assertSameInfo(templateInfo, reader.read(file, TEMPLATE));
+    }
+    assertTrue(file.delete());
+  }
+
+  @Test
+  public void internStrings() throws IOException {
+    List<HtmlTagInfo> tagInfos = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      HtmlTagInfo tagInfo = new HtmlTagInfo("repeated_attribute_value", i * 10, i * 10 + 5);
+      tagInfo.addVariableInfo("{$repeated_variable_name}", "repeated_variable_name", i * 10 + 1,
+          "repeated_attribute_name");
+      tagInfos.add(tagInfo);
+    }
+    ByteBuffer encoded =
+        new TemplateInfoWriter().encode(new TemplateInfo(TEMPLATE, tagInfos, new IntRangeSet()));
+    // Each tag takes a few bytes of references and small offsets besides the strings
+    assertTrue(encoded.remaining() < 100 * 16);
+    TemplateInfo decoded = new TemplateInfoReader().decode(encoded, TEMPLATE);
+    assertEquals(100, decoded.getHtmlTagInfos().size());
+    assertTrue(decoded.getHtmlTagInfos().get(0).getAttributeValue() == decoded.getHtmlTagInfos()
+        .get(99).getAttributeValue());
+  }
+
+  @Test
+  public void rejectBrokenBuffers() {
+    ByteBuffer encoded = new TemplateInfoWriter().encode(templateInfo);
+    byte[] bytes = new byte[encoded.remaining()];
+    encoded.get(bytes);
+    assertBroken(ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+    assertBroken(ByteBuffer.wrap(bytes, 1, bytes.length - 1));
+    assertBroken(ByteBuffer.wrap(new byte[] { -1, -1, -1, -1, -1, -1 }));
+  }
+
+  private void assertBroken(ByteBuffer buffer) {
+    try {
+      new TemplateInfoReader().decode(buffer, TEMPLATE);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.xml.sax.InputSource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.testing.pogen.parser.template.ejs.EjsVariableExtractor;
+import com.google.testing.pogen.parser.template.ejs.EjsVariableMatcher;
+import com.google.testing.pogen.parser.template.erb.ErbVariableExtractor;
+import com.google.testing.pogen.parser.template.jsp.JspVariableExtractor;
+import com.google.testing.pogen.parser.template.jsp.JspVariableMatcher;
+import com.google.testing.pogen.parser.template.soy.SoyVariableExtractor;
+import com.google.testing.pogen.parser.template.soy.SoyVariableMatcher;
+
+/**
+ * Tests for {@link VariableMatcher} implementations, which compare the hand-written matchers with
+ * the regular expressions used before.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class VariableMatcherTest {
+  private static final Pattern SOY_PATTERN = Pattern.compile("\\{\\$([^{|]*)(|[^{]*)?\\}");
+  private static final Pattern EJS_PATTERN = Pattern.compile("<%=\\s*(.*?)%>");
+  private static final Pattern JSP_PATTERN = Pattern.compile("<%=\\s*(.*?)%>|\\$\\{([^{]*)\\}");
+  private static final Pattern JSF_PATTERN =
+      Pattern.compile("#\\{([^\"'][^{|]*[^\"']||[^{]*[^{\\s\"'][^{]*)\\}");
+  private static final Pattern GROOVY_PATTERN =
+      Pattern.compile("\\@\\{([^{]*)\\}|\\$\\{([^{]*)\\}");
+
+  private static List<String> findAll(VariableMatcher matcher, CharSequence input) {
+    List<String> matches = Lists.newArrayList();
+    matcher.reset(input);
+    while (matcher.find()) {
+      matches.add(input.subSequence(matcher.start(), matcher.end()) + "="
+          + input.subSequence(matcher.nameStart(), matcher.nameEnd()) + "@" + matcher.nameStart());
+    }
+    return matches;
+  }
+
+  private static void assertSameMatches(Pattern pattern, VariableMatcher matcher, String input) {
+    assertEquals(input, findAll(new RegexVariableMatcher(pattern), input), findAll(matcher, input));
+    assertEquals(input, findAll(new RegexVariableMatcher(pattern), new StringBuilder(input)),
+        findAll(matcher, new StringBuilder(input)));
+  }
+
+  @Test
+  public void findFirstAvailableGroup() {
+    VariableMatcher matcher =
+        new RegexVariableMatcher(Pattern.compile("<%=\\s*(.*?)%>|\\$\\{([^{]*)\\}"));
+    assertEquals(ImmutableList.of("${a}=a@2", "<%= b %>=b @8"), findAll(matcher, "${a}<%= b %>"));
+  }
+
+  @Test
+  public void findSoyVariablesLikeRegex() {
+    VariableMatcher matcher = new SoyVariableMatcher();
+    for (String input : ImmutableList.of("", "{$a}", "x{$a}y{$b.c}z", "{$a|escapeUri}",
+        "{$a|noAutoescape}}{$b}", "{$a} x} {$b}", "{$a", "{${$a}", "{$}", "{$a|b", "{$a|}x}{",
+        "{$a}}|}", "{{$$a}}", "{$a|b|c}", "{$a{$b}}")) {
+      assertSameMatches(SOY_PATTERN, matcher, input);
+    }
+  }
+
+  @Test
+  public void findEjsVariablesLikeRegex() {
+    VariableMatcher matcher = new EjsVariableMatcher();
+    for (String input : ImmutableList.of("", "<%=a%>", "<%= a %>x<%=\tb%>", "<%=  %>", "<%=a",
+        "<%=a\n%><%=b%>", "<%=\n\n a %>", "<%=<%=a%>", "<%= a%%>", "<%= a %\n>", "<%=a %>",
+        "<%= a \u0085 %>", "<%<%=a%>%>", "<%=%>%>")) {
+      assertSameMatches(EJS_PATTERN, matcher, input);
+    }
+  }
+
+  @Test
+  public void findJspVariablesLikeRegex() {
+    VariableMatcher matcher = new JspVariableMatcher();
+    for (String input : ImmutableList.of("${a}", "<%= a %>${b}", "${a}}{", "${a", "$${a}",
+        "${<%=a%>}", "<%=${a}%>", "${a}x}${b}", "${}")) {
+      assertSameMatches(JSP_PATTERN, matcher, input);
+    }
+  }
+
+  @Test
+  public void skipInputsWithoutSentinels() {
+    VariableMatcher matcher = new RegexVariableMatcher(GROOVY_PATTERN, "@{", "${");
+    assertEquals(ImmutableList.of(), findAll(matcher, "plain {a} $ @ text"));
+    assertEquals(ImmutableList.of("@{a}=a@2", "${b}=b@6"), findAll(matcher, "@{a}${b}"));
+  }
+
+  @Test
+  public void matchLikeRegexForRandomInputs() {
+    Random random = new Random(20111017);
+    assertRandomMatches(random, SOY_PATTERN, new SoyVariableMatcher(), "{", "}", "$", "|", "a",
+        " ", "{$");
+    assertRandomMatches(random, EJS_PATTERN, new EjsVariableMatcher(), "<", "%", "=", ">", "a",
+        " ", "\t", "\n", "\r", "<%=", "%>");
+    assertRandomMatches(random, JSP_PATTERN, new JspVariableMatcher(), "<", "%", "=", ">", "{",
+        "}", "$", "a", " ", "\n", "<%=", "%>", "${");
+    assertRandomMatches(random, JSF_PATTERN, new RegexVariableMatcher(JSF_PATTERN, "#{"), "#",
+        "{", "}", "|", "'", "\"", "a", " ", "#{");
+    assertRandomMatches(random, GROOVY_PATTERN, new RegexVariableMatcher(GROOVY_PATTERN, "@{",
+        "${"), "@", "$", "{", "}", "a", " ", "${", "@{");
+  }
+
+  private static void assertRandomMatches(Random random, Pattern pattern,
+      VariableMatcher matcher, String... tokens) {
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder input = new StringBuilder();
+      int length = random.nextInt(16);
+      for (int j = 0; j < length; j++) {
+        input.append(tokens[random.nextInt(tokens.length)]);
+      }
+      assertSameMatches(pattern, matcher, input.toString());
+    }
+  }
+
+  @Test
+  public void extractSameVariablesAsRegex() throws Exception {
+    String soy =
+        "<div title='{$t|escapeHtml}' class='c'>{$a}<p>{$b.c} x {$d}</p><a href='{$url}'>"
+            + "{$text}</a></div>";
+    assertSameVariables(soy, new SoyVariableExtractor(new IntRangeSet(), "id"),
+        new SoyVariableExtractor(new IntRangeSet(), "id") {
+          @Override
+          protected VariableMatcher createVariableMatcher() {
+            return new RegexVariableMatcher(SOY_PATTERN);
+          }
+        });
+    String ejs = "<div title='<%= t %>'><%=a%><p><%= b.c %> <%= d\n%></p></div>";
+    assertSameVariables(ejs, new EjsVariableExtractor(new IntRangeSet(), "id"),
+        new EjsVariableExtractor(new IntRangeSet(), "id") {
+          @Override
+          protected VariableMatcher createVariableMatcher() {
+            return new RegexVariableMatcher(EJS_PATTERN);
+          }
+        });
+    assertSameVariables(ejs, new ErbVariableExtractor(new IntRangeSet(), "id"),
+        new ErbVariableExtractor(new IntRangeSet(), "id") {
+          @Override
+          protected VariableMatcher createVariableMatcher() {
+            return new RegexVariableMatcher(EJS_PATTERN);
+          }
+        });
+    String jsp = "<div title='${t}'><%=a%><p>${b.c} <%= d %>${e}</p></div>";
+    assertSameVariables(jsp, new JspVariableExtractor(new IntRangeSet(), "id"),
+        new JspVariableExtractor(new IntRangeSet(), "id") {
+          @Override
+          protected VariableMatcher createVariableMatcher() {
+            return new RegexVariableMatcher(JSP_PATTERN);
+          }
+        });
+  }
+
+  private static void assertSameVariables(String template, RegexVariableExtractor extractor,
+      RegexVariableExtractor regexExtractor) throws Exception {
+    extractor.parse(new InputSource(new StringReader(template)));
+    regexExtractor.parse(new InputSource(new StringReader(template)));
+    ParserTestUtil.assertSameInfo(
+        new TemplateInfo(template, regexExtractor.getSortedHtmlTagInfos(), new IntRangeSet()),
+        new TemplateInfo(template, extractor.getSortedHtmlTagInfos(), new IntRangeSet()));
+  }
+}
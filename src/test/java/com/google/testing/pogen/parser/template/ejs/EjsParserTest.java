@@ -25,9 +25,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import com.google.common.collect.RangeSet;
+import com.google.common.collect.Lists;
+import com.google.testing.pogen.parser.template.HtmlTagInfo;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.ParserTestUtil;
 import com.google.testing.pogen.parser.template.TemplateParseException;
+import com.google.testing.pogen.parser.template.VariableInfo;
 import com.google.testing.pogen.parser.template.soy.SoyParser;
 
 /**
@@ -55,9 +58,28 @@ public class EjsParserTest {
   @Test
   public void testParseRepeatedPart() throws TemplateParseException {
     String template = "<%=v1%><%for(var i=0; i<10; i++){%><%=v2%><%}%><%=v3%>";
-    RangeSet<Integer> ranges = parser.parseRepeatedPart(template);
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
     List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
     List<String> expected = Arrays.asList("v2");
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void testKeepResultsOfReusedExtractor() throws TemplateParseException {
+    List<HtmlTagInfo> first = parser.parseTagsContainingVariables("<p><%=v1%></p>");
+    List<HtmlTagInfo> second =
+        new EjsParser("id").parseTagsContainingVariables("<p><%=v2%></p><p><%=v3%></p>");
+    assertEquals(Arrays.asList("v1"), getNames(first));
+    assertEquals(Arrays.asList("v2", "v3"), getNames(second));
+  }
+
+  private static List<String> getNames(List<HtmlTagInfo> tagInfos) {
+    List<String> names = Lists.newArrayList();
+    for (HtmlTagInfo tagInfo : tagInfos) {
+      for (VariableInfo varInfo : tagInfo.getVariableInfos()) {
+        names.add(varInfo.getName());
+      }
+    }
+    return names;
+  }
 }
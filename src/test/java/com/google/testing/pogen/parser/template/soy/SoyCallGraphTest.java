@@ -0,0 +1,60 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.soy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link SoyCallGraph}.
+ * 
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class SoyCallGraphTest {
+  @Test
+  public void propagateThroughChainedCalls() {
+    SoyCallGraph graph = new SoyCallGraph();
+    graph.addCall(".t1", ".t2", false);
+    graph.addCall(".t2", ".t3", false);
+    graph.addCall(".t4", ".t5", false);
+    graph.addCall(null, ".t1", true);
+    assertEquals(ImmutableSet.of(".t1", ".t2", ".t3"), graph.getRepeatedTemplates());
+  }
+
+  @Test
+  public void ignoreCallsOutsideTemplatesAndRepeatedParts() {
+    SoyCallGraph graph = new SoyCallGraph();
+    graph.addCall(null, ".t1", false);
+    assertTrue(graph.getRepeatedTemplates().isEmpty());
+  }
+
+  @Test
+  public void visitRecursiveCallsOnce() {
+    SoyCallGraph graph = new SoyCallGraph();
+    graph.addCall(".t1", ".t2", false);
+    graph.addCall(".t2", ".t1", false);
+    graph.addCall(".t2", ".t2", false);
+    graph.addCall(".t3", ".t2", true);
+    assertEquals(ImmutableSet.of(".t1", ".t2"), graph.getRepeatedTemplates());
+  }
+}
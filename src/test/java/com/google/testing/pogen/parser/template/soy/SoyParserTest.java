@@ -25,7 +25,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
-import com.google.common.collect.RangeSet;
+import com.google.testing.pogen.parser.template.IntRangeSet;
 import com.google.testing.pogen.parser.template.ParserTestUtil;
 import com.google.testing.pogen.parser.template.TemplateParseException;
 
@@ -46,7 +46,7 @@ public class SoyParserTest {
   @Test
   public void testParseRepeatedPartWithoutCall() throws TemplateParseException {
     String template = "{$v1}{template .t1}{$v2}{/template}{$v3}{foreach}{$v4}{/foreach}{$v5}";
-    RangeSet<Integer> ranges = parser.parseRepeatedPart(template);
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
     List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
     List<String> expected = Arrays.asList("v4");
     assertEquals(expected, actual);
@@ -56,7 +56,7 @@ public class SoyParserTest {
   public void testParseRepeatedPartWithCall() throws TemplateParseException {
     String template =
         "{$v1}{template .t1}{$v2}{/template}{$v3}{foreach}{$v4}{call .t1/}{/foreach}{$v5}";
-    RangeSet<Integer> ranges = parser.parseRepeatedPart(template);
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
     List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
     List<String> expected = Arrays.asList("v2", "v4");
     assertEquals(expected, actual);
@@ -67,7 +67,7 @@ public class SoyParserTest {
     String template =
         "{$v1}{template .t1}{$v2}{/template}{$v3}{template .t2}{$v4}{/template}"
             + "{$v5}{foreach}{$v6}{call .t2/}{/foreach}{$v7}";
-    RangeSet<Integer> ranges = parser.parseRepeatedPart(template);
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
     List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
     List<String> expected = Arrays.asList("v4", "v6");
     assertEquals(expected, actual);
@@ -78,12 +78,24 @@ public class SoyParserTest {
     String template =
         "{$v1}{template .t1}{$v2}{/template}{$v3}{template .t2}{$v4}{call .t1/}{/template}"
             + "{$v5}{foreach}{$v6}{call .t2/}{/foreach}{$v7}";
-    RangeSet<Integer> ranges = parser.parseRepeatedPart(template);
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
     List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
     List<String> expected = Arrays.asList("v2", "v4", "v6");
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testParseRepeatedPartWithCallChainedBackward() throws TemplateParseException {
+    String template =
+        "{$v1}{template .t1}{$v2}{call .t2/}{/template}{template .t2}{$v3}{call .t3/}{/template}"
+            + "{template .t3}{$v4}{call ns.external/}{/template}{template .t4}{$v5}{/template}"
+            + "{foreach}{$v6}{call .t1/}{/foreach}";
+    IntRangeSet ranges = parser.parseRepeatedPart(template);
+    List<String> actual = ParserTestUtil.getCommandsInRanges(parser, template, ranges);
+    List<String> expected = Arrays.asList("v2", "v3", "v4", "v6");
+    assertEquals(expected, actual);
+  }
+
   @Test
   public void testParseExcludedPart() throws TemplateParseException {
     String template =
@@ -93,4 +105,41 @@ public class SoyParserTest {
     List<String> expected = Arrays.asList("v1", "v4");
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void testParseExcludedPartByStreaming() throws TemplateParseException {
+    String template =
+        "<html>{$v1}<p>{call .t1}{param a}{$v2}{/param}</p>"
+            + "<p>{param b}<a href='{$v3}'></a>{/param}{/call}{$v4}</p></html>";
+    List<String> actual = ParserTestUtil.getCommandsByStreaming(parser, template);
+    List<String> expected = Arrays.asList("v1", "v4");
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testParseSameVariablesByStreaming() throws TemplateParseException {
+    String template =
+        "{$v1}{template .t1}{call .t1}{param a}{$v2}{/param}"
+            + "{param b}{$v3}{/param}{/call}{/template}{$v4}";
+    assertEquals(ParserTestUtil.getCommands(parser, template),
+        ParserTestUtil.getCommandsByStreaming(parser, template));
+  }
+
+  @Test
+  public void testReuseExtractorAfterBrokenTemplate() throws TemplateParseException {
+    try {
+      ParserTestUtil.getCommandsByStreaming(parser, "<html>{call .t1}{$v1}</html>");
+    } catch (TemplateParseException e) {
+      // expected
+    }
+    String template = "<html>{$v1}<p>{call .t1}{param a}{$v2}{/param}{/call}{$v3}</p></html>";
+    List<String> expected = Arrays.asList("v1", "v3");
+    assertEquals(expected, ParserTestUtil.getCommandsByStreaming(parser, template));
+    assertEquals(expected, ParserTestUtil.getCommands(new SoyParser("id"), template));
+  }
+
+  @Test(expected = TemplateParseException.class)
+  public void testParseBrokenExcludedPartByStreaming() throws TemplateParseException {
+    ParserTestUtil.getCommandsByStreaming(parser, "<html>{call .t1}{$v1}</html>");
+  }
 }
@@ -0,0 +1,131 @@
+// Copyright 2011 The PageObjectGenerator Authors.
+// Copyright 2011 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS-IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.testing.pogen.parser.template.soy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.common.io.Files;
+import com.google.testing.pogen.parser.template.IntRangeSet;
+
+/**
+ * Tests for {@link SoyTemplateIndex}.
+ *
+ * @author Kazunori Sakamoto
+ */
+@RunWith(JUnit4.class)
+public class SoyTemplateIndexTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String ITEM_TEMPLATE =
+      "{namespace item}{template .t1}<p>{$a}</p>{call .t2/}{/template}"
+          + "{template .t2}<p>{$b}</p>{/template}{template .t3}<p>{$c}</p>{/template}";
+  private static final String LIST_TEMPLATE =
+      "{namespace list}{template .t1}{foreach $a in $as}{call item.t1/}{/foreach}{/template}";
+
+  private File itemFile;
+  private File listFile;
+  private List<File> files;
+
+  @Before
+  public void setUp() throws IOException {
+    itemFile = write("item.soy", ITEM_TEMPLATE);
+    listFile = write("list.soy", LIST_TEMPLATE);
+    files = ImmutableList.of(itemFile, listFile, write("broken.soy", "{template .t1}"));
+  }
+
+  private File write(String path, String content) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private void assertIndex(SoyTemplateIndex index) {
+    assertTrue(index.isRepeated("item.t1"));
+    assertTrue(index.isRepeated("item.t2"));
+    assertFalse(index.isRepeated("item.t3"));
+    assertFalse(index.isRepeated("list.t1"));
+    assertEquals(itemFile, index.getFile("item.t2"));
+    assertEquals(Range.closedOpen(ITEM_TEMPLATE.indexOf("{template .t2"),
+        ITEM_TEMPLATE.indexOf("{/template}{template .t3")), index.getRange("item.t2"));
+    assertNull(index.getFile(".t1"));
+    assertEquals(ImmutableList.of("item.t1", "item.t2"),
+        ImmutableList.copyOf(index.getRepeatedTemplates(itemFile)));
+    assertTrue(index.getRepeatedTemplates(listFile).isEmpty());
+  }
+
+  @Test
+  public void resolveCallsAcrossFiles() throws IOException {
+    assertIndex(SoyTemplateIndex.build(files, Charsets.UTF_8, 1));
+  }
+
+  @Test
+  public void resolveCallsAcrossFilesInParallel() throws IOException {
+    assertIndex(SoyTemplateIndex.build(files, Charsets.UTF_8, 2));
+  }
+
+  @Test
+  public void parseRepeatedPartWithIndex() throws Exception {
+    SoyTemplateIndex index = SoyTemplateIndex.build(files, Charsets.UTF_8, 2);
+    IntRangeSet expected = new IntRangeSet();
+    expected.add(ITEM_TEMPLATE.indexOf("{template .t1"),
+        ITEM_TEMPLATE.indexOf("{/template}{template .t2"));
+    expected.add(ITEM_TEMPLATE.indexOf("{template .t2"),
+        ITEM_TEMPLATE.indexOf("{/template}{template .t3"));
+    assertEquals(expected, new SoyParser("id", index).parseRepeatedPart(ITEM_TEMPLATE));
+    assertTrue(new SoyParser("id").parseRepeatedPart(ITEM_TEMPLATE).isEmpty());
+  }
+
+  @Test
+  public void separateTemplatesWithoutNamespace() throws Exception {
+    String loopTemplate =
+        "{template .main}{foreach $x in $xs}{call .t1/}{/foreach}{/template}"
+            + "{template .t1}<p>{$a}</p>{/template}";
+    String otherTemplate = "{template .t1}<p>{$b}</p>{/template}";
+    File loopFile = write("loop.soy", loopTemplate);
+    File otherFile = write("other.soy", otherTemplate);
+    SoyTemplateIndex index =
+        SoyTemplateIndex.build(ImmutableList.of(loopFile, otherFile), Charsets.UTF_8, 1);
+
+    String loopName = SoyTemplateIndex.getFileNamespace(loopFile) + ".t1";
+    String otherName = SoyTemplateIndex.getFileNamespace(otherFile) + ".t1";
+    assertTrue(index.isRepeated(loopName));
+    assertFalse(index.isRepeated(otherName));
+    assertEquals(loopFile, index.getFile(loopName));
+    assertEquals(otherFile, index.getFile(otherName));
+    assertEquals(ImmutableList.of(loopName),
+        ImmutableList.copyOf(index.getRepeatedTemplates(loopFile)));
+    assertTrue(index.getRepeatedTemplates(otherFile).isEmpty());
+    assertTrue(new SoyParser("id", index, otherFile).parseRepeatedPart(otherTemplate).isEmpty());
+  }
+}